@@ -0,0 +1,60 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * LLM流式生成准入控制配置类
+ * 限制同时进行的上游生成数量（全局、每用户、每会话），超出时进入公平等待队列或直接拒绝
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "llm.admission")
+public class AdmissionConfig {
+
+    /**
+     * 是否启用准入控制
+     */
+    private boolean enabled = true;
+
+    /**
+     * 全局同时进行的上游流式生成数上限（协作聊天按参与角色数计）
+     */
+    private int maxConcurrent = 20;
+
+    /**
+     * 每个用户同时进行的请求数上限
+     */
+    private int maxPerUser = 2;
+
+    /**
+     * 每个会话（单聊或聊天室）同时进行的请求数上限
+     */
+    private int maxPerChat = 1;
+
+    /**
+     * 等待队列最大长度，超出时直接拒绝
+     */
+    private int maxQueueDepth = 100;
+
+    /**
+     * 每个用户最多排队的请求数，超出时直接拒绝
+     */
+    private int maxQueuedPerUser = 2;
+
+    /**
+     * 最长排队时间（毫秒），超时后拒绝
+     */
+    private long maxQueueWaitMs = 30000;
+
+    /**
+     * 尚无统计数据时，预计单个请求的占用时长（毫秒）
+     */
+    private long initialHoldEstimateMs = 8000;
+
+    /**
+     * 执行排队请求准入回调（构建prompt、发起生成）的线程数，与排队超时清理线程分开
+     */
+    private int dispatchThreads = 8;
+}
@@ -0,0 +1,35 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 聊天室最近消息缓冲配置类
+ * 控制进程内按聊天室缓存的最近消息条数、聊天室数量和空闲过期时间
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatroom.history-buffer")
+public class ChatroomHistoryConfig {
+
+    /**
+     * 是否启用最近消息缓冲；关闭时每次都从数据库读取
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每个聊天室保留的最近消息条数，读取条数超过该值时直接查询数据库
+     */
+    private int capacity = 20;
+
+    /**
+     * 最多缓存的聊天室数（超出后按LRU淘汰）
+     */
+    private int maxRooms = 2000;
+
+    /**
+     * 聊天室空闲过期时间（秒）
+     */
+    private long ttlSeconds = 1800;
+}
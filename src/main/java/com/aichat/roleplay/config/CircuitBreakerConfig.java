@@ -0,0 +1,46 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 上游依赖熔断配置类
+ * 每个上游依赖（流式对话、同步对话、语音识别、语音合成、文件上传）各自一个熔断器，
+ * 失败率超过阈值后快速失败，冷却结束后放行少量探测请求决定是否恢复
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "circuit-breaker")
+public class CircuitBreakerConfig {
+
+    /**
+     * 是否启用熔断
+     */
+    private boolean enabled = true;
+
+    /**
+     * 统计失败率的滑动窗口大小（最近N次调用）
+     */
+    private int slidingWindowSize = 20;
+
+    /**
+     * 窗口内至少多少次调用后才计算失败率
+     */
+    private int minimumCalls = 10;
+
+    /**
+     * 失败率达到该值后熔断
+     */
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * 熔断持续时间（毫秒），到期后进入半开状态
+     */
+    private long openDurationMs = 30000;
+
+    /**
+     * 半开状态放行的探测请求数，全部成功后恢复，任一失败重新熔断
+     */
+    private int halfOpenProbes = 2;
+}
@@ -0,0 +1,51 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 协作聊天调度配置类
+ * 聊天室编排（保存消息、选择角色）和各角色生成任务使用独立的有界线程池，
+ * 单个聊天室同时占用的角色线程数和单个角色的并发生成数均有上限，超出时向客户端发送拒绝事件
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatroom.scheduler")
+public class CollaborationSchedulerConfig {
+
+    /**
+     * 编排线程数
+     */
+    private int orchestrationThreads = 4;
+
+    /**
+     * 编排任务排队上限，超出时拒绝整个协作请求
+     */
+    private int orchestrationQueueCapacity = 64;
+
+    /**
+     * 角色任务线程数（构建prompt并启动流式生成）
+     */
+    private int roleThreads = 8;
+
+    /**
+     * 角色任务线程池的排队上限
+     */
+    private int roleQueueCapacity = 128;
+
+    /**
+     * 单个聊天室同时在角色线程池中执行的任务数，超出部分在该聊天室自己的队列中等待
+     */
+    private int maxRunningPerRoom = 2;
+
+    /**
+     * 单个聊天室自己的队列中最多等待的角色任务数
+     */
+    private int maxPendingPerRoom = 8;
+
+    /**
+     * 舱壁：单个角色在所有聊天室中同时进行的生成数（从提交到生成结束）
+     */
+    private int maxConcurrentPerRole = 16;
+}
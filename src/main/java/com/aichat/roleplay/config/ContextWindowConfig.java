@@ -0,0 +1,45 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 对话上下文窗口配置类
+ * 控制每轮对话带入prompt的历史消息token预算以及滚动摘要策略
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "context-window")
+public class ContextWindowConfig {
+
+    /**
+     * 是否启用上下文窗口（关闭后回退为加载全部历史）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 历史消息（含摘要）的token预算
+     */
+    private int maxHistoryTokens = 3000;
+
+    /**
+     * 每轮最多从数据库读取的最近消息条数
+     */
+    private int maxFetchMessages = 50;
+
+    /**
+     * 是否将超出窗口的旧消息压缩为滚动摘要
+     */
+    private boolean summaryEnabled = true;
+
+    /**
+     * 摘要的最大长度（字符数）
+     */
+    private int summaryMaxChars = 500;
+
+    /**
+     * 单次摘要最多合并的旧消息条数
+     */
+    private int summaryBatchSize = 40;
+}
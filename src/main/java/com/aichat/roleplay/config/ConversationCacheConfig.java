@@ -0,0 +1,35 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 会话缓存配置类
+ * 控制进程内按chatId缓存的最近消息窗口的容量、过期时间与内存上限
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "conversation-cache")
+public class ConversationCacheConfig {
+
+    /**
+     * 是否启用会话缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最多缓存的会话数（超出后按LRU淘汰）
+     */
+    private int maxChats = 2000;
+
+    /**
+     * 会话空闲过期时间（秒）
+     */
+    private long ttlSeconds = 1800;
+
+    /**
+     * 缓存占用内存上限（字节，按消息内容估算）
+     */
+    private long maxMemoryBytes = 64L * 1024 * 1024;
+}
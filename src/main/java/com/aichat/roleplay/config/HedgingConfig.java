@@ -0,0 +1,35 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 流式生成对冲请求配置类
+ * 首token在截止时间内未到达时再发起一个相同请求，先产出token的一方胜出，另一方被取消
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "llm.hedging")
+public class HedgingConfig {
+
+    /**
+     * 是否启用对冲请求
+     */
+    private boolean enabled = false;
+
+    /**
+     * 首token截止时间（毫秒），超过后发起对冲请求
+     */
+    private long firstTokenDeadlineMs = 3000;
+
+    /**
+     * 每个请求积累的对冲额度，发起一次对冲消耗1；最大为1.0，保证上游流量不超过原来的两倍
+     */
+    private double budgetRatio = 0.1;
+
+    /**
+     * 对冲额度的积累上限，用于限制突发的对冲数量
+     */
+    private double maxBudget = 10;
+}
@@ -0,0 +1,207 @@
+package com.aichat.roleplay.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 出站HTTP客户端配置
+ * RestTemplate基于Apache HttpClient连接池：按主机限制连接数、保持长连接、复用TLS会话，并在启动后预热连接
+ */
+@Configuration
+public class HttpClientConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpClientConfig.class);
+
+    private final HttpClientPoolConfig config;
+
+    public HttpClientConfig(HttpClientPoolConfig config) {
+        this.config = config;
+    }
+
+    @Bean
+    public PoolingHttpClientConnectionManager httpClientConnectionManager(MeterRegistry meterRegistry) {
+        // 共用一个SSLContext，客户端会话缓存按主机复用TLS会话，新连接只需简化握手
+        SSLContext sslContext = SSLContexts.createSystemDefault();
+        sslContext.getClientSessionContext().setSessionCacheSize(config.getTlsSessionCacheSize());
+        sslContext.getClientSessionContext().setSessionTimeout(config.getTlsSessionTimeoutSeconds());
+
+        ConnectionConfig.Builder connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(config.getConnectTimeoutMs()))
+                .setSocketTimeout(Timeout.ofMilliseconds(config.getResponseTimeoutMs()))
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(config.getValidateAfterInactivityMs()));
+        if (config.getConnectionTtlMs() > 0) {
+            connectionConfig.setTimeToLive(TimeValue.ofMilliseconds(config.getConnectionTtlMs()));
+        }
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setSSLSocketFactory(SSLConnectionSocketFactoryBuilder.create().setSslContext(sslContext).build())
+                .setMaxConnTotal(config.getMaxTotal())
+                .setMaxConnPerRoute(config.getMaxPerHost())
+                .setDefaultConnectionConfig(connectionConfig.build())
+                .setDefaultSocketConfig(SocketConfig.custom().setSoKeepAlive(true).setTcpNoDelay(true).build())
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                // 优先复用最近使用的连接，其余连接自然空闲并被清理
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .build();
+
+        config.getPerHostLimits().forEach((host, max) -> {
+            HttpRoute route = routeOf(host);
+            if (route != null) {
+                connectionManager.setMaxPerRoute(route, max);
+            }
+        });
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "outbound").bindTo(meterRegistry);
+        Gauge.builder("http.client.pool.utilization", connectionManager, HttpClientConfig::utilization)
+                .description("已租用连接数 / 最大连接数")
+                .register(meterRegistry);
+        for (String url : prewarmHosts()) {
+            HttpRoute route = routeOf(url);
+            if (route != null) {
+                Gauge.builder("http.client.pool.route.leased", connectionManager, cm -> cm.getStats(route).getLeased())
+                        .tag("host", route.getTargetHost().toURI())
+                        .register(meterRegistry);
+                Gauge.builder("http.client.pool.route.available", connectionManager, cm -> cm.getStats(route).getAvailable())
+                        .tag("host", route.getTargetHost().toURI())
+                        .register(meterRegistry);
+            }
+        }
+        return connectionManager;
+    }
+
+    @Bean
+    public CloseableHttpClient pooledHttpClient(PoolingHttpClientConnectionManager connectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(config.getConnectionRequestTimeoutMs()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(config.getResponseTimeoutMs()))
+                        // 服务端未返回Keep-Alive: timeout时使用的保持时长
+                        .setConnectionKeepAlive(TimeValue.ofMilliseconds(config.getKeepAliveMs()))
+                        .build())
+                // 优先采用服务端Keep-Alive头声明的时长，避免复用服务端已关闭的连接
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(config.getIdleEvictMs()))
+                .build();
+    }
+
+    /**
+     * 语音识别、语音合成和文件上传共用的RestTemplate
+     */
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient pooledHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(pooledHttpClient));
+    }
+
+    /**
+     * 启动完成后并发向各上游主机发送HEAD请求，提前完成TCP和TLS握手，连接归还连接池供首个请求复用
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm(ApplicationReadyEvent event) {
+        Set<String> hosts = prewarmHosts();
+        int perHost = Math.max(0, config.getPrewarmConnectionsPerHost());
+        if (hosts.isEmpty() || perHost == 0) {
+            return;
+        }
+        CloseableHttpClient client = event.getApplicationContext().getBean(CloseableHttpClient.class);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(8, hosts.size() * perHost), r -> {
+            Thread thread = new Thread(r, "http-prewarm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String host : hosts) {
+            for (int i = 0; i < perHost; i++) {
+                futures.add(CompletableFuture.runAsync(() -> prewarmOne(client, host), executor));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .whenComplete((v, e) -> executor.shutdown());
+    }
+
+    private void prewarmOne(CloseableHttpClient client, String host) {
+        long start = System.currentTimeMillis();
+        try {
+            int status = client.execute(new HttpHead(host + "/"), response -> response.getCode());
+            log.info("HTTP连接预热完成 - host: {}, status: {}, 耗时: {}ms", host, status, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("HTTP连接预热失败 - host: {}, {}", host, e.getMessage());
+        }
+    }
+
+    /**
+     * 预热地址去重后的 scheme://host[:port]
+     */
+    private Set<String> prewarmHosts() {
+        Set<String> hosts = new LinkedHashSet<>();
+        for (String url : config.getPrewarmUrls()) {
+            try {
+                URI uri = URI.create(url.trim());
+                if (uri.getScheme() != null && uri.getHost() != null) {
+                    hosts.add(uri.getScheme() + "://" + uri.getHost() + (uri.getPort() > 0 ? ":" + uri.getPort() : ""));
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("忽略无效的预热地址: {}", url);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * 与HttpClient路由规划一致的路由：补全默认端口，https为安全路由
+     */
+    private static HttpRoute routeOf(String url) {
+        try {
+            URI uri = URI.create(url.trim());
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+            return new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port), null, secure);
+        } catch (IllegalArgumentException e) {
+            log.warn("忽略无效的主机地址: {}", url);
+            return null;
+        }
+    }
+
+    private static double utilization(PoolingHttpClientConnectionManager connectionManager) {
+        PoolStats stats = connectionManager.getTotalStats();
+        return stats.getMax() == 0 ? 0 : (double) stats.getLeased() / stats.getMax();
+    }
+}
@@ -0,0 +1,90 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 出站HTTP连接池配置类
+ * 语音识别、语音合成和文件上传共用一个连接池，复用TCP连接和TLS会话，启动时预先建立连接
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "http.client")
+public class HttpClientPoolConfig {
+
+    /**
+     * 连接池最大连接数
+     */
+    private int maxTotal = 100;
+
+    /**
+     * 每个主机的默认最大连接数
+     */
+    private int maxPerHost = 20;
+
+    /**
+     * 按主机单独设置的最大连接数，key为 scheme://host[:port]
+     */
+    private Map<String, Integer> perHostLimits = new HashMap<>();
+
+    /**
+     * 建立连接超时（毫秒）
+     */
+    private long connectTimeoutMs = 10000;
+
+    /**
+     * 响应超时（毫秒），语音处理需要较长时间
+     */
+    private long responseTimeoutMs = 180000;
+
+    /**
+     * 从连接池获取连接的超时（毫秒）
+     */
+    private long connectionRequestTimeoutMs = 5000;
+
+    /**
+     * 服务端未声明Keep-Alive时长时，空闲连接的保持时间（毫秒）
+     */
+    private long keepAliveMs = 60000;
+
+    /**
+     * 空闲超过该时间的连接由后台清理（毫秒）
+     */
+    private long idleEvictMs = 30000;
+
+    /**
+     * 连接空闲超过该时间后，复用前先检查是否仍可用（毫秒）
+     */
+    private long validateAfterInactivityMs = 2000;
+
+    /**
+     * 连接最长存活时间（毫秒），到期后不再复用，0表示不限制
+     */
+    private long connectionTtlMs = 300000;
+
+    /**
+     * TLS会话缓存大小，新建连接时复用会话以跳过完整握手
+     */
+    private int tlsSessionCacheSize = 256;
+
+    /**
+     * TLS会话缓存有效期（秒）
+     */
+    private int tlsSessionTimeoutSeconds = 3600;
+
+    /**
+     * 启动时预先建立连接的地址（只取协议、主机和端口）
+     */
+    private List<String> prewarmUrls = new ArrayList<>();
+
+    /**
+     * 每个预热地址预先建立的连接数
+     */
+    private int prewarmConnectionsPerHost = 2;
+}
@@ -2,14 +2,28 @@ package com.aichat.roleplay.config;
 
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import com.aichat.roleplay.service.CircuitBreakerRegistry;
+import com.aichat.roleplay.util.CancellableStreaming;
+import com.aichat.roleplay.util.CancellableStreamingChatModel;
+import com.aichat.roleplay.util.CircuitBreakingChatModel;
+import com.aichat.roleplay.util.HedgingStreamingChatModel;
+import com.aichat.roleplay.util.LlmEndpointRouter;
+import com.aichat.roleplay.util.ModelCascadeRouter;
+import com.aichat.roleplay.util.PromptCacheMetrics;
+import com.aichat.roleplay.util.RoutingChatModel;
+import com.aichat.roleplay.util.RoutingStreamingChatModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
-import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class LangChain4jConfig {
@@ -39,47 +53,123 @@ public class LangChain4jConfig {
     private String ttsVoice;
 
 
+    /**
+     * 流式请求是否要求上游在结束时返回usage（含前缀缓存命中数）；不支持stream_options的兼容服务需关闭
+     */
+    @Value("${llm.include-usage:true}")
+    private boolean includeUsage;
+
+    private static final Duration MODEL_TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * 多端点路由器；llm.router.endpoints为空时以chat-model配置作为唯一端点
+     */
     @Bean
-    public StreamingChatLanguageModel streamingChatLanguageModel() {
-        return OpenAiStreamingChatModel.builder()
-                .baseUrl(chatBaseUrl)
-                .apiKey(chatApiKey)
-                .modelName(chatModelName)
-                .temperature(temperature)
-                .maxTokens(maxTokens)
-                .timeout(Duration.ofSeconds(60))
-                .build();
+    @ConditionalOnProperty(prefix = "llm.router", name = "enabled", havingValue = "true", matchIfMissing = true)
+    public LlmEndpointRouter llmEndpointRouter(LlmRouterConfig routerConfig, MeterRegistry meterRegistry,
+                                               PromptCacheMetrics promptCacheMetrics) {
+        List<LlmEndpointRouter.Endpoint> endpoints = new ArrayList<>();
+        List<LlmRouterConfig.Endpoint> configured = routerConfig.getEndpoints();
+        if (configured == null || configured.isEmpty()) {
+            endpoints.add(new LlmEndpointRouter.Endpoint("default", 1, routerConfig.getDefaultMaxConcurrent(),
+                    routerConfig.getDefaultMaxConcurrentSync(),
+                    buildStreamingModel(chatBaseUrl, chatApiKey, chatModelName, promptCacheMetrics),
+                    buildChatModel(chatBaseUrl, chatApiKey, chatModelName)));
+        } else {
+            for (int i = 0; i < configured.size(); i++) {
+                LlmRouterConfig.Endpoint endpoint = configured.get(i);
+                String baseUrl = endpoint.getBaseUrl() != null ? endpoint.getBaseUrl() : chatBaseUrl;
+                String apiKey = endpoint.getApiKey() != null ? endpoint.getApiKey() : chatApiKey;
+                String modelName = endpoint.getModelName() != null ? endpoint.getModelName() : chatModelName;
+                String name = endpoint.getName() != null ? endpoint.getName() : "endpoint-" + i;
+                int maxConcurrent = endpoint.getMaxConcurrent() > 0
+                        ? endpoint.getMaxConcurrent() : routerConfig.getDefaultMaxConcurrent();
+                int maxConcurrentSync = endpoint.getMaxConcurrentSync() > 0
+                        ? endpoint.getMaxConcurrentSync() : routerConfig.getDefaultMaxConcurrentSync();
+                endpoints.add(new LlmEndpointRouter.Endpoint(name, endpoint.getWeight(), maxConcurrent, maxConcurrentSync,
+                        buildStreamingModel(baseUrl, apiKey, modelName, promptCacheMetrics),
+                        buildChatModel(baseUrl, apiKey, modelName)));
+            }
+        }
+        return new LlmEndpointRouter(routerConfig, meterRegistry, endpoints);
     }
 
+    /**
+     * 流式模型使用可取消实现，支持流式反思提前中止生成；启用路由时按端点延迟和错误率分配请求，
+     * 启用对冲时首token超时会再发起一个请求
+     */
     @Bean
-    public ChatLanguageModel chatLanguageModel() {
-        return OpenAiChatModel.builder()
-                .baseUrl(chatBaseUrl)
-                .apiKey(chatApiKey)
-                .modelName(chatModelName)
-                .temperature(temperature)
-                .maxTokens(maxTokens)
-                .timeout(Duration.ofSeconds(60))
-                .build();
+    public StreamingChatLanguageModel streamingChatLanguageModel(LlmRouterConfig routerConfig,
+                                                                 ObjectProvider<LlmEndpointRouter> router,
+                                                                 HedgingConfig hedgingConfig,
+                                                                 MeterRegistry meterRegistry,
+                                                                 PromptCacheMetrics promptCacheMetrics) {
+        CancellableStreaming model = routerConfig.isEnabled()
+                ? new RoutingStreamingChatModel(router.getObject())
+                : buildStreamingModel(chatBaseUrl, chatApiKey, chatModelName, promptCacheMetrics);
+        if (hedgingConfig.isEnabled()) {
+            return new HedgingStreamingChatModel(model,
+                    hedgingConfig.getFirstTokenDeadlineMs(),
+                    hedgingConfig.getBudgetRatio(),
+                    hedgingConfig.getMaxBudget(),
+                    meterRegistry);
+        }
+        return model;
     }
 
+    /**
+     * 模型级联：简单轮次使用快速模型；快速模型未配置的地址和密钥沿用chat-model
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "llm.cascade", name = "enabled", havingValue = "true")
+    public ModelCascadeRouter modelCascadeRouter(ModelCascadeConfig cascadeConfig,
+                                                 EmbeddingModel embeddingModel,
+                                                 PromptCacheMetrics promptCacheMetrics,
+                                                 MeterRegistry meterRegistry) {
+        String baseUrl = cascadeConfig.getFastBaseUrl() != null ? cascadeConfig.getFastBaseUrl() : chatBaseUrl;
+        String apiKey = cascadeConfig.getFastApiKey() != null ? cascadeConfig.getFastApiKey() : chatApiKey;
+        String modelName = cascadeConfig.getFastModelName() != null ? cascadeConfig.getFastModelName() : chatModelName;
+        return new ModelCascadeRouter(cascadeConfig,
+                buildStreamingModel(baseUrl, apiKey, modelName, promptCacheMetrics),
+                modelName, embeddingModel, meterRegistry);
+    }
 
+    /**
+     * 同步模型外包一层熔断，上游故障时角色选择、摘要等调用快速失败并走各自的回退逻辑
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
-        
-        // 设置超时配置 - 语音处理需要更长的超时时间
-        restTemplate.getRequestFactory().getClass();
-        
-        // 使用SimpleClientHttpRequestFactory设置超时
-        org.springframework.http.client.SimpleClientHttpRequestFactory factory = 
-            new org.springframework.http.client.SimpleClientHttpRequestFactory();
-        
-        factory.setConnectTimeout(10000);  // 连接超时10秒
-        factory.setReadTimeout(180000);    // 读取超时3分钟（语音处理需要更长时间）
-        
-        restTemplate.setRequestFactory(factory);
-        return restTemplate;
+    public ChatLanguageModel chatLanguageModel(LlmRouterConfig routerConfig,
+                                               ObjectProvider<LlmEndpointRouter> router,
+                                               CircuitBreakerRegistry circuitBreakerRegistry) {
+        ChatLanguageModel model = routerConfig.isEnabled()
+                ? new RoutingChatModel(router.getObject())
+                : buildChatModel(chatBaseUrl, chatApiKey, chatModelName);
+        return new CircuitBreakingChatModel(model, circuitBreakerRegistry);
+    }
+
+    private CancellableStreamingChatModel buildStreamingModel(String baseUrl, String apiKey, String modelName,
+                                                              PromptCacheMetrics promptCacheMetrics) {
+        CancellableStreamingChatModel model = new CancellableStreamingChatModel(
+                baseUrl,
+                apiKey,
+                modelName,
+                temperature,
+                maxTokens,
+                MODEL_TIMEOUT,
+                includeUsage);
+        model.setUsageListener(promptCacheMetrics);
+        return model;
+    }
+
+    private ChatLanguageModel buildChatModel(String baseUrl, String apiKey, String modelName) {
+        return OpenAiChatModel.builder()
+                .baseUrl(baseUrl)
+                .apiKey(apiKey)
+                .modelName(modelName)
+                .temperature(temperature)
+                .maxTokens(maxTokens)
+                .timeout(MODEL_TIMEOUT)
+                .build();
     }
 
 
@@ -0,0 +1,134 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多端点LLM路由配置类
+ * 在多个兼容OpenAI的端点（不同地址、密钥或模型）之间按首token延迟或权重分配请求，
+ * 并将错误率过高或明显慢于其他端点的端点临时摘除
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "llm.router")
+public class LlmRouterConfig {
+
+    public enum Strategy {
+        /**
+         * 随机取两个可用端点，选择 延迟EWMA × (1 + 进行中请求数) / 权重 较小的一个
+         */
+        LEAST_LATENCY,
+        /**
+         * 按权重随机选择可用端点
+         */
+        WEIGHTED
+    }
+
+    /**
+     * 是否启用路由；关闭时只使用langchain4j.open-ai.chat-model单一端点
+     */
+    private boolean enabled = true;
+
+    /**
+     * 路由策略
+     */
+    private Strategy strategy = Strategy.LEAST_LATENCY;
+
+    /**
+     * 端点列表；为空时使用langchain4j.open-ai.chat-model作为唯一端点
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * 延迟和错误率EWMA的平滑系数，越大越偏重最近的请求
+     */
+    private double ewmaAlpha = 0.2;
+
+    /**
+     * 尚无统计数据（或刚恢复）时假定的首token延迟（毫秒）
+     */
+    private long initialLatencyMs = 2000;
+
+    /**
+     * 端点未单独配置时的并发上限
+     */
+    private int defaultMaxConcurrent = 20;
+
+    /**
+     * 端点未单独配置时同步调用（角色选择、摘要等）的并发上限，与流式名额分开计数，
+     * 流式请求占满端点时同步调用仍有名额可用
+     */
+    private int defaultMaxConcurrentSync = 5;
+
+    /**
+     * 同步调用名额全部占满时最多等待的时长（毫秒），超时后抛出端点满载异常，0表示不等待
+     */
+    private long syncAcquireTimeoutMs = 3000;
+
+    /**
+     * 连续失败多少次后摘除端点
+     */
+    private int ejectConsecutiveFailures = 5;
+
+    /**
+     * 错误率EWMA达到该值后摘除端点
+     */
+    private double ejectErrorRate = 0.5;
+
+    /**
+     * 按错误率或延迟摘除前至少需要的请求数
+     */
+    private int ejectMinRequests = 10;
+
+    /**
+     * 首token延迟EWMA超过其他可用端点中位数的倍数后摘除端点，0表示不按延迟摘除
+     */
+    private double ejectLatencyFactor = 3.0;
+
+    /**
+     * 摘除时长（毫秒），到期后以初始统计重新参与路由
+     */
+    private long ejectionMs = 30000;
+
+    /**
+     * 同时被摘除的端点占比上限（百分比），保证至少保留部分端点
+     */
+    private int maxEjectionPercent = 50;
+
+    /**
+     * 单个端点配置，未填写的地址、密钥和模型沿用langchain4j.open-ai.chat-model
+     */
+    @Data
+    public static class Endpoint {
+
+        /**
+         * 端点名称，用于日志和监控标签
+         */
+        private String name;
+
+        private String baseUrl;
+
+        private String apiKey;
+
+        private String modelName;
+
+        /**
+         * 路由权重
+         */
+        private int weight = 1;
+
+        /**
+         * 并发上限，0表示使用defaultMaxConcurrent
+         */
+        private int maxConcurrent = 0;
+
+        /**
+         * 同步调用并发上限，0表示使用defaultMaxConcurrentSync
+         */
+        private int maxConcurrentSync = 0;
+    }
+}
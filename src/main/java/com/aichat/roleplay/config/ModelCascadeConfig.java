@@ -0,0 +1,93 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 模型级联配置类
+ * 每轮对话由本地分类器（长度、关键词、与示例句的向量相似度）判断复杂度：
+ * 寒暄、短句等简单轮次交给更快更便宜的模型并限制较小的输出长度，其余轮次使用主模型
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "llm.cascade")
+public class ModelCascadeConfig {
+
+    /**
+     * 是否启用模型级联；关闭时所有轮次使用主模型和langchain4j.open-ai.chat-model.max-tokens
+     */
+    private boolean enabled = false;
+
+    /**
+     * 快速模型端点，未填写的地址和密钥沿用langchain4j.open-ai.chat-model
+     */
+    private String fastBaseUrl;
+
+    private String fastApiKey;
+
+    private String fastModelName;
+
+    /**
+     * 不超过该字数的消息视为短句
+     */
+    private int shortMessageChars = 20;
+
+    /**
+     * 超过该字数的消息直接使用主模型
+     */
+    private int longMessageChars = 120;
+
+    /**
+     * 命中任一关键词时使用主模型（公式、代码等需要详细回答的问题）；
+     * 英文字母数字组成的关键词按单词边界匹配，其余按子串匹配
+     */
+    private List<String> complexKeywords = new ArrayList<>(List.of(
+            "代码", "公式", "推导", "原理", "证明", "算法", "实现", "分析", "详细", "步骤",
+            "为什么", "怎么做", "如何", "区别", "比较", "解释", "计算", "翻译", "总结",
+            "程序", "函数", "排序", "sql", "java", "python",
+            "```", "code", "why", "how", "explain"));
+
+    /**
+     * 是否使用向量相似度辅助判断（使用RAG已加载的AllMiniLmL6V2模型）
+     */
+    private boolean embeddingEnabled = true;
+
+    /**
+     * 简单轮次示例句
+     */
+    private List<String> simpleExamples = new ArrayList<>(List.of(
+            "你好", "在吗", "早上好", "晚安", "谢谢", "哈哈哈", "好的", "嗯嗯", "你是谁", "最近怎么样",
+            "hello", "thanks", "good morning"));
+
+    /**
+     * 复杂轮次示例句
+     */
+    private List<String> complexExamples = new ArrayList<>(List.of(
+            "请详细解释一下这个原理", "帮我写一段代码实现这个功能", "这个公式是怎么推导出来的",
+            "分析一下这两种方案的优缺点", "请一步一步说明计算过程",
+            "explain how this algorithm works", "write a function that parses the input"));
+
+    /**
+     * 与简单示例的相似度需高出与复杂示例相似度的差值，才判定为简单轮次
+     */
+    private double embeddingMargin = 0.05;
+
+    /**
+     * 快速模型的输出token上限
+     */
+    private int fastMaxTokens = 256;
+
+    /**
+     * 主模型处理普通轮次的输出token上限
+     */
+    private int defaultMaxTokens = 1024;
+
+    /**
+     * 主模型处理复杂轮次（命中关键词或长消息）的输出token上限
+     */
+    private int complexMaxTokens = 4096;
+}
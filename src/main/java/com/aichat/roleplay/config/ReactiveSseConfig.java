@@ -0,0 +1,30 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 响应式SSE端点配置类
+ * 基于Flux<ServerSentEvent>的流式端点，与SseEmitter端点并行部署在独立路径下，默认关闭
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "sse.reactive")
+public class ReactiveSseConfig {
+
+    /**
+     * 是否开放响应式端点（/api/reactive/sse/**）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 单帧最多合并的token数；合并时间窗口沿用 sse.coalescing 的端点配置
+     */
+    private int maxTokensPerFrame = 32;
+
+    /**
+     * 客户端读取跟不上时最多积压的token数，超出后取消上游生成
+     */
+    private int maxPendingTokens = 4096;
+}
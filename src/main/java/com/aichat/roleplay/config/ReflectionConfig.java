@@ -45,6 +45,16 @@ public class ReflectionConfig {
      */
     private List<String> anomalousKeywords = new ArrayList<>();
     
+    /**
+     * 身份暴露类关键词，流式反思命中后立即中止生成
+     */
+    private List<String> identityKeywords = new ArrayList<>();
+    
+    /**
+     * 角色破防类关键词，流式反思命中后立即中止生成
+     */
+    private List<String> roleBreakingKeywords = new ArrayList<>();
+    
     /**
      * 积极关键词列表
      * 用于检测回复是否符合预期，默认为空以保持通用性
@@ -62,6 +72,16 @@ public class ReflectionConfig {
      */
     private AnomalyDetection anomalyDetection = new AnomalyDetection();
     
+    /**
+     * 流式反思配置
+     */
+    private Streaming streaming = new Streaming();
+    
+    /**
+     * 反思重试调度配置
+     */
+    private Retry retry = new Retry();
+    
     @Data
     public static class KeywordFiles {
         /**
@@ -95,12 +115,16 @@ public class ReflectionConfig {
         List<String> allKeywords = new ArrayList<>();
         
         // 加载各类关键词文件
-        allKeywords.addAll(loadKeywordsFromFile(keywordFiles.identityExposure));
-        allKeywords.addAll(loadKeywordsFromFile(keywordFiles.roleBreaking));
+        List<String> identity = loadKeywordsFromFile(keywordFiles.identityExposure);
+        List<String> roleBreaking = loadKeywordsFromFile(keywordFiles.roleBreaking);
+        allKeywords.addAll(identity);
+        allKeywords.addAll(roleBreaking);
         allKeywords.addAll(loadKeywordsFromFile(keywordFiles.overDeflection));
         allKeywords.addAll(loadKeywordsFromFile(keywordFiles.technicalExposure));
         
         this.anomalousKeywords = allKeywords;
+        this.identityKeywords = identity;
+        this.roleBreakingKeywords = roleBreaking;
         
         System.out.println("异常检测关键词加载完成！总数: " + allKeywords.size());
         
@@ -178,4 +202,45 @@ public class ReflectionConfig {
          */
         private double severeAnomalyThreshold = 0.8;
     }
-}
\ No newline at end of file
+    
+    @Data
+    public static class Streaming {
+        /**
+         * 是否在生成过程中逐token进行反思检测，命中严重异常时提前中止生成
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 语言一致性检测前至少累计的字符数，避免开头的标点、英文名等造成误判
+         */
+        private int languageCheckMinChars = 80;
+    }
+    
+    @Data
+    public static class Retry {
+        /**
+         * 首次重试的基础退避时间（毫秒），之后每次翻倍
+         */
+        private long baseDelayMs = 200;
+        
+        /**
+         * 退避时间上限（毫秒）
+         */
+        private long maxDelayMs = 2000;
+        
+        /**
+         * 抖动比例（0-1），实际延迟在 [delay * (1 - jitter), delay] 之间随机
+         */
+        private double jitter = 0.5;
+        
+        /**
+         * 等待中的重试数量上限，超过后不再重试，直接返回当前结果
+         */
+        private int maxPendingRetries = 200;
+        
+        /**
+         * 重试调度线程数
+         */
+        private int schedulerThreads = 2;
+    }
+}
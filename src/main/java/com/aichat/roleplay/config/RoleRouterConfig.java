@@ -0,0 +1,36 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 协作聊天角色路由配置类
+ * 先按用户消息与角色画像（名称、描述、角色设定）的向量相似度本地排序，
+ * 排名足够明确时直接选出角色，否则只把排名靠前的候选角色交给LLM选择
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatroom.role-router")
+public class RoleRouterConfig {
+
+    /**
+     * 是否启用向量路由；关闭时每轮都由LLM从全部角色中选择
+     */
+    private boolean enabled = true;
+
+    /**
+     * 第k名与第k+1名的相似度差值不低于该值时直接采用向量路由结果，不调用LLM
+     */
+    private double confidenceMargin = 0.05;
+
+    /**
+     * 交给LLM选择时最多附带的候选角色数（按相似度取前M个）
+     */
+    private int maxLlmCandidates = 8;
+
+    /**
+     * 角色画像中角色设定部分的最大字数，避免超长设定稀释名称和描述
+     */
+    private int profilePromptChars = 500;
+}
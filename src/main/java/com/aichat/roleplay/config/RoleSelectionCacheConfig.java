@@ -0,0 +1,40 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 协作聊天角色选择缓存配置类
+ * 同一聊天室连续几轮围绕同一话题时复用上一轮的角色选择结果，跳过角色选择
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "chatroom.selection-cache")
+public class RoleSelectionCacheConfig {
+
+    /**
+     * 是否启用角色选择缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 新消息与当前话题向量的余弦相似度不低于该值时视为同一话题，复用选择结果
+     */
+    private double similarityThreshold = 0.8;
+
+    /**
+     * 同一选择结果最多连续复用的轮数，之后重新选择
+     */
+    private int maxReuseTurns = 5;
+
+    /**
+     * 聊天室空闲过期时间（秒）
+     */
+    private long ttlSeconds = 600;
+
+    /**
+     * 最多缓存的聊天室数（超出后按LRU淘汰）
+     */
+    private int maxRooms = 5000;
+}
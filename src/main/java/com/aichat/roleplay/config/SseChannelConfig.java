@@ -0,0 +1,25 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * SSE出站事件通道配置类
+ * 协作聊天中各角色把事件放入所在连接的无锁队列，由共享的写线程池按连接逐个写出
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "sse.channel")
+public class SseChannelConfig {
+
+    /**
+     * 写线程数，所有连接共享；同一连接同一时刻只占用一个写线程
+     */
+    private int writerThreads = 4;
+
+    /**
+     * 每次写出任务最多处理的事件数，处理完后让出写线程给其他连接
+     */
+    private int maxBatch = 64;
+}
@@ -0,0 +1,50 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SSE token合并配置类
+ * 每个流缓冲LLM token，按时间窗口或缓冲大小合并为一帧发送，减少逐token的写入和flush
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "sse.coalescing")
+public class SseCoalescingConfig {
+
+    /**
+     * 未单独配置的端点使用的默认窗口
+     */
+    private Window defaults = new Window();
+
+    /**
+     * 按端点单独配置的窗口，key为端点名（stream、collaborate）
+     */
+    private Map<String, Window> endpoints = new HashMap<>();
+
+    /**
+     * 执行窗口到期刷出的线程数；定时线程只判断到期，阻塞的SSE写入交给该线程池
+     */
+    private int flushThreads = 4;
+
+    public Window getWindow(String endpoint) {
+        return endpoints.getOrDefault(endpoint, defaults);
+    }
+
+    @Data
+    public static class Window {
+        /**
+         * 合并时间窗口（毫秒），从缓冲第一个token开始计时；0表示不合并，逐token发送
+         */
+        private long flushIntervalMs = 30;
+
+        /**
+         * 缓冲字符数达到该值时立即发送
+         */
+        private int maxBufferChars = 64;
+    }
+}
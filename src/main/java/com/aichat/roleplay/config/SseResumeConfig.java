@@ -0,0 +1,40 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * SSE断线续传配置类
+ * 每个生成中的流为事件分配递增ID并保留最近的事件，客户端携带Last-Event-ID重连后只补发缺失部分
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "sse.resume")
+public class SseResumeConfig {
+
+    /**
+     * 是否启用断线续传（关闭时生成随HTTP连接结束）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每个流保留的最近事件数（合并后的帧数）
+     */
+    private int replayBufferSize = 512;
+
+    /**
+     * 客户端断开后等待重连的时间（毫秒）；生成结束后的流同样保留该时长供补发
+     */
+    private long gracePeriodMs = 30000;
+
+    /**
+     * 建议客户端的重连间隔（毫秒），通过SSE的retry字段下发；0表示不下发
+     */
+    private long reconnectTimeMs = 1000;
+
+    /**
+     * 过期流的清理间隔（毫秒）
+     */
+    private long sweepIntervalMs = 1000;
+}
@@ -0,0 +1,51 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Token用量统计与限流配置类
+ * 每次生成的token用量先在内存中按 用户/角色/来源/日期 汇总，定期批量写入token_usage表；
+ * 每个用户和每个角色各有一个令牌桶，桶内余额耗尽时在生成开始前拒绝请求
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "token-budget")
+public class TokenBudgetConfig {
+
+    /**
+     * 是否启用令牌桶限流（用量统计始终开启）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 单个用户令牌桶容量（token）
+     */
+    private long userCapacity = 200000;
+
+    /**
+     * 单个用户每分钟恢复的token数
+     */
+    private long userRefillPerMinute = 20000;
+
+    /**
+     * 单个角色令牌桶容量（token），限制热门角色占用全部上游配额
+     */
+    private long roleCapacity = 1000000;
+
+    /**
+     * 单个角色每分钟恢复的token数
+     */
+    private long roleRefillPerMinute = 100000;
+
+    /**
+     * 内存汇总数据写入数据库的间隔（毫秒）
+     */
+    private long flushIntervalMs = 10000;
+
+    /**
+     * 单批最多写入的汇总行数
+     */
+    private int flushBatchSize = 200;
+}
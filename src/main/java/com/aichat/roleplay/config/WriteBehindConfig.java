@@ -0,0 +1,76 @@
+package com.aichat.roleplay.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 消息异步写入配置类
+ * 聊天消息先进入有界队列，由后台写入线程按批次插入数据库
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "persistence.write-behind")
+public class WriteBehindConfig {
+
+    /**
+     * 是否启用异步写入（关闭时在调用线程同步插入）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 写入线程数；同一会话的消息总是由同一线程按提交顺序写入
+     */
+    private int writerThreads = 2;
+
+    /**
+     * 每个写入线程的队列容量
+     */
+    private int queueCapacity = 5000;
+
+    /**
+     * 单批最多插入的消息数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 凑批等待时间（毫秒）
+     */
+    private long lingerMs = 10;
+
+    /**
+     * 持久化模式：MEMORY 队列满时阻塞提交方；SPILL 数据库变慢或队列满时新消息fsync写入本地溢出文件
+     */
+    private Durability durability = Durability.MEMORY;
+
+    /**
+     * 溢出文件目录
+     */
+    private String spillDir = "data/write-behind";
+
+    /**
+     * 单批耗时超过该值（毫秒）视为数据库变慢，SPILL模式下切换到溢出文件
+     */
+    private long slowBatchThresholdMs = 500;
+
+    /**
+     * 批量插入失败后的重试间隔（毫秒），连续失败时翻倍
+     */
+    private long retryBackoffMs = 500;
+
+    /**
+     * 重试间隔上限（毫秒）
+     */
+    private long maxRetryBackoffMs = 10000;
+
+    /**
+     * 单批最多尝试次数；仍失败时改为逐条插入，单条也失败的记录写入死信文件（spill-dir下的dead-letter-*.jsonl），
+     * 避免一条坏记录（约束冲突、内容超长等）长期阻塞整个分片
+     */
+    private int maxRetries = 3;
+
+    public enum Durability {
+        MEMORY,
+        SPILL
+    }
+}
@@ -0,0 +1,38 @@
+package com.aichat.roleplay.controller;
+
+import com.aichat.roleplay.context.UserContext;
+import com.aichat.roleplay.service.ReactiveSseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+/**
+ * 响应式SSE端点，与 /api/sse 下的SseEmitter端点并行，用于对比压测
+ * 需配置 sse.reactive.enabled=true 开启
+ */
+@RestController
+@RequestMapping("/api/reactive/sse")
+@ConditionalOnProperty(prefix = "sse.reactive", name = "enabled", havingValue = "true")
+public class ReactiveSseController {
+
+    @Autowired
+    private ReactiveSseService reactiveSseService;
+
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> stream(@RequestParam Long chatId,
+                                                @RequestParam Long roleId,
+                                                @RequestParam String userMessage) {
+        // 用户上下文只在请求线程中可用，订阅前取出
+        return reactiveSseService.stream(chatId, roleId, userMessage, UserContext.getCurrentUserId());
+    }
+
+    @GetMapping(value = "/collaborate", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> collaborate(@RequestParam Long chatRoomId,
+                                                     @RequestParam String userMessage,
+                                                     @RequestParam(required = false) String context) {
+        return reactiveSseService.collaborate(chatRoomId, userMessage, context, UserContext.getCurrentUserId());
+    }
+}
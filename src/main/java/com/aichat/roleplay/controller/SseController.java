@@ -21,8 +21,13 @@ public class SseController {
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public ResponseEntity<SseEmitter> stream(@RequestParam Long chatId,
                                            @RequestParam Long roleId,
-                                           @RequestParam String userMessage) {
+                                           @RequestParam String userMessage,
+                                           @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
         try {
+            // 浏览器EventSource断线后会带着Last-Event-ID重新请求同一地址，此时续传原来的生成而不是重新生成
+            if (lastEventId != null && !lastEventId.isEmpty()) {
+                return resumeResponse(sseService.resume(lastEventId));
+            }
 
             SseEmitter emitter = sseService.stream(chatId, roleId, userMessage);
             return ResponseEntity.ok()
@@ -43,6 +48,26 @@ public class SseController {
         }
     }
 
+    @GetMapping(value = "/stream/resume", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> resume(@RequestParam(required = false) String lastEventId,
+                                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader) {
+        String eventId = lastEventId != null ? lastEventId : lastEventIdHeader;
+        if (eventId == null || eventId.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return resumeResponse(sseService.resume(eventId));
+    }
+
+    // 没有可续传的内容时返回204，EventSource收到204后不再重连
+    private ResponseEntity<SseEmitter> resumeResponse(SseEmitter emitter) {
+        if (emitter == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(emitter);
+    }
+
     @GetMapping(value = "/collaborate", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public ResponseEntity<SseEmitter> collaborate(@RequestParam Long chatRoomId,
                                                   @RequestParam String userMessage,
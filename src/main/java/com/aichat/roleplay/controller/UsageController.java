@@ -0,0 +1,53 @@
+package com.aichat.roleplay.controller;
+
+import com.aichat.roleplay.common.ApiResponse;
+import com.aichat.roleplay.context.UserContext;
+import com.aichat.roleplay.model.User;
+import com.aichat.roleplay.service.TokenUsageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Token用量控制器
+ * 提供当前用户的token用量和剩余额度查询
+ */
+@RestController
+@RequestMapping("/api/usage")
+public class UsageController {
+
+    private static final Logger log = LoggerFactory.getLogger(UsageController.class);
+
+    private static final int MAX_DAYS = 31;
+
+    private final TokenUsageService tokenUsageService;
+
+    @Autowired
+    public UsageController(TokenUsageService tokenUsageService) {
+        this.tokenUsageService = tokenUsageService;
+    }
+
+    /**
+     * 获取当前用户近几天的token用量和令牌桶余额
+     */
+    @GetMapping("/me")
+    public ApiResponse<Map<String, Object>> getMyUsage(@RequestParam(defaultValue = "7") int days) {
+        try {
+            User user = UserContext.getCurrentUser();
+            if (user == null) {
+                return ApiResponse.error(401, "用户未登录");
+            }
+            int range = Math.max(1, Math.min(days, MAX_DAYS));
+            return ApiResponse.success("获取token用量成功", tokenUsageService.describeUser(user.getId(), range));
+        } catch (Exception e) {
+            log.error("获取token用量失败", e);
+            return ApiResponse.error("获取token用量失败: " + e.getMessage());
+        }
+    }
+}
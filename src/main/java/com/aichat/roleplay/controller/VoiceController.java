@@ -1,15 +1,20 @@
 package com.aichat.roleplay.controller;
 
+import com.aichat.roleplay.exception.CircuitOpenException;
+import com.aichat.roleplay.exception.TokenBudgetExceededException;
 import com.aichat.roleplay.service.VoiceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 语音控制器 - API串接模式
  * 基于配置的语音模型进行API串接
@@ -25,51 +30,65 @@ public class VoiceController {
     
     /**
      * 语音对话接口 - API串接实现
-     * 接收音频文件，返回音频响应
+     * 接收音频文件，返回音频响应；AI回复生成期间释放请求线程，完成后异步写回响应
      */
     @PostMapping("/chat")
-    public ResponseEntity<byte[]> voiceChat(
+    public CompletableFuture<ResponseEntity<byte[]>> voiceChat(
             @RequestParam("audio") MultipartFile audioFile,
             @RequestParam("chatId") Long chatId,
             @RequestParam("roleId") Long roleId) {
-        try {
-            log.info("收到语音对话请求，开始API串接处理");
-            log.info("聊天ID: {}, 角色ID: {}", chatId, roleId);
-            log.info("文件名: {}, 大小: {} bytes, 内容类型: {}", 
-                    audioFile.getOriginalFilename(), audioFile.getSize(), audioFile.getContentType());
-            
-            if (audioFile.isEmpty()) {
-                log.warn("音频文件为空");
-                return ResponseEntity.badRequest().build();
-            }
+        log.info("收到语音对话请求，开始API串接处理");
+        log.info("聊天ID: {}, 角色ID: {}", chatId, roleId);
+        log.info("文件名: {}, 大小: {} bytes, 内容类型: {}", 
+                audioFile.getOriginalFilename(), audioFile.getSize(), audioFile.getContentType());
+        
+        if (audioFile.isEmpty()) {
+            log.warn("音频文件为空");
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
 
-            String contentType = audioFile.getContentType();
-            if (contentType != null) {
-                log.info("接收到音频类型: {}", contentType);
-            } else {
-                log.warn("无法识别文件类型，尝试继续处理");
-            }
-            
+        String contentType = audioFile.getContentType();
+        if (contentType != null) {
+            log.info("接收到音频类型: {}", contentType);
+        } else {
+            log.warn("无法识别文件类型，尝试继续处理");
+        }
+        
 
-            if (contentType != null && !contentType.startsWith("audio/") && !contentType.startsWith("video/")) {
-                log.warn("可能不是音频文件类型: {}", contentType);
-            }
+        if (contentType != null && !contentType.startsWith("audio/") && !contentType.startsWith("video/")) {
+            log.warn("可能不是音频文件类型: {}", contentType);
+        }
 
-            byte[] audioResponse = voiceService.processVoiceChat(audioFile, chatId, roleId);
-            
+        return voiceService.processVoiceChatAsync(audioFile, chatId, roleId).toCompletableFuture()
+                .thenApply(audioResponse -> {
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.setContentType(MediaType.parseMediaType("audio/mpeg"));
+                    headers.setContentLength(audioResponse.length);
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType("audio/mpeg"));
-            headers.setContentLength(audioResponse.length);
-            
-            log.info("API串接完成，返回音频大小: {} bytes", audioResponse.length);
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(audioResponse);
-                    
-        } catch (Exception e) {
-            log.error("API串接语音对话处理失败", e);
-            return ResponseEntity.internalServerError().build();
+                    log.info("API串接完成，返回音频大小: {} bytes", audioResponse.length);
+                    return ResponseEntity.ok()
+                            .headers(headers)
+                            .body(audioResponse);
+                })
+                .exceptionally(this::errorResponse);
+    }
+
+    private ResponseEntity<byte[]> errorResponse(Throwable e) {
+        CircuitOpenException circuitOpen = CircuitOpenException.find(e);
+        if (circuitOpen != null) {
+            log.warn("语音对话依赖的上游服务已熔断 - {}: {}", circuitOpen.getDependency(), circuitOpen.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, circuitOpen.getRetryAfterMs() / 1000)))
+                    .build();
+        }
+        TokenBudgetExceededException exceeded = TokenBudgetExceededException.find(e);
+        if (exceeded != null) {
+            log.warn("语音对话token额度已用完: {}", exceeded.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, exceeded.getRetryAfterMs() / 1000)))
+                    .build();
         }
+        log.error("API串接语音对话处理失败", e);
+        return ResponseEntity.internalServerError().build();
     }
-}
\ No newline at end of file
+}
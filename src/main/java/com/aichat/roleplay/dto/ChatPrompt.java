@@ -0,0 +1,110 @@
+package com.aichat.roleplay.dto;
+
+import com.aichat.roleplay.util.LatencyTrace;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 结构化的对话prompt
+ * 系统消息只包含角色设定和对话规则，同一角色版本逐字节不变，便于上游前缀缓存命中；
+ * 历史按用户/AI交替的消息下发，RAG知识、摘要等每轮变化的内容只放在最后一条用户消息中
+ */
+public class ChatPrompt {
+
+    private final String systemPrompt;
+    private final List<ChatMessage> history;
+    private final String userMessage;
+    private final String userTurn;
+    private final Long userId;
+    private final Long roleId;
+    private final LatencyTrace trace;
+
+    public ChatPrompt(String systemPrompt, List<ChatMessage> history, String userTurn) {
+        this(systemPrompt, history, userTurn, userTurn);
+    }
+
+    /**
+     * @param userMessage 用户原始输入（用于模型分级等判断）
+     * @param userTurn 实际下发的本轮用户消息（可能附带知识背景、摘要等）
+     */
+    public ChatPrompt(String systemPrompt, List<ChatMessage> history, String userMessage, String userTurn) {
+        this(systemPrompt, history, userMessage, userTurn, null, null, null);
+    }
+
+    private ChatPrompt(String systemPrompt, List<ChatMessage> history, String userMessage, String userTurn,
+                       Long userId, Long roleId, LatencyTrace trace) {
+        this.systemPrompt = systemPrompt;
+        this.history = history != null ? history : List.of();
+        this.userMessage = userMessage;
+        this.userTurn = userTurn;
+        this.userId = userId;
+        this.roleId = roleId;
+        this.trace = trace;
+    }
+
+    /**
+     * 只有一条用户消息的prompt（无系统消息和历史）
+     */
+    public static ChatPrompt ofUserMessage(String userTurn) {
+        return new ChatPrompt(null, List.of(), userTurn);
+    }
+
+    /**
+     * 标记本次生成所属的用户和角色，用于token用量统计和限流
+     */
+    public ChatPrompt withOwner(Long userId, Long roleId) {
+        return new ChatPrompt(systemPrompt, history, userMessage, userTurn, userId, roleId, trace);
+    }
+
+    /**
+     * 附加分阶段耗时记录，生成服务据此记录首token延迟、token间隔和生成耗时
+     */
+    public ChatPrompt withTrace(LatencyTrace trace) {
+        return new ChatPrompt(systemPrompt, history, userMessage, userTurn, userId, roleId, trace);
+    }
+
+    public String getSystemPrompt() {
+        return systemPrompt;
+    }
+
+    public List<ChatMessage> getHistory() {
+        return history;
+    }
+
+    public String getUserMessage() {
+        return userMessage;
+    }
+
+    public String getUserTurn() {
+        return userTurn;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getRoleId() {
+        return roleId;
+    }
+
+    public LatencyTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * 按 系统消息、历史、本轮用户消息 的顺序生成消息列表
+     */
+    public List<ChatMessage> toMessages() {
+        List<ChatMessage> messages = new ArrayList<>(history.size() + 2);
+        if (systemPrompt != null && !systemPrompt.isEmpty()) {
+            messages.add(SystemMessage.from(systemPrompt));
+        }
+        messages.addAll(history);
+        messages.add(UserMessage.from(userTurn));
+        return messages;
+    }
+}
@@ -0,0 +1,49 @@
+package com.aichat.roleplay.dto;
+
+import com.aichat.roleplay.model.Message;
+
+import java.util.List;
+
+/**
+ * 对话上下文窗口DTO
+ * 包含早前对话的滚动摘要以及在token预算内的最近消息
+ */
+public class ContextWindow {
+
+    /**
+     * 早前对话摘要（可能为空）
+     */
+    private final String summary;
+
+    /**
+     * 预算内的最近消息，按时间正序
+     */
+    private final List<Message> recentMessages;
+
+    /**
+     * 估算的token占用
+     */
+    private final int estimatedTokens;
+
+    public ContextWindow(String summary, List<Message> recentMessages, int estimatedTokens) {
+        this.summary = summary;
+        this.recentMessages = recentMessages;
+        this.estimatedTokens = estimatedTokens;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public List<Message> getRecentMessages() {
+        return recentMessages;
+    }
+
+    public int getEstimatedTokens() {
+        return estimatedTokens;
+    }
+
+    public boolean isEmpty() {
+        return (summary == null || summary.isEmpty()) && (recentMessages == null || recentMessages.isEmpty());
+    }
+}
@@ -23,6 +23,11 @@ public class RoleSelectionResult {
      */
     private Double confidence;
     
+    /**
+     * 是否为回退策略的结果（LLM不可用或选择失败），回退结果不写入角色选择缓存
+     */
+    private boolean fallback;
+    
     // 构造函数
     public RoleSelectionResult() {}
     
@@ -57,12 +62,21 @@ public class RoleSelectionResult {
         this.confidence = confidence;
     }
     
+    public boolean isFallback() {
+        return fallback;
+    }
+    
+    public void setFallback(boolean fallback) {
+        this.fallback = fallback;
+    }
+    
     @Override
     public String toString() {
         return "RoleSelectionResult{" +
                 "selectedRoleIds=" + selectedRoleIds +
                 ", reason='" + reason + '\'' +
                 ", confidence=" + confidence +
+                ", fallback=" + fallback +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package com.aichat.roleplay.exception;
+
+/**
+ * 上游依赖已熔断，请求被快速拒绝
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final String dependency;
+    private final long retryAfterMs;
+
+    public CircuitOpenException(String dependency, long retryAfterMs) {
+        super("上游服务暂时不可用，请" + Math.max(1, (retryAfterMs + 999) / 1000) + "秒后重试");
+        this.dependency = dependency;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public String getDependency() {
+        return dependency;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * 在异常链中查找熔断异常，找不到时返回null
+     */
+    public static CircuitOpenException find(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof CircuitOpenException circuitOpen) {
+                return circuitOpen;
+            }
+            current = current.getCause();
+        }
+        return null;
+    }
+}
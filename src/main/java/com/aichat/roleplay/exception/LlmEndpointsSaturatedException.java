@@ -0,0 +1,33 @@
+package com.aichat.roleplay.exception;
+
+/**
+ * 本地LLM端点并发名额已全部占满，请求未发往上游
+ * 属于本地限流，不代表上游故障，不计入熔断和端点错误率
+ */
+public class LlmEndpointsSaturatedException extends RuntimeException {
+
+    private final boolean streaming;
+
+    public LlmEndpointsSaturatedException(boolean streaming) {
+        super("所有LLM端点均已满载，请稍后重试");
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * 在异常链中查找端点满载异常，找不到时返回null
+     */
+    public static LlmEndpointsSaturatedException find(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof LlmEndpointsSaturatedException saturated) {
+                return saturated;
+            }
+            current = current.getCause();
+        }
+        return null;
+    }
+}
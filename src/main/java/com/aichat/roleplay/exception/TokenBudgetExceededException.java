@@ -0,0 +1,39 @@
+package com.aichat.roleplay.exception;
+
+/**
+ * 用户或角色的token额度已用尽，请求在生成开始前被拒绝
+ */
+public class TokenBudgetExceededException extends RuntimeException {
+
+    private final String scope;
+    private final long retryAfterMs;
+
+    public TokenBudgetExceededException(String scope, long retryAfterMs) {
+        super(("role".equals(scope) ? "该角色" : "您") + "的对话额度已用完，请"
+                + Math.max(1, (retryAfterMs + 999) / 1000) + "秒后重试");
+        this.scope = scope;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * 在异常链中查找额度异常，找不到时返回null
+     */
+    public static TokenBudgetExceededException find(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof TokenBudgetExceededException exceeded) {
+                return exceeded;
+            }
+            current = current.getCause();
+        }
+        return null;
+    }
+}
@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -77,4 +78,16 @@ public interface ChatMapper extends BaseMapper<Chat> {
      */
     @Select("SELECT * FROM chats WHERE role_id = #{roleId} AND deleted = 0 ORDER BY updated_at DESC")
     List<Chat> findByRoleId(@Param("roleId") Long roleId);
-}
\ No newline at end of file
+
+    /**
+     * 更新聊天会话的滚动摘要（不改变会话的更新时间排序）
+     *
+     * @param chatId           聊天会话ID
+     * @param summary          摘要内容
+     * @param summaryMessageId 摘要覆盖到的最后一条消息ID
+     */
+    @Update("UPDATE chats SET summary = #{summary}, summary_message_id = #{summaryMessageId}, updated_at = updated_at WHERE id = #{chatId}")
+    void updateSummary(@Param("chatId") Long chatId,
+                       @Param("summary") String summary,
+                       @Param("summaryMessageId") Long summaryMessageId);
+}
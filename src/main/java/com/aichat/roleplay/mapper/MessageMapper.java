@@ -26,6 +26,43 @@ public interface MessageMapper extends BaseMapper<Message> {
     @Select("SELECT * FROM messages WHERE chat_id = #{chatId} AND deleted = 0 ORDER BY sent_at ASC")
     List<Message> findByChatId(@Param("chatId") Long chatId);
 
+    /**
+     * 查询聊天会话最近的N条消息（按ID倒序，用于构建上下文窗口）
+     *
+     * @param chatId 聊天会话ID
+     * @param limit  消息数量限制
+     * @return 消息列表
+     */
+    @Select("SELECT * FROM messages WHERE chat_id = #{chatId} AND deleted = 0 ORDER BY id DESC LIMIT #{limit}")
+    List<Message> findRecentByChatId(@Param("chatId") Long chatId, @Param("limit") int limit);
+
+    /**
+     * 查询指定ID区间内的消息（用于生成滚动摘要）
+     *
+     * @param chatId   聊天会话ID
+     * @param afterId  起始消息ID（不包含，可为空）
+     * @param beforeId 截止消息ID（不包含）
+     * @param limit    消息数量限制
+     * @return 消息列表
+     */
+    @Select({
+        "<script>",
+        "SELECT * FROM messages",
+        "WHERE chat_id = #{chatId}",
+        "AND deleted = 0",
+        "<if test='afterId != null'>",
+        "AND id &gt; #{afterId}",
+        "</if>",
+        "AND id &lt; #{beforeId}",
+        "ORDER BY id ASC",
+        "LIMIT #{limit}",
+        "</script>"
+    })
+    List<Message> findByChatIdBetween(@Param("chatId") Long chatId,
+                                      @Param("afterId") Long afterId,
+                                      @Param("beforeId") Long beforeId,
+                                      @Param("limit") int limit);
+
     /**
      * 分页查询聊天会话的消息
      *
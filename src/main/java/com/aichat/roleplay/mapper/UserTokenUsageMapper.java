@@ -0,0 +1,51 @@
+package com.aichat.roleplay.mapper;
+
+import com.aichat.roleplay.model.UserTokenUsage;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Token用量数据访问层接口
+ */
+@Mapper
+public interface UserTokenUsageMapper extends BaseMapper<UserTokenUsage> {
+
+    /**
+     * 批量累加用量，同一 用户/角色/来源/日期 已存在时在原值上累加
+     *
+     * @param usages 增量汇总
+     * @return 影响行数
+     */
+    @Insert({
+        "<script>",
+        "INSERT INTO token_usage (user_id, role_id, source, usage_date, prompt_tokens, completion_tokens, request_count, update_time)",
+        "VALUES",
+        "<foreach collection='usages' item='u' separator=','>",
+        "(#{u.userId}, #{u.roleId}, #{u.source}, #{u.usageDate}, #{u.promptTokens}, #{u.completionTokens}, #{u.requestCount}, NOW())",
+        "</foreach>",
+        "ON DUPLICATE KEY UPDATE",
+        "prompt_tokens = prompt_tokens + VALUES(prompt_tokens),",
+        "completion_tokens = completion_tokens + VALUES(completion_tokens),",
+        "request_count = request_count + VALUES(request_count),",
+        "update_time = NOW()",
+        "</script>"
+    })
+    int upsertBatch(@Param("usages") List<UserTokenUsage> usages);
+
+    /**
+     * 查询用户在指定日期范围内的用量
+     *
+     * @param userId 用户ID
+     * @param from   起始日期（包含）
+     * @param to     截止日期（包含）
+     * @return 用量列表
+     */
+    @Select("SELECT * FROM token_usage WHERE user_id = #{userId} AND usage_date BETWEEN #{from} AND #{to} ORDER BY usage_date DESC")
+    List<UserTokenUsage> findByUserId(@Param("userId") Long userId, @Param("from") LocalDate from, @Param("to") LocalDate to);
+}
@@ -45,6 +45,18 @@ public class Chat implements Serializable {
     @TableField("is_active")
     private Boolean isActive;
 
+    /**
+     * 早前对话的滚动摘要
+     */
+    @TableField("summary")
+    private String summary;
+
+    /**
+     * 摘要已覆盖到的最后一条消息ID
+     */
+    @TableField("summary_message_id")
+    private Long summaryMessageId;
+
     /**
      * 创建时间，自动填充
      */
@@ -116,6 +128,22 @@ public class Chat implements Serializable {
         this.isActive = isActive;
     }
 
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    public Long getSummaryMessageId() {
+        return summaryMessageId;
+    }
+
+    public void setSummaryMessageId(Long summaryMessageId) {
+        this.summaryMessageId = summaryMessageId;
+    }
+
     public LocalDateTime getCreateTime() {
         return createTime;
     }
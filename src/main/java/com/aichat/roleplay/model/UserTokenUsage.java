@@ -0,0 +1,70 @@
+package com.aichat.roleplay.model;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Token用量汇总模型
+ * 按 用户、角色、来源、日期 汇总的token用量
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("token_usage")
+public class UserTokenUsage {
+
+    /**
+     * 主键ID
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户ID，无法归属到用户的调用记为0
+     */
+    private Long userId;
+
+    /**
+     * 角色ID，与角色无关的调用（如角色选择）记为0
+     */
+    private Long roleId;
+
+    /**
+     * 调用来源：chat 流式对话，role_selection 角色选择
+     */
+    private String source;
+
+    /**
+     * 统计日期
+     */
+    private LocalDate usageDate;
+
+    /**
+     * 输入token数
+     */
+    private Long promptTokens;
+
+    /**
+     * 输出token数
+     */
+    private Long completionTokens;
+
+    /**
+     * 调用次数
+     */
+    private Long requestCount;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
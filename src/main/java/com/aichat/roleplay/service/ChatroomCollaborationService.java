@@ -1,11 +1,19 @@
 package com.aichat.roleplay.service;
 
+import com.aichat.roleplay.model.Role;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.List;
+
 public interface ChatroomCollaborationService {
     
     /**
      * 处理协作消息（流式响应）
      */
     SseEmitter handleCollaborativeMessage(Long chatRoomId, String userMessage, String context);
+
+    /**
+     * 获取聊天室可参与对话的角色（未选择角色时为所有公开角色）
+     */
+    List<Role> getChatRoomRoles(Long chatRoomId);
 }
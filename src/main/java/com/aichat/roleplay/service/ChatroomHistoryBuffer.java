@@ -0,0 +1,168 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.ChatroomHistoryConfig;
+import com.aichat.roleplay.model.ChatroomMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 聊天室最近消息缓冲
+ * 按聊天室保存最近若干条消息的环形缓冲，首次读取时从数据库填充一次，之后由消息写入方追加，
+ * 活跃聊天室每轮的通用历史和各角色历史都从同一份缓冲中取出，不再查询消息表。
+ * 消息异步落库，填充前写入的消息先暂存，填充时与数据库结果合并去重。采用LRU + 空闲过期淘汰
+ */
+@Slf4j
+@Service
+public class ChatroomHistoryBuffer {
+
+    private final ChatroomHistoryConfig config;
+
+    // accessOrder=true，迭代顺序即LRU顺序
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public ChatroomHistoryBuffer(ChatroomHistoryConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.hitCounter = meterRegistry.counter("chatroom.history.buffer.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("chatroom.history.buffer.requests", "result", "miss");
+        Gauge.builder("chatroom.history.buffer.size", this, ChatroomHistoryBuffer::size).register(meterRegistry);
+    }
+
+    public int getCapacity() {
+        return Math.max(1, config.getCapacity());
+    }
+
+    /**
+     * 读取聊天室最近的消息（按时间正序），缓冲未填充、已过期或条数超过容量时返回null
+     */
+    public List<ChatroomMessage> recent(Long chatRoomId, int limit) {
+        if (!config.isEnabled() || chatRoomId == null || limit > getCapacity()) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(chatRoomId);
+            long now = System.currentTimeMillis();
+            if (entry == null || !entry.seeded || isExpired(entry, now)) {
+                missCounter.increment();
+                return null;
+            }
+            entry.lastAccess = now;
+            hitCounter.increment();
+            List<ChatroomMessage> messages = new ArrayList<>(entry.messages);
+            return messages.size() > limit ? messages.subList(messages.size() - limit, messages.size()) : messages;
+        }
+    }
+
+    /**
+     * 用数据库读取结果填充缓冲，并合并填充前已写入但可能尚未落库的消息
+     *
+     * @param recentAsc 最近消息，按时间正序
+     */
+    public void seed(Long chatRoomId, List<ChatroomMessage> recentAsc) {
+        if (!config.isEnabled() || chatRoomId == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry old = entries.get(chatRoomId);
+            if (old != null && old.seeded && !isExpired(old, System.currentTimeMillis())) {
+                return;
+            }
+            Entry entry = new Entry();
+            Set<Long> persistedIds = new HashSet<>();
+            for (ChatroomMessage message : recentAsc) {
+                entry.add(message, getCapacity());
+                if (message.getId() != null) {
+                    persistedIds.add(message.getId());
+                }
+            }
+            if (old != null && !old.seeded) {
+                for (ChatroomMessage message : old.messages) {
+                    if (message.getId() == null || !persistedIds.contains(message.getId())) {
+                        entry.add(message, getCapacity());
+                    }
+                }
+            }
+            entry.seeded = true;
+            entries.put(chatRoomId, entry);
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * 追加新写入的消息；聊天室尚未填充时暂存，填充时合并
+     */
+    public void append(ChatroomMessage message) {
+        if (!config.isEnabled() || message == null || message.getChatRoomId() == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(message.getChatRoomId());
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(message.getChatRoomId(), entry);
+                evictIfNeeded();
+            }
+            entry.add(message, getCapacity());
+            entry.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 移除聊天室缓冲（聊天室删除等场景）
+     */
+    public void invalidate(Long chatRoomId) {
+        synchronized (this) {
+            entries.remove(chatRoomId);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.lastAccess > config.getTtlSeconds() * 1000;
+    }
+
+    /**
+     * 先淘汰过期聊天室，再按LRU淘汰直到满足数量上限
+     */
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entries.size() <= config.getMaxRooms() && !isExpired(entry, now)) {
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    private static class Entry {
+        private final ArrayDeque<ChatroomMessage> messages = new ArrayDeque<>();
+        private boolean seeded;
+        private long lastAccess = System.currentTimeMillis();
+
+        void add(ChatroomMessage message, int capacity) {
+            messages.addLast(message);
+            while (messages.size() > capacity) {
+                messages.pollFirst();
+            }
+        }
+    }
+}
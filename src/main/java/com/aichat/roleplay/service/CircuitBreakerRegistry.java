@@ -0,0 +1,188 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.CircuitBreakerConfig;
+import com.aichat.roleplay.exception.CircuitOpenException;
+import com.aichat.roleplay.exception.LlmEndpointsSaturatedException;
+import com.aichat.roleplay.util.CircuitBreaker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 上游依赖熔断器注册表
+ * 按依赖名称维护熔断器，提供带熔断的调用包装，并导出状态和调用结果指标
+ */
+@Slf4j
+@Service
+public class CircuitBreakerRegistry {
+
+    public static final String CHAT = "chat";
+    public static final String SYNC = "sync";
+    public static final String ASR = "asr";
+    public static final String TTS = "tts";
+    public static final String UPLOAD = "upload";
+
+    private final CircuitBreakerConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry(CircuitBreakerConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        for (String name : new String[]{CHAT, SYNC, ASR, TTS, UPLOAD}) {
+            get(name);
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public CircuitBreaker get(String name) {
+        return breakers.computeIfAbsent(name, this::create);
+    }
+
+    /**
+     * 申请调用许可；熔断中抛出CircuitOpenException，未启用熔断时返回null
+     */
+    public CircuitBreaker.Permit acquire(String name) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        CircuitBreaker breaker = get(name);
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            meterRegistry.counter("circuit.breaker.calls", "name", name, "outcome", "rejected").increment();
+            throw new CircuitOpenException(name, breaker.remainingOpenMs());
+        }
+        return permit;
+    }
+
+    /**
+     * 不占用名额地检查依赖是否可用，用于排队或建立连接之前提前快速失败
+     */
+    public void checkAvailable(String name) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        CircuitBreaker breaker = get(name);
+        if (!breaker.isCallPermitted()) {
+            meterRegistry.counter("circuit.breaker.calls", "name", name, "outcome", "rejected").increment();
+            throw new CircuitOpenException(name, breaker.remainingOpenMs());
+        }
+    }
+
+    /**
+     * 记录异步调用的结果
+     */
+    public void onSuccess(String name, CircuitBreaker.Permit permit) {
+        if (permit != null && permit.success()) {
+            meterRegistry.counter("circuit.breaker.calls", "name", name, "outcome", "success").increment();
+        }
+    }
+
+    public void onFailure(String name, CircuitBreaker.Permit permit) {
+        if (permit != null && permit.failure()) {
+            meterRegistry.counter("circuit.breaker.calls", "name", name, "outcome", "failure").increment();
+        }
+    }
+
+    public void onIgnored(String name, CircuitBreaker.Permit permit) {
+        if (permit != null && permit.release()) {
+            meterRegistry.counter("circuit.breaker.calls", "name", name, "outcome", "ignored").increment();
+        }
+    }
+
+    /**
+     * 按异常类型结束调用：本地满载或拒绝（请求未到达上游）不计入熔断统计，其余计为失败
+     */
+    public void onError(String name, CircuitBreaker.Permit permit, Throwable error) {
+        if (isLocalRejection(error)) {
+            onIgnored(name, permit);
+        } else {
+            onFailure(name, permit);
+        }
+    }
+
+    /**
+     * 是否为本地拒绝：端点并发名额占满、执行器拒绝或下游熔断快速失败，均不代表上游故障
+     */
+    public static boolean isLocalRejection(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof LlmEndpointsSaturatedException
+                    || current instanceof RejectedExecutionException
+                    || current instanceof CircuitOpenException) {
+                return true;
+            }
+            current = current.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * 带熔断的同步调用；4xx客户端错误视为依赖正常，不计入失败，本地拒绝不计入统计
+     */
+    public <T> T execute(String name, Supplier<T> call) {
+        CircuitBreaker.Permit permit = acquire(name);
+        try {
+            T result = call.get();
+            onSuccess(name, permit);
+            return result;
+        } catch (HttpClientErrorException e) {
+            onSuccess(name, permit);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            onError(name, permit, e);
+            throw e;
+        }
+    }
+
+    /**
+     * 各熔断器当前状态，供actuator端点展示
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        breakers.forEach((name, breaker) -> {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("state", breaker.getState());
+            info.put("failureRate", breaker.failureRate());
+            info.put("bufferedCalls", breaker.bufferedCalls());
+            info.put("remainingOpenMs", breaker.remainingOpenMs());
+            result.put(name, info);
+        });
+        return result;
+    }
+
+    private CircuitBreaker create(String name) {
+        CircuitBreaker breaker = new CircuitBreaker(name,
+                config.getSlidingWindowSize(),
+                config.getMinimumCalls(),
+                config.getFailureRateThreshold(),
+                config.getOpenDurationMs(),
+                config.getHalfOpenProbes(),
+                this::onTransition);
+        Gauge.builder("circuit.breaker.state", breaker, b -> b.getState().ordinal())
+                .tag("name", name)
+                .description("0=CLOSED, 1=OPEN, 2=HALF_OPEN")
+                .register(meterRegistry);
+        return breaker;
+    }
+
+    private void onTransition(String name, CircuitBreaker.State from, CircuitBreaker.State to) {
+        meterRegistry.counter("circuit.breaker.transitions", "name", name, "state", to.name()).increment();
+        if (to == CircuitBreaker.State.OPEN) {
+            log.warn("上游依赖熔断 - {}: {} -> {}, 熔断{}ms", name, from, to, config.getOpenDurationMs());
+        } else {
+            log.info("上游依赖熔断状态变化 - {}: {} -> {}", name, from, to);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.CollaborationSchedulerConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 协作聊天调度器
+ * 编排任务和角色任务分别使用有界线程池；角色任务先进入所在聊天室的队列，每个聊天室同时只占用有限个角色线程，
+ * 避免单个聊天室占满线程池。每个角色有并发舱壁，覆盖从提交到生成结束的整个过程。
+ * 任一环节已满时不阻塞调用方，通过回调返回拒绝原因，由调用方向客户端发送拒绝事件
+ */
+@Service
+public class CollaborationScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(CollaborationScheduler.class);
+
+    public static final String POOL_ORCHESTRATION = "orchestration";
+    public static final String POOL_ROLE = "role";
+
+    /**
+     * 拒绝原因
+     */
+    public enum Rejection {
+        POOL_FULL("系统繁忙，请稍后重试"),
+        ROOM_QUEUE_FULL("聊天室待处理的回复过多，请稍后重试"),
+        ROLE_BUSY("该角色当前对话过多，请稍后重试");
+
+        private final String message;
+
+        Rejection(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final CollaborationSchedulerConfig config;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Long, RoomLane> lanes = new ConcurrentHashMap<>();
+    private final Map<Long, Semaphore> roleBulkheads = new ConcurrentHashMap<>();
+    private final AtomicInteger roomPending = new AtomicInteger();
+
+    private ThreadPoolExecutor orchestrationPool;
+    private ThreadPoolExecutor rolePool;
+
+    public CollaborationScheduler(CollaborationSchedulerConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        orchestrationPool = newPool("collab-orchestration", config.getOrchestrationThreads(),
+                config.getOrchestrationQueueCapacity());
+        rolePool = newPool("collab-role", config.getRoleThreads(), config.getRoleQueueCapacity());
+        registerPoolGauges(POOL_ORCHESTRATION, orchestrationPool);
+        registerPoolGauges(POOL_ROLE, rolePool);
+        Gauge.builder("collaboration.scheduler.room.pending", roomPending, AtomicInteger::get)
+                .description("在各聊天室队列中等待角色线程的任务数")
+                .register(meterRegistry);
+        Gauge.builder("collaboration.scheduler.rooms.active", lanes, Map::size)
+                .description("有角色任务在执行或等待的聊天室数")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        orchestrationPool.shutdownNow();
+        rolePool.shutdownNow();
+    }
+
+    /**
+     * 提交聊天室编排任务（保存用户消息、选择角色、分派角色任务）
+     *
+     * @return 编排线程池已满时返回false
+     */
+    public boolean submitOrchestration(Long chatRoomId, Runnable task) {
+        try {
+            orchestrationPool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            recordRejection(POOL_ORCHESTRATION, Rejection.POOL_FULL);
+            log.warn("协作编排线程池已满，拒绝请求 - chatRoomId: {}", chatRoomId);
+            return false;
+        }
+    }
+
+    /**
+     * 提交角色任务
+     *
+     * @param completion 角色响应结束的信号，结束时释放该角色的舱壁
+     * @param task 角色任务（构建prompt并启动流式生成）
+     * @param onRejected 被拒绝时的回调，可能在调用线程上同步执行；此后task不会再执行
+     */
+    public void submitRole(Long chatRoomId, Long roleId, CompletableFuture<?> completion, Runnable task,
+                           Consumer<Rejection> onRejected) {
+        Semaphore bulkhead = roleBulkheads.computeIfAbsent(roleId, id -> new Semaphore(config.getMaxConcurrentPerRole()));
+        if (!bulkhead.tryAcquire()) {
+            recordRejection(POOL_ROLE, Rejection.ROLE_BUSY);
+            log.warn("角色并发已满，拒绝角色任务 - chatRoomId: {}, roleId: {}", chatRoomId, roleId);
+            onRejected.accept(Rejection.ROLE_BUSY);
+            return;
+        }
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        };
+        completion.whenComplete((result, error) -> release.run());
+
+        RoleTask roleTask = new RoleTask(chatRoomId, task, rejection -> {
+            release.run();
+            onRejected.accept(rejection);
+        });
+        List<RoleTask> rejected = new ArrayList<>(1);
+        lanes.compute(chatRoomId, (id, lane) -> {
+            RoomLane current = lane != null ? lane : new RoomLane();
+            if (current.running < config.getMaxRunningPerRoom()) {
+                current.running++;
+                if (!dispatch(current, roleTask)) {
+                    current.running--;
+                    rejected.add(roleTask);
+                }
+            } else if (current.pending.size() < config.getMaxPendingPerRoom()) {
+                current.pending.add(roleTask);
+                roomPending.incrementAndGet();
+            } else {
+                roleTask.rejection = Rejection.ROOM_QUEUE_FULL;
+                rejected.add(roleTask);
+            }
+            return current.isIdle() ? null : current;
+        });
+        rejected.forEach(this::reject);
+    }
+
+    /**
+     * 交给角色线程池执行，执行结束后从该聊天室的队列中取下一个任务
+     */
+    private boolean dispatch(RoomLane lane, RoleTask roleTask) {
+        try {
+            rolePool.execute(() -> {
+                try {
+                    roleTask.task.run();
+                } finally {
+                    onRoleTaskDone(roleTask.chatRoomId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            roleTask.rejection = Rejection.POOL_FULL;
+            return false;
+        }
+    }
+
+    private void onRoleTaskDone(Long chatRoomId) {
+        List<RoleTask> rejected = new ArrayList<>();
+        lanes.computeIfPresent(chatRoomId, (id, lane) -> {
+            lane.running--;
+            // 按提交顺序补位，线程池已满时该聊天室排队中的任务一并拒绝
+            while (lane.running < config.getMaxRunningPerRoom() && !lane.pending.isEmpty()) {
+                RoleTask next = lane.pending.poll();
+                roomPending.decrementAndGet();
+                lane.running++;
+                if (!dispatch(lane, next)) {
+                    lane.running--;
+                    rejected.add(next);
+                }
+            }
+            return lane.isIdle() ? null : lane;
+        });
+        rejected.forEach(this::reject);
+    }
+
+    private void reject(RoleTask roleTask) {
+        recordRejection(POOL_ROLE, roleTask.rejection);
+        log.warn("角色任务被拒绝 - chatRoomId: {}, 原因: {}", roleTask.chatRoomId, roleTask.rejection);
+        try {
+            roleTask.onRejected.accept(roleTask.rejection);
+        } catch (Exception e) {
+            log.error("处理角色任务拒绝回调失败", e);
+        }
+    }
+
+    private void recordRejection(String pool, Rejection rejection) {
+        meterRegistry.counter("collaboration.scheduler.rejected", "pool", pool,
+                "reason", rejection.name().toLowerCase()).increment();
+    }
+
+    private ThreadPoolExecutor newPool(String name, int threads, int queueCapacity) {
+        int size = Math.max(1, threads);
+        AtomicInteger index = new AtomicInteger();
+        return new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread thread = new Thread(r, name + "-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private void registerPoolGauges(String pool, ThreadPoolExecutor executor) {
+        Gauge.builder("collaboration.scheduler.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行任务的线程数").tag("pool", pool).register(meterRegistry);
+        Gauge.builder("collaboration.scheduler.queue.size", executor, e -> e.getQueue().size())
+                .description("线程池队列中等待的任务数").tag("pool", pool).register(meterRegistry);
+        Gauge.builder("collaboration.scheduler.queue.remaining", executor, e -> e.getQueue().remainingCapacity())
+                .description("线程池队列剩余容量").tag("pool", pool).register(meterRegistry);
+        Gauge.builder("collaboration.scheduler.saturation", executor,
+                        e -> (double) e.getActiveCount() / e.getMaximumPoolSize())
+                .description("线程池饱和度（执行中线程数/最大线程数）").tag("pool", pool).register(meterRegistry);
+    }
+
+    /**
+     * 单个聊天室的角色任务队列，只在ConcurrentHashMap.compute中访问
+     */
+    private static class RoomLane {
+        private final ArrayDeque<RoleTask> pending = new ArrayDeque<>();
+        private int running;
+
+        boolean isIdle() {
+            return running == 0 && pending.isEmpty();
+        }
+    }
+
+    private static class RoleTask {
+        private final Long chatRoomId;
+        private final Runnable task;
+        private final Consumer<Rejection> onRejected;
+        private Rejection rejection;
+
+        RoleTask(Long chatRoomId, Runnable task, Consumer<Rejection> onRejected) {
+            this.chatRoomId = chatRoomId;
+            this.task = task;
+            this.onRejected = onRejected;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.ContextWindowConfig;
+import com.aichat.roleplay.config.ConversationCacheConfig;
+import com.aichat.roleplay.model.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 进程内会话缓存
+ * 按chatId缓存会话摘要与最近消息窗口，首次访问时从数据库填充，之后由消息写入方追加，
+ * 使活跃会话的每轮对话（包括反思重试）不再读取历史消息表。
+ * 填充期间写入的消息先暂存，填充时与数据库结果合并去重；已有的缓存条目不会被填充结果覆盖。
+ * 采用LRU + 空闲过期淘汰，并按消息内容估算总内存占用。
+ */
+@Slf4j
+@Service
+public class ConversationCache {
+
+    // 每条消息的对象开销估算（字节）
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;
+
+    private final ConversationCacheConfig config;
+    private final ContextWindowConfig contextWindowConfig;
+
+    // accessOrder=true，迭代顺序即LRU顺序
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+
+    // 正在从数据库填充的会话，及填充期间写入的消息
+    private final Map<Long, Loading> loading = new HashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter sizeEvictionCounter;
+    private final Counter memoryEvictionCounter;
+    private final Counter expiredEvictionCounter;
+
+    public ConversationCache(ConversationCacheConfig config,
+                             ContextWindowConfig contextWindowConfig,
+                             MeterRegistry meterRegistry) {
+        this.config = config;
+        this.contextWindowConfig = contextWindowConfig;
+        this.hitCounter = meterRegistry.counter("conversation.cache.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("conversation.cache.requests", "result", "miss");
+        this.sizeEvictionCounter = meterRegistry.counter("conversation.cache.evictions", "cause", "size");
+        this.memoryEvictionCounter = meterRegistry.counter("conversation.cache.evictions", "cause", "memory");
+        this.expiredEvictionCounter = meterRegistry.counter("conversation.cache.evictions", "cause", "expired");
+        Gauge.builder("conversation.cache.size", this, ConversationCache::size).register(meterRegistry);
+        Gauge.builder("conversation.cache.memory.bytes", this, ConversationCache::memoryBytes).register(meterRegistry);
+    }
+
+    /**
+     * 获取会话快照，未命中返回null
+     */
+    public Snapshot get(Long chatId) {
+        if (!config.isEnabled() || chatId == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(chatId);
+            if (entry == null) {
+                missCounter.increment();
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (isExpired(entry, now)) {
+                removeEntry(chatId, entry);
+                expiredEvictionCounter.increment();
+                missCounter.increment();
+                return null;
+            }
+            entry.lastAccess = now;
+            hitCounter.increment();
+            return entry.snapshot();
+        }
+    }
+
+    /**
+     * 开始从数据库填充会话，此后到endLoad之前写入的消息暂存并在put时合并；须与endLoad成对调用
+     */
+    public void beginLoad(Long chatId) {
+        if (!config.isEnabled() || chatId == null) {
+            return;
+        }
+        synchronized (this) {
+            loading.computeIfAbsent(chatId, id -> new Loading()).loaders++;
+        }
+    }
+
+    /**
+     * 填充结束（无论成功与否），最后一个填充方结束时丢弃暂存的消息
+     */
+    public void endLoad(Long chatId) {
+        if (chatId == null) {
+            return;
+        }
+        synchronized (this) {
+            Loading load = loading.get(chatId);
+            if (load != null && --load.loaders <= 0) {
+                loading.remove(chatId);
+            }
+        }
+    }
+
+    /**
+     * 用数据库读取结果填充会话缓存，合并填充期间写入的消息；已有未过期的条目时保留已有条目
+     *
+     * @param recentDesc 最近消息，按ID倒序
+     */
+    public void put(Long chatId, String summary, Long summaryMessageId, List<Message> recentDesc) {
+        if (!config.isEnabled() || chatId == null) {
+            return;
+        }
+        List<Message> ascending = new ArrayList<>(recentDesc);
+        Collections.reverse(ascending);
+
+        synchronized (this) {
+            Entry old = entries.get(chatId);
+            if (old != null && !isExpired(old, System.currentTimeMillis())) {
+                // 其他请求已填充，之后的写入已追加到该条目，比本次读取结果更新
+                return;
+            }
+            if (old != null) {
+                removeEntry(chatId, old);
+            }
+            Loading load = loading.get(chatId);
+            if (load != null && !load.appended.isEmpty()) {
+                Set<Long> persistedIds = new HashSet<>();
+                for (Message message : ascending) {
+                    persistedIds.add(message.getId());
+                }
+                for (Message message : load.appended) {
+                    if (persistedIds.add(message.getId())) {
+                        ascending.add(message);
+                    }
+                }
+                ascending.sort(Comparator.comparing(Message::getId));
+            }
+            Entry entry = new Entry(summary, summaryMessageId, ascending);
+            trim(entry);
+            entries.put(chatId, entry);
+            totalBytes += entry.bytes;
+            evictIfNeeded(chatId);
+        }
+    }
+
+    /**
+     * 写入新消息后追加到已缓存的会话；正在填充的会话先暂存，其余未缓存的会话不做处理，下次访问时再从数据库填充
+     */
+    public void appendMessage(Message message) {
+        if (!config.isEnabled() || message == null || message.getChatId() == null || message.getId() == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(message.getChatId());
+            if (entry == null) {
+                Loading load = loading.get(message.getChatId());
+                if (load != null) {
+                    load.appended.add(message);
+                }
+                return;
+            }
+            long before = entry.bytes;
+            List<Message> messages = entry.messages;
+            messages.add(message);
+            int last = messages.size() - 1;
+            if (last > 0 && messages.get(last - 1).getId() > message.getId()) {
+                // 并发写入导致乱序时按ID重新排序
+                messages.sort(Comparator.comparing(Message::getId));
+            }
+            entry.bytes += estimate(message.getContent());
+            trim(entry);
+            entry.lastAccess = System.currentTimeMillis();
+            totalBytes += entry.bytes - before;
+            evictIfNeeded(message.getChatId());
+        }
+    }
+
+    /**
+     * 更新已缓存会话的摘要
+     */
+    public void updateSummary(Long chatId, String summary, Long summaryMessageId) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(chatId);
+            if (entry == null) {
+                return;
+            }
+            long before = entry.bytes;
+            entry.bytes += estimate(summary) - estimate(entry.summary);
+            entry.summary = summary;
+            entry.summaryMessageId = summaryMessageId;
+            totalBytes += entry.bytes - before;
+        }
+    }
+
+    /**
+     * 移除会话缓存（会话删除等场景）
+     */
+    public void invalidate(Long chatId) {
+        synchronized (this) {
+            Entry entry = entries.remove(chatId);
+            if (entry != null) {
+                totalBytes -= entry.bytes;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long memoryBytes() {
+        return totalBytes;
+    }
+
+    private void trim(Entry entry) {
+        int max = Math.max(1, contextWindowConfig.getMaxFetchMessages());
+        List<Message> messages = entry.messages;
+        while (messages.size() > max) {
+            Message removed = messages.remove(0);
+            entry.bytes -= estimate(removed.getContent());
+        }
+    }
+
+    /**
+     * 先淘汰过期会话，再按LRU淘汰直到满足数量和内存上限（不淘汰刚写入的会话）
+     */
+    private void evictIfNeeded(Long currentChatId) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Entry> e = it.next();
+            boolean overSize = entries.size() > config.getMaxChats();
+            boolean overMemory = totalBytes > config.getMaxMemoryBytes();
+            boolean expired = isExpired(e.getValue(), now);
+            if (!overSize && !overMemory && !expired) {
+                break;
+            }
+            if (e.getKey().equals(currentChatId)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= e.getValue().bytes;
+            if (expired) {
+                expiredEvictionCounter.increment();
+            } else if (overSize) {
+                sizeEvictionCounter.increment();
+            } else {
+                memoryEvictionCounter.increment();
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.lastAccess > config.getTtlSeconds() * 1000;
+    }
+
+    private void removeEntry(Long chatId, Entry entry) {
+        entries.remove(chatId);
+        totalBytes -= entry.bytes;
+    }
+
+    private static long estimate(String content) {
+        return MESSAGE_OVERHEAD_BYTES + (content != null ? content.length() * 2L : 0);
+    }
+
+    /**
+     * 填充中的会话：并发填充方计数和填充期间写入的消息
+     */
+    private static class Loading {
+        int loaders;
+        final List<Message> appended = new ArrayList<>();
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        String summary;
+        Long summaryMessageId;
+        final List<Message> messages;
+        long lastAccess;
+        long bytes;
+
+        Entry(String summary, Long summaryMessageId, List<Message> messages) {
+            this.summary = summary;
+            this.summaryMessageId = summaryMessageId;
+            this.messages = messages;
+            this.lastAccess = System.currentTimeMillis();
+            this.bytes = estimate(summary);
+            for (Message message : messages) {
+                this.bytes += estimate(message.getContent());
+            }
+        }
+
+        Snapshot snapshot() {
+            List<Message> desc = new ArrayList<>(messages);
+            Collections.reverse(desc);
+            return new Snapshot(summary, summaryMessageId, desc);
+        }
+    }
+
+    /**
+     * 会话缓存快照（只读副本）
+     */
+    public static class Snapshot {
+        private final String summary;
+        private final Long summaryMessageId;
+        private final List<Message> recentMessagesDesc;
+
+        Snapshot(String summary, Long summaryMessageId, List<Message> recentMessagesDesc) {
+            this.summary = summary;
+            this.summaryMessageId = summaryMessageId;
+            this.recentMessagesDesc = recentMessagesDesc;
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+
+        public Long getSummaryMessageId() {
+            return summaryMessageId;
+        }
+
+        /**
+         * 最近消息，按ID倒序
+         */
+        public List<Message> getRecentMessagesDesc() {
+            return recentMessagesDesc;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.aichat.roleplay.service;
 
-import java.util.List;
-import java.util.Map;
+import com.aichat.roleplay.dto.ChatPrompt;
+
 
 /**
  * AI聊天服务接口
@@ -10,7 +10,21 @@ import java.util.Map;
  */
 public interface IAiChatService {
 
-    void generateStreamResponseDirect(String fullPrompt, StreamResponseCallback callback);
+    /**
+     * 使用完整prompt流式生成回复
+     *
+     * @return 生成句柄，可用于中途取消上游生成
+     * @throws com.aichat.roleplay.exception.CircuitOpenException 上游对话模型已熔断
+     */
+    GenerationHandle generateStreamResponseDirect(String fullPrompt, StreamResponseCallback callback);
+
+    /**
+     * 使用结构化prompt（系统消息 + 历史 + 本轮用户消息）流式生成回复
+     *
+     * @return 生成句柄，可用于中途取消上游生成
+     * @throws com.aichat.roleplay.exception.CircuitOpenException 上游对话模型已熔断
+     */
+    GenerationHandle generateStreamResponse(ChatPrompt prompt, StreamResponseCallback callback);
 
     /**
      * 流式响应回调接口
@@ -18,4 +32,14 @@ public interface IAiChatService {
     interface StreamResponseCallback {
         void onResponse(String token);
     }
-}
\ No newline at end of file
+
+    /**
+     * 流式生成句柄
+     * 取消后不再向回调推送任何token（包括[DONE]和[ERROR]）
+     */
+    interface GenerationHandle {
+        void cancel();
+
+        boolean isCancelled();
+    }
+}
@@ -109,7 +109,7 @@ public interface IChatroomMessageService {
      *
      * @param chatRoomId 聊天室ID
      * @param limit      消息数量限制
-     * @return 消息列表（按时间倒序）
+     * @return 消息列表（按时间正序）
      */
     List<ChatroomMessage> getRecentMessages(Long chatRoomId, int limit);
 
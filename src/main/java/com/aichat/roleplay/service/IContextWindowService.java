@@ -0,0 +1,18 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.dto.ContextWindow;
+
+/**
+ * 对话上下文窗口服务接口
+ * 在固定的token预算内为每轮对话提供历史上下文，超出窗口的旧消息压缩为滚动摘要
+ */
+public interface IContextWindowService {
+
+    /**
+     * 加载聊天会话的上下文窗口
+     *
+     * @param chatId 聊天会话ID
+     * @return 摘要与预算内的最近消息
+     */
+    ContextWindow loadContext(Long chatId);
+}
@@ -47,4 +47,52 @@ public interface IReflectionAgentService {
      * @return 最终回复
      */
     String generateFinalResponse(String originalQuery, String aiResponse);
-}
\ No newline at end of file
+    
+    /**
+     * 为一次流式生成创建增量反思会话，在token到达时持续检测
+     *
+     * @param originalQuery 原始用户查询
+     * @return 流式反思会话，反思功能或流式反思关闭时返回null
+     */
+    StreamingReflection startStreamingReflection(String originalQuery);
+    
+    /**
+     * 流式反思中止生成后的处理：仍可重试时返回重试结果，否则返回错误结果
+     *
+     * @param originalQuery 原始用户查询
+     * @param partialResponse 中止前已生成的部分回复
+     * @param reflection 触发中止的流式反思会话
+     * @param currentRetryCount 当前重试次数
+     * @return 反思结果
+     */
+    ReflectionResult reflectOnAbort(String originalQuery, String partialResponse, StreamingReflection reflection, int currentRetryCount);
+    
+    /**
+     * 流式反思会话
+     * 检测器保存增量状态，每个token只处理新增内容
+     */
+    interface StreamingReflection {
+        
+        /**
+         * 处理新到达的token
+         *
+         * @return 是否已达到严重异常阈值，需要中止生成
+         */
+        boolean onToken(String token);
+        
+        /**
+         * 当前异常分数
+         */
+        double getScore();
+        
+        /**
+         * 检测到的问题描述
+         */
+        String getDetectedIssue();
+        
+        /**
+         * 已处理的字符数
+         */
+        int getProcessedChars();
+    }
+}
@@ -2,12 +2,13 @@ package com.aichat.roleplay.service;
 
 import com.aichat.roleplay.dto.RoleSelectionResult;
 import com.aichat.roleplay.model.Role;
+import dev.langchain4j.data.embedding.Embedding;
 
 import java.util.List;
 
 /**
  * 角色选择器接口
- * 使用LLM智能选择最适合的角色参与聊天室对话
+ * 先按向量相似度本地路由，排名不够明确时再由LLM从候选角色中选择最适合的角色参与聊天室对话
  */
 public interface IRoleSelector {
     
@@ -18,8 +19,19 @@ public interface IRoleSelector {
      * @param availableRoles 聊天室中可用的角色列表
      * @param topK 选择的角色数量
      * @param context 上下文信息（可选）
+     * @param userId 发起请求的用户ID（可选），用于token用量统计
      * @return 角色选择结果
      */
-    RoleSelectionResult selectTopKRoles(String userMessage, List<Role> availableRoles, int topK, String context);
+    default RoleSelectionResult selectTopKRoles(String userMessage, List<Role> availableRoles, int topK, String context, Long userId) {
+        return selectTopKRoles(userMessage, availableRoles, topK, context, userId, null);
+    }
+
+    /**
+     * 同上，复用调用方已计算的用户消息向量（如角色选择缓存未命中时的查询向量），避免重复计算
+     *
+     * @param messageEmbedding 用户消息向量（可选），为空时由向量路由自行计算
+     */
+    RoleSelectionResult selectTopKRoles(String userMessage, List<Role> availableRoles, int topK, String context,
+                                        Long userId, Embedding messageEmbedding);
 
 }
\ No newline at end of file
@@ -0,0 +1,409 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.AdmissionConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LLM流式生成准入控制
+ * 在发起上游生成前检查全局、每用户、每会话的并发上限；超出时进入按用户轮转的公平等待队列，
+ * 队列已满、单用户排队过多或排队超时时立即拒绝，保证突发流量下的尾延迟有界
+ */
+@Slf4j
+@Service
+public class LlmAdmissionService {
+
+    /**
+     * 准入结果回调；排队后获准的onAdmitted在准入回调线程池中执行
+     */
+    public interface AdmissionListener {
+        void onAdmitted();
+
+        /**
+         * 排队中或排队位置变化
+         *
+         * @param position 当前排队位置（从1开始）
+         * @param estimatedWaitMs 预计等待时间（毫秒）
+         */
+        default void onQueued(int position, long estimatedWaitMs) {
+        }
+
+        void onRejected(String reason);
+    }
+
+    private enum TicketState {
+        QUEUED,
+        ADMITTED,
+        RELEASED,
+        REJECTED
+    }
+
+    /**
+     * 准入凭证：请求结束（完成、失败或客户端断开）时必须释放；排队中释放即取消排队
+     */
+    public final class Ticket {
+        private final String userKey;
+        private final String chatKey;
+        private final int weight;
+        private final AdmissionListener listener;
+        private final boolean tracked;
+        private final long sequence;
+        private final long createdNanos = System.nanoTime();
+
+        // 以下字段由 LlmAdmissionService.this 保护
+        private TicketState state;
+        private long admittedNanos;
+        private int notifiedPosition;
+
+        private Ticket(String userKey, String chatKey, int weight, AdmissionListener listener, boolean tracked, long sequence) {
+            this.userKey = userKey;
+            this.chatKey = chatKey;
+            this.weight = weight;
+            this.listener = listener;
+            this.tracked = tracked;
+            this.sequence = sequence;
+        }
+
+        public void release() {
+            LlmAdmissionService.this.release(this);
+        }
+    }
+
+    private static final double HOLD_TIME_EWMA_ALPHA = 0.2;
+
+    private final AdmissionConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Timer queueWaitTimer;
+
+    // 只做排队超时清理
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "llm-admission-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 执行排队后获准的回调（构建prompt、发起生成等），阻塞的回调不影响排队超时清理
+    private final ExecutorService dispatchExecutor;
+
+    // 以下字段由 this 保护
+    private final LinkedHashMap<String, ArrayDeque<Ticket>> queues = new LinkedHashMap<>();
+    private final Map<String, Integer> activeByUser = new HashMap<>();
+    private final Map<String, Integer> activeByChat = new HashMap<>();
+    private int inFlight = 0;
+    private int queued = 0;
+    private long sequence = 0;
+    private double avgHoldMs;
+
+    public LlmAdmissionService(AdmissionConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.avgHoldMs = config.getInitialHoldEstimateMs();
+        this.dispatchExecutor = Executors.newFixedThreadPool(Math.max(1, config.getDispatchThreads()), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "llm-admission-dispatch-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.queueWaitTimer = meterRegistry.timer("llm.admission.queue.wait");
+        Gauge.builder("llm.admission.in_flight", this, LlmAdmissionService::inFlight).register(meterRegistry);
+        Gauge.builder("llm.admission.queue.depth", this, LlmAdmissionService::queueDepth).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::expireQueued, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 申请准入
+     *
+     * @param userId 用户ID，为空时按会话计
+     * @param chatKey 会话标识（如 chat:1、room:2）
+     * @param weight 占用的上游生成数（协作聊天为参与角色数）
+     */
+    public Ticket acquire(Long userId, String chatKey, int weight, AdmissionListener listener) {
+        String userKey = userId != null ? "user:" + userId : chatKey;
+        int clampedWeight = Math.max(1, Math.min(weight, Math.max(1, config.getMaxConcurrent())));
+
+        if (!config.isEnabled()) {
+            Ticket ticket = new Ticket(userKey, chatKey, clampedWeight, listener, false, 0);
+            ticket.state = TicketState.ADMITTED;
+            listener.onAdmitted();
+            return ticket;
+        }
+
+        List<Runnable> actions = new ArrayList<>();
+        Ticket ticket;
+        String rejectReason = null;
+        String rejectTag = null;
+        boolean admittedNow = false;
+        synchronized (this) {
+            ticket = new Ticket(userKey, chatKey, clampedWeight, listener, true, ++sequence);
+            if (queued == 0 && canAdmitLocked(ticket)) {
+                admitLocked(ticket);
+                admittedNow = true;
+            } else if (queued >= config.getMaxQueueDepth()) {
+                rejectReason = "系统繁忙，请稍后重试";
+                rejectTag = "queue_full";
+            } else if (queuedForUserLocked(userKey) >= config.getMaxQueuedPerUser()) {
+                rejectReason = "您的请求过多，请等待当前回复完成";
+                rejectTag = "user_queue_full";
+            } else {
+                ticket.state = TicketState.QUEUED;
+                queues.computeIfAbsent(userKey, k -> new ArrayDeque<>()).addLast(ticket);
+                queued++;
+                meterRegistry.counter("llm.admission.requests", "result", "queued").increment();
+                // 排队的请求可能仅被其他会话的上限阻塞，尝试一次调度
+                dispatchLocked(actions);
+                notifyPositionsLocked(actions);
+            }
+            if (rejectReason != null) {
+                ticket.state = TicketState.REJECTED;
+            }
+        }
+
+        if (admittedNow) {
+            meterRegistry.counter("llm.admission.requests", "result", "admitted").increment();
+            listener.onAdmitted();
+        } else if (rejectReason != null) {
+            log.warn("LLM请求被拒绝 - user: {}, chat: {}, 原因: {}", userKey, chatKey, rejectTag);
+            meterRegistry.counter("llm.admission.requests", "result", "rejected").increment();
+            meterRegistry.counter("llm.admission.rejected", "reason", rejectTag).increment();
+            listener.onRejected(rejectReason);
+        }
+        runActions(actions);
+        return ticket;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queueDepth() {
+        return queued;
+    }
+
+    private void release(Ticket ticket) {
+        if (!ticket.tracked) {
+            return;
+        }
+        List<Runnable> actions = new ArrayList<>();
+        synchronized (this) {
+            if (ticket.state == TicketState.QUEUED) {
+                // 排队中客户端断开
+                removeQueuedLocked(ticket);
+                ticket.state = TicketState.RELEASED;
+                meterRegistry.counter("llm.admission.requests", "result", "abandoned").increment();
+            } else if (ticket.state == TicketState.ADMITTED) {
+                ticket.state = TicketState.RELEASED;
+                inFlight -= ticket.weight;
+                decrement(activeByUser, ticket.userKey);
+                decrement(activeByChat, ticket.chatKey);
+                double holdMs = (System.nanoTime() - ticket.admittedNanos) / 1_000_000.0;
+                avgHoldMs = HOLD_TIME_EWMA_ALPHA * holdMs + (1 - HOLD_TIME_EWMA_ALPHA) * avgHoldMs;
+            } else {
+                return;
+            }
+            dispatchLocked(actions);
+            notifyPositionsLocked(actions);
+        }
+        runActions(actions);
+    }
+
+    /**
+     * 按用户轮转调度：跳过被自身每用户/每会话上限阻塞的请求；
+     * 轮到的请求因全局容量不足无法准入时停止调度，为其保留容量，避免大请求被持续插队
+     */
+    private void dispatchLocked(List<Runnable> actions) {
+        boolean progress = true;
+        while (progress && queued > 0) {
+            progress = false;
+            String servedUser = null;
+            for (Map.Entry<String, ArrayDeque<Ticket>> entry : queues.entrySet()) {
+                Ticket candidate = firstWithinChatLimitLocked(entry.getValue());
+                if (candidate == null || activeByUser.getOrDefault(entry.getKey(), 0) >= config.getMaxPerUser()) {
+                    continue;
+                }
+                if (inFlight + candidate.weight > config.getMaxConcurrent()) {
+                    return;
+                }
+                entry.getValue().remove(candidate);
+                queued--;
+                admitLocked(candidate);
+                queueWaitTimer.record(System.nanoTime() - candidate.createdNanos, TimeUnit.NANOSECONDS);
+                meterRegistry.counter("llm.admission.requests", "result", "admitted").increment();
+                actions.add(() -> dispatchAdmitted(candidate));
+                servedUser = entry.getKey();
+                progress = true;
+                break;
+            }
+            if (servedUser != null) {
+                // 轮转：刚被服务的用户移到队尾
+                ArrayDeque<Ticket> queue = queues.remove(servedUser);
+                if (queue != null && !queue.isEmpty()) {
+                    queues.put(servedUser, queue);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在回调线程池中执行准入回调；线程池已关闭（应用停止中）时归还名额
+     */
+    private void dispatchAdmitted(Ticket ticket) {
+        try {
+            dispatchExecutor.execute(() -> {
+                try {
+                    ticket.listener.onAdmitted();
+                } catch (Exception e) {
+                    log.error("准入回调执行失败", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("准入回调线程池已关闭，放弃执行 - chat: {}", ticket.chatKey);
+            release(ticket);
+        }
+    }
+
+    private Ticket firstWithinChatLimitLocked(ArrayDeque<Ticket> queue) {
+        for (Ticket ticket : queue) {
+            if (activeByChat.getOrDefault(ticket.chatKey, 0) < config.getMaxPerChat()) {
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    private boolean canAdmitLocked(Ticket ticket) {
+        return inFlight + ticket.weight <= config.getMaxConcurrent()
+                && activeByUser.getOrDefault(ticket.userKey, 0) < config.getMaxPerUser()
+                && activeByChat.getOrDefault(ticket.chatKey, 0) < config.getMaxPerChat();
+    }
+
+    private void admitLocked(Ticket ticket) {
+        ticket.state = TicketState.ADMITTED;
+        ticket.admittedNanos = System.nanoTime();
+        inFlight += ticket.weight;
+        activeByUser.merge(ticket.userKey, 1, Integer::sum);
+        activeByChat.merge(ticket.chatKey, 1, Integer::sum);
+    }
+
+    private int queuedForUserLocked(String userKey) {
+        ArrayDeque<Ticket> queue = queues.get(userKey);
+        return queue != null ? queue.size() : 0;
+    }
+
+    private void removeQueuedLocked(Ticket ticket) {
+        ArrayDeque<Ticket> queue = queues.get(ticket.userKey);
+        if (queue != null && queue.remove(ticket)) {
+            queued--;
+            if (queue.isEmpty()) {
+                queues.remove(ticket.userKey);
+            }
+        }
+    }
+
+    /**
+     * 按到达顺序计算排队位置，位置变化时通知客户端
+     */
+    private void notifyPositionsLocked(List<Runnable> actions) {
+        if (queued == 0) {
+            return;
+        }
+        List<Ticket> waiting = new ArrayList<>(queued);
+        for (ArrayDeque<Ticket> queue : queues.values()) {
+            waiting.addAll(queue);
+        }
+        waiting.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        int maxConcurrent = Math.max(1, config.getMaxConcurrent());
+        for (int i = 0; i < waiting.size(); i++) {
+            Ticket ticket = waiting.get(i);
+            int position = i + 1;
+            if (ticket.notifiedPosition == position) {
+                continue;
+            }
+            ticket.notifiedPosition = position;
+            long estimatedWaitMs = (long) Math.ceil((double) position / maxConcurrent) * Math.round(avgHoldMs);
+            actions.add(() -> ticket.listener.onQueued(position, estimatedWaitMs));
+        }
+    }
+
+    private void expireQueued() {
+        List<Runnable> actions = new ArrayList<>();
+        try {
+            long now = System.nanoTime();
+            long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxQueueWaitMs());
+            synchronized (this) {
+                Iterator<Map.Entry<String, ArrayDeque<Ticket>>> entries = queues.entrySet().iterator();
+                while (entries.hasNext()) {
+                    ArrayDeque<Ticket> queue = entries.next().getValue();
+                    Iterator<Ticket> tickets = queue.iterator();
+                    while (tickets.hasNext()) {
+                        Ticket ticket = tickets.next();
+                        if (now - ticket.createdNanos > maxWaitNanos) {
+                            tickets.remove();
+                            queued--;
+                            ticket.state = TicketState.REJECTED;
+                            meterRegistry.counter("llm.admission.requests", "result", "rejected").increment();
+                            meterRegistry.counter("llm.admission.rejected", "reason", "timeout").increment();
+                            actions.add(() -> ticket.listener.onRejected("排队超时，请稍后重试"));
+                        }
+                    }
+                    if (queue.isEmpty()) {
+                        entries.remove();
+                    }
+                }
+                if (!actions.isEmpty()) {
+                    notifyPositionsLocked(actions);
+                }
+            }
+        } catch (Exception e) {
+            log.error("清理排队超时请求失败", e);
+        }
+        runActions(actions);
+    }
+
+    private void runActions(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                log.error("准入通知执行失败", e);
+            }
+        }
+    }
+
+    private static void decrement(Map<String, Integer> counts, String key) {
+        counts.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        dispatchExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,666 @@
+package com.aichat.roleplay.service;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.aichat.roleplay.config.WriteBehindConfig;
+import com.aichat.roleplay.mapper.ChatroomMessageMapper;
+import com.aichat.roleplay.mapper.MessageMapper;
+import com.aichat.roleplay.model.ChatroomMessage;
+import com.aichat.roleplay.model.Message;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLDataException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 消息异步写入服务（write-behind）
+ * 消息提交后立即返回，由后台写入线程凑批后通过JDBC批量插入，数据库延迟不再计入首token时间。
+ * 按会话ID分片到固定的写入线程，保证同一会话内的写入顺序；
+ * SPILL模式下，数据库变慢、失败或队列已满时，新消息先fsync追加到本地溢出文件，
+ * 内存队列写完后再按顺序回放溢出文件，回放完成后恢复内存队列；回放位置每批写入成功后fsync到位置文件，
+ * 重启后从该位置继续回放，已写入的记录不会重复插入。
+ * 整批多次写入失败后逐条插入，仍失败的单条记录写入死信文件，不阻塞同一分片的后续消息
+ */
+@Slf4j
+@Service
+public class MessageWriteBehindService {
+
+    private static final String TYPE_MESSAGE = "message";
+    private static final String TYPE_CHATROOM_MESSAGE = "chatroom_message";
+
+    private final WriteBehindConfig config;
+
+    private final Map<String, Sink<?>> sinks = new LinkedHashMap<>();
+    private final List<Shard> shards = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final Counter persistedCounter;
+    private final Counter spilledCounter;
+    private final Counter failedBatchCounter;
+    private final Counter deadLetterCounter;
+    private final Timer batchTimer;
+    private final DistributionSummary batchSizeSummary;
+
+    public MessageWriteBehindService(WriteBehindConfig config,
+                                     MessageMapper messageMapper,
+                                     ChatroomMessageMapper chatroomMessageMapper,
+                                     ConversationCache conversationCache,
+                                     MeterRegistry meterRegistry) {
+        this.config = config;
+
+        // 写入成功后追加到会话缓存，保证缓存中的消息都带有数据库ID
+        sinks.put(TYPE_MESSAGE, new Sink<>(Message.class, messageMapper::insert, conversationCache::appendMessage));
+        sinks.put(TYPE_CHATROOM_MESSAGE, new Sink<>(ChatroomMessage.class, chatroomMessageMapper::insert, null));
+
+        this.persistedCounter = meterRegistry.counter("persistence.writebehind.records", "result", "persisted");
+        this.spilledCounter = meterRegistry.counter("persistence.writebehind.records", "result", "spilled");
+        this.failedBatchCounter = meterRegistry.counter("persistence.writebehind.batch.failures");
+        this.deadLetterCounter = meterRegistry.counter("persistence.writebehind.records", "result", "dead_letter");
+        this.batchTimer = meterRegistry.timer("persistence.writebehind.batch.latency");
+        this.batchSizeSummary = meterRegistry.summary("persistence.writebehind.batch.size");
+        Gauge.builder("persistence.writebehind.queue.size", this, MessageWriteBehindService::queueSize).register(meterRegistry);
+        Gauge.builder("persistence.writebehind.spill.bytes", this, MessageWriteBehindService::spillBacklogBytes).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!config.isEnabled()) {
+            log.info("消息异步写入已关闭，使用同步插入");
+            return;
+        }
+        int threads = Math.max(1, config.getWriterThreads());
+        for (int i = 0; i < threads; i++) {
+            Shard shard = new Shard(i);
+            shard.recoverSpill();
+            shards.add(shard);
+            shard.thread.start();
+        }
+        log.info("消息异步写入已启动 - 写入线程: {}, 队列容量: {}, 批大小: {}, 模式: {}",
+                threads, config.getQueueCapacity(), config.getBatchSize(), config.getDurability());
+    }
+
+    /**
+     * 提交单聊消息
+     */
+    public void submit(Message message) {
+        submit(TYPE_MESSAGE, message.getChatId(), message);
+    }
+
+    /**
+     * 提交聊天室消息
+     */
+    public void submit(ChatroomMessage message) {
+        submit(TYPE_CHATROOM_MESSAGE, message.getChatRoomId(), message);
+    }
+
+    private void submit(String type, Long orderKey, Object entity) {
+        stampSentAt(entity);
+        PendingWrite write = new PendingWrite(type, entity);
+
+        if (!config.isEnabled() || shards.isEmpty()) {
+            persistBatch(List.of(write));
+            return;
+        }
+
+        Shard shard = shards.get(Math.floorMod(orderKey != null ? orderKey.hashCode() : 0, shards.size()));
+        if (config.getDurability() == WriteBehindConfig.Durability.SPILL) {
+            synchronized (shard) {
+                if (shard.spilling || !shard.queue.offer(write)) {
+                    shard.spill(write);
+                }
+            }
+            return;
+        }
+
+        try {
+            // MEMORY模式下队列满时阻塞提交方，形成背压
+            shard.queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("提交异步写入被中断，改为同步插入");
+            persistBatch(List.of(write));
+        }
+    }
+
+    public int queueSize() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.queue.size();
+        }
+        return size;
+    }
+
+    public long spillBacklogBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.spillBacklogBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 按类型分组批量插入，成功后触发写入回调
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void persistBatch(List<PendingWrite> batch) {
+        Map<String, List<Object>> byType = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            byType.computeIfAbsent(write.type, k -> new ArrayList<>()).add(write.entity);
+        }
+        for (Map.Entry<String, List<Object>> entry : byType.entrySet()) {
+            Sink sink = sinks.get(entry.getKey());
+            sink.inserter.accept(entry.getValue());
+            if (sink.onPersisted != null) {
+                for (Object entity : entry.getValue()) {
+                    try {
+                        sink.onPersisted.accept(entity);
+                    } catch (Exception e) {
+                        // 已落库，回调失败不能触发重试，否则会重复插入
+                        log.warn("写入成功回调失败: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        persistedCounter.increment(batch.size());
+    }
+
+    private void stampSentAt(Object entity) {
+        // 发送时间取提交时刻，而不是实际落库时刻
+        if (entity instanceof Message message && message.getSentAt() == null) {
+            message.setSentAt(LocalDateTime.now());
+        } else if (entity instanceof ChatroomMessage message && message.getSentAt() == null) {
+            message.setSentAt(LocalDateTime.now());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Shard shard : shards) {
+            shard.thread.interrupt();
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            shard.drainOnShutdown();
+        }
+    }
+
+    /**
+     * 写入分片：一个有界队列 + 一个写入线程 + 一个溢出文件
+     */
+    private class Shard {
+        final int index;
+        final BlockingQueue<PendingWrite> queue;
+        final Thread thread;
+        final Path spillFile;
+        final Path spillOffsetFile;
+        final Path deadLetterFile;
+
+        // 以下字段由 synchronized(this) 保护
+        boolean spilling = false;
+        FileChannel spillChannel;
+        long spillReadOffset = 0;
+
+        Shard(int index) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+            this.spillFile = Paths.get(config.getSpillDir(), "messages-" + index + ".spill");
+            this.spillOffsetFile = Paths.get(config.getSpillDir(), "messages-" + index + ".spill.offset");
+            this.deadLetterFile = Paths.get(config.getSpillDir(), "dead-letter-" + index + ".jsonl");
+            this.thread = new Thread(this::runLoop, "message-writer-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void runLoop() {
+            while (running) {
+                try {
+                    List<PendingWrite> batch = nextBatch();
+                    if (!batch.isEmpty()) {
+                        writeWithRetry(batch, false);
+                    } else if (hasSpillBacklog()) {
+                        replaySpill();
+                    }
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.error("消息写入线程异常 - shard: {}", index, e);
+                }
+            }
+        }
+
+        List<PendingWrite> nextBatch() throws InterruptedException {
+            List<PendingWrite> batch = new ArrayList<>();
+            PendingWrite first = queue.poll(hasSpillBacklog() ? 0 : 200, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return batch;
+            }
+            batch.add(first);
+            queue.drainTo(batch, config.getBatchSize() - 1);
+            if (batch.size() < config.getBatchSize() && config.getLingerMs() > 0) {
+                // 凑批：短暂等待后再取一次；等待被中断（如关闭）时照常返回已取出的消息，由调用方写入
+                try {
+                    Thread.sleep(config.getLingerMs());
+                } catch (InterruptedException e) {
+                    log.debug("凑批等待被中断，写入已取出的{}条消息 - shard: {}", batch.size(), index);
+                }
+                queue.drainTo(batch, config.getBatchSize() - batch.size());
+            }
+            return batch;
+        }
+
+        /**
+         * 批量写入，失败时退避重试；重试期间不处理后续消息，保证顺序。
+         * 达到最大尝试次数后逐条插入，单条仍失败的记录写入死信文件
+         *
+         * @param replaying 是否为溢出文件回放的记录；关闭中写入失败时这些记录仍留在溢出文件中，不再追加
+         * @return 从头开始已处理（写入数据库或死信文件）的记录数，未处理的只可能是回放记录
+         */
+        int writeWithRetry(List<PendingWrite> batch, boolean replaying) {
+            long backoff = config.getRetryBackoffMs();
+            int maxAttempts = Math.max(1, config.getMaxRetries());
+            for (int attempt = 1; ; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    persistBatch(batch);
+                    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    batchSizeSummary.record(batch.size());
+                    if (elapsedMs > config.getSlowBatchThresholdMs()) {
+                        log.warn("批量写入耗时过长 - shard: {}, 条数: {}, 耗时: {}ms", index, batch.size(), elapsedMs);
+                        enterSpillMode();
+                    }
+                    return batch.size();
+                } catch (Exception e) {
+                    failedBatchCounter.increment();
+                    enterSpillMode();
+                    if (!running) {
+                        if (replaying) {
+                            // 回放位置未前移，下次启动从这批记录继续回放
+                            log.warn("关闭中回放溢出记录失败，保留在溢出文件中 - shard: {}, 条数: {}", index, batch.size());
+                            return 0;
+                        }
+                        // 关闭中不再重试，已取出的消息转入溢出文件或死信文件
+                        shelve(batch, e);
+                        return batch.size();
+                    }
+                    if (attempt >= maxAttempts || batch.size() > 1 && isRecordError(e)) {
+                        log.error("批量写入失败{}次，改为逐条写入 - shard: {}, 条数: {}", attempt, index, batch.size(), e);
+                        return writeIndividually(batch, replaying);
+                    }
+                    log.error("批量写入失败，{}ms后重试 - shard: {}, 条数: {}", backoff, index, batch.size(), e);
+                    pause(backoff);
+                    backoff = Math.min(backoff * 2, config.getMaxRetryBackoffMs());
+                }
+            }
+        }
+
+        /**
+         * 逐条写入：数据本身的错误（约束冲突、内容超长）直接写入死信文件，其他错误退避重试有限次数
+         *
+         * @return 从头开始已处理的记录数，含义同 writeWithRetry
+         */
+        private int writeIndividually(List<PendingWrite> batch, boolean replaying) {
+            int maxAttempts = Math.max(1, config.getMaxRetries());
+            for (int i = 0; i < batch.size(); i++) {
+                PendingWrite write = batch.get(i);
+                long backoff = config.getRetryBackoffMs();
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        persistBatch(List.of(write));
+                        break;
+                    } catch (Exception e) {
+                        if (!running) {
+                            if (replaying) {
+                                return i;
+                            }
+                            shelve(List.of(write), e);
+                            break;
+                        }
+                        if (isRecordError(e) || attempt >= maxAttempts) {
+                            deadLetter(write, e);
+                            break;
+                        }
+                        pause(backoff);
+                        backoff = Math.min(backoff * 2, config.getMaxRetryBackoffMs());
+                    }
+                }
+            }
+            return batch.size();
+        }
+
+        /**
+         * 退避等待；被中断（关闭）时提前返回，由下一次尝试失败后转入溢出或死信文件，不丢弃手中的消息
+         */
+        private void pause(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                log.debug("写入重试等待被中断 - shard: {}", index);
+            }
+        }
+
+        /**
+         * 关闭过程中无法写入数据库的消息：SPILL模式写入溢出文件，下次启动时回放；否则写入死信文件。
+         * 只用于来自内存队列的消息，回放中的记录本身就在溢出文件里
+         */
+        private void shelve(List<PendingWrite> batch, Exception error) {
+            for (PendingWrite write : batch) {
+                if (config.getDurability() == WriteBehindConfig.Durability.SPILL) {
+                    spill(write);
+                } else {
+                    deadLetter(write, error);
+                }
+            }
+        }
+
+        /**
+         * 追加到死信文件并fsync，格式与溢出文件相同并附带错误信息，便于排查后人工回放
+         */
+        synchronized void deadLetter(PendingWrite write, Exception error) {
+            deadLetterCounter.increment();
+            JSONObject line = new JSONObject();
+            line.set("type", write.type);
+            line.set("data", JSONUtil.parseObj(write.entity));
+            line.set("error", String.valueOf(error.getMessage()));
+            try {
+                Files.createDirectories(deadLetterFile.getParent());
+                try (FileChannel channel = FileChannel.open(deadLetterFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+                log.error("消息写入失败，已转入死信文件 - shard: {}, 文件: {}, 错误: {}", index, deadLetterFile, error.getMessage());
+            } catch (IOException e) {
+                log.error("写入死信文件失败，消息丢失 - shard: {}, 内容: {}", index, line, e);
+            }
+        }
+
+        void enterSpillMode() {
+            if (config.getDurability() != WriteBehindConfig.Durability.SPILL) {
+                return;
+            }
+            synchronized (this) {
+                if (!spilling) {
+                    spilling = true;
+                    log.warn("数据库写入变慢，新消息写入溢出文件 - shard: {}", index);
+                }
+            }
+        }
+
+        /**
+         * 追加到溢出文件并fsync
+         */
+        synchronized void spill(PendingWrite write) {
+            spilling = true;
+            try {
+                if (spillChannel == null) {
+                    Files.createDirectories(spillFile.getParent());
+                    spillChannel = FileChannel.open(spillFile, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                JSONObject line = new JSONObject();
+                line.set("type", write.type);
+                line.set("data", JSONUtil.parseObj(write.entity));
+                byte[] bytes = (line.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    spillChannel.write(buffer);
+                }
+                spillChannel.force(false);
+                spilledCounter.increment();
+            } catch (IOException e) {
+                // 溢出文件不可用时在调用线程同步插入，不丢消息
+                log.error("写入溢出文件失败，改为同步插入 - shard: {}", index, e);
+                persistBatch(List.of(write));
+            }
+        }
+
+        synchronized boolean hasSpillBacklog() {
+            return spilling;
+        }
+
+        synchronized long spillBacklogBytes() {
+            try {
+                return Files.exists(spillFile) ? Math.max(0, Files.size(spillFile) - spillReadOffset) : 0;
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * 内存队列写完后，从上次位置读取一批溢出记录写入数据库，并把新的回放位置写入位置文件；
+         * 全部回放完成后恢复内存队列模式
+         */
+        void replaySpill() {
+            List<PendingWrite> batch = new ArrayList<>();
+            long nextOffset;
+            synchronized (this) {
+                nextOffset = readSpill(batch);
+                if (batch.isEmpty()) {
+                    if (queue.isEmpty()) {
+                        finishSpill();
+                    }
+                    return;
+                }
+            }
+            int handled = writeWithRetry(batch, true);
+            if (handled == 0) {
+                return;
+            }
+            synchronized (this) {
+                spillReadOffset = handled == batch.size() ? nextOffset : batch.get(handled - 1).spillEndOffset;
+                saveSpillOffset();
+            }
+        }
+
+        /**
+         * 原子替换位置文件并fsync；写入失败时下次启动可能重复回放本次之前已写入的记录
+         */
+        private void saveSpillOffset() {
+            Path tmp = spillOffsetFile.resolveSibling(spillOffsetFile.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(String.valueOf(spillReadOffset).getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("保存溢出文件回放位置失败 - shard: {}", index, e);
+                return;
+            }
+            try {
+                Files.move(tmp, spillOffsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.error("保存溢出文件回放位置失败 - shard: {}", index, e);
+            }
+        }
+
+        private long loadSpillOffset(long spillSize) {
+            if (!Files.exists(spillOffsetFile)) {
+                return 0;
+            }
+            try {
+                long offset = Long.parseLong(Files.readString(spillOffsetFile, StandardCharsets.UTF_8).trim());
+                return Math.max(0, Math.min(offset, spillSize));
+            } catch (IOException | NumberFormatException e) {
+                log.error("读取溢出文件回放位置失败，从头回放 - {}", spillOffsetFile, e);
+                return 0;
+            }
+        }
+
+        private long readSpill(List<PendingWrite> batch) {
+            if (!Files.exists(spillFile)) {
+                return spillReadOffset;
+            }
+            long offset = spillReadOffset;
+            try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+                channel.position(offset);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                String line;
+                while (batch.size() < config.getBatchSize() && (line = reader.readLine()) != null) {
+                    offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JSONObject json = JSONUtil.parseObj(line);
+                        String type = json.getStr("type");
+                        Sink<?> sink = sinks.get(type);
+                        if (sink == null) {
+                            log.warn("忽略未知类型的溢出记录: {}", type);
+                            continue;
+                        }
+                        batch.add(new PendingWrite(type, json.getJSONObject("data").toBean(sink.type), offset));
+                    } catch (Exception e) {
+                        // 进程崩溃时可能留下写了一半的记录
+                        log.error("忽略无法解析的溢出记录 - shard: {}, 内容: {}", index, line, e);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("读取溢出文件失败 - shard: {}", index, e);
+            }
+            return offset;
+        }
+
+        private void finishSpill() {
+            try {
+                if (spillChannel != null) {
+                    spillChannel.close();
+                    spillChannel = null;
+                }
+                // 先删溢出文件再删位置文件，中途崩溃时残留的位置文件在启动时清理
+                Files.deleteIfExists(spillFile);
+                Files.deleteIfExists(spillOffsetFile);
+            } catch (IOException e) {
+                log.error("清理溢出文件失败 - shard: {}", index, e);
+            }
+            spillReadOffset = 0;
+            spilling = false;
+            log.info("溢出文件回放完成，恢复内存队列 - shard: {}", index);
+        }
+
+        /**
+         * 启动时发现上次未回放完的溢出文件，从位置文件记录的位置继续回放，再接收新消息
+         */
+        void recoverSpill() {
+            try {
+                long size = Files.exists(spillFile) ? Files.size(spillFile) : 0;
+                if (size > 0) {
+                    spillReadOffset = loadSpillOffset(size);
+                    spilling = true;
+                    log.warn("发现未回放的溢出文件，启动后从{}字节处回放 - {}", spillReadOffset, spillFile);
+                } else {
+                    Files.deleteIfExists(spillOffsetFile);
+                }
+            } catch (IOException e) {
+                log.error("检查溢出文件失败 - {}", spillFile, e);
+            }
+        }
+
+        /**
+         * 关闭时尽量写完内存队列，写入失败且为SPILL模式时落到溢出文件
+         */
+        void drainOnShutdown() {
+            List<PendingWrite> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (remaining.isEmpty()) {
+                return;
+            }
+            try {
+                persistBatch(remaining);
+            } catch (Exception e) {
+                if (config.getDurability() == WriteBehindConfig.Durability.SPILL) {
+                    for (PendingWrite write : remaining) {
+                        spill(write);
+                    }
+                } else {
+                    log.error("关闭时写入剩余消息失败，丢失{}条 - shard: {}", remaining.size(), index, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否为数据本身导致的错误（重试无效）
+     */
+    private static boolean isRecordError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException
+                    || cause instanceof SQLIntegrityConstraintViolationException
+                    || cause instanceof SQLDataException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class PendingWrite {
+        final String type;
+        final Object entity;
+        // 来自溢出文件时为该记录之后的文件位置，否则为-1
+        final long spillEndOffset;
+
+        PendingWrite(String type, Object entity) {
+            this(type, entity, -1);
+        }
+
+        PendingWrite(String type, Object entity, long spillEndOffset) {
+            this.type = type;
+            this.entity = entity;
+            this.spillEndOffset = spillEndOffset;
+        }
+    }
+
+    private static class Sink<T> {
+        final Class<T> type;
+        final Consumer<List<T>> inserter;
+        final Consumer<T> onPersisted;
+
+        Sink(Class<T> type, Consumer<List<T>> inserter, Consumer<T> onPersisted) {
+            this.type = type;
+            this.inserter = inserter;
+            this.onPersisted = onPersisted;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.aichat.roleplay.service;
+
+import cn.hutool.json.JSONUtil;
+import com.aichat.roleplay.config.ReactiveSseConfig;
+import com.aichat.roleplay.config.SseCoalescingConfig;
+import com.aichat.roleplay.dto.ChatPrompt;
+import com.aichat.roleplay.dto.ContextWindow;
+import com.aichat.roleplay.dto.RoleSelectionResult;
+import com.aichat.roleplay.exception.TokenBudgetExceededException;
+import com.aichat.roleplay.mapper.RoleMapper;
+import com.aichat.roleplay.model.Message;
+import com.aichat.roleplay.model.Role;
+import com.aichat.roleplay.util.LatencyTrace;
+import com.aichat.roleplay.util.LlmLatencyMetrics;
+import com.aichat.roleplay.util.RolePromptEngineering;
+import dev.langchain4j.data.message.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 响应式SSE流式对话服务
+ * 与SseService、协作聊天服务输出相同格式的事件，但以Flux表达整个请求：
+ * 客户端的读取需求逐级向上传递（合并帧 -> 有界积压 -> 上游生成），积压超限或客户端取消订阅时取消上游生成；
+ * 数据库读取和消息保存在boundedElastic上执行，生成过程中不占用任何线程
+ */
+@Slf4j
+@Service
+public class ReactiveSseService {
+
+    public static final String ENDPOINT_STREAM = "reactive_stream";
+    public static final String ENDPOINT_COLLABORATE = "reactive_collaborate";
+
+    @Autowired private IAiChatService aiChatService;
+    @Autowired private IContextWindowService contextWindowService;
+    @Autowired private IReflectionAgentService reflectionAgentService;
+    @Autowired private RolePromptEngineering rolePromptEngineering;
+    @Autowired private MessageWriteBehindService messageWriteBehindService;
+    @Autowired private LlmAdmissionService admissionService;
+    @Autowired private ChatroomCollaborationService collaborationService;
+    @Autowired private IChatroomMessageService chatroomMessageService;
+    @Autowired private IRoleSelector roleSelector;
+    @Autowired private SseCoalescingConfig coalescingConfig;
+    @Autowired private ReactiveSseConfig reactiveConfig;
+    @Autowired private MeterRegistry meterRegistry;
+    @Autowired private RoleMapper roleMapper;
+    @Autowired private TokenUsageService tokenUsageService;
+    @Autowired private LlmLatencyMetrics latencyMetrics;
+
+    @Value("${chatroom.collaboration.top-k-roles:3}")
+    private int topKRoles;
+
+    @Value("${chatroom.collaboration.max-concurrent-roles:5}")
+    private int maxConcurrentRoles;
+
+    /**
+     * 单聊流式对话，事件格式与 /api/sse/stream 相同
+     */
+    public Flux<ServerSentEvent<String>> stream(Long chatId, Long roleId, String userMessage, Long userId) {
+        String message = userMessage.trim();
+        Flux<ServerSentEvent<String>> body = Mono.fromCallable(() -> prepareStreamPrompt(chatId, roleId, message, userId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(prompt -> {
+                    StringBuilder answer = new StringBuilder();
+                    return frames(tokens(prompt, reflectionAgentService.startStreamingReflection(message), ENDPOINT_STREAM),
+                            SseWriterFactory.ENDPOINT_STREAM, ENDPOINT_STREAM)
+                            .doOnNext(answer::append)
+                            .map(this::event)
+                            .doFinally(signal -> prompt.getTrace().finish())
+                            .concatWith(Mono.fromSupplier(() -> {
+                                String response = answer.toString().trim();
+                                if (!response.isEmpty()) {
+                                    handOff(() -> messageWriteBehindService.submit(Message.builder()
+                                            .chatId(chatId).roleId(roleId)
+                                            .senderType("ai").content(response).build()));
+                                }
+                                return event("[DONE]");
+                            }));
+                })
+                .onErrorResume(e -> {
+                    log.error("响应式流式对话失败 - chatId:{}", chatId, e);
+                    return Mono.just(event("[ERROR] " + e.getMessage()));
+                });
+
+        return admitted(() -> tokenUsageService.checkBudget(userId, roleId), userId, "chat:" + chatId, 1, body,
+                (position, waitMs) -> event("[QUEUED] " + JSONUtil.toJsonStr(queuedData(position, waitMs))),
+                reason -> event("[ERROR] " + reason));
+    }
+
+    /**
+     * 聊天室协作对话，事件格式与 /api/sse/collaborate 相同；各角色的生成合并为一个Flux，不再为每个聊天室占用线程
+     */
+    public Flux<ServerSentEvent<String>> collaborate(Long chatRoomId, String userMessage, String context, Long userId) {
+        int weight = Math.max(1, Math.min(topKRoles, maxConcurrentRoles));
+        Flux<ServerSentEvent<String>> body = Mono.fromCallable(() -> selectRoles(chatRoomId, userMessage, context, userId, weight))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(roles -> {
+                    if (roles.isEmpty()) {
+                        return Flux.just(frame("ERROR", "聊天室没有可用角色", null, null));
+                    }
+                    List<Flux<ServerSentEvent<String>>> roleStreams = roles.stream()
+                            .map(role -> roleStream(chatRoomId, role, userMessage, context, userId))
+                            .collect(Collectors.toList());
+                    return Flux.concat(
+                            Flux.just(frame("START", "开始协作对话", null, null)),
+                            Flux.merge(roleStreams),
+                            Mono.fromSupplier(() -> frame("COMPLETE", "协作对话完成", null, null)));
+                })
+                .onErrorResume(e -> {
+                    log.error("响应式协作对话失败 - chatRoomId:{}", chatRoomId, e);
+                    return Mono.just(frame("ERROR", e.getMessage(), null, null));
+                });
+
+        return admitted(() -> tokenUsageService.checkBudget(userId, null), userId, "room:" + chatRoomId, weight, body,
+                (position, waitMs) -> {
+                    Map<String, Object> data = messageData("QUEUED", "排队中", null, null);
+                    data.putAll(queuedData(position, waitMs));
+                    return event(JSONUtil.toJsonStr(data));
+                },
+                reason -> frame("ERROR", reason, null, null));
+    }
+
+    private ChatPrompt prepareStreamPrompt(Long chatId, Long roleId, String message, Long userId) {
+        Role role = roleMapper.findById(roleId);
+        if (role == null) {
+            throw new IllegalArgumentException("角色不存在");
+        }
+        LatencyTrace trace = latencyMetrics.newTrace(ENDPOINT_STREAM, role);
+        long promptStart = System.nanoTime();
+        ContextWindow contextWindow = contextWindowService.loadContext(chatId);
+        messageWriteBehindService.submit(Message.builder()
+                .chatId(chatId).roleId(roleId)
+                .senderType("user").content(message).build());
+        ChatPrompt prompt = rolePromptEngineering.buildChatPrompt(role, message, contextWindow.getSummary(),
+                rolePromptEngineering.toHistory(contextWindow.getRecentMessages()), null, trace)
+                .withOwner(userId, roleId);
+        trace.recordSince(LatencyTrace.PROMPT_BUILD, promptStart);
+        return prompt;
+    }
+
+    private List<Role> selectRoles(Long chatRoomId, String userMessage, String context, Long userId, int topK) {
+        if (userId != null) {
+            chatroomMessageService.saveUserMessage(chatRoomId, userId, userMessage);
+        }
+        List<Role> availableRoles = collaborationService.getChatRoomRoles(chatRoomId);
+        if (availableRoles.isEmpty()) {
+            return availableRoles;
+        }
+        String history = chatroomMessageService.buildChatHistory(chatRoomId, 10);
+        String selectionContext = (context != null && !context.trim().isEmpty() ? context : "")
+                + (history.isEmpty() ? "" : "\n聊天历史:\n" + history);
+        RoleSelectionResult selection = roleSelector.selectTopKRoles(userMessage, availableRoles,
+                Math.min(topK, availableRoles.size()), selectionContext, userId);
+        return availableRoles.stream()
+                .filter(role -> selection.getSelectedRoleIds().contains(role.getId()))
+                .collect(Collectors.toList());
+    }
+
+    private Flux<ServerSentEvent<String>> roleStream(Long chatRoomId, Role role, String userMessage, String context, Long userId) {
+        return Mono.fromCallable(() -> {
+                    tokenUsageService.checkBudget(null, role.getId());
+                    LatencyTrace trace = latencyMetrics.newTrace(ENDPOINT_COLLABORATE, role);
+                    long promptStart = System.nanoTime();
+                    List<ChatMessage> history = rolePromptEngineering.toRoleHistory(
+                            chatroomMessageService.getRecentMessages(chatRoomId, 10), role.getId());
+                    ChatPrompt prompt = rolePromptEngineering.buildChatPrompt(role, userMessage, null, history, context, trace)
+                            .withOwner(userId, role.getId());
+                    trace.recordSince(LatencyTrace.PROMPT_BUILD, promptStart);
+                    return prompt;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(prompt -> {
+                    StringBuilder response = new StringBuilder();
+                    return frames(tokens(prompt, null, ENDPOINT_COLLABORATE), SseWriterFactory.ENDPOINT_COLLABORATE, ENDPOINT_COLLABORATE)
+                            .doOnNext(response::append)
+                            .map(text -> frame("ROLE_MESSAGE", text, role.getId(), role.getName()))
+                            .doFinally(signal -> prompt.getTrace().finish())
+                            .concatWith(Mono.fromSupplier(() -> {
+                                String fullResponse = response.toString().trim();
+                                if (!fullResponse.isEmpty()) {
+                                    handOff(() -> chatroomMessageService.saveAiMessage(chatRoomId, role.getId(), fullResponse));
+                                }
+                                return frame("ROLE_COMPLETE", "角色响应完成", role.getId(), role.getName());
+                            }));
+                })
+                .startWith(frame("ROLE_START", "角色开始响应", role.getId(), role.getName()))
+                .onErrorResume(e -> {
+                    if (e instanceof TokenBudgetExceededException) {
+                        log.warn("角色 {} 的token额度已用完，跳过本轮响应", role.getName());
+                        return Mono.just(frame("ROLE_ERROR", e.getMessage(), role.getId(), role.getName()));
+                    }
+                    log.error("角色 {} 响应式生成失败", role.getName(), e);
+                    return Mono.just(frame("ROLE_ERROR", "角色响应出错", role.getId(), role.getName()));
+                });
+    }
+
+    /**
+     * 上游token流：下游取消订阅或积压超限时取消生成；流式反思命中严重问题时中止
+     */
+    private Flux<String> tokens(ChatPrompt prompt, IReflectionAgentService.StreamingReflection reflection, String endpoint) {
+        return Flux.defer(() -> {
+            // 积压超限时先触发溢出回调再取消上游，据此区分取消原因
+            AtomicBoolean overflowed = new AtomicBoolean(false);
+            Flux<String> upstream = Flux.create(sink -> {
+                AtomicReference<IAiChatService.GenerationHandle> handleRef = new AtomicReference<>();
+                sink.onCancel(() -> {
+                    meterRegistry.counter("sse.generation.cancelled", "endpoint", endpoint,
+                            "reason", overflowed.get() ? "backpressure_overflow" : "client_disconnect",
+                            "phase", "generating").increment();
+                    cancel(handleRef.get());
+                });
+
+                IAiChatService.GenerationHandle handle = aiChatService.generateStreamResponse(prompt, token -> {
+                    if ("[DONE]".equals(token)) {
+                        sink.complete();
+                    } else if ("[ERROR]".equals(token)) {
+                        sink.error(new IllegalStateException("AI回复错误"));
+                    } else if (reflection != null && reflection.onToken(token)) {
+                        cancel(handleRef.get());
+                        sink.error(new IllegalStateException("回复偏离角色设定，请重试"));
+                    } else {
+                        sink.next(token);
+                    }
+                });
+                handleRef.set(handle);
+                if (sink.isCancelled()) {
+                    cancel(handle);
+                }
+            }, FluxSink.OverflowStrategy.BUFFER);
+
+            return upstream.onBackpressureBuffer(Math.max(1, reactiveConfig.getMaxPendingTokens()),
+                    dropped -> {
+                        overflowed.set(true);
+                        log.warn("客户端读取过慢，积压超限，取消上游生成");
+                    }, BufferOverflowStrategy.ERROR);
+        });
+    }
+
+    /**
+     * 按合并窗口把token合并为帧；下游无需求时不拉取，窗口内的token在需求到来后一并发送
+     */
+    private Flux<String> frames(Flux<String> tokens, String windowEndpoint, String metricsEndpoint) {
+        SseCoalescingConfig.Window window = coalescingConfig.getWindow(windowEndpoint);
+        Flux<String> frames = window.getFlushIntervalMs() <= 0
+                ? tokens
+                : tokens.bufferTimeout(Math.max(1, reactiveConfig.getMaxTokensPerFrame()),
+                        Duration.ofMillis(window.getFlushIntervalMs()), true)
+                        .map(list -> String.join("", list));
+        return frames.doOnNext(frame -> meterRegistry.counter("sse.frames", "endpoint", metricsEndpoint).increment());
+    }
+
+    /**
+     * 准入控制：排队期间下发排队事件，准入后订阅请求体，拒绝时下发错误事件；流结束（含客户端断开）时释放凭证
+     */
+    private Flux<ServerSentEvent<String>> admitted(Runnable budgetCheck, Long userId, String chatKey, int weight,
+                                                   Flux<ServerSentEvent<String>> body,
+                                                   BiFunction<Integer, Long, ServerSentEvent<String>> queuedEvent,
+                                                   Function<String, ServerSentEvent<String>> rejectedEvent) {
+        return Flux.defer(() -> {
+            // 额度已用完时不进入排队，直接返回错误事件
+            try {
+                budgetCheck.run();
+            } catch (TokenBudgetExceededException e) {
+                return Flux.just(rejectedEvent.apply(e.getMessage()));
+            }
+            AdmissionGate gate = new AdmissionGate(queuedEvent);
+            LlmAdmissionService.Ticket ticket = admissionService.acquire(userId, chatKey, weight, gate);
+            return gate.queued.asFlux()
+                    .concatWith(gate.decision.asMono().flatMapMany(rejectReason -> rejectReason
+                            .map(reason -> Flux.just(rejectedEvent.apply(reason)))
+                            .orElse(body)))
+                    .doFinally(signal -> ticket.release());
+        });
+    }
+
+    private static class AdmissionGate implements LlmAdmissionService.AdmissionListener {
+        private final Sinks.Many<ServerSentEvent<String>> queued = Sinks.many().unicast().onBackpressureBuffer();
+        private final Sinks.One<Optional<String>> decision = Sinks.one();
+        private final BiFunction<Integer, Long, ServerSentEvent<String>> queuedEvent;
+
+        AdmissionGate(BiFunction<Integer, Long, ServerSentEvent<String>> queuedEvent) {
+            this.queuedEvent = queuedEvent;
+        }
+
+        @Override
+        public synchronized void onAdmitted() {
+            queued.tryEmitComplete();
+            decision.tryEmitValue(Optional.empty());
+        }
+
+        @Override
+        public synchronized void onQueued(int position, long estimatedWaitMs) {
+            queued.tryEmitNext(queuedEvent.apply(position, estimatedWaitMs));
+        }
+
+        @Override
+        public synchronized void onRejected(String reason) {
+            queued.tryEmitComplete();
+            decision.tryEmitValue(Optional.of(reason));
+        }
+    }
+
+    /**
+     * 消息保存移交到boundedElastic，不阻塞流
+     */
+    private void handOff(Runnable persist) {
+        Mono.fromRunnable(persist)
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnError(e -> log.error("保存消息失败", e))
+                .onErrorComplete()
+                .subscribe();
+    }
+
+    private static void cancel(IAiChatService.GenerationHandle handle) {
+        if (handle != null && !handle.isCancelled()) {
+            handle.cancel();
+        }
+    }
+
+    private ServerSentEvent<String> event(String data) {
+        return ServerSentEvent.builder(data).build();
+    }
+
+    private ServerSentEvent<String> frame(String type, String message, Long roleId, String roleName) {
+        return event(JSONUtil.toJsonStr(messageData(type, message, roleId, roleName)));
+    }
+
+    private Map<String, Object> messageData(String type, String message, Long roleId, String roleName) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", type);
+        data.put("message", message);
+        data.put("timestamp", System.currentTimeMillis());
+        if (roleId != null) {
+            data.put("roleId", roleId);
+        }
+        if (roleName != null) {
+            data.put("roleName", roleName);
+        }
+        return data;
+    }
+
+    private Map<String, Object> queuedData(int position, long estimatedWaitMs) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("position", position);
+        data.put("estimatedWaitMs", estimatedWaitMs);
+        return data;
+    }
+}
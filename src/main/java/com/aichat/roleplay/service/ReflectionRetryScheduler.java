@@ -0,0 +1,124 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.ReflectionConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 反思重试调度器
+ * 重试不再在LLM回调线程中递归执行，而是按带抖动的指数退避提交到独立的调度线程，
+ * 并统计每次生成尝试的耗时和重试压力
+ */
+@Slf4j
+@Service
+public class ReflectionRetryScheduler {
+
+    private final ReflectionConfig.Retry config;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService scheduler;
+
+    // 已调度、尚未开始的重试数量
+    private final AtomicInteger pendingRetries = new AtomicInteger();
+
+    private final Counter scheduledCounter;
+    private final Counter rejectedCounter;
+
+    public ReflectionRetryScheduler(ReflectionConfig reflectionConfig, MeterRegistry meterRegistry) {
+        this.config = reflectionConfig.getRetry();
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, config.getSchedulerThreads()), r -> {
+            Thread thread = new Thread(r, "reflection-retry-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduledCounter = meterRegistry.counter("sse.retry.scheduled");
+        this.rejectedCounter = meterRegistry.counter("sse.retry.rejected");
+        Gauge.builder("sse.retry.pending", pendingRetries, AtomicInteger::get).register(meterRegistry);
+    }
+
+    /**
+     * 按退避策略调度一次重试
+     *
+     * @param attempt 即将执行的尝试序号（从1开始）
+     * @param task 重试任务
+     * @return 是否已调度；等待中的重试过多时返回false
+     */
+    public boolean schedule(int attempt, Runnable task) {
+        if (pendingRetries.incrementAndGet() > config.getMaxPendingRetries()) {
+            pendingRetries.decrementAndGet();
+            rejectedCounter.increment();
+            log.warn("等待中的重试过多({}), 放弃第{}次重试", config.getMaxPendingRetries(), attempt);
+            return false;
+        }
+
+        long delay = backoffDelay(attempt);
+        try {
+            scheduler.schedule(() -> {
+                pendingRetries.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("执行重试任务失败 - attempt: {}", attempt, e);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            pendingRetries.decrementAndGet();
+            rejectedCounter.increment();
+            log.warn("提交重试任务失败 - attempt: {}", attempt, e);
+            return false;
+        }
+
+        scheduledCounter.increment();
+        log.debug("已调度第{}次重试，延迟{}ms", attempt, delay);
+        return true;
+    }
+
+    /**
+     * 当前是否还能接受新的重试
+     */
+    public boolean hasCapacity() {
+        return pendingRetries.get() < config.getMaxPendingRetries();
+    }
+
+    /**
+     * 记录一次生成尝试的耗时
+     *
+     * @param attempt 尝试序号（0为首次生成）
+     * @param outcome 结果：success / retry / abort / error
+     */
+    public void recordAttempt(int attempt, String outcome, long durationNanos) {
+        Timer.builder("sse.attempt.latency")
+                .tag("attempt", attempt == 0 ? "initial" : "retry")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 带抖动的指数退避：base * 2^(attempt-1)，上限maxDelay，再在 [delay*(1-jitter), delay] 内随机
+     */
+    long backoffDelay(int attempt) {
+        int exponent = Math.min(Math.max(attempt - 1, 0), 20);
+        long delay = Math.min(config.getMaxDelayMs(), config.getBaseDelayMs() << exponent);
+        double jitter = Math.min(1.0, Math.max(0.0, config.getJitter()));
+        long min = (long) (delay * (1.0 - jitter));
+        return min >= delay ? delay : ThreadLocalRandom.current().nextLong(min, delay + 1);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,149 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.RoleRouterConfig;
+import com.aichat.roleplay.model.Role;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于向量相似度的角色路由
+ * 角色画像（名称、描述、角色设定）的向量按角色缓存，画像内容变化或角色更新后重新计算；
+ * 每轮只需计算一次用户消息的向量，即可按余弦相似度给聊天室内的角色排序
+ */
+@Service
+public class RoleEmbeddingRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(RoleEmbeddingRouter.class);
+
+    /**
+     * 单个角色的相似度
+     */
+    public record ScoredRole(Role role, double score) {
+    }
+
+    /**
+     * 排序结果，ranked按相似度从高到低
+     */
+    public record Ranking(List<ScoredRole> ranked) {
+
+        /**
+         * 第k名与第k+1名的相似度差值，差值越大说明前k个角色越明确
+         */
+        public double margin(int k) {
+            if (k <= 0 || k >= ranked.size()) {
+                return 1.0;
+            }
+            return ranked.get(k - 1).score() - ranked.get(k).score();
+        }
+
+        public List<Role> top(int n) {
+            return ranked.stream().limit(n).map(ScoredRole::role).toList();
+        }
+    }
+
+    private record ProfileEmbedding(String profile, Embedding embedding) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final RoleRouterConfig config;
+    private final Map<Long, ProfileEmbedding> profiles = new ConcurrentHashMap<>();
+
+    public RoleEmbeddingRouter(EmbeddingModel embeddingModel, RoleRouterConfig config, MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.config = config;
+        Gauge.builder("role.router.profiles", profiles, Map::size)
+                .description("已缓存的角色画像向量数")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 按用户消息与角色画像的相似度排序
+     */
+    public Ranking rank(String userMessage, List<Role> roles) {
+        return rank(embeddingModel.embed(userMessage).content(), roles);
+    }
+
+    /**
+     * 按已计算的用户消息向量排序
+     */
+    public Ranking rank(Embedding query, List<Role> roles) {
+        List<Embedding> embeddings = profileEmbeddings(roles);
+        List<ScoredRole> scored = new ArrayList<>(roles.size());
+        for (int i = 0; i < roles.size(); i++) {
+            scored.add(new ScoredRole(roles.get(i), CosineSimilarity.between(query, embeddings.get(i))));
+        }
+        scored.sort(Comparator.comparingDouble(ScoredRole::score).reversed());
+        return new Ranking(scored);
+    }
+
+    /**
+     * 角色被修改或删除后丢弃缓存的画像向量，下次路由时重新计算
+     */
+    public void evict(Long roleId) {
+        if (roleId != null && profiles.remove(roleId) != null) {
+            log.debug("角色画像向量已失效 - roleId: {}", roleId);
+        }
+    }
+
+    /**
+     * 取角色画像向量：缓存命中且画像内容未变时直接使用，其余角色一次批量计算
+     */
+    private List<Embedding> profileEmbeddings(List<Role> roles) {
+        Embedding[] result = new Embedding[roles.size()];
+        List<Integer> missing = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        for (int i = 0; i < roles.size(); i++) {
+            Role role = roles.get(i);
+            String profile = buildProfile(role);
+            ProfileEmbedding cached = profiles.get(role.getId());
+            if (cached != null && cached.profile().equals(profile)) {
+                result[i] = cached.embedding();
+            } else {
+                missing.add(i);
+                segments.add(TextSegment.from(profile));
+            }
+        }
+        if (!segments.isEmpty()) {
+            List<Embedding> computed = embeddingModel.embedAll(segments).content();
+            for (int j = 0; j < missing.size(); j++) {
+                int index = missing.get(j);
+                Role role = roles.get(index);
+                result[index] = computed.get(j);
+                profiles.put(role.getId(), new ProfileEmbedding(segments.get(j).text(), computed.get(j)));
+            }
+            log.debug("计算角色画像向量 {} 个", segments.size());
+        }
+        return List.of(result);
+    }
+
+    private String buildProfile(Role role) {
+        StringBuilder profile = new StringBuilder(role.getName() != null ? role.getName() : "");
+        if (role.getDescription() != null && !role.getDescription().isBlank()) {
+            profile.append("\n").append(role.getDescription().trim());
+        }
+        String prompt = role.getCharacterPrompt();
+        if (prompt != null && !prompt.isBlank()) {
+            prompt = prompt.trim();
+            int limit = Math.max(0, config.getProfilePromptChars());
+            profile.append("\n").append(prompt.length() > limit ? prompt.substring(0, limit) : prompt);
+        }
+        return profile.toString();
+    }
+}
@@ -0,0 +1,248 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.RoleSelectionCacheConfig;
+import com.aichat.roleplay.dto.RoleSelectionResult;
+import com.aichat.roleplay.model.Role;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 协作聊天角色选择缓存
+ * 按聊天室缓存上一轮的角色选择结果，键为聊天室角色集合和选择数量，并保存话题向量（本话题各轮用户消息向量之和）。
+ * 新消息与话题向量足够相似时直接复用选择结果，并把新消息并入话题向量；
+ * 角色集合变化、话题偏离、连续复用轮数达到上限或空闲过期时重新选择
+ */
+@Slf4j
+@Service
+public class RoleSelectionCache {
+
+    /**
+     * 一次查询的结果；未命中时保留消息向量，选择完成后用于写入缓存
+     */
+    public static final class Lookup {
+
+        private final String roleSetKey;
+        private final int topK;
+        private final Embedding embedding;
+        private final RoleSelectionResult result;
+
+        private Lookup(String roleSetKey, int topK, Embedding embedding, RoleSelectionResult result) {
+            this.roleSetKey = roleSetKey;
+            this.topK = topK;
+            this.embedding = embedding;
+            this.result = result;
+        }
+
+        public boolean isHit() {
+            return result != null;
+        }
+
+        public RoleSelectionResult getResult() {
+            return result;
+        }
+
+        /**
+         * 本轮用户消息的向量，未命中时交给角色选择复用
+         */
+        public Embedding getEmbedding() {
+            return embedding;
+        }
+    }
+
+    private final RoleSelectionCacheConfig config;
+    private final EmbeddingModel embeddingModel;
+
+    // accessOrder=true，迭代顺序即LRU顺序
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final MeterRegistry meterRegistry;
+    private final Counter hitCounter;
+    private final Timer savedTimer;
+    private long hits;
+    private long lookups;
+
+    public RoleSelectionCache(RoleSelectionCacheConfig config, EmbeddingModel embeddingModel,
+                              MeterRegistry meterRegistry) {
+        this.config = config;
+        this.embeddingModel = embeddingModel;
+        this.meterRegistry = meterRegistry;
+        this.hitCounter = meterRegistry.counter("role.selection.cache.requests", "result", "hit");
+        this.savedTimer = Timer.builder("role.selection.cache.saved")
+                .description("命中缓存时省去的角色选择耗时（按该结果首次选择的耗时计）")
+                .register(meterRegistry);
+        Gauge.builder("role.selection.cache.hit.ratio", this, RoleSelectionCache::hitRatio).register(meterRegistry);
+        Gauge.builder("role.selection.cache.size", this, RoleSelectionCache::size).register(meterRegistry);
+    }
+
+    /**
+     * 查询本轮可复用的角色选择结果
+     *
+     * @return 未启用或计算消息向量失败时返回null
+     */
+    public Lookup lookup(Long chatRoomId, List<Role> roles, int topK, String userMessage) {
+        if (!config.isEnabled() || chatRoomId == null || userMessage == null || userMessage.isBlank()) {
+            return null;
+        }
+        Embedding embedding;
+        try {
+            embedding = embeddingModel.embed(userMessage).content();
+        } catch (Exception e) {
+            log.debug("计算话题向量失败，跳过角色选择缓存: {}", e.getMessage());
+            return null;
+        }
+        String roleSetKey = roleSetKey(roles);
+
+        synchronized (this) {
+            lookups++;
+            Entry entry = entries.get(chatRoomId);
+            String missReason = entry == null ? "cold" : missReason(entry, roleSetKey, topK, embedding);
+            if (missReason != null) {
+                if (entry != null) {
+                    entries.remove(chatRoomId);
+                }
+                meterRegistry.counter("role.selection.cache.requests", "result", "miss", "reason", missReason)
+                        .increment();
+                log.debug("角色选择缓存未命中 - chatRoomId: {}, 原因: {}", chatRoomId, missReason);
+                return new Lookup(roleSetKey, topK, embedding, null);
+            }
+            entry.merge(embedding);
+            entry.reuseTurns++;
+            entry.lastAccess = System.currentTimeMillis();
+            hits++;
+            hitCounter.increment();
+            savedTimer.record(entry.selectionNanos, TimeUnit.NANOSECONDS);
+            log.info("角色选择缓存命中 - chatRoomId: {}, 已复用{}轮, 节省约{}ms", chatRoomId, entry.reuseTurns,
+                    TimeUnit.NANOSECONDS.toMillis(entry.selectionNanos));
+            return new Lookup(roleSetKey, topK, embedding, entry.result);
+        }
+    }
+
+    /**
+     * 写入本轮的角色选择结果，作为新话题的起点；回退策略的结果不写入，下一轮重新选择
+     *
+     * @param selectionNanos 本次角色选择耗时，命中时按此统计节省的时间
+     */
+    public void put(Long chatRoomId, Lookup lookup, RoleSelectionResult result, long selectionNanos) {
+        if (lookup == null || lookup.isHit() || result == null
+                || result.getSelectedRoleIds() == null || result.getSelectedRoleIds().isEmpty()) {
+            return;
+        }
+        if (result.isFallback()) {
+            meterRegistry.counter("role.selection.cache.skipped", "reason", "fallback").increment();
+            return;
+        }
+        synchronized (this) {
+            entries.put(chatRoomId, new Entry(lookup.roleSetKey, lookup.topK, lookup.embedding, result, selectionNanos));
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * 聊天室成员变化时移除缓存
+     */
+    public void invalidate(Long chatRoomId) {
+        if (chatRoomId == null) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.remove(chatRoomId) != null) {
+                log.debug("聊天室成员变化，角色选择缓存已失效 - chatRoomId: {}", chatRoomId);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized double hitRatio() {
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    private String missReason(Entry entry, String roleSetKey, int topK, Embedding embedding) {
+        if (isExpired(entry, System.currentTimeMillis())) {
+            return "expired";
+        }
+        if (!entry.roleSetKey.equals(roleSetKey) || entry.topK != topK) {
+            return "membership";
+        }
+        if (entry.reuseTurns >= config.getMaxReuseTurns()) {
+            return "max_reuse";
+        }
+        if (CosineSimilarity.between(entry.topic, embedding) < config.getSimilarityThreshold()) {
+            return "topic";
+        }
+        return null;
+    }
+
+    private static String roleSetKey(List<Role> roles) {
+        return roles.stream()
+                .map(Role::getId)
+                .sorted()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.lastAccess > config.getTtlSeconds() * 1000;
+    }
+
+    /**
+     * 先淘汰过期聊天室，再按LRU淘汰直到满足数量上限
+     */
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entries.size() <= config.getMaxRooms() && !isExpired(entry, now)) {
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    private static class Entry {
+        private final String roleSetKey;
+        private final int topK;
+        private final RoleSelectionResult result;
+        private final long selectionNanos;
+        private Embedding topic;
+        private int reuseTurns;
+        private long lastAccess = System.currentTimeMillis();
+
+        Entry(String roleSetKey, int topK, Embedding topic, RoleSelectionResult result, long selectionNanos) {
+            this.roleSetKey = roleSetKey;
+            this.topK = topK;
+            this.topic = topic;
+            this.result = result;
+            this.selectionNanos = selectionNanos;
+        }
+
+        /**
+         * 把新消息的向量并入话题向量（向量之和，余弦相似度只看方向）
+         */
+        void merge(Embedding embedding) {
+            float[] sum = topic.vector().clone();
+            float[] added = embedding.vector();
+            for (int i = 0; i < sum.length && i < added.length; i++) {
+                sum[i] += added[i];
+            }
+            topic = Embedding.from(sum);
+        }
+    }
+}
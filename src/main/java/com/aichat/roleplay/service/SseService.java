@@ -1,12 +1,21 @@
 package com.aichat.roleplay.service;
 
+import cn.hutool.json.JSONUtil;
+import com.aichat.roleplay.config.ReflectionConfig;
+import com.aichat.roleplay.context.UserContext;
+import com.aichat.roleplay.dto.ChatPrompt;
+import com.aichat.roleplay.dto.ContextWindow;
 import com.aichat.roleplay.mapper.ChatMapper;
-import com.aichat.roleplay.mapper.MessageMapper;
 import com.aichat.roleplay.mapper.RoleMapper;
 import com.aichat.roleplay.model.Message;
 import com.aichat.roleplay.model.ReflectionResult;
 import com.aichat.roleplay.model.Role;
+import com.aichat.roleplay.util.CoalescingSseWriter;
+import com.aichat.roleplay.util.LatencyTrace;
+import com.aichat.roleplay.util.LlmLatencyMetrics;
+import com.aichat.roleplay.util.ResumableSseStream;
 import com.aichat.roleplay.util.RolePromptEngineering;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,186 +23,355 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class SseService {
     private static final Logger log = LoggerFactory.getLogger(SseService.class);
+    private static final long STREAM_TIMEOUT_MS = 60000L;
+    private static final long ASYNC_RESPONSE_TIMEOUT_MS = 30000L;
 
     @Autowired private IAiChatService aiChatService;
-    @Autowired private IMessageService messageService;
+    @Autowired private IContextWindowService contextWindowService;
+    @Autowired private MessageWriteBehindService messageWriteBehindService;
     @Autowired private IReflectionAgentService reflectionAgentService;
     @Autowired private IReflectionLogService reflectionLogService;
     @Autowired private RolePromptEngineering rolePromptEngineering;
+    @Autowired private ReflectionRetryScheduler retryScheduler;
+    @Autowired private ReflectionConfig reflectionConfig;
+    @Autowired private SseWriterFactory sseWriterFactory;
+    @Autowired private SseStreamRegistry sseStreamRegistry;
+    @Autowired private MeterRegistry meterRegistry;
+    @Autowired private LlmAdmissionService admissionService;
+    @Autowired private CircuitBreakerRegistry circuitBreakerRegistry;
+    @Autowired private TokenUsageService tokenUsageService;
+    @Autowired private LlmLatencyMetrics latencyMetrics;
 
     @Resource private RoleMapper roleMapper;
     @Resource private ChatMapper chatMapper;
-    @Resource private MessageMapper messageMapper;
 
     // 主入口：SSE流式对话
     public SseEmitter stream(Long chatId, Long roleId, String userMessage) {
         log.info("SSE流式对话 - chatId:{}, roleId:{}", chatId, roleId);
-        SseEmitter emitter = new SseEmitter(60000L);
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        // 单聊的token直接拼接为一帧纯文本
+        CoalescingSseWriter.FrameEncoder encoder = chunks -> chunks.get(0).getText();
+        CoalescingSseWriter writer;
+        ResumableSseStream stream = null;
+        if (sseStreamRegistry.isEnabled()) {
+            // 生成写入可续传的流，与HTTP连接解耦，客户端断线后可凭Last-Event-ID重连
+            stream = sseStreamRegistry.open(UserContext.getCurrentUserId());
+            stream.attach(emitter, 0);
+            writer = sseWriterFactory.create(stream, SseWriterFactory.ENDPOINT_STREAM, encoder);
+        } else {
+            writer = sseWriterFactory.create(emitter, SseWriterFactory.ENDPOINT_STREAM, encoder);
+        }
+        StreamRequestState state = newRequestState(chatId, roleId, userMessage, writer, null, true,
+                SseWriterFactory.ENDPOINT_STREAM);
+
+        // 客户端离开后立即取消上游生成：可续传时在宽限期内未重连才取消
+        if (stream != null) {
+            stream.onAbandon(() -> cancelRequest(state, SseWriterFactory.ENDPOINT_STREAM, "abandoned"));
+        } else {
+            emitter.onCompletion(() -> cancelRequest(state, SseWriterFactory.ENDPOINT_STREAM, "client_disconnect"));
+            emitter.onTimeout(() -> cancelRequest(state, SseWriterFactory.ENDPOINT_STREAM, "timeout"));
+            emitter.onError(e -> cancelRequest(state, SseWriterFactory.ENDPOINT_STREAM, "client_disconnect"));
+        }
         
         try {
-            processStreamRequest(chatId, roleId, userMessage, 0, emitter, null, true);
+            admitAndProcess(state);
         } catch (Exception e) {
             log.error("SSE处理失败", e);
-            handleStreamError(emitter, e);
+            state.fail();
+            handleStreamError(writer, e);
         }
         
         return emitter;
     }
 
-    // 同步获取AI响应文本（用于语音服务）
-    public String getAiResponseText(Long chatId, Long roleId, String userMessage, boolean saveMessages) {
-        log.info("同步获取AI响应文本 - chatId:{}, roleId:{}, saveMessages:{}", chatId, roleId, saveMessages);
-        
-        try {
-            CompletableFuture<String> responseFuture = new CompletableFuture<>();
-            processStreamRequest(chatId, roleId, userMessage, 0, null, responseFuture, saveMessages);
-            
-            return responseFuture.get(30, TimeUnit.SECONDS);
-        } catch (Exception e) {
-            log.error("同步获取AI响应失败", e);
-            throw new RuntimeException("获取AI响应失败: " + e.getMessage(), e);
+    // 断线续传：按Last-Event-ID重新连接到生成中（或刚结束）的流，只补发缺失的事件
+    // 没有需要补发的内容、或当前用户不是流的发起者时返回null（不暴露流是否存在）
+    public SseEmitter resume(String lastEventId) {
+        ResumableSseStream stream = sseStreamRegistry.findByEventId(lastEventId);
+        long lastSeq = ResumableSseStream.parseSeq(lastEventId);
+        if (stream == null) {
+            log.info("续传的流不存在或已过期 - lastEventId:{}", lastEventId);
+            sseStreamRegistry.recordResume("not_found");
+            return null;
+        }
+        if (!stream.isOwnedBy(UserContext.getCurrentUserId())) {
+            log.warn("拒绝续传他人的流 - streamId:{}, userId:{}", stream.getStreamId(), UserContext.getCurrentUserId());
+            sseStreamRegistry.recordResume("forbidden");
+            return null;
+        }
+        if (!stream.hasPendingEvents(lastSeq)) {
+            sseStreamRegistry.recordResume("finished");
+            return null;
         }
-    }
 
-    // 多角色聊天专用：根据角色提示词和用户消息生成响应
-    public String generateRoleResponse(String rolePrompt, String userMessage, String chatHistory) {
-        log.info("多角色聊天生成响应 - rolePrompt长度:{}, userMessage长度:{}", 
-                rolePrompt != null ? rolePrompt.length() : 0, 
-                userMessage != null ? userMessage.length() : 0);
-        
-        try {
-            CompletableFuture<String> responseFuture = new CompletableFuture<>();
-            
-            // 构建完整的提示词
-            StringBuilder promptBuilder = new StringBuilder();
-            
-            if (rolePrompt != null && !rolePrompt.isEmpty()) {
-                promptBuilder.append("你是一个AI角色扮演助手。请严格按照以下角色设定进行回复：\n");
-                promptBuilder.append(rolePrompt).append("\n\n");
-            }
-            
-            if (chatHistory != null && !chatHistory.isEmpty()) {
-                promptBuilder.append("聊天历史：\n");
-                promptBuilder.append(chatHistory).append("\n\n");
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        if (stream.attach(emitter, lastSeq) == ResumableSseStream.AttachResult.EXPIRED) {
+            log.warn("续传失败，缺失的事件已不在回放缓冲中 - lastEventId:{}", lastEventId);
+            sseStreamRegistry.recordResume("expired");
+            try {
+                emitter.send(SseEmitter.event().data("[ERROR] 断线时间过长，请刷新后查看完整回复"));
+                emitter.complete();
+            } catch (Exception e) {
+                emitter.completeWithError(e);
             }
-            
-            promptBuilder.append("用户说：").append(userMessage).append("\n\n");
-            promptBuilder.append("请以角色的身份回复（不要说你是AI或角色扮演，直接以角色身份回应）：");
-            
-            String fullPrompt = promptBuilder.toString();
-            log.debug("多角色聊天构建的完整提示词: {}", fullPrompt);
-            
-            StringBuilder aiAnswer = new StringBuilder();
-            
-            aiChatService.generateStreamResponseDirect(fullPrompt, token -> {
-                try {
-                    if ("[DONE]".equals(token)) {
-                        String finalResponse = aiAnswer.toString().trim();
-                        log.debug("多角色响应生成完成，长度: {}", finalResponse.length());
-                        responseFuture.complete(finalResponse.isEmpty() ? "抱歉，我现在无法回应。" : finalResponse);
-                    } else if ("[ERROR]".equals(token)) {
-                        log.error("多角色响应生成出错");
-                        responseFuture.completeExceptionally(new RuntimeException("生成响应时出现错误"));
-                    } else {
-                        aiAnswer.append(token);
+            return emitter;
+        }
+        log.info("SSE流续传 - streamId:{}, lastSeq:{}", stream.getStreamId(), lastSeq);
+        sseStreamRegistry.recordResume("resumed");
+        return emitter;
+    }
+
+    // 异步获取AI响应文本（用于语音服务）：只在准入和prompt准备阶段占用调用线程，生成期间不阻塞任何线程
+    // 超时或调用方取消返回的future时取消请求，释放准入凭证和上游连接
+    public CompletionStage<String> getAiResponseAsync(Long chatId, Long roleId, String userMessage, boolean saveMessages) {
+        log.info("异步获取AI响应文本 - chatId:{}, roleId:{}, saveMessages:{}", chatId, roleId, saveMessages);
+        CompletableFuture<String> responseFuture = new CompletableFuture<>();
+        StreamRequestState state = newRequestState(chatId, roleId, userMessage, null, responseFuture, saveMessages,
+                LlmLatencyMetrics.ENDPOINT_VOICE);
+        responseFuture.orTimeout(ASYNC_RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((response, error) -> {
+                    if (error instanceof TimeoutException) {
+                        cancelRequest(state, LlmLatencyMetrics.ENDPOINT_VOICE, "timeout");
+                    } else if (error instanceof CancellationException) {
+                        cancelRequest(state, LlmLatencyMetrics.ENDPOINT_VOICE, "caller_cancelled");
                     }
-                } catch (Exception e) {
-                    log.error("处理多角色响应token失败", e);
-                    responseFuture.completeExceptionally(e);
-                }
-            });
-            
-            return responseFuture.get(30, TimeUnit.SECONDS);
-            
+                });
+        try {
+            admitAndProcess(state);
         } catch (Exception e) {
-            log.error("多角色聊天生成响应失败", e);
-            return "抱歉，生成响应时出现了问题。";
+            log.error("异步获取AI响应失败", e);
+            state.fail();
+            responseFuture.completeExceptionally(e);
         }
+        return responseFuture;
     }
 
-    // 统一的流式请求处理方法
-    private void processStreamRequest(Long chatId, Long roleId, String originalUserMessage, int retryCount, 
-                                    SseEmitter emitter, CompletableFuture<String> responseFuture, boolean saveMessages) {
+    private StreamRequestState newRequestState(Long chatId, Long roleId, String originalUserMessage,
+                                               CoalescingSseWriter writer, CompletableFuture<String> responseFuture,
+                                               boolean saveMessages, String endpoint) {
+        return new StreamRequestState(chatId, roleId, extractActualUserMessage(originalUserMessage),
+                writer, responseFuture, saveMessages, latencyMetrics.newTrace(endpoint, null));
+    }
+
+    // 客户端断开（或异步调用方超时/取消）：取消请求和正在进行的上游生成，不再反思、重试或保存AI消息
+    private void cancelRequest(StreamRequestState state, String endpoint, String reason) {
+        StreamRequestState.Phase phase = state.cancel();
+        if (phase == null) {
+            return;
+        }
+        log.info("请求已取消，停止生成 - chatId:{}, 阶段:{}, 原因:{}", state.getChatId(), phase, reason);
+        meterRegistry.counter("sse.generation.cancelled", "endpoint", endpoint,
+                "reason", reason, "phase", phase.name().toLowerCase()).increment();
+        CompletableFuture<String> responseFuture = state.getResponseFuture();
+        if (responseFuture != null) {
+            responseFuture.cancel(false);
+        }
+    }
+
+    // 经准入控制后处理请求：排队时向客户端下发排队位置和预计等待时间，拒绝时立即返回错误
+    // 请求结束（完成、失败或客户端断开）时释放准入凭证
+    private void admitAndProcess(StreamRequestState state) {
+        // 上游已熔断或额度已用完时不进入排队，由调用方发送明确的错误事件
+        circuitBreakerRegistry.checkAvailable(CircuitBreakerRegistry.CHAT);
+        CoalescingSseWriter writer = state.getWriter();
+        Long userId = UserContext.getCurrentUserId();
+        if (userId == null) {
+            userId = getCurrentUserId(state.getChatId());
+        }
+        tokenUsageService.checkBudget(userId, state.getRoleId());
+        state.setUserId(userId);
+        LlmAdmissionService.Ticket ticket = admissionService.acquire(userId, "chat:" + state.getChatId(), 1,
+                new LlmAdmissionService.AdmissionListener() {
+                    @Override
+                    public void onAdmitted() {
+                        state.getTrace().record(LatencyTrace.QUEUE_WAIT, state.getTrace().elapsedNanos());
+                        processStreamRequest(state);
+                    }
+
+                    @Override
+                    public void onQueued(int position, long estimatedWaitMs) {
+                        if (writer == null) {
+                            return;
+                        }
+                        try {
+                            Map<String, Object> queued = new HashMap<>();
+                            queued.put("position", position);
+                            queued.put("estimatedWaitMs", estimatedWaitMs);
+                            writer.send("[QUEUED] " + JSONUtil.toJsonStr(queued));
+                        } catch (Exception e) {
+                            log.debug("发送排队状态失败: {}", e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void onRejected(String reason) {
+                        state.fail();
+                        handleProcessingError(writer, state.getResponseFuture(), new RuntimeException(reason));
+                    }
+                });
+        state.onFinished(() -> {
+            ticket.release();
+            // 正常结束时在保存AI消息后再输出耗时分解
+            if (!state.isCompleted()) {
+                state.getTrace().finish();
+            }
+        });
+    }
+
+    // 统一的流式请求处理方法：准备一次prompt，之后的所有尝试都复用
+    private void processStreamRequest(StreamRequestState state) {
+        Long chatId = state.getChatId();
+        Long roleId = state.getRoleId();
+        String actualUserMessage = state.getUserMessage();
+        CoalescingSseWriter writer = state.getWriter();
+        CompletableFuture<String> responseFuture = state.getResponseFuture();
+        boolean saveMessages = state.isSaveMessages();
+        LatencyTrace trace = state.getTrace();
+        long promptStart = System.nanoTime();
         try {
-            String actualUserMessage = extractActualUserMessage(originalUserMessage);
-            List<Message> chatHistory = messageService.findByChatId(chatId);
+            ContextWindow contextWindow = contextWindowService.loadContext(chatId);
 
-            // 保存用户消息（仅在第一次调用且需要保存时）
-            if (retryCount == 0 && saveMessages) {
+            // 保存用户消息
+            if (saveMessages) {
                 log.info("开始保存用户消息，chatId: {}, roleId: {}, content: {}", chatId, roleId, actualUserMessage.substring(0, Math.min(50, actualUserMessage.length())) + "...");
                 Message userMsg = Message.builder()
                         .chatId(chatId).roleId(roleId)
                         .senderType("user").content(actualUserMessage).build();
-                int result = messageMapper.insert(userMsg);
-                if (result > 0) {
-                    log.info("用户消息保存成功，消息ID: {}", userMsg.getId());
-                } else {
-                    log.error("用户消息保存失败");
-                }
+                // 异步批量写入，写入成功后追加到会话缓存
+                messageWriteBehindService.submit(userMsg);
             }
 
             Role role = roleMapper.findById(roleId);
             if (role == null) {
                 String errorMsg = "角色不存在";
-                handleProcessingError(emitter, responseFuture, new RuntimeException(errorMsg));
+                state.fail();
+                handleProcessingError(writer, responseFuture, new RuntimeException(errorMsg));
+                return;
+            }
+
+            trace.setRole(role);
+            ChatPrompt chatPrompt = rolePromptEngineering.buildChatPrompt(role, actualUserMessage,
+                    contextWindow.getSummary(), rolePromptEngineering.toHistory(contextWindow.getRecentMessages()),
+                    null, trace)
+                    .withOwner(state.getUserId(), roleId);
+            trace.recordSince(LatencyTrace.PROMPT_BUILD, promptStart);
+            if (!state.beginAttempt(chatPrompt)) {
                 return;
             }
+            runAttempt(state);
 
-            StringBuilder aiAnswer = new StringBuilder();
-            String optimizedPrompt = rolePromptEngineering.buildOptimizedPrompt(role, actualUserMessage, buildChatHistory(chatHistory));
+        } catch (Exception e) {
+            log.error("处理流式请求失败", e);
+            state.fail();
+            handleProcessingError(writer, responseFuture, e);
+        }
+    }
+
+    // 执行一次生成尝试
+    private void runAttempt(StreamRequestState state) {
+        CoalescingSseWriter writer = state.getWriter();
+        CompletableFuture<String> responseFuture = state.getResponseFuture();
+        String actualUserMessage = state.getUserMessage();
+        StringBuilder aiAnswer = new StringBuilder();
 
-            aiChatService.generateStreamResponseDirect(optimizedPrompt, token -> {
+        try {
+            // 流式反思：边生成边检测，命中严重异常时取消上游生成并调度重试
+            IReflectionAgentService.StreamingReflection streamingReflection =
+                    reflectionAgentService.startStreamingReflection(actualUserMessage);
+            AtomicReference<IAiChatService.GenerationHandle> handleRef = new AtomicReference<>();
+            AtomicBoolean aborted = new AtomicBoolean(false);
+
+            IAiChatService.GenerationHandle handle = aiChatService.generateStreamResponse(state.getPrompt(), token -> {
+                if (aborted.get() || state.isCancelled()) {
+                    return;
+                }
                 try {
+                    if (streamingReflection != null && !"[DONE]".equals(token) && !"[ERROR]".equals(token)
+                            && streamingReflection.onToken(token)) {
+                        if (aborted.compareAndSet(false, true)) {
+                            IAiChatService.GenerationHandle current = handleRef.get();
+                            if (current != null) {
+                                current.cancel();
+                            }
+                            handleStreamingAbort(state, aiAnswer.append(token).toString(), streamingReflection);
+                        }
+                        return;
+                    }
+
                     if ("[DONE]".equals(token)) {
                         String cleanedResponse = cleanAiResponse(aiAnswer.toString(), actualUserMessage);
                         
                         // 发送完成标记（仅SSE模式）
-                        if (emitter != null) {
-                            emitter.send(SseEmitter.event().data(token));
+                        if (writer != null) {
+                            writer.send(token);
                         }
                         
                         // 统一的反思处理
-                        handleResponseWithReflection(chatId, roleId, actualUserMessage, cleanedResponse, 
-                                                   retryCount, emitter, responseFuture, saveMessages);
+                        handleResponseWithReflection(state, cleanedResponse);
                     } else if (!"[ERROR]".equals(token)) {
                         aiAnswer.append(token);
                         
-                        // 发送token（仅SSE模式）
-                        if (emitter != null) {
-                            emitter.send(SseEmitter.event().data(token));
+                        // 发送token（仅SSE模式），按合并窗口批量写出
+                        if (writer != null) {
+                            writer.appendToken(token);
                         }
                     } else {
-                        handleProcessingError(emitter, responseFuture, new RuntimeException("AI回复错误"));
+                        retryScheduler.recordAttempt(state.getAttempt(), "error", state.elapsedNanos());
+                        state.fail();
+                        handleProcessingError(writer, responseFuture, new RuntimeException("AI回复错误"));
                     }
                 } catch (Exception e) {
+                    if (state.isCancelled()) {
+                        return;
+                    }
                     log.error("处理AI响应token失败", e);
-                    handleProcessingError(emitter, responseFuture, e);
+                    state.fail();
+                    handleProcessingError(writer, responseFuture, e);
                 }
             });
+            handleRef.set(handle);
+            state.bindGeneration(handle);
+            if (aborted.get() && handle != null) {
+                // 中止发生在句柄返回之前
+                handle.cancel();
+            }
 
         } catch (Exception e) {
-            log.error("处理流式请求失败", e);
-            handleProcessingError(emitter, responseFuture, e);
+            log.error("执行生成尝试失败 - attempt: {}", state.getAttempt(), e);
+            state.fail();
+            handleProcessingError(writer, responseFuture, e);
         }
     }
 
     // 统一的反思处理方法
-    private void handleResponseWithReflection(Long chatId, Long roleId, String originalQuery, String aiResponse, 
-                                            int retryCount, SseEmitter emitter, CompletableFuture<String> responseFuture, boolean saveMessages) {
+    private void handleResponseWithReflection(StreamRequestState state, String aiResponse) {
+        Long chatId = state.getChatId();
+        Long roleId = state.getRoleId();
+        String originalQuery = state.getUserMessage();
+        long attemptNanos = state.toReflecting();
         try {
-            ReflectionResult result = reflectionAgentService.reflect(originalQuery, aiResponse, chatId, roleId, retryCount);
+            long reflectStart = System.nanoTime();
+            ReflectionResult result = reflectionAgentService.reflect(originalQuery, aiResponse, chatId, roleId, state.getAttempt());
+            state.getTrace().recordSince(LatencyTrace.REFLECTION, reflectStart);
 
             if (result.needsRetry()) {
-                if (result.getRetryCount() >= 3) {
+                retryScheduler.recordAttempt(state.getAttempt(), "retry", attemptNanos);
+                if (result.getRetryCount() >= reflectionConfig.getMaxRetryCount()) {
                     log.warn("达到最大重试次数，返回当前响应");
-                    finishProcessing(chatId, roleId, aiResponse, emitter, responseFuture, saveMessages, "[ERROR] 达到最大重试次数");
+                    finishProcessing(state, aiResponse, "[ERROR] 达到最大重试次数");
                     return;
                 }
 
@@ -201,49 +379,127 @@ public class SseService {
                 Long userId = getCurrentUserId(chatId);
                 reflectionLogService.saveReflectionLog(chatId, roleId, userId, originalQuery, aiResponse, result, 0);
 
-                log.info("反思建议重试，执行第{}次重试", result.getRetryCount());
-                
-                // 发送重试提示（仅SSE模式）
-                if (emitter != null) {
-                    emitter.send(SseEmitter.event().data("[RETRY] 重新生成中..."));
+                log.info("反思建议重试，调度第{}次重试", result.getRetryCount());
+                if (!scheduleRetry(state)) {
+                    // 重试压力过大，返回当前响应
+                    finishProcessing(state, aiResponse, null);
                 }
-                
-                // 递归重试
-                processStreamRequest(chatId, roleId, result.getRegeneratedQuery(), result.getRetryCount(), 
-                                   emitter, responseFuture, saveMessages);
 
             } else if (result.isSuccess()) {
-                finishProcessing(chatId, roleId, aiResponse, emitter, responseFuture, saveMessages, null);
+                retryScheduler.recordAttempt(state.getAttempt(), "success", attemptNanos);
+                finishProcessing(state, aiResponse, null);
             } else {
+                retryScheduler.recordAttempt(state.getAttempt(), "error", attemptNanos);
                 // 记录反思日志
                 Long userId = getCurrentUserId(chatId);
                 reflectionLogService.saveReflectionLog(chatId, roleId, userId, originalQuery, aiResponse, result, 0);
                 
                 log.warn("反思检测到问题但不重试: {}", result.getErrorMessage());
-                finishProcessing(chatId, roleId, aiResponse, emitter, responseFuture, saveMessages, result.getErrorMessage());
+                finishProcessing(state, aiResponse, result.getErrorMessage());
             }
         } catch (Exception e) {
             log.error("反思处理异常", e);
             // 即使反思失败，也返回AI响应
-            finishProcessing(chatId, roleId, aiResponse, emitter, responseFuture, saveMessages, null);
+            finishProcessing(state, aiResponse, null);
         }
     }
 
+    // 流式反思中止后的处理：记录日志并调度重试，重试次数用尽时返回错误
+    private void handleStreamingAbort(StreamRequestState state, String partialResponse,
+                                      IReflectionAgentService.StreamingReflection reflection) {
+        Long chatId = state.getChatId();
+        Long roleId = state.getRoleId();
+        String originalQuery = state.getUserMessage();
+        CoalescingSseWriter writer = state.getWriter();
+        CompletableFuture<String> responseFuture = state.getResponseFuture();
+        try {
+            // 尚在合并窗口中的token不再下发
+            if (writer != null) {
+                writer.discardPending();
+            }
+            retryScheduler.recordAttempt(state.getAttempt(), "abort", state.toReflecting());
+            long reflectStart = System.nanoTime();
+            ReflectionResult result = reflectionAgentService.reflectOnAbort(originalQuery, partialResponse, reflection, state.getAttempt());
+            state.getTrace().recordSince(LatencyTrace.REFLECTION, reflectStart);
+
+            Long userId = getCurrentUserId(chatId);
+            reflectionLogService.saveReflectionLog(chatId, roleId, userId, originalQuery, partialResponse, result, 0);
+
+            if (result.needsRetry()) {
+                log.info("流式反思中止生成，调度第{}次重试", result.getRetryCount());
+                if (scheduleRetry(state)) {
+                    return;
+                }
+                result.setErrorMessage("系统繁忙，请稍后重试");
+            }
+
+            log.warn("流式反思中止且无法重试: {}", result.getErrorMessage());
+            state.fail();
+            if (writer != null) {
+                writer.send("[ERROR] " + result.getErrorMessage());
+                writer.complete();
+            }
+            if (responseFuture != null) {
+                responseFuture.completeExceptionally(new RuntimeException(result.getErrorMessage()));
+            }
+        } catch (Exception e) {
+            log.error("流式反思中止处理异常", e);
+            state.fail();
+            handleProcessingError(writer, responseFuture, e);
+        }
+    }
+
+    // 进入退避并在调度线程上开始下一次尝试，复用首次准备好的prompt
+    private boolean scheduleRetry(StreamRequestState state) throws Exception {
+        if (!retryScheduler.hasCapacity()) {
+            return false;
+        }
+        if (!state.toBackoff()) {
+            // 客户端已断开，不再重试
+            return true;
+        }
+
+        // 发送重试提示（仅SSE模式），需在下一次尝试的token之前发出
+        if (state.getWriter() != null) {
+            state.getWriter().send("[RETRY] 重新生成中...");
+        }
+
+        return retryScheduler.schedule(state.getAttempt(), () -> {
+            if (state.beginAttempt(null)) {
+                runAttempt(state);
+            }
+        });
+    }
+
+    // 结束请求状态并完成处理
+    private void finishProcessing(StreamRequestState state, String aiResponse, String errorMessage) {
+        if (!state.complete()) {
+            log.info("请求已取消，丢弃生成结果 - chatId:{}", state.getChatId());
+            return;
+        }
+        finishProcessing(state.getChatId(), state.getRoleId(), aiResponse, state.getWriter(),
+                state.getResponseFuture(), state.isSaveMessages(), errorMessage, state.getTrace());
+        state.getTrace().finish();
+    }
+
     // 统一的完成处理方法
-    private void finishProcessing(Long chatId, Long roleId, String aiResponse, SseEmitter emitter, 
-                                CompletableFuture<String> responseFuture, boolean saveMessages, String errorMessage) {
+    private void finishProcessing(Long chatId, Long roleId, String aiResponse, CoalescingSseWriter writer, 
+                                CompletableFuture<String> responseFuture, boolean saveMessages, String errorMessage,
+                                LatencyTrace trace) {
         try {
             // 保存AI消息
             if (saveMessages) {
+                long persistStart = System.nanoTime();
                 saveAiMessage(chatId, roleId, aiResponse);
+                trace.recordSince(LatencyTrace.PERSISTENCE, persistStart);
             }
 
             // 处理SSE响应
-            if (emitter != null) {
+            if (writer != null) {
                 if (errorMessage != null) {
-                    emitter.send(SseEmitter.event().data("[ERROR] " + errorMessage));
+                    writer.send("[ERROR] " + errorMessage);
                 }
-                emitter.complete();
+                writer.complete();
             }
 
             // 处理同步响应
@@ -252,14 +508,14 @@ public class SseService {
             }
         } catch (Exception e) {
             log.error("完成处理失败", e);
-            handleProcessingError(emitter, responseFuture, e);
+            handleProcessingError(writer, responseFuture, e);
         }
     }
 
     // 统一的错误处理方法
-    private void handleProcessingError(SseEmitter emitter, CompletableFuture<String> responseFuture, Exception e) {
-        if (emitter != null) {
-            handleStreamError(emitter, e);
+    private void handleProcessingError(CoalescingSseWriter writer, CompletableFuture<String> responseFuture, Exception e) {
+        if (writer != null) {
+            handleStreamError(writer, e);
         }
         if (responseFuture != null) {
             responseFuture.completeExceptionally(e);
@@ -267,13 +523,13 @@ public class SseService {
     }
 
     // SSE错误处理
-    private void handleStreamError(SseEmitter emitter, Exception e) {
+    private void handleStreamError(CoalescingSseWriter writer, Exception e) {
         try {
-            emitter.send(SseEmitter.event().data("[ERROR] " + e.getMessage()));
-            emitter.completeWithError(e);
+            writer.send("[ERROR] " + e.getMessage());
+            writer.completeWithError(e);
         } catch (Exception sendEx) {
             log.error("发送错误失败", sendEx);
-            emitter.completeWithError(e);
+            writer.completeWithError(e);
         }
     }
 
@@ -284,12 +540,7 @@ public class SseService {
             Message aiMsg = Message.builder()
                     .chatId(chatId).roleId(roleId)
                     .senderType("ai").content(aiResponse).build();
-            int result = messageMapper.insert(aiMsg);
-            if (result > 0) {
-                log.info("AI消息保存成功，消息ID: {}", aiMsg.getId());
-            } else {
-                log.error("AI消息保存失败");
-            }
+            messageWriteBehindService.submit(aiMsg);
         } catch (Exception e) {
             log.error("保存AI消息失败", e);
         }
@@ -321,17 +572,6 @@ public class SseService {
                      .replaceAll("\\s+", " ").trim();
     }
 
-    // 构建聊天历史（用于 prompt）
-    private String buildChatHistory(List<Message> history) {
-        if (history == null || history.isEmpty()) return null;
-        StringBuilder sb = new StringBuilder();
-        for (Message msg : history) {
-            String sender = "ai".equals(msg.getSenderType()) ? "AI" : "用户";
-            sb.append(sender).append(": ").append(msg.getContent()).append("\n");
-        }
-        return sb.toString().trim();
-    }
-
     // 清理AI回复
     private String cleanAiResponse(String aiResponse, String userMessage) {
         return aiResponse.replaceAll("请用更清晰的方式回答", "")
@@ -0,0 +1,105 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.SseResumeConfig;
+import com.aichat.roleplay.util.ResumableSseStream;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可续传SSE流注册表
+ * 保存生成中和刚结束的流，客户端断开或生成结束超过宽限期后清理
+ */
+@Slf4j
+@Service
+public class SseStreamRegistry {
+
+    private final SseResumeConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ResumableSseStream> streams = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sse-stream-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SseStreamRegistry(SseResumeConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("sse.streams.active", streams, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        long interval = Math.max(100, config.getSweepIntervalMs());
+        sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 创建并登记一个新的流
+     *
+     * @param ownerId 发起生成的用户ID，续传时校验
+     */
+    public ResumableSseStream open(Long ownerId) {
+        String streamId = UUID.randomUUID().toString().replace("-", "");
+        ResumableSseStream stream = new ResumableSseStream(streamId, ownerId,
+                config.getReplayBufferSize(), config.getReconnectTimeMs());
+        streams.put(streamId, stream);
+        return stream;
+    }
+
+    /**
+     * 按Last-Event-ID查找流
+     */
+    public ResumableSseStream findByEventId(String lastEventId) {
+        String streamId = ResumableSseStream.parseStreamId(lastEventId);
+        return streamId != null ? streams.get(streamId) : null;
+    }
+
+    /**
+     * 记录一次续传结果：resumed、expired、finished、not_found、forbidden
+     */
+    public void recordResume(String result) {
+        meterRegistry.counter("sse.resume", "result", result).increment();
+    }
+
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            streams.entrySet().removeIf(entry -> {
+                ResumableSseStream stream = entry.getValue();
+                if (!stream.isExpired(now, config.getGracePeriodMs())) {
+                    return false;
+                }
+                if (!stream.isFinished()) {
+                    log.info("客户端超过宽限期未重连，丢弃流缓冲 - streamId: {}", entry.getKey());
+                    meterRegistry.counter("sse.streams.abandoned").increment();
+                    stream.abandon();
+                }
+                return true;
+            });
+        } catch (Exception e) {
+            log.error("清理SSE流失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+}
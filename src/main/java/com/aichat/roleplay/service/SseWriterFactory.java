@@ -0,0 +1,126 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.SseChannelConfig;
+import com.aichat.roleplay.config.SseCoalescingConfig;
+import com.aichat.roleplay.util.CoalescingSseWriter;
+import com.aichat.roleplay.util.SseEventChannel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SSE写入器工厂
+ * 按端点配置创建合并token的写入器，所有写入器共享一个只判断窗口到期的定时线程，
+ * 到期后的阻塞写入交给固定大小的刷出线程池，单个慢连接不会拖住其他连接的刷出；
+ * 多生产者的连接（协作聊天）另外包一层出站事件通道，窗口刷出同样由该连接的写线程执行
+ */
+@Service
+public class SseWriterFactory {
+
+    public static final String ENDPOINT_STREAM = "stream";
+    public static final String ENDPOINT_COLLABORATE = "collaborate";
+
+    private final SseCoalescingConfig config;
+    private final SseChannelConfig channelConfig;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicLong> channelDepths = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sse-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService flushWriters;
+
+    private final ExecutorService channelWriters;
+
+    public SseWriterFactory(SseCoalescingConfig config, SseChannelConfig channelConfig, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.channelConfig = channelConfig;
+        this.meterRegistry = meterRegistry;
+        this.flushWriters = Executors.newFixedThreadPool(Math.max(1, config.getFlushThreads()), r -> {
+            Thread thread = new Thread(r, "sse-flush-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.channelWriters = Executors.newFixedThreadPool(Math.max(1, channelConfig.getWriterThreads()), r -> {
+            Thread thread = new Thread(r, "sse-channel-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建写入器
+     *
+     * @param emitter SSE连接
+     * @param endpoint 端点名，用于选择合并窗口和统计
+     * @param encoder 帧编码器
+     */
+    public CoalescingSseWriter create(SseEmitter emitter, String endpoint, CoalescingSseWriter.FrameEncoder encoder) {
+        return create(CoalescingSseWriter.FrameSink.of(emitter), endpoint, encoder);
+    }
+
+    /**
+     * 创建写入到指定输出目标（如可续传的流）的写入器
+     */
+    public CoalescingSseWriter create(CoalescingSseWriter.FrameSink sink, String endpoint, CoalescingSseWriter.FrameEncoder encoder) {
+        SseCoalescingConfig.Window window = config.getWindow(endpoint);
+        CoalescingSseWriter writer = new CoalescingSseWriter(sink, encoder, flushScheduler,
+                window.getFlushIntervalMs(), Math.max(1, window.getMaxBufferChars()),
+                meterRegistry.counter("sse.tokens", "endpoint", endpoint),
+                meterRegistry.counter("sse.frames", "endpoint", endpoint));
+        writer.setFlushTrigger(() -> {
+            try {
+                flushWriters.execute(writer::flushDue);
+            } catch (RejectedExecutionException e) {
+                // 应用停止中，缓冲随连接结束丢弃
+            }
+        });
+        return writer;
+    }
+
+    /**
+     * 创建出站事件通道：多个生产者并发发送，单个写线程按顺序写出
+     */
+    public SseEventChannel createChannel(SseEmitter emitter, String endpoint, CoalescingSseWriter.FrameEncoder encoder) {
+        AtomicLong depth = channelDepths.computeIfAbsent(endpoint, e -> {
+            AtomicLong total = new AtomicLong();
+            Gauge.builder("sse.channel.queue.depth", total, AtomicLong::get)
+                    .description("各连接出站队列中等待写出的事件总数")
+                    .tag("endpoint", e)
+                    .register(meterRegistry);
+            return total;
+        });
+        Timer lag = Timer.builder("sse.channel.writer.lag")
+                .description("事件从入队到写出的延迟")
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+        return new SseEventChannel(emitter, create(emitter, endpoint, encoder), channelWriters,
+                channelConfig.getMaxBatch(), depth, lag,
+                meterRegistry.counter("sse.channel.dropped", "endpoint", endpoint));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushScheduler.shutdownNow();
+        flushWriters.shutdownNow();
+        channelWriters.shutdownNow();
+    }
+}
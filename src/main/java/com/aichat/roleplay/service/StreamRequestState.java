@@ -0,0 +1,278 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.dto.ChatPrompt;
+import com.aichat.roleplay.util.CoalescingSseWriter;
+import com.aichat.roleplay.util.LatencyTrace;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 单次流式对话请求的状态机
+ * 首次生成前准备好的prompt（角色、上下文窗口、RAG知识）在所有重试中复用，
+ * 状态流转：PREPARING -> GENERATING -> REFLECTING -> (BACKOFF -> GENERATING ...) -> COMPLETED / FAILED，
+ * 客户端断开时从任意未结束状态进入 CANCELLED，并取消正在进行的上游生成
+ */
+class StreamRequestState {
+
+    enum Phase {
+        PREPARING,
+        GENERATING,
+        REFLECTING,
+        BACKOFF,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final Long chatId;
+    private final Long roleId;
+    private final String userMessage;
+    private final CoalescingSseWriter writer;
+    private final CompletableFuture<String> responseFuture;
+    private final boolean saveMessages;
+    private final LatencyTrace trace;
+
+    private Long userId;
+    private ChatPrompt prompt;
+    private int attempt = 0;
+    private long attemptStartNanos;
+    private Phase phase = Phase.PREPARING;
+    private IAiChatService.GenerationHandle generationHandle;
+    private Runnable finishListener;
+
+    StreamRequestState(Long chatId, Long roleId, String userMessage, CoalescingSseWriter writer,
+                       CompletableFuture<String> responseFuture, boolean saveMessages, LatencyTrace trace) {
+        this.chatId = chatId;
+        this.roleId = roleId;
+        this.userMessage = userMessage;
+        this.writer = writer;
+        this.responseFuture = responseFuture;
+        this.saveMessages = saveMessages;
+        this.trace = trace;
+    }
+
+    /**
+     * 开始一次生成尝试（首次或退避结束后）
+     *
+     * @return 请求已取消时返回false
+     */
+    synchronized boolean beginAttempt(ChatPrompt prompt) {
+        if (phase == Phase.CANCELLED) {
+            return false;
+        }
+        if (phase != Phase.PREPARING && phase != Phase.BACKOFF) {
+            throw new IllegalStateException("无法在" + phase + "状态开始生成");
+        }
+        if (phase == Phase.PREPARING) {
+            this.prompt = prompt;
+        }
+        phase = Phase.GENERATING;
+        attemptStartNanos = System.nanoTime();
+        generationHandle = null;
+        return true;
+    }
+
+    /**
+     * 绑定本次尝试的上游生成句柄；请求已取消时立即取消该生成
+     */
+    void bindGeneration(IAiChatService.GenerationHandle handle) {
+        boolean cancelled;
+        synchronized (this) {
+            cancelled = phase == Phase.CANCELLED;
+            generationHandle = handle;
+        }
+        if (cancelled && handle != null) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * 生成结束，进入反思
+     *
+     * @return 本次尝试耗时（纳秒）
+     */
+    synchronized long toReflecting() {
+        transition(Phase.GENERATING, Phase.REFLECTING);
+        return System.nanoTime() - attemptStartNanos;
+    }
+
+    /**
+     * 进入退避等待下一次尝试
+     *
+     * @return 请求已取消时返回false
+     */
+    synchronized boolean toBackoff() {
+        if (phase == Phase.CANCELLED) {
+            return false;
+        }
+        if (phase != Phase.REFLECTING && phase != Phase.GENERATING) {
+            throw new IllegalStateException("无法从" + phase + "状态进入退避");
+        }
+        phase = Phase.BACKOFF;
+        attempt++;
+        return true;
+    }
+
+    /**
+     * 注册请求结束（完成、失败或取消）时的回调，如释放准入凭证；只触发一次
+     */
+    void onFinished(Runnable listener) {
+        boolean finished;
+        synchronized (this) {
+            finished = isFinished();
+            finishListener = finished ? null : listener;
+        }
+        if (finished) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 正常结束
+     *
+     * @return 请求已取消时返回false，调用方不再保存或下发结果
+     */
+    boolean complete() {
+        Runnable listener;
+        synchronized (this) {
+            if (phase == Phase.CANCELLED) {
+                return false;
+            }
+            if (phase == Phase.COMPLETED) {
+                return true;
+            }
+            phase = Phase.COMPLETED;
+            listener = takeFinishListener();
+        }
+        runFinishListener(listener);
+        return true;
+    }
+
+    /**
+     * 失败结束，生成中失败时同时取消上游生成
+     */
+    void fail() {
+        IAiChatService.GenerationHandle handle;
+        Runnable listener;
+        synchronized (this) {
+            if (isFinished()) {
+                return;
+            }
+            handle = phase == Phase.GENERATING ? generationHandle : null;
+            phase = Phase.FAILED;
+            listener = takeFinishListener();
+        }
+        if (handle != null) {
+            handle.cancel();
+        }
+        runFinishListener(listener);
+    }
+
+    /**
+     * 客户端断开，取消请求及正在进行的上游生成
+     *
+     * @return 取消前所处的状态；请求已结束时返回null
+     */
+    Phase cancel() {
+        Phase previous;
+        IAiChatService.GenerationHandle handle;
+        Runnable listener;
+        synchronized (this) {
+            if (isFinished()) {
+                return null;
+            }
+            previous = phase;
+            handle = generationHandle;
+            phase = Phase.CANCELLED;
+            listener = takeFinishListener();
+        }
+        if (handle != null) {
+            handle.cancel();
+        }
+        runFinishListener(listener);
+        return previous;
+    }
+
+    private Runnable takeFinishListener() {
+        Runnable listener = finishListener;
+        finishListener = null;
+        return listener;
+    }
+
+    private void runFinishListener(Runnable listener) {
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    synchronized boolean isFinished() {
+        return phase == Phase.COMPLETED || phase == Phase.FAILED || phase == Phase.CANCELLED;
+    }
+
+    synchronized boolean isCancelled() {
+        return phase == Phase.CANCELLED;
+    }
+
+    synchronized long elapsedNanos() {
+        return System.nanoTime() - attemptStartNanos;
+    }
+
+    private void transition(Phase from, Phase to) {
+        if (phase != from) {
+            throw new IllegalStateException("状态流转错误: " + phase + " -> " + to);
+        }
+        phase = to;
+    }
+
+    Long getChatId() {
+        return chatId;
+    }
+
+    Long getRoleId() {
+        return roleId;
+    }
+
+    String getUserMessage() {
+        return userMessage;
+    }
+
+    CoalescingSseWriter getWriter() {
+        return writer;
+    }
+
+    CompletableFuture<String> getResponseFuture() {
+        return responseFuture;
+    }
+
+    boolean isSaveMessages() {
+        return saveMessages;
+    }
+
+    synchronized void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    synchronized Long getUserId() {
+        return userId;
+    }
+
+    synchronized boolean isCompleted() {
+        return phase == Phase.COMPLETED;
+    }
+
+    LatencyTrace getTrace() {
+        return trace;
+    }
+
+    synchronized ChatPrompt getPrompt() {
+        return prompt;
+    }
+
+    synchronized int getAttempt() {
+        return attempt;
+    }
+
+    synchronized Phase getPhase() {
+        return phase;
+    }
+}
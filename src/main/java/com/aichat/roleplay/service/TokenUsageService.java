@@ -0,0 +1,339 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.TokenBudgetConfig;
+import com.aichat.roleplay.exception.TokenBudgetExceededException;
+import com.aichat.roleplay.mapper.UserTokenUsageMapper;
+import com.aichat.roleplay.model.UserTokenUsage;
+import com.aichat.roleplay.util.TokenBucket;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token用量统计与限流服务
+ * 生成结束后按上游返回的用量记账：内存中按 用户/角色/来源/日期 汇总，后台线程定期批量累加到token_usage表；
+ * 同时扣减用户和角色的令牌桶，桶内余额耗尽后新的生成在开始前被拒绝
+ */
+@Slf4j
+@Service
+public class TokenUsageService {
+
+    public static final String SOURCE_CHAT = "chat";
+    public static final String SOURCE_ROLE_SELECTION = "role_selection";
+
+    private static final long UNATTRIBUTED = 0L;
+
+    private final TokenBudgetConfig config;
+    private final UserTokenUsageMapper usageMapper;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<UsageKey, Accumulator> pending = new ConcurrentHashMap<>();
+    private final Map<Long, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final Map<Long, TokenBucket> roleBuckets = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "token-usage-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TokenUsageService(TokenBudgetConfig config, UserTokenUsageMapper usageMapper, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.usageMapper = usageMapper;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("token.usage.pending", pending, Map::size).register(meterRegistry);
+        Gauge.builder("token.budget.buckets", userBuckets, Map::size).tag("scope", "user").register(meterRegistry);
+        Gauge.builder("token.budget.buckets", roleBuckets, Map::size).tag("scope", "role").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        long interval = Math.max(1000, config.getFlushIntervalMs());
+        flusher.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 生成开始前检查用户和角色的令牌桶
+     *
+     * @throws TokenBudgetExceededException 任一令牌桶余额已耗尽
+     */
+    public void checkBudget(Long userId, Long roleId) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        if (userId != null) {
+            check("user", userBucket(userId));
+        }
+        if (roleId != null) {
+            check("role", roleBucket(roleId));
+        }
+    }
+
+    /**
+     * 记录一次调用的用量；上游未返回用量时只计调用次数
+     */
+    public void record(Long userId, Long roleId, String source, TokenUsage usage) {
+        long promptTokens = usage != null && usage.inputTokenCount() != null ? usage.inputTokenCount() : 0;
+        long completionTokens = usage != null && usage.outputTokenCount() != null ? usage.outputTokenCount() : 0;
+        if (usage == null) {
+            meterRegistry.counter("token.usage.missing", "source", source).increment();
+        }
+
+        UsageKey key = new UsageKey(userId != null ? userId : UNATTRIBUTED,
+                roleId != null ? roleId : UNATTRIBUTED, source, LocalDate.now());
+        pending.compute(key, (k, acc) -> {
+            Accumulator current = acc != null ? acc : new Accumulator();
+            current.promptTokens += promptTokens;
+            current.completionTokens += completionTokens;
+            current.requests++;
+            return current;
+        });
+
+        long total = promptTokens + completionTokens;
+        meterRegistry.counter("token.usage", "source", source, "type", "prompt").increment(promptTokens);
+        meterRegistry.counter("token.usage", "source", source, "type", "completion").increment(completionTokens);
+        if (total > 0) {
+            // 在映射的compute内扣减，与淘汰满额令牌桶互斥，避免扣减落到刚被移除的桶上而丢失
+            if (userId != null) {
+                userBuckets.compute(userId, (id, bucket) -> consume(bucket != null ? bucket : newUserBucket(), total));
+            }
+            if (roleId != null) {
+                roleBuckets.compute(roleId, (id, bucket) -> consume(bucket != null ? bucket : newRoleBucket(), total));
+            }
+        }
+    }
+
+    /**
+     * 记录按文本估算的用量：上游未返回用量，或生成被取消、出错而没有最终用量时使用，保证这些调用同样扣减令牌桶
+     *
+     * @param reason 估算原因（missing/cancelled/error）
+     */
+    public void recordEstimated(Long userId, Long roleId, String source, TokenUsage estimate, String reason) {
+        meterRegistry.counter("token.usage.estimated", "source", source, "reason", reason).increment();
+        record(userId, roleId, source, estimate);
+    }
+
+    /**
+     * 用户近几天的用量（含尚未写入数据库的部分）及当前令牌桶余额
+     */
+    public Map<String, Object> describeUser(Long userId, int days) {
+        LocalDate today = LocalDate.now();
+        LocalDate from = today.minusDays(Math.max(1, days) - 1L);
+
+        Map<LocalDate, long[]> daily = new LinkedHashMap<>();
+        for (UserTokenUsage usage : usageMapper.findByUserId(userId, from, today)) {
+            long[] totals = daily.computeIfAbsent(usage.getUsageDate(), d -> new long[3]);
+            totals[0] += nullToZero(usage.getPromptTokens());
+            totals[1] += nullToZero(usage.getCompletionTokens());
+            totals[2] += nullToZero(usage.getRequestCount());
+        }
+        pending.forEach((key, acc) -> {
+            if (key.userId == userId && !key.date.isBefore(from)) {
+                long[] totals = daily.computeIfAbsent(key.date, d -> new long[3]);
+                totals[0] += acc.promptTokens;
+                totals[1] += acc.completionTokens;
+                totals[2] += acc.requests;
+            }
+        });
+
+        List<Map<String, Object>> usageByDay = new ArrayList<>();
+        daily.entrySet().stream()
+                .sorted(Map.Entry.<LocalDate, long[]>comparingByKey().reversed())
+                .forEach(entry -> {
+                    Map<String, Object> day = new LinkedHashMap<>();
+                    day.put("date", entry.getKey().toString());
+                    day.put("promptTokens", entry.getValue()[0]);
+                    day.put("completionTokens", entry.getValue()[1]);
+                    day.put("totalTokens", entry.getValue()[0] + entry.getValue()[1]);
+                    day.put("requests", entry.getValue()[2]);
+                    usageByDay.add(day);
+                });
+
+        Map<String, Object> budget = new LinkedHashMap<>();
+        budget.put("enabled", config.isEnabled());
+        TokenBucket bucket = userBucket(userId);
+        budget.put("capacity", bucket.getCapacity());
+        budget.put("available", Math.max(0, bucket.available()));
+        budget.put("refillPerMinute", config.getUserRefillPerMinute());
+        budget.put("retryAfterMs", bucket.millisUntilAvailable());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("userId", userId);
+        result.put("usage", usageByDay);
+        result.put("budget", budget);
+        return result;
+    }
+
+    /**
+     * 将内存中的汇总批量写入数据库，写入失败的部分合并回内存等待下次写入
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<UserTokenUsage> batch = new ArrayList<>(config.getFlushBatchSize());
+        for (UsageKey key : new ArrayList<>(pending.keySet())) {
+            Accumulator acc = pending.remove(key);
+            if (acc == null) {
+                continue;
+            }
+            batch.add(UserTokenUsage.builder()
+                    .userId(key.userId)
+                    .roleId(key.roleId)
+                    .source(key.source)
+                    .usageDate(key.date)
+                    .promptTokens(acc.promptTokens)
+                    .completionTokens(acc.completionTokens)
+                    .requestCount(acc.requests)
+                    .build());
+            if (batch.size() >= config.getFlushBatchSize()) {
+                writeBatch(batch);
+                batch = new ArrayList<>(config.getFlushBatchSize());
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<UserTokenUsage> batch) {
+        long start = System.nanoTime();
+        try {
+            usageMapper.upsertBatch(batch);
+            meterRegistry.timer("token.usage.flush").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("token用量已写入数据库 - 行数: {}", batch.size());
+        } catch (Exception e) {
+            meterRegistry.counter("token.usage.flush.failures").increment();
+            log.warn("写入token用量失败，将在下次重试 - 行数: {}, 错误: {}", batch.size(), e.getMessage());
+            for (UserTokenUsage usage : batch) {
+                UsageKey key = new UsageKey(usage.getUserId(), usage.getRoleId(), usage.getSource(), usage.getUsageDate());
+                pending.compute(key, (k, acc) -> {
+                    Accumulator current = acc != null ? acc : new Accumulator();
+                    current.promptTokens += usage.getPromptTokens();
+                    current.completionTokens += usage.getCompletionTokens();
+                    current.requests += usage.getRequestCount();
+                    return current;
+                });
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+            // 已恢复满额的令牌桶与新建的等价，移除以限制内存占用
+            evictFull(userBuckets);
+            evictFull(roleBuckets);
+        } catch (Exception e) {
+            log.warn("定期写入token用量失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 逐个在computeIfPresent内判断并移除满额的桶，与record中的扣减互斥
+     */
+    private static void evictFull(Map<Long, TokenBucket> buckets) {
+        for (Long id : new ArrayList<>(buckets.keySet())) {
+            buckets.computeIfPresent(id, (key, bucket) -> bucket.isFull() ? null : bucket);
+        }
+    }
+
+    private static TokenBucket consume(TokenBucket bucket, long amount) {
+        bucket.consume(amount);
+        return bucket;
+    }
+
+    private void check(String scope, TokenBucket bucket) {
+        if (!bucket.hasBalance()) {
+            meterRegistry.counter("token.budget.rejected", "scope", scope).increment();
+            long retryAfterMs = bucket.millisUntilAvailable();
+            throw new TokenBudgetExceededException(scope, retryAfterMs > 0 ? retryAfterMs : 60000);
+        }
+    }
+
+    private TokenBucket userBucket(Long userId) {
+        return userBuckets.computeIfAbsent(userId, id -> newUserBucket());
+    }
+
+    private TokenBucket roleBucket(Long roleId) {
+        return roleBuckets.computeIfAbsent(roleId, id -> newRoleBucket());
+    }
+
+    private TokenBucket newUserBucket() {
+        return new TokenBucket(config.getUserCapacity(), config.getUserRefillPerMinute());
+    }
+
+    private TokenBucket newRoleBucket() {
+        return new TokenBucket(config.getRoleCapacity(), config.getRoleRefillPerMinute());
+    }
+
+    private static long nullToZero(Long value) {
+        return value != null ? value : 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private static final class UsageKey {
+        final long userId;
+        final long roleId;
+        final String source;
+        final LocalDate date;
+
+        UsageKey(long userId, long roleId, String source, LocalDate date) {
+            this.userId = userId;
+            this.roleId = roleId;
+            this.source = source;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof UsageKey other)) {
+                return false;
+            }
+            return userId == other.userId && roleId == other.roleId
+                    && source.equals(other.source) && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, roleId, source, date);
+        }
+    }
+
+    /**
+     * 只在ConcurrentHashMap.compute内修改，读取用于展示时允许看到略旧的值
+     */
+    private static final class Accumulator {
+        volatile long promptTokens;
+        volatile long completionTokens;
+        volatile long requests;
+    }
+}
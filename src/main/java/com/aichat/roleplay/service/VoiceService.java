@@ -2,6 +2,8 @@ package com.aichat.roleplay.service;
 
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.CompletionStage;
+
 /**
  * 语音服务接口
  * 通过模型API串接实现语音输入输出功能
@@ -10,6 +12,9 @@ public interface VoiceService {
 
     /**
      * 语音对话处理 - API串接实现（带聊天和角色信息，保存消息记录）
+     * 上传和语音识别在调用线程完成，AI回复生成期间不占用线程，生成完成后在语音线程池中合成语音
+     *
+     * @return AI回复的音频数据
      */
-    byte[] processVoiceChat(MultipartFile audioFile, Long chatId, Long roleId);
+    CompletionStage<byte[]> processVoiceChatAsync(MultipartFile audioFile, Long chatId, Long roleId);
 }
\ No newline at end of file
@@ -1,19 +1,38 @@
 package com.aichat.roleplay.service.impl;
 
+import com.aichat.roleplay.dto.ChatPrompt;
+import com.aichat.roleplay.service.CircuitBreakerRegistry;
 import com.aichat.roleplay.service.IAiChatService;
+import com.aichat.roleplay.service.TokenUsageService;
+import com.aichat.roleplay.util.CancellableStreaming;
+import com.aichat.roleplay.util.CircuitBreaker;
+import com.aichat.roleplay.util.HedgingStreamingChatModel;
+import com.aichat.roleplay.util.LatencyTrace;
+import com.aichat.roleplay.util.ModelCascadeRouter;
+import com.aichat.roleplay.util.TokenEstimator;
+import dev.ai4j.openai4j.ResponseHandle;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.FinishReason;
 import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * AI聊天服务实现类
@@ -25,37 +44,91 @@ public class AiChatServiceImpl implements IAiChatService {
     private static final Logger log = LoggerFactory.getLogger(AiChatServiceImpl.class);
 
     private final StreamingChatLanguageModel streamingChatLanguageModel;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final TokenUsageService tokenUsageService;
+    private final ModelCascadeRouter cascadeRouter;
+    private final MeterRegistry meterRegistry;
+    private final String primaryModelName;
 
     /**
      * 构造函数注入，遵循依赖倒置原则
      */
     @Autowired
-    public AiChatServiceImpl(StreamingChatLanguageModel streamingChatLanguageModel) {
+    public AiChatServiceImpl(StreamingChatLanguageModel streamingChatLanguageModel,
+                             CircuitBreakerRegistry circuitBreakerRegistry,
+                             TokenUsageService tokenUsageService,
+                             ObjectProvider<ModelCascadeRouter> cascadeRouter,
+                             MeterRegistry meterRegistry,
+                             @Value("${langchain4j.open-ai.chat-model.model-name:unknown}") String primaryModelName) {
         this.streamingChatLanguageModel = streamingChatLanguageModel;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.tokenUsageService = tokenUsageService;
+        this.cascadeRouter = cascadeRouter.getIfAvailable();
+        this.meterRegistry = meterRegistry;
+        this.primaryModelName = primaryModelName;
     }
 
 
 
 
     @Override
-    public void generateStreamResponseDirect(String fullPrompt, StreamResponseCallback callback) {
+    public GenerationHandle generateStreamResponseDirect(String fullPrompt, StreamResponseCallback callback) {
         log.debug("开始直接使用完整prompt生成流式AI回复");
+        return streamMessages(List.of(UserMessage.from(fullPrompt)), null, null, null, null, callback);
+    }
+
+    @Override
+    public GenerationHandle generateStreamResponse(ChatPrompt prompt, StreamResponseCallback callback) {
+        log.debug("开始使用结构化prompt生成流式AI回复，历史消息数: {}", prompt.getHistory().size());
+        // 启用模型级联时按本轮复杂度选择快速模型或主模型及输出token上限
+        ModelCascadeRouter.Decision decision = cascadeRouter != null
+                ? cascadeRouter.decide(prompt.getUserMessage()) : null;
+        return streamMessages(prompt.toMessages(), decision, prompt.getUserId(), prompt.getRoleId(),
+                prompt.getTrace(), callback);
+    }
 
+    private GenerationHandle streamMessages(List<ChatMessage> messages, ModelCascadeRouter.Decision decision,
+                                            Long userId, Long roleId, LatencyTrace trace,
+                                            StreamResponseCallback callback) {
+
+        // 上游已熔断时直接抛出CircuitOpenException，由调用方发送明确的错误事件
+        CircuitBreaker.Permit permit = circuitBreakerRegistry.acquire(CircuitBreakerRegistry.CHAT);
         StringBuilder aiAnswer = new StringBuilder();
+        UsageCharge usageCharge = new UsageCharge(userId, roleId, messages, aiAnswer);
+        // 取消（客户端断开、流式反思中止）同样按已发送的prompt和已生成的内容计费
+        DefaultGenerationHandle handle = new DefaultGenerationHandle(() -> {
+            circuitBreakerRegistry.onIgnored(CircuitBreakerRegistry.CHAT, permit);
+            usageCharge.charge(null, "cancelled");
+        });
+        StreamingChatLanguageModel model = decision != null && decision.getTier() == ModelCascadeRouter.Tier.FAST
+                ? cascadeRouter.getFastModel() : streamingChatLanguageModel;
+        Integer maxTokens = decision != null ? decision.getMaxTokens() : null;
+        long startNanos = System.nanoTime();
+        AtomicLong firstTokenNanos = new AtomicLong();
+        if (trace != null) {
+            boolean fast = decision != null && decision.getTier() == ModelCascadeRouter.Tier.FAST;
+            trace.startGeneration(fast ? cascadeRouter.getFastModelName() : primaryModelName);
+        }
 
         try {
-            List<ChatMessage> messages = List.of(
-                    UserMessage.from(fullPrompt)
-            );
             log.info("传给llm的信息："+messages);
 
-            streamingChatLanguageModel.generate(messages, new StreamingResponseHandler<AiMessage>() {
+            StreamingResponseHandler<AiMessage> handler = new StreamingResponseHandler<AiMessage>() {
                 @Override
                 public void onNext(String token) {
+                    if (handle.isCancelled()) {
+                        return;
+                    }
+                    firstTokenNanos.compareAndSet(0, System.nanoTime());
+                    if (trace != null) {
+                        trace.onToken();
+                    }
                     log.info("AI服务收到token: '{}', 长度: {}, 类型: {}", 
                             token, token != null ? token.length() : 0, 
                             token != null ? token.getClass().getSimpleName() : "null");
-                    aiAnswer.append(token);
+                    synchronized (aiAnswer) {
+                        aiAnswer.append(token);
+                    }
                     // 实时推送每个token，确保前端能立即接收到ROLE_MESSAGE
                     log.info("AI服务准备推送token到callback: '{}'", token);
                     try {
@@ -68,12 +141,22 @@ public class AiChatServiceImpl implements IAiChatService {
 
                 @Override
                 public void onError(Throwable error) {
+                    if (handle.isCancelled()) {
+                        return;
+                    }
+                    // 路由端点满载等本地拒绝不计入熔断统计
+                    circuitBreakerRegistry.onError(CircuitBreakerRegistry.CHAT, permit, error);
                     log.error("直接prompt流式生成AI回复失败", error);
+                    usageCharge.charge(null, "error");
                     callback.onResponse("[ERROR]");
                 }
 
                 @Override
                 public void onComplete(Response<AiMessage> response) {
+                    if (handle.isCancelled()) {
+                        return;
+                    }
+                    circuitBreakerRegistry.onSuccess(CircuitBreakerRegistry.CHAT, permit);
                     String finalAnswer = aiAnswer.toString();
                     log.debug("直接prompt流式回复完成，长度: {}", finalAnswer.length());
                     log.info("完整AI回复内容: '{}'", finalAnswer);
@@ -81,15 +164,177 @@ public class AiChatServiceImpl implements IAiChatService {
                     if (response == null || response.content() == null) {
                         log.warn("onComplete 收到空的 response");
                     }
+                    usageCharge.charge(response != null ? response.tokenUsage() : null, "missing");
+                    if (trace != null) {
+                        trace.endGeneration();
+                    }
+                    if (decision != null) {
+                        recordCascadeLatency(decision, startNanos, firstTokenNanos.get(), response);
+                    }
 
                     callback.onResponse("[DONE]");
                 }
-            });
+            };
+
+            if (model instanceof CancellableStreaming cancellableModel) {
+                ResponseHandle responseHandle = cancellableModel.stream(messages, maxTokens, handler);
+                usageCharge.bind(responseHandle);
+                handle.bind(responseHandle);
+            } else {
+                model.generate(messages, handler);
+            }
 
         } catch (Exception e) {
+            circuitBreakerRegistry.onError(CircuitBreakerRegistry.CHAT, permit, e);
             log.error("调用直接prompt流式API失败", e);
             callback.onResponse("[ERROR]");
         }
+        return handle;
+    }
+
+    /**
+     * 按级联层级记录首token延迟和总耗时，用于评估快速模型的收益
+     */
+    private void recordCascadeLatency(ModelCascadeRouter.Decision decision, long startNanos, long firstTokenNanos,
+                                      Response<AiMessage> response) {
+        String tier = decision.getTier().name().toLowerCase();
+        long totalNanos = System.nanoTime() - startNanos;
+        Timer.builder("llm.cascade.latency").tag("tier", tier).register(meterRegistry)
+                .record(totalNanos, TimeUnit.NANOSECONDS);
+        long ttftMs = -1;
+        if (firstTokenNanos > 0) {
+            Timer.builder("llm.cascade.ttft").tag("tier", tier).register(meterRegistry)
+                    .record(firstTokenNanos - startNanos, TimeUnit.NANOSECONDS);
+            ttftMs = (firstTokenNanos - startNanos) / 1_000_000;
+        }
+        Integer outputTokens = response != null && response.tokenUsage() != null
+                ? response.tokenUsage().outputTokenCount() : null;
+        boolean truncated = response != null && response.finishReason() == FinishReason.LENGTH;
+        if (truncated) {
+            meterRegistry.counter("llm.cascade.truncated", "tier", tier).increment();
+        }
+        log.info("模型级联完成 - tier: {}, reason: {}, maxTokens: {}, 首token: {}ms, 总耗时: {}ms, 输出token: {}, 因长度截断: {}",
+                decision.getTier(), decision.getReason(), decision.getMaxTokens(), ttftMs,
+                totalNanos / 1_000_000, outputTokens, truncated);
+    }
+
+    /**
+     * 单次生成的计费：完成、出错或取消时只计一次；上游未返回用量时按TokenEstimator估算，
+     * 对冲请求中被取消的一方按其prompt额外计费
+     */
+    private class UsageCharge {
+
+        private final Long userId;
+        private final Long roleId;
+        private final List<ChatMessage> messages;
+        private final StringBuilder answer;
+        private final AtomicBoolean charged = new AtomicBoolean(false);
+        private volatile ResponseHandle responseHandle;
+
+        UsageCharge(Long userId, Long roleId, List<ChatMessage> messages, StringBuilder answer) {
+            this.userId = userId;
+            this.roleId = roleId;
+            this.messages = messages;
+            this.answer = answer;
+        }
+
+        void bind(ResponseHandle responseHandle) {
+            this.responseHandle = responseHandle;
+        }
+
+        /**
+         * @param reported 上游返回的用量，为null时估算
+         * @param reason 估算原因，用于监控
+         */
+        void charge(TokenUsage reported, String reason) {
+            if (!charged.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                int extraAttempts = responseHandle instanceof HedgingStreamingChatModel.AttemptCounter counter
+                        ? Math.max(0, counter.launchedAttempts() - 1) : 0;
+                if (reported != null) {
+                    TokenUsage usage = reported;
+                    if (extraAttempts > 0) {
+                        int reportedInput = reported.inputTokenCount() != null ? reported.inputTokenCount() : 0;
+                        usage = new TokenUsage(reportedInput + extraAttempts * estimatePromptTokens(),
+                                reported.outputTokenCount());
+                    }
+                    tokenUsageService.record(userId, roleId, TokenUsageService.SOURCE_CHAT, usage);
+                    return;
+                }
+                int completionTokens;
+                synchronized (answer) {
+                    completionTokens = TokenEstimator.estimate(answer.toString());
+                }
+                TokenUsage estimate = new TokenUsage((1 + extraAttempts) * estimatePromptTokens(), completionTokens);
+                tokenUsageService.recordEstimated(userId, roleId, TokenUsageService.SOURCE_CHAT, estimate, reason);
+            } catch (Exception e) {
+                log.warn("记录token用量失败: {}", e.getMessage());
+            }
+        }
+
+        private int estimatePromptTokens() {
+            int total = 0;
+            for (ChatMessage message : messages) {
+                total += TokenEstimator.estimateMessage(textOf(message));
+            }
+            return total;
+        }
+
+        /**
+         * 消息的纯文本内容；非纯文本消息（如多模态内容）返回null，只计格式开销
+         */
+        private String textOf(ChatMessage message) {
+            if (message instanceof SystemMessage systemMessage) {
+                return systemMessage.text();
+            }
+            if (message instanceof UserMessage userMessage) {
+                return userMessage.hasSingleText() ? userMessage.singleText() : null;
+            }
+            if (message instanceof AiMessage aiMessage) {
+                return aiMessage.text();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 默认生成句柄：标记取消并关闭上游连接
+     */
+    private static class DefaultGenerationHandle implements GenerationHandle {
+
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final Runnable cancelListener;
+        private volatile ResponseHandle responseHandle;
+
+        DefaultGenerationHandle(Runnable cancelListener) {
+            this.cancelListener = cancelListener;
+        }
+
+        void bind(ResponseHandle responseHandle) {
+            this.responseHandle = responseHandle;
+            if (cancelled.get() && responseHandle != null) {
+                responseHandle.cancel();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                ResponseHandle current = responseHandle;
+                if (current != null) {
+                    current.cancel();
+                }
+                cancelListener.run();
+                log.info("已取消上游流式生成");
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
     }
 
 }
\ No newline at end of file
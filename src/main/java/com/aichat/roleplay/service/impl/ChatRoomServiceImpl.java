@@ -5,7 +5,9 @@ import com.aichat.roleplay.mapper.ChatRoomMapper;
 import com.aichat.roleplay.mapper.ChatroomMessageMapper;
 import com.aichat.roleplay.model.ChatRoom;
 import com.aichat.roleplay.model.ChatroomMessage;
+import com.aichat.roleplay.service.ChatroomHistoryBuffer;
 import com.aichat.roleplay.service.IChatRoomService;
+import com.aichat.roleplay.service.RoleSelectionCache;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,6 +34,12 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
     @Autowired
     private ChatroomMessageMapper chatroomMessageMapper;
 
+    @Autowired
+    private RoleSelectionCache roleSelectionCache;
+
+    @Autowired
+    private ChatroomHistoryBuffer historyBuffer;
+
     @Override
     @Transactional
     public ChatRoom createChatRoom(ChatRoom chatRoom) {
@@ -53,6 +61,7 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
         boolean success = save(chatRoom);
         if (success) {
             log.info("聊天室创建成功，ID: {}", chatRoom.getId());
+            roleSelectionCache.invalidate(chatRoom.getChatRoomId());
             return chatRoom;
         } else {
             log.error("聊天室创建失败");
@@ -89,6 +98,7 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
         boolean success = save(chatRoom);
         if (success) {
             log.info("角色添加成功，记录ID: {}", chatRoom.getId());
+            roleSelectionCache.invalidate(chatRoomId);
             return chatRoom;
         } else {
             log.error("角色添加失败");
@@ -155,6 +165,7 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
         try {
             chatRoomMapper.updateActiveStatus(id, isActive);
             log.info("激活状态更新成功");
+            invalidateSelectionCache(id);
             return true;
         } catch (Exception e) {
             log.error("激活状态更新失败", e);
@@ -167,9 +178,13 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
     public boolean deleteChatRoomRole(Long id) {
         log.info("删除聊天室角色记录: {}", id);
         
+        ChatRoom record = getById(id);
         boolean success = removeById(id);
         if (success) {
             log.info("聊天室角色记录删除成功");
+            if (record != null) {
+                roleSelectionCache.invalidate(record.getChatRoomId());
+            }
         } else {
             log.error("聊天室角色记录删除失败");
         }
@@ -208,6 +223,8 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
                 log.info("物理删除聊天室 {} 的 {} 个角色记录", chatRoomId, chatRoomRoles.size());
             }
             
+            roleSelectionCache.invalidate(chatRoomId);
+            historyBuffer.invalidate(chatRoomId);
             log.info("聊天室 {} 物理删除成功", chatRoomId);
             return true;
             
@@ -217,6 +234,16 @@ public class ChatRoomServiceImpl extends ServiceImpl<ChatRoomMapper, ChatRoom> i
         }
     }
 
+    /**
+     * 按聊天室角色记录ID找到所属聊天室，使其角色选择缓存失效
+     */
+    private void invalidateSelectionCache(Long id) {
+        ChatRoom record = getById(id);
+        if (record != null) {
+            roleSelectionCache.invalidate(record.getChatRoomId());
+        }
+    }
+
     @Override
     public ChatRoom getChatRoomByRoomIdAndRoleId(Long chatRoomId, Long roleId) {
         log.debug("查询聊天室 {} 中的角色 {}", chatRoomId, roleId);
@@ -4,6 +4,7 @@ import com.aichat.roleplay.mapper.ChatMapper;
 import com.aichat.roleplay.mapper.RoleMapper;
 import com.aichat.roleplay.model.Chat;
 import com.aichat.roleplay.model.Role;
+import com.aichat.roleplay.service.ConversationCache;
 import com.aichat.roleplay.service.IChatService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,17 +29,20 @@ public class ChatServiceImpl implements IChatService {
 
     private final ChatMapper chatMapper;
     private final RoleMapper roleMapper;
+    private final ConversationCache conversationCache;
 
     /**
      * 构造函数注入，遵循依赖倒置原则
      *
      * @param chatMapper 聊天会话数据访问接口
      * @param roleMapper 角色数据访问接口
+     * @param conversationCache 会话缓存
      */
     @Autowired
-    public ChatServiceImpl(ChatMapper chatMapper, RoleMapper roleMapper) {
+    public ChatServiceImpl(ChatMapper chatMapper, RoleMapper roleMapper, ConversationCache conversationCache) {
         this.chatMapper = chatMapper;
         this.roleMapper = roleMapper;
+        this.conversationCache = conversationCache;
     }
 
     @Override
@@ -140,6 +144,7 @@ public class ChatServiceImpl implements IChatService {
 
         // 使用逻辑删除
         int result = chatMapper.deleteById(id);
+        conversationCache.invalidate(id);
         if (result > 0) {
             log.info("聊天会话删除成功，会话ID: {}", id);
         } else {
@@ -1,6 +1,9 @@
 package com.aichat.roleplay.service.impl;
 
 import cn.hutool.json.JSONUtil;
+import com.aichat.roleplay.dto.ChatPrompt;
+import com.aichat.roleplay.dto.RoleSelectionResult;
+import com.aichat.roleplay.exception.TokenBudgetExceededException;
 import com.aichat.roleplay.mapper.RoleMapper;
 import com.aichat.roleplay.model.Role;
 import com.aichat.roleplay.model.ChatRoom;
@@ -8,14 +11,26 @@ import com.aichat.roleplay.service.ChatroomCollaborationService;
 import com.aichat.roleplay.service.IChatRoomService;
 import com.aichat.roleplay.service.IChatroomMessageService;
 import com.aichat.roleplay.service.IRoleSelector;
+import com.aichat.roleplay.service.CircuitBreakerRegistry;
+import com.aichat.roleplay.service.CollaborationScheduler;
+import com.aichat.roleplay.service.LlmAdmissionService;
+import com.aichat.roleplay.service.RoleSelectionCache;
 import com.aichat.roleplay.service.SseService;
+import com.aichat.roleplay.service.SseWriterFactory;
+import com.aichat.roleplay.service.TokenUsageService;
 
 import com.aichat.roleplay.service.IAiChatService;
+import com.aichat.roleplay.util.CoalescingSseWriter;
+import com.aichat.roleplay.util.LatencyTrace;
+import com.aichat.roleplay.util.LlmLatencyMetrics;
 import com.aichat.roleplay.util.RolePromptEngineering;
+import com.aichat.roleplay.util.SseEventChannel;
 import com.aichat.roleplay.mapper.ChatroomMessageMapper;
 import com.aichat.roleplay.model.ChatroomMessage;
 
 import com.aichat.roleplay.context.UserContext;
+import dev.langchain4j.data.message.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,8 +40,7 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -59,6 +73,30 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
     @Autowired
     private ChatroomMessageMapper chatroomMessageMapper;
 
+    @Autowired
+    private SseWriterFactory sseWriterFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LlmAdmissionService admissionService;
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+
+    @Autowired
+    private TokenUsageService tokenUsageService;
+
+    @Autowired
+    private LlmLatencyMetrics latencyMetrics;
+
+    @Autowired
+    private CollaborationScheduler collaborationScheduler;
+
+    @Autowired
+    private RoleSelectionCache roleSelectionCache;
+
 
     @Value("${chatroom.collaboration.top-k-roles:3}")
     private int topKRoles;
@@ -66,8 +104,6 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
     @Value("${chatroom.collaboration.max-concurrent-roles:5}")
     private int maxConcurrentRoles;
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
-
     @Override
     public SseEmitter handleCollaborativeMessage(Long chatRoomId, String userMessage, String context) {
         log.info("处理协作消息 - chatRoomId: {}, userMessage: {}", chatRoomId, userMessage);
@@ -75,50 +111,78 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
 
         // 增加超时时间到5分钟，并添加超时和完成回调
         SseEmitter emitter = new SseEmitter(300000L);
-        
-        // 设置超时回调
-        emitter.onTimeout(() -> {
-            log.warn("SSE连接超时 - chatRoomId: {}, 连接将被关闭", chatRoomId);
-            try {
-                emitter.complete();
-            } catch (Exception e) {
-                log.error("SSE超时完成失败", e);
+        // 各角色并发把事件放入本连接的出站队列，由单个写线程按合并窗口写出
+        SseEventChannel channel = sseWriterFactory.createChannel(emitter, SseWriterFactory.ENDPOINT_COLLABORATE,
+                this::encodeRoleMessages);
+        // 跟踪本次协作中各角色的上游生成，客户端断开时全部取消
+        CollaborationRun run = new CollaborationRun();
+
+        // 连接结束回调：正常结束时已没有进行中的生成；超时或客户端断开时取消剩余生成
+        channel.onClosed(state -> {
+            switch (state) {
+                case TIMED_OUT -> {
+                    log.warn("SSE连接超时 - chatRoomId: {}, 连接将被关闭", chatRoomId);
+                    cancelRun(run, chatRoomId, "timeout");
+                }
+                case DISCONNECTED -> {
+                    log.warn("SSE连接提前结束 - chatRoomId: {}", chatRoomId);
+                    cancelRun(run, chatRoomId, "client_disconnect");
+                }
+                default -> cancelRun(run, chatRoomId, "client_disconnect");
             }
         });
-        
-        // 设置完成回调
-        emitter.onCompletion(() -> {
-            log.warn("SSE连接完成回调被触发 - chatRoomId: {}", chatRoomId);
-            // 打印堆栈跟踪以找出是谁调用了complete
-            Thread.dumpStack();
-        });
-        
-        // 设置错误回调
-        emitter.onError((throwable) -> {
-            log.error("SSE连接错误回调被触发 - chatRoomId: {}", chatRoomId, throwable);
-            // 打印堆栈跟踪以找出错误来源
-            Thread.dumpStack();
-        });
 
         try {
             // 在异步处理前获取当前用户ID
             Long currentUserId = UserContext.getCurrentUserId();
             log.info("当前用户ID: {}", currentUserId);
             
-            // 异步处理协作消息，传递userId参数
-            CompletableFuture.runAsync(() -> {
-                try {
-                    processCollaborativeMessage(chatRoomId, userMessage, context, emitter, currentUserId);
+            // 上游已熔断或用户额度已用完时不进入排队，直接返回错误事件
+            circuitBreakerRegistry.checkAvailable(CircuitBreakerRegistry.CHAT);
+            tokenUsageService.checkBudget(currentUserId, null);
+
+            // 经准入控制后异步处理协作消息，按可能参与的角色数占用上游并发
+            int weight = Math.max(1, Math.min(topKRoles, maxConcurrentRoles));
+            long queuedAt = System.nanoTime();
+            LlmAdmissionService.Ticket ticket = admissionService.acquire(currentUserId, "room:" + chatRoomId, weight,
+                    new LlmAdmissionService.AdmissionListener() {
+                        @Override
+                        public void onAdmitted() {
+                            // 排队按整个聊天室计，不属于单个角色
+                            latencyMetrics.record(LatencyTrace.QUEUE_WAIT, SseWriterFactory.ENDPOINT_COLLABORATE,
+                                    LlmLatencyMetrics.NONE, LlmLatencyMetrics.NONE, System.nanoTime() - queuedAt);
+                            boolean accepted = collaborationScheduler.submitOrchestration(chatRoomId, () -> {
+                                try {
+                                    processCollaborativeMessage(chatRoomId, userMessage, context, channel, currentUserId, run);
+
+                                } catch (Exception e) {
+                                    log.error("处理协作消息失败", e);
+                                    handleError(channel, e);
+                                }
+                            });
+                            if (!accepted) {
+                                // 连接结束后由onClosed回调释放准入名额
+                                sendRejected(channel, null, null, CollaborationScheduler.Rejection.POOL_FULL);
+                                channel.complete();
+                            }
+                        }
 
-                } catch (Exception e) {
-                    log.error("处理协作消息失败", e);
-                    handleError(emitter, e);
-                }
-            }, executorService);
+                        @Override
+                        public void onQueued(int position, long estimatedWaitMs) {
+                            sendQueued(channel, position, estimatedWaitMs);
+                        }
+
+                        @Override
+                        public void onRejected(String reason) {
+                            sendMessage(channel, "ERROR", reason, null, null);
+                            channel.complete();
+                        }
+                    });
+            run.bindTicket(ticket);
 
         } catch (Exception e) {
             log.error("启动协作消息处理失败", e);
-            handleError(emitter, e);
+            handleError(channel, e);
         }
 
         return emitter;
@@ -128,7 +192,8 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
      * 处理协作消息的核心逻辑
      */
 
-    private void processCollaborativeMessage(Long chatRoomId, String userMessage, String context, SseEmitter emitter, Long userId) {
+    private void processCollaborativeMessage(Long chatRoomId, String userMessage, String context, SseEventChannel channel,
+                                             Long userId, CollaborationRun run) {
         try {
             // 0. 保存用户消息
 
@@ -145,22 +210,33 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
             // 1. 获取聊天室角色
             List<Role> availableRoles = getChatRoomRoles(chatRoomId);
             if (availableRoles.isEmpty()) {
-                sendMessage(emitter, "ERROR", "聊天室没有可用角色", null, null);
-                emitter.complete();
+                sendMessage(channel, "ERROR", "聊天室没有可用角色", null, null);
+                channel.complete();
                 return;
             }
 
             // 2. 选择合适的角色
             int actualTopK = Math.min(topKRoles, Math.min(availableRoles.size(), maxConcurrentRoles));
-            
 
-            // 构建通用聊天历史用于角色选择（不包含角色特定信息）
-            String generalChatHistory = chatroomMessageService.buildChatHistory(chatRoomId, 10);
-            String selectionContext = (context != null && !context.trim().isEmpty() ? context : "") + 
-                                    (generalChatHistory.isEmpty() ? "" : "\n聊天历史:\n" + generalChatHistory);
-            
-            // 直接使用selectTopKRoles方法进行智能角色选择
-            var selectionResult = roleSelector.selectTopKRoles(userMessage, availableRoles, actualTopK, selectionContext);
+            // 与上一轮同一话题且角色集合未变时直接复用上一轮的选择结果
+            long selectionStart = System.nanoTime();
+            RoleSelectionCache.Lookup cached = roleSelectionCache.lookup(chatRoomId, availableRoles, actualTopK, userMessage);
+            RoleSelectionResult selectionResult;
+            if (cached != null && cached.isHit()) {
+                selectionResult = cached.getResult();
+            } else {
+                // 构建通用聊天历史用于角色选择（不包含角色特定信息）
+                String generalChatHistory = chatroomMessageService.buildChatHistory(chatRoomId, 10);
+                String selectionContext = (context != null && !context.trim().isEmpty() ? context : "") +
+                                        (generalChatHistory.isEmpty() ? "" : "\n聊天历史:\n" + generalChatHistory);
+
+                // 直接使用selectTopKRoles方法进行智能角色选择，复用缓存查询时已计算的消息向量
+                selectionResult = roleSelector.selectTopKRoles(userMessage, availableRoles, actualTopK, selectionContext,
+                        userId, cached != null ? cached.getEmbedding() : null);
+                roleSelectionCache.put(chatRoomId, cached, selectionResult, System.nanoTime() - selectionStart);
+            }
+            latencyMetrics.record(LatencyTrace.ROLE_SELECTION, SseWriterFactory.ENDPOINT_COLLABORATE,
+                    LlmLatencyMetrics.NONE, LlmLatencyMetrics.NONE, System.nanoTime() - selectionStart);
 
             List<Role> selectedRoles = availableRoles.stream()
                     .filter(role -> selectionResult.getSelectedRoleIds().contains(role.getId()))
@@ -175,33 +251,42 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
             log.info("选择了 {} 个角色参与对话: {}", selectedRoles.size(),
                     selectedRoles.stream().map(Role::getName).collect(Collectors.toList()));
 
+            // 角色选择期间客户端已断开，不再启动角色生成
+            if (run.isCancelled()) {
+                log.info("客户端已断开，跳过角色生成 - chatRoomId: {}", chatRoomId);
+                return;
+            }
+
             // 3. 发送开始消息
-            sendMessage(emitter, "START", "开始协作对话", null, null);
+            sendMessage(channel, "START", "开始协作对话", null, null);
 
 
             // 4. 为每个角色创建异步任务，使用CompletableFuture来跟踪流式响应的完成状态
             List<CompletableFuture<Void>> futures = new ArrayList<>();
+            // 本轮最近消息只取一次（活跃聊天室来自内存缓冲），各角色在此基础上按自己的视角过滤
+            List<ChatroomMessage> recentMessages = chatroomMessageService.getRecentMessages(chatRoomId, 10);
 
             for (Role role : selectedRoles) {
                 CompletableFuture<Void> future = new CompletableFuture<>();
                 
-                // 异步处理角色响应
-                executorService.submit(() -> {
+                // 异步处理角色响应：按聊天室公平调度，受角色并发舱壁限制；被拒绝的角色单独报错，不影响其他角色
+                collaborationScheduler.submitRole(chatRoomId, role.getId(), future, () -> {
                     try {
                         log.info("开始处理角色: {}", role.getName());
-                        // 为每个角色构建特定的聊天历史
-                        String roleChatHistory = chatroomMessageService.buildRoleChatHistory(chatRoomId, role.getId(), 10);
-                        String roleContext = (context != null && !context.trim().isEmpty() ? context : "") + 
-                                           (roleChatHistory.isEmpty() ? "" : "\n聊天历史:\n" + roleChatHistory);
-                        generateRoleStreamResponse(role, userMessage, roleContext, chatRoomId, emitter, future);
+                        // 为每个角色构建特定视角的聊天历史（自己的发言为AI消息，用户发言为用户消息）
+                        List<ChatMessage> roleHistory = rolePromptEngineering.toRoleHistory(recentMessages, role.getId());
+                        generateRoleStreamResponse(role, userMessage, context, roleHistory, chatRoomId, userId, channel, future, run);
 
                     } catch (Exception e) {
                         log.error("角色 {} 流式响应失败", role.getName(), e);
-                        sendMessage(emitter, "ERROR", "角色响应失败: " + e.getMessage(),
+                        sendMessage(channel, "ERROR", "角色响应失败: " + e.getMessage(),
                                 role.getId(), role.getName());
 
                         future.completeExceptionally(e);
                     }
+                }, rejection -> {
+                    sendRejected(channel, role.getId(), role.getName(), rejection);
+                    future.complete(null);
                 });
 
 
@@ -215,22 +300,26 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
                         try {
                             log.info("所有角色流式响应真正完成，准备关闭SSE连接 - chatRoomId: {}", chatRoomId);
 
-                            sendMessage(emitter, "COMPLETE", "协作对话完成", null, null);
-                            emitter.complete();
+                            sendMessage(channel, "COMPLETE", "协作对话完成", null, null);
+                            channel.complete();
                         } catch (Exception e) {
                             log.error("完成协作对话时出错", e);
-                            emitter.completeWithError(e);
+                            channel.completeWithError(e);
                         }
                     })
                     .exceptionally(throwable -> {
+                        if (run.isCancelled()) {
+                            log.info("客户端已断开，协作对话已取消 - chatRoomId: {}", chatRoomId);
+                            return null;
+                        }
                         log.error("协作对话处理异常", throwable);
-                        handleError(emitter, (Exception) throwable);
+                        handleError(channel, (Exception) throwable);
                         return null;
                     });
 
         } catch (Exception e) {
             log.error("处理协作消息失败", e);
-            handleError(emitter, e);
+            handleError(channel, e);
         }
     }
 
@@ -238,27 +327,49 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
      * 生成单个角色的流式响应
      */
 
-    private void generateRoleStreamResponse(Role role, String userMessage, String roleContext, Long chatRoomId, SseEmitter emitter, CompletableFuture<Void> future) {
+    private void generateRoleStreamResponse(Role role, String userMessage, String context, List<ChatMessage> roleHistory, Long chatRoomId, Long userId,
+                                            SseEventChannel channel, CompletableFuture<Void> future, CollaborationRun run) {
 
         try {
+            if (run.isCancelled()) {
+                future.cancel(false);
+                return;
+            }
+
+            // 角色额度已用完时只跳过该角色，其他角色继续
+            try {
+                tokenUsageService.checkBudget(null, role.getId());
+            } catch (TokenBudgetExceededException e) {
+                log.warn("角色 {} 的token额度已用完，跳过本轮响应", role.getName());
+                sendMessage(channel, "ROLE_ERROR", e.getMessage(), role.getId(), role.getName());
+                future.complete(null);
+                return;
+            }
+
             log.info("开始生成角色 {} 的流式响应", role.getName());
 
             // 发送角色开始响应消息
-            sendMessage(emitter, "ROLE_START", "角色开始响应", role.getId(), role.getName());
+            sendMessage(channel, "ROLE_START", "角色开始响应", role.getId(), role.getName());
 
             StringBuilder responseBuilder = new StringBuilder();
+            LatencyTrace trace = latencyMetrics.newTrace(SseWriterFactory.ENDPOINT_COLLABORATE, role);
+            // 取消（客户端断开、超时）后不再收到回调，由future结束时统一收尾；finish重复调用只生效一次
+            future.whenComplete((ignored, error) -> trace.finish());
 
-            
-            // 使用RolePromptEngineering构建优化的prompt
-            String optimizedPrompt = rolePromptEngineering.buildOptimizedPrompt(role, userMessage, roleContext);
-            
-            log.debug("角色 {} 的完整prompt: {}", role.getName(), optimizedPrompt);
+            // 使用RolePromptEngineering构建结构化prompt（稳定的系统消息 + 交替历史 + 本轮用户消息）
+            long promptStart = System.nanoTime();
+            ChatPrompt chatPrompt = rolePromptEngineering.buildChatPrompt(role, userMessage, null, roleHistory, context, trace)
+                    .withOwner(userId, role.getId());
+            trace.recordSince(LatencyTrace.PROMPT_BUILD, promptStart);
+
+            log.debug("角色 {} 的prompt - 历史消息数: {}, 本轮消息: {}", role.getName(),
+                    chatPrompt.getHistory().size(), chatPrompt.getUserTurn());
 
             // 使用标志位跟踪响应状态
             final boolean[] responseCompleted = {false};
 
-            // 直接调用AI服务生成流式响应
-            aiChatService.generateStreamResponseDirect(optimizedPrompt, token -> {
+            // 直接调用AI服务生成流式响应，句柄登记到本次协作以便客户端断开时取消
+            IAiChatService.GenerationHandle handle = aiChatService.generateStreamResponse(chatPrompt, token -> {
                 try {
                     // 添加详细的token调试日志
                     log.info("角色 {} 收到token: '{}', 长度: {}, 类型: {}", 
@@ -286,12 +397,15 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
                         log.info("角色 {} 响应生成完成，长度: {}", role.getName(), fullResponse.length());
                         
                         // 发送角色响应结束消息
-                        sendMessage(emitter, "ROLE_COMPLETE", "角色响应完成", role.getId(), role.getName());
+                        sendMessage(channel, "ROLE_COMPLETE", "角色响应完成", role.getId(), role.getName());
                         
                         // 保存AI消息到数据库
                         if (!fullResponse.isEmpty()) {
+                            long persistStart = System.nanoTime();
                             saveAiMessage(chatRoomId, role.getId(), fullResponse);
+                            trace.recordSince(LatencyTrace.PERSISTENCE, persistStart);
                         }
+                        trace.finish();
                         
                         // 完成CompletableFuture，表示该角色的流式响应真正完成
                         future.complete(null);
@@ -301,7 +415,8 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
                         log.info("角色 {} 收到[ERROR]信号", role.getName());
                         responseCompleted[0] = true;
                         log.error("角色 {} 响应生成出错", role.getName());
-                        sendMessage(emitter, "ROLE_ERROR", "角色响应出错", role.getId(), role.getName());
+                        sendMessage(channel, "ROLE_ERROR", "角色响应出错", role.getId(), role.getName());
+                        trace.finish();
                         // 完成CompletableFuture，即使出错也要标记完成
                         future.completeExceptionally(new RuntimeException("角色响应生成出错"));
                         
@@ -309,23 +424,23 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
                         // 正常的响应token
                         log.info("角色 {} 处理正常token: '{}', 进入else分支", role.getName(), token);
                         responseBuilder.append(token);
-                        // 发送ROLE_MESSAGE
-                        log.info("角色 {} 发送ROLE_MESSAGE: '{}'", role.getName(), token);
-                        sendMessage(emitter, "ROLE_MESSAGE", token, role.getId(), role.getName());
+                        // 缓冲到合并窗口，与其他角色的token一起发送
+                        channel.publishToken(role.getId(), role.getName(), token);
                     }
                     
                 } catch (Exception e) {
                     log.error("处理角色 {} 响应token失败", role.getName(), e);
                     if (!responseCompleted[0]) {
-                        sendMessage(emitter, "ROLE_ERROR", "处理响应失败", role.getId(), role.getName());
+                        sendMessage(channel, "ROLE_ERROR", "处理响应失败", role.getId(), role.getName());
                         future.completeExceptionally(e);
                     }
                 }
             });
+            run.register(handle, future);
 
         } catch (Exception e) {
             log.error("生成角色 {} 流式响应失败", role.getName(), e);
-            sendMessage(emitter, "ROLE_ERROR", "生成响应失败: " + e.getMessage(), role.getId(), role.getName());
+            sendMessage(channel, "ROLE_ERROR", "生成响应失败: " + e.getMessage(), role.getId(), role.getName());
             future.completeExceptionally(e);
         }
     }
@@ -344,7 +459,8 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
     /**
      * 获取聊天室的所有角色
      */
-    private List<Role> getChatRoomRoles(Long chatRoomId) {
+    @Override
+    public List<Role> getChatRoomRoles(Long chatRoomId) {
         try {
             // 获取聊天室中用户选择的角色
             List<ChatRoom> chatRoomRoles = chatRoomService.getRolesByChatRoomId(chatRoomId);
@@ -377,88 +493,167 @@ public class ChatroomCollaborationServiceimpl implements ChatroomCollaborationSe
     }
 
     /**
-     * 发送SSE消息
+     * 将一个合并窗口内各角色的token编码为一帧：
+     * 只有一个角色时保持ROLE_MESSAGE格式，多个角色时发送ROLE_MESSAGE_BATCH
      */
+    private String encodeRoleMessages(List<CoalescingSseWriter.Chunk> chunks) {
+        if (chunks.size() == 1) {
+            CoalescingSseWriter.Chunk chunk = chunks.get(0);
+            return JSONUtil.toJsonStr(buildMessageData("ROLE_MESSAGE", chunk.getText(), (Long) chunk.getKey(), chunk.getLabel()));
+        }
 
-    private synchronized void sendMessage(SseEmitter emitter, String type, String message, Long roleId, String roleName) {
+        List<Map<String, Object>> messages = new ArrayList<>(chunks.size());
+        for (CoalescingSseWriter.Chunk chunk : chunks) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("roleId", chunk.getKey());
+            item.put("roleName", chunk.getLabel());
+            item.put("message", chunk.getText());
+            messages.add(item);
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", "ROLE_MESSAGE_BATCH");
+        data.put("messages", messages);
+        data.put("timestamp", System.currentTimeMillis());
+        return JSONUtil.toJsonStr(data);
+    }
 
-        try {
-            Map<String, Object> data = new HashMap<>();
-            data.put("type", type);
-            data.put("message", message);
-            data.put("timestamp", System.currentTimeMillis());
+    private Map<String, Object> buildMessageData(String type, String message, Long roleId, String roleName) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", type);
+        data.put("message", message);
+        data.put("timestamp", System.currentTimeMillis());
 
-            if (roleId != null) {
-                data.put("roleId", roleId);
-            }
-            if (roleName != null) {
-                data.put("roleName", roleName);
-            }
+        if (roleId != null) {
+            data.put("roleId", roleId);
+        }
+        if (roleName != null) {
+            data.put("roleName", roleName);
+        }
+        return data;
+    }
 
-            String jsonMessage = JSONUtil.toJsonStr(data);
+    /**
+     * 发送SSE消息：放入连接的出站队列后立即返回，由写线程在刷出已缓冲的角色token之后写出
+     */
+    private void sendMessage(SseEventChannel channel, String type, String message, Long roleId, String roleName) {
+        String jsonMessage = JSONUtil.toJsonStr(buildMessageData(type, message, roleId, roleName));
+        if (channel.publish(jsonMessage)) {
+            log.debug("SSE消息已入队: {}, 队列深度: {}", message, channel.getQueueDepth());
+        } else {
+            // SSE连接已结束，静默丢弃
+            log.debug("SSE连接已结束（{}），无法发送消息: {}", channel.getState(), message);
+        }
+    }
 
-            
-            // 添加发送前的状态检查日志
-            log.debug("准备发送SSE消息: {}, emitter状态: {}", message, getEmitterState(emitter));
-            
-            emitter.send(SseEmitter.event().data(jsonMessage));
-            log.debug("SSE消息发送成功: {}", message);
-
-        } catch (IllegalStateException e) {
-            // SSE连接已完成，静默处理
-            log.debug("SSE连接已完成，无法发送消息: {}", message);
-            // 添加堆栈跟踪以找出连接完成的原因
-            log.debug("SSE连接完成时的堆栈跟踪:", e);
-        } catch (Exception e) {
-            log.error("发送SSE消息失败", e);
-            // 不要在这里调用completeWithError，避免过早关闭连接
+
+    /**
+     * 发送调度拒绝事件：角色被拒绝时为ROLE_ERROR，整个请求被拒绝时为ERROR，附带拒绝原因
+     */
+    private void sendRejected(SseEventChannel channel, Long roleId, String roleName,
+                              CollaborationScheduler.Rejection rejection) {
+        Map<String, Object> data = buildMessageData(roleId != null ? "ROLE_ERROR" : "ERROR",
+                rejection.getMessage(), roleId, roleName);
+        data.put("rejected", rejection.name());
+        channel.publish(JSONUtil.toJsonStr(data));
+    }
+
+    private void handleError(SseEventChannel channel, Exception e) {
+        try {
+            sendMessage(channel, "ERROR", e.getMessage(), null, null);
+            channel.complete();
+        } catch (Exception sendEx) {
+            log.error("发送错误消息失败", sendEx);
+            channel.completeWithError(sendEx);
         }
     }
-    
+
     /**
-     * 获取SSE emitter状态的辅助方法
+     * 发送排队状态
      */
-    private String getEmitterState(SseEmitter emitter) {
+    private void sendQueued(SseEventChannel channel, int position, long estimatedWaitMs) {
         try {
-            // 尝试多种方式获取emitter状态
-            Class<?> emitterClass = emitter.getClass();
-            
-            // 方法1：尝试获取complete字段
-            try {
-                java.lang.reflect.Field completeField = emitterClass.getDeclaredField("complete");
-                completeField.setAccessible(true);
-                boolean isComplete = (boolean) completeField.get(emitter);
-                return isComplete ? "COMPLETED" : "ACTIVE";
-            } catch (NoSuchFieldException e1) {
-                // 方法2：尝试从父类获取
-                try {
-                    java.lang.reflect.Field completeField = emitterClass.getSuperclass().getDeclaredField("complete");
-                    completeField.setAccessible(true);
-                    boolean isComplete = (boolean) completeField.get(emitter);
-                    return isComplete ? "COMPLETED" : "ACTIVE";
-                } catch (Exception e2) {
-                    // 方法3：尝试调用toString查看状态
-                    String toString = emitter.toString();
-                    if (toString.contains("complete")) {
-                        return "COMPLETED_FROM_STRING";
-                    }
-                    return "ACTIVE_FROM_STRING";
-                }
-            }
+            Map<String, Object> data = buildMessageData("QUEUED", "排队中", null, null);
+            data.put("position", position);
+            data.put("estimatedWaitMs", estimatedWaitMs);
+            channel.publish(JSONUtil.toJsonStr(data));
         } catch (Exception e) {
-            log.debug("获取emitter状态失败: {}", e.getMessage());
-            return "ERROR: " + e.getMessage();
+            log.debug("发送排队状态失败: {}", e.getMessage());
         }
     }
 
+    /**
+     * 客户端断开：取消本次协作中尚未完成的角色生成
+     */
+    private void cancelRun(CollaborationRun run, Long chatRoomId, String reason) {
+        int cancelled = run.cancel();
+        if (cancelled > 0) {
+            log.info("客户端已断开，取消{}个角色生成 - chatRoomId: {}, 原因: {}", cancelled, chatRoomId, reason);
+            meterRegistry.counter("sse.generation.cancelled", "endpoint", SseWriterFactory.ENDPOINT_COLLABORATE,
+                    "reason", reason, "phase", "generating").increment(cancelled);
+        }
+    }
 
-    private void handleError(SseEmitter emitter, Exception e) {
-        try {
-            sendMessage(emitter, "ERROR", e.getMessage(), null, null);
-            emitter.complete();
-        } catch (Exception sendEx) {
-            log.error("发送错误消息失败", sendEx);
-            emitter.completeWithError(sendEx);
+    /**
+     * 一次协作请求中各角色的上游生成及其准入凭证
+     */
+    private static class CollaborationRun {
+        private final Map<IAiChatService.GenerationHandle, CompletableFuture<Void>> generations = new ConcurrentHashMap<>();
+        private volatile boolean cancelled = false;
+        private LlmAdmissionService.Ticket ticket;
+
+        /**
+         * 绑定准入凭证；连接已结束时立即释放
+         */
+        void bindTicket(LlmAdmissionService.Ticket admissionTicket) {
+            boolean release;
+            synchronized (this) {
+                release = cancelled;
+                ticket = release ? null : admissionTicket;
+            }
+            if (release) {
+                admissionTicket.release();
+            }
+        }
+
+        void register(IAiChatService.GenerationHandle handle, CompletableFuture<Void> future) {
+            if (handle == null) {
+                return;
+            }
+            generations.put(handle, future);
+            if (cancelled) {
+                // 取消发生在生成启动之前
+                handle.cancel();
+                future.cancel(false);
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return 被取消的进行中生成数
+         */
+        int cancel() {
+            LlmAdmissionService.Ticket admissionTicket;
+            synchronized (this) {
+                cancelled = true;
+                admissionTicket = ticket;
+                ticket = null;
+            }
+            if (admissionTicket != null) {
+                // 连接结束即释放准入凭证（排队中则取消排队）
+                admissionTicket.release();
+            }
+            int count = 0;
+            for (Map.Entry<IAiChatService.GenerationHandle, CompletableFuture<Void>> entry : generations.entrySet()) {
+                if (!entry.getValue().isDone() && !entry.getKey().isCancelled()) {
+                    entry.getKey().cancel();
+                    entry.getValue().cancel(false);
+                    count++;
+                }
+            }
+            return count;
         }
     }
 }
@@ -2,12 +2,15 @@ package com.aichat.roleplay.service.impl;
 
 import com.aichat.roleplay.mapper.ChatroomMessageMapper;
 import com.aichat.roleplay.model.ChatroomMessage;
+import com.aichat.roleplay.service.ChatroomHistoryBuffer;
 import com.aichat.roleplay.service.IChatroomMessageService;
+import com.aichat.roleplay.service.MessageWriteBehindService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -23,6 +26,12 @@ public class ChatroomMessageServiceImpl implements IChatroomMessageService {
     @Autowired
     private ChatroomMessageMapper chatroomMessageMapper;
 
+    @Autowired
+    private MessageWriteBehindService messageWriteBehindService;
+
+    @Autowired
+    private ChatroomHistoryBuffer historyBuffer;
+
     @Override
     public ChatroomMessage saveUserMessage(Long chatRoomId, Long userId, String content) {
         log.info("保存用户消息，聊天室ID: {}, 用户ID: {}", chatRoomId, userId);
@@ -37,14 +46,10 @@ public class ChatroomMessageServiceImpl implements IChatroomMessageService {
                 .deleted(0)
                 .build();
 
-        int result = chatroomMessageMapper.insert(userMessage);
-        if (result > 0) {
-            log.info("用户消息保存成功，消息ID: {}", userMessage.getId());
-            return userMessage;
-        } else {
-            log.error("用户消息保存失败");
-            throw new RuntimeException("用户消息保存失败");
-        }
+        // 异步批量写入，消息ID在落库后回填
+        messageWriteBehindService.submit(userMessage);
+        historyBuffer.append(userMessage);
+        return userMessage;
     }
 
     @Override
@@ -61,14 +66,9 @@ public class ChatroomMessageServiceImpl implements IChatroomMessageService {
                 .deleted(0)
                 .build();
 
-        int result = chatroomMessageMapper.insert(aiMessage);
-        if (result > 0) {
-            log.info("AI消息保存成功，消息ID: {}", aiMessage.getId());
-            return aiMessage;
-        } else {
-            log.error("AI消息保存失败");
-            throw new RuntimeException("AI消息保存失败");
-        }
+        messageWriteBehindService.submit(aiMessage);
+        historyBuffer.append(aiMessage);
+        return aiMessage;
     }
 
     @Override
@@ -90,14 +90,9 @@ public class ChatroomMessageServiceImpl implements IChatroomMessageService {
                 .deleted(0)
                 .build();
 
-        int result = chatroomMessageMapper.insert(voiceMessage);
-        if (result > 0) {
-            log.info("语音消息保存成功，消息ID: {}", voiceMessage.getId());
-            return voiceMessage;
-        } else {
-            log.error("语音消息保存失败");
-            throw new RuntimeException("语音消息保存失败");
-        }
+        messageWriteBehindService.submit(voiceMessage);
+        historyBuffer.append(voiceMessage);
+        return voiceMessage;
     }
 
     @Override
@@ -145,12 +140,24 @@ public class ChatroomMessageServiceImpl implements IChatroomMessageService {
     @Override
     public List<ChatroomMessage> getRecentMessages(Long chatRoomId, int limit) {
         log.info("获取聊天室最近消息，聊天室ID: {}, 限制数量: {}", chatRoomId, limit);
-        List<ChatroomMessage> messages = chatroomMessageMapper.findRecentByChatRoomId(chatRoomId, limit);
-
-
+        // 活跃聊天室直接从内存缓冲读取
+        List<ChatroomMessage> buffered = historyBuffer.recent(chatRoomId, limit);
+        if (buffered != null) {
+            return buffered;
+        }
 
+        // 按缓冲容量读取一次并填充缓冲，之后的轮次不再查询
+        int fetch = Math.max(limit, historyBuffer.getCapacity());
+        List<ChatroomMessage> messages = chatroomMessageMapper.findRecentByChatRoomId(chatRoomId, fetch);
         Collections.reverse(messages);
-        return messages;
+        if (fetch == historyBuffer.getCapacity()) {
+            historyBuffer.seed(chatRoomId, messages);
+            List<ChatroomMessage> seeded = historyBuffer.recent(chatRoomId, limit);
+            if (seeded != null) {
+                return seeded;
+            }
+        }
+        return messages.size() > limit ? new ArrayList<>(messages.subList(messages.size() - limit, messages.size())) : messages;
     }
 
     @Override
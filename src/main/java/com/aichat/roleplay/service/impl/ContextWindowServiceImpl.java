@@ -0,0 +1,204 @@
+package com.aichat.roleplay.service.impl;
+
+import com.aichat.roleplay.config.ContextWindowConfig;
+import com.aichat.roleplay.dto.ContextWindow;
+import com.aichat.roleplay.mapper.ChatMapper;
+import com.aichat.roleplay.mapper.MessageMapper;
+import com.aichat.roleplay.model.Chat;
+import com.aichat.roleplay.model.Message;
+import com.aichat.roleplay.service.ConversationCache;
+import com.aichat.roleplay.service.IContextWindowService;
+import com.aichat.roleplay.util.TokenEstimator;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 对话上下文窗口服务实现类
+ * 每轮只读取有界的最近消息，按token预算从新到旧保留，窗口之外的旧消息异步合并进会话摘要，
+ * 使单轮的数据库读取量和prompt长度不随会话变长而增长
+ */
+@Service
+public class ContextWindowServiceImpl implements IContextWindowService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContextWindowServiceImpl.class);
+
+    private final MessageMapper messageMapper;
+    private final ChatMapper chatMapper;
+    private final ChatLanguageModel chatLanguageModel;
+    private final ContextWindowConfig config;
+    private final ConversationCache conversationCache;
+
+    // 摘要生成走单独的单线程池，不占用对话线程
+    private final ExecutorService summaryExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "context-summary");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 正在生成摘要的会话，避免同一会话重复提交
+    private final Set<Long> summarizingChats = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ContextWindowServiceImpl(MessageMapper messageMapper,
+                                    ChatMapper chatMapper,
+                                    ChatLanguageModel chatLanguageModel,
+                                    ContextWindowConfig config,
+                                    ConversationCache conversationCache) {
+        this.messageMapper = messageMapper;
+        this.chatMapper = chatMapper;
+        this.chatLanguageModel = chatLanguageModel;
+        this.config = config;
+        this.conversationCache = conversationCache;
+    }
+
+    @Override
+    public ContextWindow loadContext(Long chatId) {
+        if (!config.isEnabled()) {
+            List<Message> all = messageMapper.findByChatId(chatId);
+            int tokens = all.stream().mapToInt(m -> TokenEstimator.estimateMessage(m.getContent())).sum();
+            return new ContextWindow(null, all, tokens);
+        }
+
+        // 活跃会话直接使用缓存的摘要和最近消息
+        ConversationCache.Snapshot cached = conversationCache.get(chatId);
+        if (cached != null) {
+            return buildWindow(chatId, cached.getSummary(), cached.getSummaryMessageId(), cached.getRecentMessagesDesc());
+        }
+
+        // 读取数据库期间写入的消息由缓存暂存，填充时合并，避免被读取结果覆盖丢失
+        conversationCache.beginLoad(chatId);
+        try {
+            Chat chat = chatMapper.selectById(chatId);
+            String summary = chat != null ? chat.getSummary() : null;
+            Long summaryMessageId = chat != null ? chat.getSummaryMessageId() : null;
+
+            // 最近消息，按ID倒序
+            List<Message> recent = messageMapper.findRecentByChatId(chatId, config.getMaxFetchMessages());
+            if (chat != null) {
+                conversationCache.put(chatId, summary, summaryMessageId, recent);
+            }
+            return buildWindow(chatId, summary, summaryMessageId, recent);
+        } finally {
+            conversationCache.endLoad(chatId);
+        }
+    }
+
+    /**
+     * 在token预算内从新到旧挑选消息，并在窗口之外仍有未摘要的旧消息时触发摘要
+     */
+    private ContextWindow buildWindow(Long chatId, String summary, Long summaryMessageId, List<Message> recentDesc) {
+        int budget = config.getMaxHistoryTokens();
+        int used = TokenEstimator.estimate(summary);
+        List<Message> kept = new ArrayList<>();
+        boolean truncated = false;
+
+        for (Message message : recentDesc) {
+            if (summaryMessageId != null && message.getId() <= summaryMessageId) {
+                // 更早的消息已经包含在摘要中
+                break;
+            }
+            int cost = TokenEstimator.estimateMessage(message.getContent());
+            if (used + cost > budget) {
+                truncated = true;
+                break;
+            }
+            kept.add(message);
+            used += cost;
+        }
+
+        // 读取到的消息全部放入窗口且达到读取上限，说明更早的消息可能尚未摘要
+        boolean fetchLimitReached = kept.size() == recentDesc.size()
+                && recentDesc.size() >= config.getMaxFetchMessages();
+
+        if ((truncated || fetchLimitReached) && !recentDesc.isEmpty()) {
+            Long beforeId = kept.isEmpty()
+                    ? recentDesc.get(0).getId() + 1
+                    : kept.get(kept.size() - 1).getId();
+            scheduleSummary(chatId, summary, summaryMessageId, beforeId);
+        }
+
+        Collections.reverse(kept);
+        log.debug("上下文窗口构建完成 - chatId: {}, 保留消息: {}, 估算token: {}, 含摘要: {}",
+                chatId, kept.size(), used, StringUtils.hasText(summary));
+        return new ContextWindow(summary, kept, used);
+    }
+
+    /**
+     * 异步将窗口之外的一批旧消息合并进滚动摘要
+     */
+    private void scheduleSummary(Long chatId, String previousSummary, Long afterId, Long beforeId) {
+        if (!config.isSummaryEnabled() || !summarizingChats.add(chatId)) {
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    summarize(chatId, previousSummary, afterId, beforeId);
+                } catch (Exception e) {
+                    log.warn("生成会话摘要失败 - chatId: {}, 错误: {}", chatId, e.getMessage());
+                } finally {
+                    summarizingChats.remove(chatId);
+                }
+            });
+        } catch (Exception e) {
+            summarizingChats.remove(chatId);
+            log.warn("提交会话摘要任务失败 - chatId: {}", chatId, e);
+        }
+    }
+
+    private void summarize(Long chatId, String previousSummary, Long afterId, Long beforeId) {
+        List<Message> batch = messageMapper.findByChatIdBetween(chatId, afterId, beforeId, config.getSummaryBatchSize());
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        String prompt = buildSummaryPrompt(previousSummary, batch);
+        String newSummary = chatLanguageModel.generate(prompt);
+        if (!StringUtils.hasText(newSummary)) {
+            return;
+        }
+        newSummary = newSummary.trim();
+        if (newSummary.length() > config.getSummaryMaxChars()) {
+            newSummary = newSummary.substring(0, config.getSummaryMaxChars());
+        }
+
+        Long lastId = batch.get(batch.size() - 1).getId();
+        chatMapper.updateSummary(chatId, newSummary, lastId);
+        conversationCache.updateSummary(chatId, newSummary, lastId);
+        log.info("会话摘要已更新 - chatId: {}, 合并消息: {}, 覆盖至消息ID: {}, 摘要长度: {}",
+                chatId, batch.size(), lastId, newSummary.length());
+    }
+
+    private String buildSummaryPrompt(String previousSummary, List<Message> batch) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("请将已有摘要与新增的对话合并为一段新的对话摘要，保留人物关系、用户偏好、关键事实和未完成的话题，");
+        prompt.append("使用第三人称，不超过").append(config.getSummaryMaxChars()).append("字，只输出摘要内容。\n\n");
+        if (StringUtils.hasText(previousSummary)) {
+            prompt.append("已有摘要：\n").append(previousSummary).append("\n\n");
+        }
+        prompt.append("新增对话：\n");
+        for (Message msg : batch) {
+            String sender = "ai".equals(msg.getSenderType()) ? "AI" : "用户";
+            prompt.append(sender).append(": ").append(msg.getContent()).append("\n");
+        }
+        return prompt.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryExecutor.shutdownNow();
+    }
+}
@@ -1,5 +1,6 @@
 package com.aichat.roleplay.service.impl;
 
+import com.aichat.roleplay.service.CircuitBreakerRegistry;
 import com.aichat.roleplay.service.IFileStorageService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
@@ -35,9 +36,11 @@ public class LocalFileStorageServiceImpl implements IFileStorageService {
     private String baseUrl;
 
     private final RestTemplate restTemplate;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
 
-    public LocalFileStorageServiceImpl(RestTemplate restTemplate) {
+    public LocalFileStorageServiceImpl(RestTemplate restTemplate, CircuitBreakerRegistry circuitBreakerRegistry) {
         this.restTemplate = restTemplate;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
     }
 
     @PostConstruct
@@ -52,7 +55,7 @@ public class LocalFileStorageServiceImpl implements IFileStorageService {
             return uploadAudioFile(audioData, fileName, audioFile.getContentType());
         } catch (Exception e) {
             logger.severe("读取音频文件失败: " + e.getMessage());
-            throw new RuntimeException("上传音频文件失败: " + e.getMessage());
+            throw new RuntimeException("上传音频文件失败: " + e.getMessage(), e);
         }
     }
 
@@ -82,7 +85,8 @@ public class LocalFileStorageServiceImpl implements IFileStorageService {
             
             // 发送HTTP请求上传文件
             @SuppressWarnings("rawtypes")
-            ResponseEntity<Map> response = restTemplate.postForEntity(uploadUrl, requestEntity, Map.class);
+            ResponseEntity<Map> response = circuitBreakerRegistry.execute(CircuitBreakerRegistry.UPLOAD,
+                    () -> restTemplate.postForEntity(uploadUrl, requestEntity, Map.class));
             
             if (response.getStatusCode().is2xxSuccessful()) {
                 // 构建文件访问URL
@@ -95,7 +99,7 @@ public class LocalFileStorageServiceImpl implements IFileStorageService {
             
         } catch (Exception e) {
             logger.severe("上传音频文件到远程服务器失败: " + e.getMessage());
-            throw new RuntimeException("上传音频文件失败: " + e.getMessage());
+            throw new RuntimeException("上传音频文件失败: " + e.getMessage(), e);
         }
     }
 
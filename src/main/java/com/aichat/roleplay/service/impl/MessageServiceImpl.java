@@ -7,6 +7,7 @@ import com.aichat.roleplay.model.Message;
 import com.aichat.roleplay.model.Role;
 import com.aichat.roleplay.service.IAiChatService;
 import com.aichat.roleplay.service.IMessageService;
+import com.aichat.roleplay.service.MessageWriteBehindService;
 import com.aichat.roleplay.service.SseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +31,7 @@ public class MessageServiceImpl implements IMessageService {
     private final MessageMapper messageMapper;
     private final ChatMapper chatMapper;
     private final IAiChatService aiChatService;
+    private final MessageWriteBehindService messageWriteBehindService;
 
 
     /**
@@ -38,11 +40,13 @@ public class MessageServiceImpl implements IMessageService {
     @Autowired
     public MessageServiceImpl(MessageMapper messageMapper,
                               ChatMapper chatMapper,
-                              IAiChatService aiChatService
+                              IAiChatService aiChatService,
+                              MessageWriteBehindService messageWriteBehindService
                              ) {
         this.messageMapper = messageMapper;
         this.chatMapper = chatMapper;
         this.aiChatService = aiChatService;
+        this.messageWriteBehindService = messageWriteBehindService;
 
     }
 
@@ -78,14 +82,9 @@ public class MessageServiceImpl implements IMessageService {
                 .deleted(0)
                 .build();
 
-        // 保存语音消息
-        int result = messageMapper.insert(voiceMessage);
-        if (result > 0) {
-            log.info("语音消息保存成功，消息ID: {}", voiceMessage.getId());
-            return voiceMessage;
-        } else {
-            throw new RuntimeException("语音消息保存失败");
-        }
+        // 保存语音消息（异步批量写入，消息ID在落库后回填）
+        messageWriteBehindService.submit(voiceMessage);
+        return voiceMessage;
     }
 
     @Override
@@ -3,11 +3,13 @@ package com.aichat.roleplay.service.impl;
 import com.aichat.roleplay.config.ReflectionConfig;
 import com.aichat.roleplay.model.ReflectionResult;
 import com.aichat.roleplay.service.IReflectionAgentService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -22,8 +24,19 @@ public class ReflectionAgentServiceImpl implements IReflectionAgentService {
     
     private static final Logger log = LoggerFactory.getLogger(ReflectionAgentServiceImpl.class);
     
+    // 严重AI身份暴露
+    private static final String[] AI_IDENTITY_TERMS = {"我是ai", "我是人工智能", "我是机器人", "我是助手", "我是程序",
+                                                     "语言模型", "gpt", "chatgpt", "大语言模型", "llm",
+                                                     "as an ai", "i am an ai", "artificial intelligence"};
+    
+    // 角色扮演暴露
+    private static final String[] ROLE_PLAY_TERMS = {"角色扮演", "我在扮演", "这是角色扮演", "我需要扮演", "role-playing", "i'm playing"};
+    
     @Autowired
     private ReflectionConfig reflectionConfig;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     // 检测结果缓存，避免重复计算
     private static class DetectionResult {
@@ -119,6 +132,53 @@ public class ReflectionAgentServiceImpl implements IReflectionAgentService {
         }
     }
 
+    @Override
+    public StreamingReflection startStreamingReflection(String originalQuery) {
+        if (!reflectionConfig.isEnabled() || !reflectionConfig.getStreaming().isEnabled()) {
+            return null;
+        }
+        
+        List<String> identityTerms = new ArrayList<>(Arrays.asList(AI_IDENTITY_TERMS));
+        identityTerms.addAll(reflectionConfig.getIdentityKeywords());
+        List<String> rolePlayTerms = new ArrayList<>(Arrays.asList(ROLE_PLAY_TERMS));
+        rolePlayTerms.addAll(reflectionConfig.getRoleBreakingKeywords());
+        
+        return new StreamingReflectionSession(identityTerms, rolePlayTerms, originalQuery,
+                reflectionConfig.getAnomalyDetection().getSevereAnomalyThreshold(),
+                reflectionConfig.getStreaming().getLanguageCheckMinChars());
+    }
+    
+    @Override
+    public ReflectionResult reflectOnAbort(String originalQuery, String partialResponse, StreamingReflection reflection, int currentRetryCount) {
+        String issue = reflection.getDetectedIssue();
+        log.info("流式反思中止生成 - 已生成字符: {}, 异常分数: {}, 问题: {}",
+                reflection.getProcessedChars(), reflection.getScore(), issue);
+        
+        boolean canRetry = currentRetryCount + 1 < reflectionConfig.getMaxRetryCount();
+        meterRegistry.counter("reflection.streaming.aborts", "outcome", canRetry ? "retry" : "error").increment();
+        meterRegistry.summary("reflection.streaming.abort.chars").record(reflection.getProcessedChars());
+        
+        if (!canRetry) {
+            return ReflectionResult.builder()
+                    .action(ReflectionResult.ActionType.ERROR)
+                    .retryCount(currentRetryCount)
+                    .errorMessage("达到最大重试次数")
+                    .detectedIssue(issue)
+                    .reasonAnalysis(String.format("流式反思中止(分数: %.2f): %s", reflection.getScore(), issue))
+                    .build();
+        }
+        
+        // 流式中止的异常都可以通过重新生成解决，直接进入重试
+        String regeneratedQuery = regenerateQuery(originalQuery, partialResponse, issue, currentRetryCount);
+        return ReflectionResult.builder()
+                .action(ReflectionResult.ActionType.RETRY)
+                .retryCount(currentRetryCount + 1)
+                .regeneratedQuery("RETRY" + (currentRetryCount + 1) + " " + regeneratedQuery)
+                .detectedIssue(issue)
+                .reasonAnalysis(String.format("流式反思中止(分数: %.2f): %s", reflection.getScore(), issue))
+                .build();
+    }
+
     @Override
     public double detectAnomalyScore(String aiResponse, String originalQuery) {
         return performComprehensiveAnalysis(aiResponse, originalQuery).totalScore;
@@ -199,11 +259,7 @@ public class ReflectionAgentServiceImpl implements IReflectionAgentService {
      */
     private DetectionResult detectRoleInconsistencyUnified(String responseLower) {
         // 1. 严重AI身份暴露
-        String[] aiIdentityTerms = {"我是ai", "我是人工智能", "我是机器人", "我是助手", "我是程序", 
-                                   "语言模型", "gpt", "chatgpt", "大语言模型", "llm", 
-                                   "as an ai", "i am an ai", "artificial intelligence"};
-        
-        for (String term : aiIdentityTerms) {
+        for (String term : AI_IDENTITY_TERMS) {
             if (responseLower.contains(term)) {
                 log.info("检测到严重角色暴露: {}", term);
                 return new DetectionResult(1.0, "严重角色暴露: " + term);
@@ -211,8 +267,7 @@ public class ReflectionAgentServiceImpl implements IReflectionAgentService {
         }
         
         // 2. 角色扮演暴露
-        String[] rolePlayTerms = {"角色扮演", "我在扮演", "这是角色扮演", "我需要扮演", "role-playing", "i'm playing"};
-        for (String term : rolePlayTerms) {
+        for (String term : ROLE_PLAY_TERMS) {
             if (responseLower.contains(term)) {
                 return new DetectionResult(0.95, "角色扮演暴露");
             }
@@ -1,15 +1,24 @@
 package com.aichat.roleplay.service.impl;
 
+import com.aichat.roleplay.config.RoleRouterConfig;
 import com.aichat.roleplay.dto.RoleSelectionResult;
+import com.aichat.roleplay.exception.CircuitOpenException;
 import com.aichat.roleplay.model.Role;
 
 import com.aichat.roleplay.service.IRoleSelector;
+import com.aichat.roleplay.service.RoleEmbeddingRouter;
+import com.aichat.roleplay.service.TokenUsageService;
 import com.aichat.roleplay.util.RolePromptEngineering;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.MeterRegistry;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,11 +39,24 @@ public class RoleSelectorImpl implements IRoleSelector {
 
     private ChatLanguageModel chatLanguageModel;
 
+    @Autowired
+    private TokenUsageService tokenUsageService;
+
+    @Autowired
+    private RoleEmbeddingRouter roleEmbeddingRouter;
+
+    @Autowired
+    private RoleRouterConfig roleRouterConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Override
-    public RoleSelectionResult selectTopKRoles(String userMessage, List<Role> availableRoles, int topK, String context) {
+    public RoleSelectionResult selectTopKRoles(String userMessage, List<Role> availableRoles, int topK, String context,
+                                               Long userId, Embedding messageEmbedding) {
         log.info("开始使用LLM选择角色，用户消息: {}, 可用角色数: {}, 选择数量: {}", userMessage, availableRoles.size(), topK);
         
         if (availableRoles == null || availableRoles.isEmpty()) {
@@ -53,33 +75,89 @@ public class RoleSelectorImpl implements IRoleSelector {
 
             return new RoleSelectionResult(allRoleIds, "角色数量不足，返回所有可用角色", 1.0);
         }
-        
+
+        // 先用向量相似度本地排序：前k名足够明确时直接返回，否则只把前M个候选交给LLM
+        RoleEmbeddingRouter.Ranking ranking = rankByEmbedding(userMessage, messageEmbedding, availableRoles);
+        List<Role> candidates = availableRoles;
+        if (ranking != null) {
+            double margin = ranking.margin(topK);
+            if (margin >= roleRouterConfig.getConfidenceMargin()) {
+                List<Long> routedIds = ranking.top(topK).stream().map(Role::getId).toList();
+                log.info("向量路由选择角色: {}, 相似度差值: {}", routedIds, String.format("%.3f", margin));
+                recordDecision("embedding");
+                return new RoleSelectionResult(routedIds, "向量相似度路由",
+                        Math.max(0.0, Math.min(1.0, ranking.ranked().get(topK - 1).score())));
+            }
+            int candidateCount = Math.max(topK, roleRouterConfig.getMaxLlmCandidates());
+            candidates = ranking.top(candidateCount);
+            log.info("向量路由相似度差值 {} 低于阈值，交给LLM从 {} 个候选角色中选择",
+                    String.format("%.3f", margin), candidates.size());
+        }
+
         try {
 
             // 使用LangChain4j直接与大模型交互（同步调用）
-            String prompt = buildRoleSelectionPrompt(userMessage, availableRoles, topK, context);
+            String prompt = buildRoleSelectionPrompt(userMessage, candidates, topK, context);
 
-            String llmResponse = chatLanguageModel.generate(prompt);
+            Response<AiMessage> response = chatLanguageModel.generate(UserMessage.from(prompt));
+            tokenUsageService.record(userId, null, TokenUsageService.SOURCE_ROLE_SELECTION, response.tokenUsage());
+            String llmResponse = response.content().text();
 
             
             // 解析LLM响应
-            RoleSelectionResult result = parseLLMResponse(llmResponse, availableRoles);
+            RoleSelectionResult result = parseLLMResponse(llmResponse, candidates);
+            recordDecision("llm");
             
             log.info("LLM角色选择完成，选中角色ID: {}, 原因: {}, 置信度: {}", 
                     result.getSelectedRoleIds(), result.getReason(), result.getConfidence());
             
             return result;
             
+        } catch (CircuitOpenException e) {
+            log.warn("同步模型已熔断，直接使用回退选择策略: {}", e.getMessage());
+            recordDecision("fallback");
+            return fallbackSelection(candidates, topK, "模型服务暂不可用，使用回退策略");
         } catch (Exception e) {
             log.error("LLM角色选择失败，回退到简单选择策略", e);
-            // 回退策略：返回前topK个角色
-            List<Long> fallbackRoleIds = availableRoles.stream()
-                    .limit(topK)
-                    .map(Role::getId)
-                    .toList();
-            return new RoleSelectionResult(fallbackRoleIds, "LLM选择失败，使用回退策略", 0.5);
+            recordDecision("fallback");
+            return fallbackSelection(candidates, topK, "LLM选择失败，使用回退策略");
         }
     }
+
+    /**
+     * 向量路由排序；未启用、消息为空或计算失败时返回null，由LLM从全部角色中选择
+     */
+    private RoleEmbeddingRouter.Ranking rankByEmbedding(String userMessage, Embedding messageEmbedding,
+                                                        List<Role> availableRoles) {
+        if (!roleEmbeddingRouter.isEnabled() || userMessage == null || userMessage.isBlank()) {
+            return null;
+        }
+        try {
+            return messageEmbedding != null
+                    ? roleEmbeddingRouter.rank(messageEmbedding, availableRoles)
+                    : roleEmbeddingRouter.rank(userMessage, availableRoles);
+        } catch (Exception e) {
+            log.warn("向量路由失败，使用LLM选择: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void recordDecision(String method) {
+        meterRegistry.counter("role.selection.decisions", "method", method).increment();
+    }
+
+    /**
+     * 回退策略：返回前topK个角色（启用向量路由时为相似度最高的topK个），结果标记为回退，不参与缓存复用
+     */
+    private RoleSelectionResult fallbackSelection(List<Role> availableRoles, int topK, String reason) {
+        List<Long> fallbackRoleIds = availableRoles.stream()
+                .limit(topK)
+                .map(Role::getId)
+                .toList();
+        RoleSelectionResult result = new RoleSelectionResult(fallbackRoleIds, reason, 0.5);
+        result.setFallback(true);
+        return result;
+    }
     
     /**
      * 构建角色选择的LLM提示词
@@ -4,6 +4,7 @@ import com.aichat.roleplay.mapper.RoleMapper;
 import com.aichat.roleplay.model.Role;
 import com.aichat.roleplay.service.IAiChatService;
 import com.aichat.roleplay.service.IRoleService;
+import com.aichat.roleplay.service.RoleEmbeddingRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,11 +26,13 @@ public class RoleServiceImpl implements IRoleService {
 
     private final RoleMapper roleMapper;
     private final IAiChatService aiChatService;
+    private final RoleEmbeddingRouter roleEmbeddingRouter;
 
     @Autowired
-    public RoleServiceImpl(RoleMapper roleMapper, IAiChatService aiChatService) {
+    public RoleServiceImpl(RoleMapper roleMapper, IAiChatService aiChatService, RoleEmbeddingRouter roleEmbeddingRouter) {
         this.roleMapper = roleMapper;
         this.aiChatService = aiChatService;
+        this.roleEmbeddingRouter = roleEmbeddingRouter;
     }
 
     @Override
@@ -105,6 +108,8 @@ public class RoleServiceImpl implements IRoleService {
         int result = roleMapper.updateById(role);
         if (result > 0) {
             log.info("角色更新成功，角色ID: {}", role.getId());
+            // 名称、描述或设定可能已变化，下次路由时重新计算画像向量
+            roleEmbeddingRouter.evict(role.getId());
             return role;
         } else {
             throw new RuntimeException("角色更新失败");
@@ -119,6 +124,7 @@ public class RoleServiceImpl implements IRoleService {
         int result = roleMapper.deleteById(id);
         if (result > 0) {
             log.info("角色删除成功，角色ID: {}", id);
+            roleEmbeddingRouter.evict(id);
         } else {
             throw new RuntimeException("角色删除失败");
         }
@@ -0,0 +1,144 @@
+package com.aichat.roleplay.service.impl;
+
+import com.aichat.roleplay.service.IReflectionAgentService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式反思会话
+ * 在token到达时增量检测严重异常（AI身份暴露、角色扮演暴露），并记录语言不一致；
+ * 语言不一致与完整反思的评分一致，不超过严重阈值，单独出现时不中止生成，留给生成结束后的完整反思处理。
+ * 每个检测器只保存少量运行状态：关键词检测保留上一段的尾部以匹配跨token的词，
+ * 语言检测只累计字符数和是否出现过中文，单个token的检测开销与已生成长度无关
+ */
+class StreamingReflectionSession implements IReflectionAgentService.StreamingReflection {
+
+    private static final double IDENTITY_EXPOSURE_SCORE = 1.0;
+    private static final double ROLE_PLAY_EXPOSURE_SCORE = 0.95;
+    // 与完整反思的语言一致性评分相同，低于默认严重阈值（0.7，需严格大于才中止）
+    private static final double LANGUAGE_MISMATCH_SCORE = 0.7;
+
+    private final List<String> identityTerms;
+    private final List<String> rolePlayTerms;
+    private final double severeThreshold;
+    private final int languageCheckMinChars;
+    private final boolean queryHasChinese;
+
+    // 关键词跨token匹配所需保留的最大尾部长度
+    private final int tailLength;
+    private String tail = "";
+
+    private int processedChars = 0;
+    private boolean responseHasChinese = false;
+
+    private double score = 0.0;
+    private String detectedIssue = "";
+
+    StreamingReflectionSession(List<String> identityTerms, List<String> rolePlayTerms, String originalQuery,
+                               double severeThreshold, int languageCheckMinChars) {
+        this.identityTerms = lowerCase(identityTerms);
+        this.rolePlayTerms = lowerCase(rolePlayTerms);
+        this.severeThreshold = severeThreshold;
+        this.languageCheckMinChars = languageCheckMinChars;
+        this.queryHasChinese = containsChinese(originalQuery);
+
+        int maxTermLength = 1;
+        for (String term : this.identityTerms) {
+            maxTermLength = Math.max(maxTermLength, term.length());
+        }
+        for (String term : this.rolePlayTerms) {
+            maxTermLength = Math.max(maxTermLength, term.length());
+        }
+        this.tailLength = maxTermLength - 1;
+    }
+
+    @Override
+    public synchronized boolean onToken(String token) {
+        if (isSevere()) {
+            return true;
+        }
+        if (token == null || token.isEmpty()) {
+            return false;
+        }
+
+        processedChars += token.length();
+        if (!responseHasChinese && containsChinese(token)) {
+            responseHasChinese = true;
+        }
+
+        // 只扫描上一段尾部 + 新token，保证跨token的关键词也能命中
+        String window = tail + token.toLowerCase();
+        detectTerms(window);
+        tail = window.length() > tailLength ? window.substring(window.length() - tailLength) : window;
+
+        if (queryHasChinese && !responseHasChinese && processedChars >= languageCheckMinChars) {
+            raise(LANGUAGE_MISMATCH_SCORE, "语言不一致：中文问题英文回答");
+        }
+
+        return isSevere();
+    }
+
+    private void detectTerms(String window) {
+        for (String term : identityTerms) {
+            if (window.contains(term)) {
+                raise(IDENTITY_EXPOSURE_SCORE, "严重角色暴露: " + term);
+                return;
+            }
+        }
+        for (String term : rolePlayTerms) {
+            if (window.contains(term)) {
+                raise(ROLE_PLAY_EXPOSURE_SCORE, "角色扮演暴露: " + term);
+                return;
+            }
+        }
+    }
+
+    private void raise(double newScore, String issue) {
+        if (newScore > score) {
+            score = newScore;
+            detectedIssue = issue;
+        }
+    }
+
+    private boolean isSevere() {
+        return score > severeThreshold;
+    }
+
+    @Override
+    public synchronized double getScore() {
+        return score;
+    }
+
+    @Override
+    public synchronized String getDetectedIssue() {
+        return detectedIssue;
+    }
+
+    @Override
+    public synchronized int getProcessedChars() {
+        return processedChars;
+    }
+
+    private static List<String> lowerCase(List<String> terms) {
+        List<String> result = new ArrayList<>();
+        for (String term : terms) {
+            if (term != null && !term.isBlank()) {
+                result.add(term.toLowerCase());
+            }
+        }
+        return result;
+    }
+
+    private static boolean containsChinese(String text) {
+        if (text == null) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.UnicodeScript.of(text.charAt(i)) == Character.UnicodeScript.HAN) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
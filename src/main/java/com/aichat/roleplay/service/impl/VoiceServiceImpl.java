@@ -1,5 +1,6 @@
 package com.aichat.roleplay.service.impl;
 
+import com.aichat.roleplay.service.CircuitBreakerRegistry;
 import com.aichat.roleplay.service.VoiceService;
 import com.aichat.roleplay.service.IFileStorageService;
 import com.aichat.roleplay.service.IMessageService;
@@ -14,11 +15,15 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 @Service
@@ -37,6 +42,9 @@ public class VoiceServiceImpl implements VoiceService {
     
     @Autowired
     private RestTemplate restTemplate;
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakerRegistry;
     
     @Value("${langchain4j.open-ai.chat-model.api-key}")
     private String apiKey;
@@ -44,20 +52,42 @@ public class VoiceServiceImpl implements VoiceService {
     @Value("${langchain4j.open-ai.chat-model.base-url:https://openai.qiniu.com}")
     private String baseUrl;
 
+    /**
+     * 语音合成和上传使用的线程数，AI回复生成期间不占用这些线程
+     */
+    @Value("${voice.post-process-threads:8}")
+    private int postProcessThreads;
+
+    private ExecutorService postProcessExecutor;
+
+    @PostConstruct
+    public void init() {
+        postProcessExecutor = Executors.newFixedThreadPool(Math.max(1, postProcessThreads), r -> {
+            Thread thread = new Thread(r, "voice-post-process");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        postProcessExecutor.shutdownNow();
+    }
+
     @Override
-    public byte[] processVoiceChat(MultipartFile audioFile, Long chatId, Long roleId) {
+    public CompletionStage<byte[]> processVoiceChatAsync(MultipartFile audioFile, Long chatId, Long roleId) {
+        long startTime = System.currentTimeMillis();
+        String transcribedText;
         try {
-            long startTime = System.currentTimeMillis();
             logger.info("开始带消息记录的语音对话处理，聊天ID: " + chatId + ", 角色ID: " + roleId);
 
-            // 声明变量用于保存中间结果
-            String userAudioUrl = null;
-            String transcribedText = null;
-            String aiResponse = null;
-            String aiAudioUrl = null;
-
+            // 整条链路依赖的任一上游已熔断时，在上传音频之前快速失败
+            circuitBreakerRegistry.checkAvailable(CircuitBreakerRegistry.UPLOAD);
+            circuitBreakerRegistry.checkAvailable(CircuitBreakerRegistry.ASR);
+            circuitBreakerRegistry.checkAvailable(CircuitBreakerRegistry.CHAT);
+            circuitBreakerRegistry.checkAvailable(CircuitBreakerRegistry.TTS);
 
-            userAudioUrl = fileStorageService.uploadAudioFile(audioFile, audioFile.getOriginalFilename());
+            String userAudioUrl = fileStorageService.uploadAudioFile(audioFile, audioFile.getOriginalFilename());
             logger.info("用户音频上传完成，URL: " + userAudioUrl);
 
 
@@ -67,42 +97,52 @@ public class VoiceServiceImpl implements VoiceService {
 
             // 保存用户语音消息（包含转录文本）
             messageService.saveVoiceMessage(chatId, roleId, "user", userAudioUrl, transcribedText, null);
+        } catch (Exception e) {
+            logger.severe("带消息记录的语音对话处理失败: " + e.getMessage());
+            return CompletableFuture.failedFuture(new RuntimeException("语音对话处理失败", e));
+        }
 
-            aiResponse = processWithAI(chatId, roleId, transcribedText);
-            logger.info("AI回复: " + aiResponse);
-
-            // 阶段4：AI回复转语音
-            byte[] aiAudioBytes = textToSpeechWithModel(aiResponse);
-            logger.info("AI语音合成完成，大小: " + aiAudioBytes.length + " bytes");
-
-            // 上传AI音频
-            try {
-                // 创建临时MultipartFile用于上传AI音频
-                String aiFileName = "ai_response_" + System.currentTimeMillis() + ".mp3";
-                aiAudioUrl = fileStorageService.uploadAudioFile(aiAudioBytes, aiFileName, "audio/mpeg");
-                logger.info("AI音频上传完成，URL: " + aiAudioUrl);
+        // AI回复生成期间不阻塞任何线程，完成后在语音线程池中合成和上传语音
+        return processWithAI(chatId, roleId, transcribedText)
+                .thenApplyAsync(aiResponse -> synthesizeAndSave(chatId, roleId, aiResponse, startTime), postProcessExecutor)
+                .whenComplete((audio, error) -> {
+                    if (error != null) {
+                        logger.severe("带消息记录的语音对话处理失败: " + error.getMessage());
+                    }
+                });
+    }
 
-                // 保存AI语音消息（包含文本内容和音频URL）
-                messageService.saveVoiceMessage(chatId, roleId, "ai", aiResponse, aiAudioUrl, null, null);
+    /**
+     * AI回复转语音，上传音频并保存AI语音消息
+     */
+    private byte[] synthesizeAndSave(Long chatId, Long roleId, String aiResponse, long startTime) {
+        logger.info("AI回复: " + aiResponse);
 
-            } catch (Exception e) {
-                logger.warning("AI音频上传失败: " + e.getMessage());
-                // 即使上传失败，仍然保存AI文本消息
-                messageService.saveVoiceMessage(chatId, roleId, "ai", aiResponse, null, null, null);
-            }
+        // 阶段4：AI回复转语音
+        byte[] aiAudioBytes = textToSpeechWithModel(aiResponse);
+        logger.info("AI语音合成完成，大小: " + aiAudioBytes.length + " bytes");
 
-            long totalTime = System.currentTimeMillis() - startTime;
-            logger.info("带消息记录的语音对话处理完成，总耗时: " + totalTime + "ms");
+        // 上传AI音频
+        try {
+            String aiFileName = "ai_response_" + System.currentTimeMillis() + ".mp3";
+            String aiAudioUrl = fileStorageService.uploadAudioFile(aiAudioBytes, aiFileName, "audio/mpeg");
+            logger.info("AI音频上传完成，URL: " + aiAudioUrl);
 
-            return aiAudioBytes;
+            // 保存AI语音消息（包含文本内容和音频URL）
+            messageService.saveVoiceMessage(chatId, roleId, "ai", aiResponse, aiAudioUrl, null, null);
 
         } catch (Exception e) {
-            logger.severe("带消息记录的语音对话处理失败: " + e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException("语音对话处理失败", e);
+            logger.warning("AI音频上传失败: " + e.getMessage());
+            // 即使上传失败，仍然保存AI文本消息
+            messageService.saveVoiceMessage(chatId, roleId, "ai", aiResponse, null, null, null);
         }
+
+        long totalTime = System.currentTimeMillis() - startTime;
+        logger.info("带消息记录的语音对话处理完成，总耗时: " + totalTime + "ms");
+
+        return aiAudioBytes;
     }
-    
+
     /**
      * 使用URL方式调用七牛云ASR API
      */
@@ -140,7 +180,8 @@ public class VoiceServiceImpl implements VoiceService {
             
             HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
             @SuppressWarnings("rawtypes")
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, request, Map.class);
+            ResponseEntity<Map> response = circuitBreakerRegistry.execute(CircuitBreakerRegistry.ASR,
+                    () -> restTemplate.postForEntity(url, request, Map.class));
             
             logger.info("ASR API响应状态: " + response.getStatusCode());
             logger.info("ASR API响应体: " + response.getBody());
@@ -170,24 +211,21 @@ public class VoiceServiceImpl implements VoiceService {
     }
     
 
-    private String processWithAI(Long chatId, Long roleId, String inputText) {
-        try {
-            logger.info("使用SSE服务处理AI对话，输入长度: " + inputText.length() + " 字符");
-            long startTime = System.currentTimeMillis();
+    private CompletionStage<String> processWithAI(Long chatId, Long roleId, String inputText) {
+        logger.info("使用SSE服务处理AI对话，输入长度: " + inputText.length() + " 字符");
+        long startTime = System.currentTimeMillis();
 
-            // 调用SSE服务时禁用消息保存，避免重复保存
-            String aiResponse = sseService.getAiResponseText(chatId, roleId, inputText, false);
-            
-            long responseTime = System.currentTimeMillis() - startTime;
-            logger.info("AI响应耗时: " + responseTime + "ms，回复长度: " + 
-                       (aiResponse != null ? aiResponse.length() : 0) + " 字符");
-            
-            return aiResponse;
-            
-        } catch (Exception e) {
-            logger.severe("AI对话处理失败: " + e.getMessage());
-            throw new RuntimeException("AI对话处理失败", e);
-        }
+        // 调用SSE服务时禁用消息保存，避免重复保存
+        return sseService.getAiResponseAsync(chatId, roleId, inputText, false)
+                .whenComplete((aiResponse, error) -> {
+                    if (error != null) {
+                        logger.severe("AI对话处理失败: " + error.getMessage());
+                        return;
+                    }
+                    long responseTime = System.currentTimeMillis() - startTime;
+                    logger.info("AI响应耗时: " + responseTime + "ms，回复长度: " +
+                               (aiResponse != null ? aiResponse.length() : 0) + " 字符");
+                });
     }
 
     private byte[] textToSpeechWithModel(String text) {
@@ -214,7 +252,8 @@ public class VoiceServiceImpl implements VoiceService {
             
             HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
             @SuppressWarnings("rawtypes")
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, request, Map.class);
+            ResponseEntity<Map> response = circuitBreakerRegistry.execute(CircuitBreakerRegistry.TTS,
+                    () -> restTemplate.postForEntity(url, request, Map.class));
             
             if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
                 @SuppressWarnings("unchecked")
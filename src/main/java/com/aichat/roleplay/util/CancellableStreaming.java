@@ -0,0 +1,29 @@
+package com.aichat.roleplay.util;
+
+import dev.ai4j.openai4j.ResponseHandle;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+
+import java.util.List;
+
+/**
+ * 可返回取消句柄的流式聊天模型
+ */
+public interface CancellableStreaming extends StreamingChatLanguageModel {
+
+    /**
+     * 发起流式生成并返回可用于取消的句柄
+     */
+    default ResponseHandle stream(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        return stream(messages, null, handler);
+    }
+
+    /**
+     * 发起流式生成并返回可用于取消的句柄
+     *
+     * @param maxTokens 本次生成的输出token上限，为null时使用模型默认配置
+     */
+    ResponseHandle stream(List<ChatMessage> messages, Integer maxTokens, StreamingResponseHandler<AiMessage> handler);
+}
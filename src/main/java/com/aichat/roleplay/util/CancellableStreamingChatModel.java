@@ -0,0 +1,270 @@
+package com.aichat.roleplay.util;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import dev.ai4j.openai4j.Json;
+import dev.ai4j.openai4j.OpenAiHttpException;
+import dev.ai4j.openai4j.ResponseHandle;
+import dev.ai4j.openai4j.chat.ChatCompletionChoice;
+import dev.ai4j.openai4j.chat.ChatCompletionRequest;
+import dev.ai4j.openai4j.chat.ChatCompletionResponse;
+import dev.ai4j.openai4j.chat.Delta;
+import dev.ai4j.openai4j.chat.StreamOptions;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.openai.OpenAiStreamingResponseBuilder;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import okhttp3.sse.EventSources;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static dev.langchain4j.model.openai.InternalOpenAiHelper.toOpenAiMessages;
+
+/**
+ * 可取消的OpenAI兼容流式聊天模型
+ * OpenAiStreamingChatModel不暴露底层请求句柄，调用方无法中途停止生成；
+ * 这里直接用OkHttp SSE发起请求并返回ResponseHandle，取消时立即关闭上游连接。
+ * 流结束时请求上游附带usage，解析出prompt token数和命中前缀缓存的token数（openai4j的Usage不包含这些字段）
+ */
+public class CancellableStreamingChatModel implements StreamingChatLanguageModel, CancellableStreaming {
+
+    private static final Logger log = LoggerFactory.getLogger(CancellableStreamingChatModel.class);
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String DONE = "[DONE]";
+
+    /**
+     * 上游返回usage时的回调
+     */
+    public interface UsageListener {
+        /**
+         * @param cachedTokens 命中前缀缓存的prompt token数，上游未返回时为null
+         */
+        void onUsage(String modelName, int promptTokens, Integer cachedTokens, int completionTokens);
+    }
+
+    private final EventSource.Factory eventSourceFactory;
+    private final String completionsUrl;
+    private final String apiKey;
+    private final String modelName;
+    private final Double temperature;
+    private final Integer maxTokens;
+    private final boolean includeUsage;
+    private volatile UsageListener usageListener;
+
+    public CancellableStreamingChatModel(String baseUrl, String apiKey, String modelName,
+                                         Double temperature, Integer maxTokens, Duration timeout) {
+        this(baseUrl, apiKey, modelName, temperature, maxTokens, timeout, true);
+    }
+
+    public CancellableStreamingChatModel(String baseUrl, String apiKey, String modelName,
+                                         Double temperature, Integer maxTokens, Duration timeout,
+                                         boolean includeUsage) {
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .callTimeout(timeout)
+                .connectTimeout(timeout)
+                .readTimeout(timeout)
+                .writeTimeout(timeout)
+                .build();
+        this.eventSourceFactory = EventSources.createFactory(httpClient);
+        this.completionsUrl = (baseUrl.endsWith("/") ? baseUrl : baseUrl + "/") + "chat/completions";
+        this.apiKey = apiKey;
+        this.modelName = modelName;
+        this.temperature = temperature;
+        this.maxTokens = maxTokens;
+        this.includeUsage = includeUsage;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public void setUsageListener(UsageListener usageListener) {
+        this.usageListener = usageListener;
+    }
+
+    @Override
+    public ResponseHandle stream(List<ChatMessage> messages, Integer maxTokens,
+                                 StreamingResponseHandler<AiMessage> handler) {
+        ChatCompletionRequest.Builder requestBuilder = ChatCompletionRequest.builder()
+                .stream(true)
+                .model(modelName)
+                .messages(toOpenAiMessages(messages))
+                .temperature(temperature)
+                .maxTokens(maxTokens != null ? maxTokens : this.maxTokens);
+        if (includeUsage) {
+            requestBuilder.streamOptions(StreamOptions.builder().includeUsage(true).build());
+        }
+
+        Request request = new Request.Builder()
+                .url(completionsUrl)
+                .header("Authorization", "Bearer " + apiKey)
+                .header("User-Agent", "langchain4j-openai")
+                .header("Accept", "text/event-stream")
+                .post(RequestBody.create(Json.toJson(requestBuilder.build()), JSON))
+                .build();
+
+        StreamHandle handle = new StreamHandle();
+        handle.eventSource = eventSourceFactory.newEventSource(request, new StreamListener(handle, handler));
+        return handle;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        stream(messages, handler);
+    }
+
+    /**
+     * 请求句柄：取消后关闭SSE连接，不再回调handler
+     */
+    private static class StreamHandle extends ResponseHandle {
+
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile EventSource eventSource;
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            if (finished.compareAndSet(false, true)) {
+                EventSource current = eventSource;
+                if (current != null) {
+                    current.cancel();
+                }
+            }
+        }
+
+        /**
+         * 标记流已结束，返回false表示已结束或已取消
+         */
+        boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+
+        boolean isFinished() {
+            return finished.get();
+        }
+    }
+
+    private class StreamListener extends EventSourceListener {
+
+        private final StreamHandle handle;
+        private final StreamingResponseHandler<AiMessage> handler;
+        private final OpenAiStreamingResponseBuilder responseBuilder = new OpenAiStreamingResponseBuilder(null);
+
+        StreamListener(StreamHandle handle, StreamingResponseHandler<AiMessage> handler) {
+            this.handle = handle;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onEvent(EventSource eventSource, String id, String type, String data) {
+            if (handle.isFinished()) {
+                return;
+            }
+            if (DONE.equals(data)) {
+                complete();
+                eventSource.cancel();
+                return;
+            }
+            ChatCompletionResponse partial;
+            try {
+                partial = Json.fromJson(data, ChatCompletionResponse.class);
+            } catch (Exception e) {
+                log.warn("无法解析流式响应片段，已跳过: {}", data);
+                return;
+            }
+            responseBuilder.append(partial);
+            if (partial.usage() != null) {
+                reportUsage(data);
+            }
+            String token = extractToken(partial);
+            if (token != null) {
+                handler.onNext(token);
+            }
+        }
+
+        @Override
+        public void onClosed(EventSource eventSource) {
+            // 部分兼容服务不发送[DONE]，直接关闭连接
+            complete();
+        }
+
+        @Override
+        public void onFailure(EventSource eventSource, Throwable t, Response response) {
+            if (!handle.finish()) {
+                return;
+            }
+            if (response != null && !response.isSuccessful()) {
+                handler.onError(new OpenAiHttpException(response.code(), readBody(response)));
+            } else {
+                handler.onError(t != null ? t : new IOException("流式响应连接异常中断"));
+            }
+        }
+
+        private void complete() {
+            if (handle.finish()) {
+                handler.onComplete(responseBuilder.build(null, false));
+            }
+        }
+    }
+
+    /**
+     * 从原始JSON中读取usage：OpenAI格式为prompt_tokens_details.cached_tokens，DeepSeek为prompt_cache_hit_tokens
+     */
+    private void reportUsage(String data) {
+        UsageListener listener = usageListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            JSONObject usage = JSONUtil.parseObj(data).getJSONObject("usage");
+            if (usage == null) {
+                return;
+            }
+            Integer cachedTokens = null;
+            JSONObject details = usage.getJSONObject("prompt_tokens_details");
+            if (details != null && details.containsKey("cached_tokens")) {
+                cachedTokens = details.getInt("cached_tokens");
+            } else if (usage.containsKey("prompt_cache_hit_tokens")) {
+                cachedTokens = usage.getInt("prompt_cache_hit_tokens");
+            }
+            listener.onUsage(modelName, usage.getInt("prompt_tokens", 0), cachedTokens,
+                    usage.getInt("completion_tokens", 0));
+        } catch (Exception e) {
+            log.debug("解析usage失败: {}", e.getMessage());
+        }
+    }
+
+    private static String readBody(Response response) {
+        try {
+            return response.body() != null ? response.body().string() : response.message();
+        } catch (IOException e) {
+            return response.message();
+        }
+    }
+
+    private static String extractToken(ChatCompletionResponse partial) {
+        if (partial == null || partial.choices() == null || partial.choices().isEmpty()) {
+            return null;
+        }
+        ChatCompletionChoice choice = partial.choices().get(0);
+        Delta delta = choice.delta();
+        if (delta == null || delta.content() == null) {
+            return null;
+        }
+        return delta.content();
+    }
+}
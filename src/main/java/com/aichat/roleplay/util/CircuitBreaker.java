@@ -0,0 +1,219 @@
+package com.aichat.roleplay.util;
+
+/**
+ * 基于最近N次调用失败率的熔断器
+ * CLOSED 统计失败率，超过阈值进入 OPEN；OPEN 期间拒绝调用，到期后进入 HALF_OPEN 放行少量探测；
+ * 探测全部成功回到 CLOSED，任一失败重新 OPEN。每次状态切换递增版本号，旧版本许可的结果不再计入
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * 状态切换监听
+     */
+    public interface StateListener {
+        void onTransition(String name, State from, State to);
+    }
+
+    /**
+     * 一次调用的许可，结果只记录一次
+     */
+    public class Permit {
+        private final long epoch;
+        private boolean done = false;
+
+        private Permit(long epoch) {
+            this.epoch = epoch;
+        }
+
+        /**
+         * 以下方法在结果已记录过时返回false
+         */
+        public boolean success() {
+            return record(this, Boolean.TRUE);
+        }
+
+        public boolean failure() {
+            return record(this, Boolean.FALSE);
+        }
+
+        /**
+         * 调用被取消等不代表依赖健康状况的情况，只归还探测名额
+         */
+        public boolean release() {
+            return record(this, null);
+        }
+    }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMs;
+    private final int halfOpenProbes;
+    private final StateListener listener;
+
+    private final boolean[] window;
+    private int windowIndex = 0;
+    private int windowCount = 0;
+    private int windowFailures = 0;
+
+    private State state = State.CLOSED;
+    private long epoch = 0;
+    private long openedAt = 0;
+    private int probesIssued = 0;
+    private int probeSuccesses = 0;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openDurationMs, int halfOpenProbes, StateListener listener) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMs = openDurationMs;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.listener = listener;
+        this.window = new boolean[this.windowSize];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 申请一次调用许可，熔断中或半开探测名额已满时返回null
+     */
+    public Permit tryAcquire() {
+        State from;
+        Permit permit;
+        synchronized (this) {
+            from = state;
+            advanceLocked(System.currentTimeMillis());
+            if (state == State.OPEN) {
+                permit = null;
+            } else if (state == State.HALF_OPEN) {
+                if (probesIssued >= halfOpenProbes) {
+                    permit = null;
+                } else {
+                    probesIssued++;
+                    permit = new Permit(epoch);
+                }
+            } else {
+                permit = new Permit(epoch);
+            }
+        }
+        notifyTransition(from);
+        return permit;
+    }
+
+    /**
+     * 只查询不占用名额：当前是否会放行调用
+     */
+    public synchronized boolean isCallPermitted() {
+        long now = System.currentTimeMillis();
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> now - openedAt >= openDurationMs;
+            case HALF_OPEN -> probesIssued < halfOpenProbes;
+        };
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 距离进入半开状态的剩余时间（毫秒），非熔断状态返回0
+     */
+    public synchronized long remainingOpenMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openDurationMs - (System.currentTimeMillis() - openedAt));
+    }
+
+    public synchronized double failureRate() {
+        return windowCount == 0 ? 0 : (double) windowFailures / windowCount;
+    }
+
+    public synchronized int bufferedCalls() {
+        return windowCount;
+    }
+
+    private boolean record(Permit permit, Boolean success) {
+        State from;
+        synchronized (this) {
+            if (permit.done) {
+                return false;
+            }
+            permit.done = true;
+            from = state;
+            if (permit.epoch != epoch) {
+                return true;
+            }
+            if (state == State.HALF_OPEN) {
+                if (success == null) {
+                    probesIssued--;
+                } else if (!success) {
+                    transitionLocked(State.OPEN);
+                } else if (++probeSuccesses >= halfOpenProbes) {
+                    transitionLocked(State.CLOSED);
+                }
+            } else if (state == State.CLOSED && success != null) {
+                recordInWindowLocked(!success);
+                if (windowCount >= minimumCalls && failureRate() >= failureRateThreshold) {
+                    transitionLocked(State.OPEN);
+                }
+            }
+        }
+        notifyTransition(from);
+        return true;
+    }
+
+    private void recordInWindowLocked(boolean failed) {
+        if (windowCount == windowSize) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failed;
+        if (failed) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % windowSize;
+    }
+
+    private void advanceLocked(long now) {
+        if (state == State.OPEN && now - openedAt >= openDurationMs) {
+            transitionLocked(State.HALF_OPEN);
+        }
+    }
+
+    private void transitionLocked(State to) {
+        state = to;
+        epoch++;
+        probesIssued = 0;
+        probeSuccesses = 0;
+        if (to == State.OPEN) {
+            openedAt = System.currentTimeMillis();
+        } else if (to == State.CLOSED) {
+            windowIndex = 0;
+            windowCount = 0;
+            windowFailures = 0;
+        }
+    }
+
+    private void notifyTransition(State from) {
+        State to = getState();
+        if (from != to && listener != null) {
+            listener.onTransition(name, from, to);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.service.CircuitBreakerRegistry;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * 带熔断的同步聊天模型，上游熔断时直接抛出CircuitOpenException，由调用方走回退逻辑
+ */
+public class CircuitBreakingChatModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+
+    public CircuitBreakingChatModel(ChatLanguageModel delegate, CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.delegate = delegate;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return circuitBreakerRegistry.execute(CircuitBreakerRegistry.SYNC, () -> delegate.generate(messages));
+    }
+}
@@ -0,0 +1,262 @@
+package com.aichat.roleplay.util;
+
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并token的SSE写入器
+ * 同一个流中到达的token先按来源（单聊为同一来源，协作聊天为各角色）缓冲，
+ * 在时间窗口结束或缓冲达到上限时编码为一帧发送；控制消息发送前先刷出已缓冲的token，保证顺序。
+ * 定时线程只负责判断窗口到期，设置了刷出触发器时由触发器把刷出交给连接自己的写线程，定时线程不做阻塞写
+ */
+public class CoalescingSseWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingSseWriter.class);
+
+    /**
+     * 帧编码器：将一个窗口内各来源的token编码为一帧数据
+     */
+    public interface FrameEncoder {
+        String encode(List<Chunk> chunks);
+    }
+
+    /**
+     * 帧输出目标：直接写SSE连接，或写入可断线续传的流
+     */
+    public interface FrameSink {
+        void send(String data) throws IOException;
+
+        void complete();
+
+        void completeWithError(Throwable error);
+
+        /**
+         * 当前连接的SSE连接（可能为空）
+         */
+        SseEmitter getEmitter();
+
+        static FrameSink of(SseEmitter emitter) {
+            return new FrameSink() {
+                @Override
+                public void send(String data) throws IOException {
+                    emitter.send(SseEmitter.event().data(data));
+                }
+
+                @Override
+                public void complete() {
+                    emitter.complete();
+                }
+
+                @Override
+                public void completeWithError(Throwable error) {
+                    emitter.completeWithError(error);
+                }
+
+                @Override
+                public SseEmitter getEmitter() {
+                    return emitter;
+                }
+            };
+        }
+    }
+
+    /**
+     * 单个来源在一个窗口内的token
+     */
+    public static class Chunk {
+        private final Object key;
+        private final String label;
+        private final StringBuilder text = new StringBuilder();
+
+        Chunk(Object key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getText() {
+            return text.toString();
+        }
+    }
+
+    private final FrameSink sink;
+    private final FrameEncoder encoder;
+    private final ScheduledExecutorService scheduler;
+    private final long flushIntervalMs;
+    private final int maxBufferChars;
+    private final Counter tokenCounter;
+    private final Counter frameCounter;
+
+    private final LinkedHashMap<Object, Chunk> pending = new LinkedHashMap<>();
+    private int pendingChars = 0;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed = false;
+    private volatile Runnable flushTrigger;
+
+    public CoalescingSseWriter(FrameSink sink, FrameEncoder encoder, ScheduledExecutorService scheduler,
+                               long flushIntervalMs, int maxBufferChars, Counter tokenCounter, Counter frameCounter) {
+        this.sink = sink;
+        this.encoder = encoder;
+        this.scheduler = scheduler;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBufferChars = maxBufferChars;
+        this.tokenCounter = tokenCounter;
+        this.frameCounter = frameCounter;
+    }
+
+    public SseEmitter getEmitter() {
+        return sink.getEmitter();
+    }
+
+    /**
+     * 设置窗口到期时的刷出触发器（如向出站事件通道投递刷出事件），触发器需立即返回；
+     * 未设置时在定时线程上直接刷出
+     */
+    public void setFlushTrigger(Runnable flushTrigger) {
+        this.flushTrigger = flushTrigger;
+    }
+
+    /**
+     * 缓冲单一来源的token
+     */
+    public void appendToken(String token) throws IOException {
+        appendToken(null, null, token);
+    }
+
+    /**
+     * 缓冲指定来源的token，窗口结束或缓冲已满时发送
+     *
+     * @param key 来源标识（如角色ID）
+     * @param label 来源名称（如角色名）
+     */
+    public synchronized void appendToken(Object key, String label, String token) throws IOException {
+        if (closed || token == null) {
+            return;
+        }
+        tokenCounter.increment();
+        pending.computeIfAbsent(key, k -> new Chunk(k, label)).text.append(token);
+        pendingChars += token.length();
+
+        if (flushIntervalMs <= 0 || pendingChars >= maxBufferChars) {
+            flushLocked();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(this::onWindowElapsed, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即发送一条消息（先刷出已缓冲的token）
+     */
+    public synchronized void send(String data) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("SSE写入器已关闭");
+        }
+        flushLocked();
+        frameCounter.increment();
+        sink.send(data);
+    }
+
+    /**
+     * 刷出已缓冲的token
+     */
+    public synchronized void flush() throws IOException {
+        flushLocked();
+    }
+
+    /**
+     * 丢弃尚未发送的token（如流式反思中止后不再下发有问题的内容）
+     */
+    public synchronized void discardPending() {
+        discardLocked();
+    }
+
+    /**
+     * 刷出缓冲后正常结束流
+     */
+    public synchronized void complete() {
+        try {
+            flushLocked();
+        } catch (Exception e) {
+            log.debug("结束前刷出缓冲失败: {}", e.getMessage());
+        }
+        closed = true;
+        sink.complete();
+    }
+
+    /**
+     * 丢弃缓冲并以错误结束流
+     */
+    public synchronized void completeWithError(Throwable error) {
+        discardLocked();
+        closed = true;
+        sink.completeWithError(error);
+    }
+
+    /**
+     * 刷出到期的窗口；写入失败时视为客户端已断开，丢弃缓冲并关闭写入器
+     */
+    public synchronized void flushDue() {
+        try {
+            flushLocked();
+        } catch (Exception e) {
+            // 客户端已断开，后续写入全部丢弃
+            log.debug("定时刷出SSE缓冲失败: {}", e.getMessage());
+            discardLocked();
+            closed = true;
+        }
+    }
+
+    private void onWindowElapsed() {
+        Runnable trigger;
+        synchronized (this) {
+            scheduledFlush = null;
+            trigger = flushTrigger;
+        }
+        if (trigger != null) {
+            trigger.run();
+        } else {
+            flushDue();
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty() || closed) {
+            return;
+        }
+        List<Chunk> chunks = new ArrayList<>(pending.values());
+        pending.clear();
+        pendingChars = 0;
+        frameCounter.increment();
+        sink.send(encoder.encode(chunks));
+    }
+
+    private void discardLocked() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        pending.clear();
+        pendingChars = 0;
+    }
+}
@@ -0,0 +1,283 @@
+package com.aichat.roleplay.util;
+
+import dev.ai4j.openai4j.ResponseHandle;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带对冲请求的流式聊天模型
+ * 首token超过截止时间未到达时再发起一个相同请求（经路由时可能落到其他端点），
+ * 先产出token的请求胜出，另一个立即取消；对冲次数受额度限制，最多为原始请求数
+ */
+public class HedgingStreamingChatModel implements StreamingChatLanguageModel, CancellableStreaming {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgingStreamingChatModel.class);
+
+    private final CancellableStreaming delegate;
+    private final long firstTokenDeadlineMs;
+    private final double budgetRatio;
+    private final double maxBudget;
+    private final MeterRegistry meterRegistry;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "llm-hedge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private double budget = 0;
+
+    /**
+     * 对外句柄实现该接口，调用方可据此得知本次生成实际向上游发起了几次请求（用于按请求数计费）
+     */
+    public interface AttemptCounter {
+        int launchedAttempts();
+    }
+
+    public HedgingStreamingChatModel(CancellableStreaming delegate, long firstTokenDeadlineMs,
+                                     double budgetRatio, double maxBudget, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.firstTokenDeadlineMs = Math.max(1, firstTokenDeadlineMs);
+        this.budgetRatio = Math.max(0, Math.min(1.0, budgetRatio));
+        this.maxBudget = Math.max(1, maxBudget);
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("llm.hedge.budget", this, HedgingStreamingChatModel::currentBudget).register(meterRegistry);
+        log.info("流式对冲请求已启用 - 首token截止: {}ms, 额度比例: {}", this.firstTokenDeadlineMs, this.budgetRatio);
+    }
+
+    @Override
+    public ResponseHandle stream(List<ChatMessage> messages, Integer maxTokens,
+                                 StreamingResponseHandler<AiMessage> handler) {
+        meterRegistry.counter("llm.hedge.requests").increment();
+        earnBudget();
+        HedgedCall call = new HedgedCall(messages, maxTokens, handler);
+        call.start();
+        return call;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        stream(messages, handler);
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private synchronized void earnBudget() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budget >= 1) {
+            budget -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized double currentBudget() {
+        return budget;
+    }
+
+    /**
+     * 单个请求的一次上游尝试
+     */
+    private static class Attempt {
+        final boolean hedge;
+        ResponseHandle handle;
+        boolean cancelled = false;
+        boolean failed = false;
+
+        Attempt(boolean hedge) {
+            this.hedge = hedge;
+        }
+
+        void bind(ResponseHandle responseHandle) {
+            this.handle = responseHandle;
+            if (cancelled && responseHandle != null) {
+                responseHandle.cancel();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (handle != null) {
+                handle.cancel();
+            }
+        }
+    }
+
+    /**
+     * 一次对外的流式生成：管理原始请求和对冲请求，只把胜出请求的事件转发给调用方
+     */
+    private class HedgedCall extends ResponseHandle implements AttemptCounter {
+
+        private final List<ChatMessage> messages;
+        private final Integer maxTokens;
+        private final StreamingResponseHandler<AiMessage> handler;
+        private final List<Attempt> attempts = new ArrayList<>(2);
+        private Attempt winner;
+        private boolean callCancelled = false;
+        private ScheduledFuture<?> deadline;
+
+        HedgedCall(List<ChatMessage> messages, Integer maxTokens, StreamingResponseHandler<AiMessage> handler) {
+            this.messages = messages;
+            this.maxTokens = maxTokens;
+            this.handler = handler;
+        }
+
+        void start() {
+            Attempt primary;
+            synchronized (this) {
+                primary = launchLocked(false);
+                deadline = timer.schedule(this::onDeadline, firstTokenDeadlineMs, TimeUnit.MILLISECONDS);
+            }
+            invoke(primary);
+        }
+
+        private void onDeadline() {
+            Attempt hedge;
+            synchronized (this) {
+                if (winner != null || callCancelled || attempts.size() > 1) {
+                    return;
+                }
+                if (!spendBudget()) {
+                    meterRegistry.counter("llm.hedge.skipped", "reason", "budget").increment();
+                    return;
+                }
+                hedge = launchLocked(true);
+            }
+            meterRegistry.counter("llm.hedge.launched").increment();
+            log.info("首token超过{}ms未到达，发起对冲请求", firstTokenDeadlineMs);
+            invoke(hedge);
+        }
+
+        private Attempt launchLocked(boolean hedge) {
+            Attempt attempt = new Attempt(hedge);
+            attempts.add(attempt);
+            return attempt;
+        }
+
+        private void invoke(Attempt attempt) {
+            try {
+                ResponseHandle handle = delegate.stream(messages, maxTokens, handlerFor(attempt));
+                synchronized (this) {
+                    attempt.bind(handle);
+                }
+            } catch (RuntimeException e) {
+                handlerFor(attempt).onError(e);
+            }
+        }
+
+        private StreamingResponseHandler<AiMessage> handlerFor(Attempt attempt) {
+            return new StreamingResponseHandler<>() {
+                @Override
+                public void onNext(String token) {
+                    synchronized (HedgedCall.this) {
+                        if (claim(attempt)) {
+                            handler.onNext(token);
+                        }
+                    }
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    synchronized (HedgedCall.this) {
+                        if (claim(attempt)) {
+                            handler.onComplete(response);
+                        }
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    synchronized (HedgedCall.this) {
+                        if (callCancelled || attempt.cancelled) {
+                            return;
+                        }
+                        attempt.failed = true;
+                        if (winner == null && hasLiveAttemptLocked()) {
+                            // 另一个请求仍在进行，等待其结果
+                            log.debug("{}请求失败，等待另一请求 - {}", attempt.hedge ? "对冲" : "原始", error.getMessage());
+                            return;
+                        }
+                        if (winner == null || winner == attempt) {
+                            winner = attempt;
+                            cancelDeadlineLocked();
+                            handler.onError(error);
+                        }
+                    }
+                }
+            };
+        }
+
+        /**
+         * 第一个产出事件的请求胜出并取消其他请求；返回该请求的事件是否应转发
+         */
+        private boolean claim(Attempt attempt) {
+            if (callCancelled || attempt.cancelled) {
+                return false;
+            }
+            if (winner == null) {
+                winner = attempt;
+                cancelDeadlineLocked();
+                for (Attempt other : attempts) {
+                    if (other != attempt) {
+                        other.cancel();
+                    }
+                }
+                if (attempts.size() > 1) {
+                    meterRegistry.counter("llm.hedge.wins", "winner", attempt.hedge ? "hedge" : "primary").increment();
+                }
+            }
+            return winner == attempt;
+        }
+
+        private boolean hasLiveAttemptLocked() {
+            for (Attempt other : attempts) {
+                if (!other.failed && !other.cancelled) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void cancelDeadlineLocked() {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+
+        @Override
+        public synchronized int launchedAttempts() {
+            return attempts.size();
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            synchronized (this) {
+                callCancelled = true;
+                cancelDeadlineLocked();
+                for (Attempt attempt : attempts) {
+                    attempt.cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.model.Role;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次生成的分阶段耗时
+ * 调用方在请求开始时创建，随ChatPrompt传给生成服务；模型确定之前记录的阶段（排队、prompt构建、RAG检索）先暂存，
+ * 开始生成时按实际使用的模型写入直方图。重试时各阶段耗时累加，结束时输出一行耗时分解日志
+ */
+public class LatencyTrace {
+
+    private static final Logger log = LoggerFactory.getLogger(LatencyTrace.class);
+
+    public static final String QUEUE_WAIT = "queue_wait";
+    public static final String ROLE_SELECTION = "role_selection";
+    /**
+     * 包含RAG检索耗时
+     */
+    public static final String PROMPT_BUILD = "prompt_build";
+    public static final String RAG = "rag";
+    public static final String TTFT = "ttft";
+    public static final String INTER_TOKEN = "inter_token";
+    public static final String GENERATION = "generation";
+    public static final String REFLECTION = "reflection";
+    public static final String PERSISTENCE = "persistence";
+
+    private final LlmLatencyMetrics metrics;
+    private final String endpoint;
+    private final long createdNanos = System.nanoTime();
+
+    private String roleCategory = "unknown";
+    private String model;
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+    // 每个阶段：累计耗时、次数、最大值（纳秒）
+    private final Map<String, long[]> totals = new LinkedHashMap<>();
+    private Timer interTokenTimer;
+    private long generationStartNanos;
+    private long lastTokenNanos;
+    private boolean finished;
+
+    LatencyTrace(LlmLatencyMetrics metrics, String endpoint) {
+        this.metrics = metrics;
+        this.endpoint = endpoint;
+    }
+
+    public synchronized void setRole(Role role) {
+        this.roleCategory = LlmLatencyMetrics.categoryOf(role);
+    }
+
+    /**
+     * 自创建起经过的时间，用于记录排队等待
+     */
+    public long elapsedNanos() {
+        return System.nanoTime() - createdNanos;
+    }
+
+    public void recordSince(String stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void record(String stage, long nanos) {
+        accumulate(stage, nanos);
+        if (model == null) {
+            pending.merge(stage, nanos, Long::sum);
+        } else {
+            metrics.timer(stage, endpoint, roleCategory, model).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 开始一次生成（含重试），确定模型后写入暂存的阶段
+     */
+    public synchronized void startGeneration(String modelName) {
+        String resolved = modelName != null ? modelName : "unknown";
+        if (!resolved.equals(model)) {
+            model = resolved;
+            interTokenTimer = metrics.timer(INTER_TOKEN, endpoint, roleCategory, model);
+        }
+        flushPending();
+        generationStartNanos = System.nanoTime();
+        lastTokenNanos = 0;
+    }
+
+    /**
+     * 收到一个token：第一个记为首token延迟，之后记录与上一个token的间隔
+     */
+    public synchronized void onToken() {
+        if (generationStartNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastTokenNanos == 0) {
+            record(TTFT, now - generationStartNanos);
+        } else {
+            long gap = now - lastTokenNanos;
+            interTokenTimer.record(gap, TimeUnit.NANOSECONDS);
+            accumulate(INTER_TOKEN, gap);
+        }
+        lastTokenNanos = now;
+    }
+
+    /**
+     * 生成正常结束，记录整次生成耗时
+     */
+    public synchronized void endGeneration() {
+        if (generationStartNanos == 0) {
+            return;
+        }
+        record(GENERATION, System.nanoTime() - generationStartNanos);
+        generationStartNanos = 0;
+    }
+
+    /**
+     * 请求结束：仍未确定模型的阶段以none写入，并输出耗时分解日志；重复调用只生效一次
+     */
+    public void finish() {
+        String summary;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (model == null) {
+                model = LlmLatencyMetrics.NONE;
+                flushPending();
+            }
+            summary = summarize();
+        }
+        log.info("生成耗时分解 - endpoint: {}, 角色分类: {}, 模型: {}, {}, 总耗时: {}ms",
+                endpoint, roleCategory, model, summary, elapsedNanos() / 1_000_000);
+    }
+
+    private void flushPending() {
+        pending.forEach((stage, nanos) ->
+                metrics.timer(stage, endpoint, roleCategory, model).record(nanos, TimeUnit.NANOSECONDS));
+        pending.clear();
+    }
+
+    private void accumulate(String stage, long nanos) {
+        long[] total = totals.computeIfAbsent(stage, s -> new long[3]);
+        total[0] += nanos;
+        total[1]++;
+        total[2] = Math.max(total[2], nanos);
+    }
+
+    private String summarize() {
+        if (totals.isEmpty()) {
+            return "无阶段记录";
+        }
+        StringBuilder builder = new StringBuilder();
+        totals.forEach((stage, total) -> {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            if (INTER_TOKEN.equals(stage)) {
+                builder.append(stage).append(": 平均").append(String.format("%.1f", total[0] / 1_000_000.0 / total[1]))
+                        .append("ms/最大").append(total[2] / 1_000_000).append("ms");
+            } else {
+                builder.append(stage).append(": ").append(total[0] / 1_000_000).append("ms");
+            }
+        });
+        return builder.toString();
+    }
+}
@@ -0,0 +1,379 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.config.LlmRouterConfig;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多端点LLM路由器
+ * 记录每个端点的首token延迟、同步调用延迟和错误率（EWMA），按策略挑选端点并限制单端点并发；
+ * 流式和同步调用分别计数并发名额，流式请求占满端点时同步调用不受影响，同步名额占满时有限等待；
+ * 连续失败、错误率过高或首token延迟明显偏离其他端点时临时摘除，到期后以初始统计重新参与路由
+ */
+public class LlmEndpointRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmEndpointRouter.class);
+
+    /**
+     * 单个端点及其运行统计
+     */
+    public static class Endpoint {
+
+        private final String name;
+        private final int weight;
+        private final int maxConcurrent;
+        private final int maxConcurrentSync;
+        private final CancellableStreamingChatModel streamingModel;
+        private final ChatLanguageModel chatModel;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger syncInFlight = new AtomicInteger();
+
+        // 以下统计由路由器加锁维护
+        private double ttftEwmaMs;
+        private double latencyEwmaMs;
+        private double errorEwma;
+        private long samples;
+        private int consecutiveFailures;
+        private volatile long ejectedUntil;
+
+        public Endpoint(String name, int weight, int maxConcurrent, int maxConcurrentSync,
+                        CancellableStreamingChatModel streamingModel, ChatLanguageModel chatModel) {
+            this.name = name;
+            this.weight = Math.max(1, weight);
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.maxConcurrentSync = Math.max(1, maxConcurrentSync);
+            this.streamingModel = streamingModel;
+            this.chatModel = chatModel;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getModelName() {
+            return streamingModel.getModelName();
+        }
+
+        public CancellableStreamingChatModel getStreamingModel() {
+            return streamingModel;
+        }
+
+        public ChatLanguageModel getChatModel() {
+            return chatModel;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public int getSyncInFlight() {
+            return syncInFlight.get();
+        }
+
+        private AtomicInteger counter(boolean streaming) {
+            return streaming ? inFlight : syncInFlight;
+        }
+
+        private boolean tryAcquire(boolean streaming) {
+            AtomicInteger counter = counter(streaming);
+            int limit = streaming ? maxConcurrent : maxConcurrentSync;
+            while (true) {
+                int current = counter.get();
+                if (current >= limit) {
+                    return false;
+                }
+                if (counter.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isEjected() {
+            return ejectedUntil > 0;
+        }
+    }
+
+    private final LlmRouterConfig config;
+    private final MeterRegistry meterRegistry;
+    private final List<Endpoint> endpoints;
+
+    // 同步名额归还时唤醒等待中的同步调用
+    private final Object syncSlotMonitor = new Object();
+
+    public LlmEndpointRouter(LlmRouterConfig config, MeterRegistry meterRegistry, List<Endpoint> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个LLM端点");
+        }
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.ttftEwmaMs = config.getInitialLatencyMs();
+            endpoint.latencyEwmaMs = config.getInitialLatencyMs();
+            Gauge.builder("llm.router.in_flight", endpoint, Endpoint::getInFlight)
+                    .tag("endpoint", endpoint.name)
+                    .register(meterRegistry);
+            Gauge.builder("llm.router.sync_in_flight", endpoint, Endpoint::getSyncInFlight)
+                    .tag("endpoint", endpoint.name)
+                    .register(meterRegistry);
+            Gauge.builder("llm.router.ejected", endpoint, e -> e.isEjected() ? 1 : 0)
+                    .tag("endpoint", endpoint.name)
+                    .register(meterRegistry);
+        }
+        log.info("LLM路由已启用 - 策略: {}, 端点: {}", config.getStrategy(),
+                this.endpoints.stream().map(e -> e.name + "(" + e.getModelName() + ")").toList());
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 选择一个端点并占用一个并发名额；流式请求全部端点满载时立即返回null，
+     * 同步调用最多等待syncAcquireTimeoutMs，仍无名额时返回null
+     *
+     * @param streaming true按首token延迟挑选并占用流式名额，false按同步调用延迟挑选并占用同步名额
+     */
+    public Endpoint acquire(boolean streaming) {
+        Endpoint chosen = tryAcquire(streaming);
+        if (chosen == null && !streaming && config.getSyncAcquireTimeoutMs() > 0) {
+            long deadline = System.currentTimeMillis() + config.getSyncAcquireTimeoutMs();
+            long waitStart = System.nanoTime();
+            while (chosen == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    synchronized (syncSlotMonitor) {
+                        // 限制单次等待时长，摘除到期等不经release的名额变化也能及时感知
+                        syncSlotMonitor.wait(Math.min(remaining, 100));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                chosen = tryAcquire(false);
+            }
+            Timer.builder("llm.router.sync_wait")
+                    .description("同步调用等待端点名额的时长")
+                    .tag("acquired", String.valueOf(chosen != null))
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+        }
+        if (chosen == null) {
+            meterRegistry.counter("llm.router.unavailable", "kind", streaming ? "streaming" : "sync").increment();
+        }
+        return chosen;
+    }
+
+    private Endpoint tryAcquire(boolean streaming) {
+        List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+        List<Endpoint> ejected = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.isEjected() && now >= endpoint.ejectedUntil) {
+                    reinstate(endpoint);
+                }
+                (endpoint.isEjected() ? ejected : healthy).add(endpoint);
+            }
+        }
+
+        Endpoint chosen = pick(healthy, streaming);
+        if (chosen == null) {
+            chosen = pick(ejected, streaming);
+            if (chosen != null) {
+                log.warn("可用LLM端点均已满载，临时使用被摘除的端点: {}", chosen.name);
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * 释放端点的并发名额
+     *
+     * @param streaming 与acquire时一致，决定归还流式名额还是同步名额
+     */
+    public void release(Endpoint endpoint, boolean streaming) {
+        endpoint.counter(streaming).decrementAndGet();
+        if (!streaming) {
+            synchronized (syncSlotMonitor) {
+                syncSlotMonitor.notify();
+            }
+        }
+    }
+
+    /**
+     * 记录流式请求的首token延迟
+     */
+    public void recordFirstToken(Endpoint endpoint, long elapsedMs) {
+        Timer.builder("llm.router.ttft")
+                .tag("endpoint", endpoint.name)
+                .register(meterRegistry)
+                .record(elapsedMs, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            endpoint.ttftEwmaMs = ewma(endpoint.ttftEwmaMs, elapsedMs);
+        }
+    }
+
+    /**
+     * 记录同步调用的总延迟
+     */
+    public void recordLatency(Endpoint endpoint, long elapsedMs) {
+        Timer.builder("llm.router.latency")
+                .tag("endpoint", endpoint.name)
+                .register(meterRegistry)
+                .record(elapsedMs, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            endpoint.latencyEwmaMs = ewma(endpoint.latencyEwmaMs, elapsedMs);
+        }
+    }
+
+    /**
+     * 记录请求结果并判断是否需要摘除端点
+     */
+    public void recordOutcome(Endpoint endpoint, boolean success) {
+        meterRegistry.counter("llm.router.requests",
+                "endpoint", endpoint.name, "outcome", success ? "success" : "error").increment();
+        synchronized (this) {
+            endpoint.samples++;
+            endpoint.errorEwma = ewma(endpoint.errorEwma, success ? 0 : 1);
+            endpoint.consecutiveFailures = success ? 0 : endpoint.consecutiveFailures + 1;
+            if (!endpoint.isEjected()) {
+                String reason = ejectionReason(endpoint);
+                if (reason != null) {
+                    eject(endpoint, reason);
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录被调用方取消的请求，不计入错误率
+     */
+    public void recordCancelled(Endpoint endpoint) {
+        meterRegistry.counter("llm.router.requests",
+                "endpoint", endpoint.name, "outcome", "cancelled").increment();
+    }
+
+    private Endpoint pick(List<Endpoint> candidates, boolean streaming) {
+        List<Endpoint> available = new ArrayList<>(candidates);
+        while (!available.isEmpty()) {
+            Endpoint candidate = config.getStrategy() == LlmRouterConfig.Strategy.WEIGHTED
+                    ? pickWeighted(available)
+                    : pickLeastLatency(available, streaming);
+            if (candidate.tryAcquire(streaming)) {
+                return candidate;
+            }
+            available.remove(candidate);
+        }
+        return null;
+    }
+
+    /**
+     * 两次随机选择：避免所有请求同时涌向统计上最快的端点
+     */
+    private Endpoint pickLeastLatency(List<Endpoint> candidates, boolean streaming) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Endpoint first = candidates.get(random.nextInt(candidates.size()));
+        if (candidates.size() == 1) {
+            return first;
+        }
+        Endpoint second = candidates.get(random.nextInt(candidates.size()));
+        if (second == first) {
+            second = candidates.get((candidates.indexOf(first) + 1) % candidates.size());
+        }
+        return score(first, streaming) <= score(second, streaming) ? first : second;
+    }
+
+    private Endpoint pickWeighted(List<Endpoint> candidates) {
+        int total = 0;
+        for (Endpoint endpoint : candidates) {
+            total += endpoint.weight;
+        }
+        int target = ThreadLocalRandom.current().nextInt(total);
+        for (Endpoint endpoint : candidates) {
+            target -= endpoint.weight;
+            if (target < 0) {
+                return endpoint;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private double score(Endpoint endpoint, boolean streaming) {
+        double latency;
+        synchronized (this) {
+            latency = streaming ? endpoint.ttftEwmaMs : endpoint.latencyEwmaMs;
+        }
+        return latency * (1 + endpoint.counter(streaming).get()) / endpoint.weight;
+    }
+
+    private String ejectionReason(Endpoint endpoint) {
+        if (endpoint.consecutiveFailures >= config.getEjectConsecutiveFailures()) {
+            return "consecutive_failures";
+        }
+        if (endpoint.samples < config.getEjectMinRequests()) {
+            return null;
+        }
+        if (endpoint.errorEwma >= config.getEjectErrorRate()) {
+            return "error_rate";
+        }
+        if (config.getEjectLatencyFactor() > 0) {
+            List<Double> others = new ArrayList<>();
+            for (Endpoint other : endpoints) {
+                if (other != endpoint && !other.isEjected()) {
+                    others.add(other.ttftEwmaMs);
+                }
+            }
+            if (!others.isEmpty()) {
+                Collections.sort(others);
+                double median = others.get(others.size() / 2);
+                if (endpoint.ttftEwmaMs > median * config.getEjectLatencyFactor()) {
+                    return "latency_outlier";
+                }
+            }
+        }
+        return null;
+    }
+
+    private void eject(Endpoint endpoint, String reason) {
+        long ejectedCount = endpoints.stream().filter(Endpoint::isEjected).count();
+        if ((ejectedCount + 1) * 100 > (long) config.getMaxEjectionPercent() * endpoints.size()) {
+            log.warn("LLM端点满足摘除条件但已达摘除比例上限 - endpoint: {}, reason: {}", endpoint.name, reason);
+            return;
+        }
+        endpoint.ejectedUntil = System.currentTimeMillis() + config.getEjectionMs();
+        meterRegistry.counter("llm.router.ejections", "endpoint", endpoint.name, "reason", reason).increment();
+        log.warn("摘除LLM端点 - endpoint: {}, reason: {}, 首token延迟EWMA: {}ms, 错误率EWMA: {}, 连续失败: {}",
+                endpoint.name, reason, Math.round(endpoint.ttftEwmaMs),
+                String.format("%.2f", endpoint.errorEwma), endpoint.consecutiveFailures);
+    }
+
+    private void reinstate(Endpoint endpoint) {
+        endpoint.ejectedUntil = 0;
+        endpoint.ttftEwmaMs = config.getInitialLatencyMs();
+        endpoint.latencyEwmaMs = config.getInitialLatencyMs();
+        endpoint.errorEwma = 0;
+        endpoint.samples = 0;
+        endpoint.consecutiveFailures = 0;
+        log.info("LLM端点摘除到期，重新参与路由 - endpoint: {}", endpoint.name);
+    }
+
+    private double ewma(double current, double sample) {
+        double alpha = config.getEwmaAlpha();
+        return alpha * sample + (1 - alpha) * current;
+    }
+}
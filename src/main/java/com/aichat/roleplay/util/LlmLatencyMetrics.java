@@ -0,0 +1,84 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.model.Role;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成链路分阶段耗时监控
+ * 所有阶段写入同一个直方图 llm.stage.latency，按 stage/endpoint/role_category/model 打标签，
+ * 开启百分位直方图以便在Prometheus中按任意标签组合计算分位数
+ */
+@Component
+public class LlmLatencyMetrics {
+
+    public static final String METRIC = "llm.stage.latency";
+
+    /**
+     * 语音对话（语音识别后的文本生成）
+     */
+    public static final String ENDPOINT_VOICE = "voice";
+
+    /**
+     * 不属于单个角色或尚未确定模型的阶段使用的标签值
+     */
+    public static final String NONE = "none";
+
+    private static final String OTHER_CATEGORY = "other";
+
+    private static final Set<String> KNOWN_CATEGORIES = Set.of("历史人物", "虚拟角色", "专业专家", "陪伴聊天", "教育指导");
+
+    private final MeterRegistry meterRegistry;
+
+    public LlmLatencyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 开始记录一次生成，角色分类未知时可稍后通过 {@link LatencyTrace#setRole(Role)} 补充
+     */
+    public LatencyTrace newTrace(String endpoint, Role role) {
+        LatencyTrace trace = new LatencyTrace(this, endpoint);
+        if (role != null) {
+            trace.setRole(role);
+        }
+        return trace;
+    }
+
+    /**
+     * 直接记录一个阶段的耗时，用于不属于单次生成的阶段（如聊天室的排队和角色选择）
+     */
+    public void record(String stage, String endpoint, String roleCategory, String model, long nanos) {
+        timer(stage, endpoint, roleCategory, model).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    Timer timer(String stage, String endpoint, String roleCategory, String model) {
+        return Timer.builder(METRIC)
+                .description("LLM生成链路各阶段耗时")
+                .tag("stage", stage)
+                .tag("endpoint", endpoint)
+                .tag("role_category", roleCategory)
+                .tag("model", model)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(2))
+                .register(meterRegistry);
+    }
+
+    /**
+     * 角色分类标签：分类由用户自由填写，只保留已知的几类，其余归为other，避免标签基数无限增长
+     */
+    static String categoryOf(Role role) {
+        if (role == null || !StringUtils.hasText(role.getCategory())) {
+            return OTHER_CATEGORY;
+        }
+        String category = role.getCategory().trim();
+        return KNOWN_CATEGORIES.contains(category) ? category : OTHER_CATEGORY;
+    }
+}
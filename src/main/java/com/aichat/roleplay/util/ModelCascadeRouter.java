@@ -0,0 +1,182 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.config.ModelCascadeConfig;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 模型级联路由
+ * 按用户消息的长度、关键词和与示例句的向量相似度判断本轮复杂度，选择快速模型或主模型及输出token上限；
+ * 每次决策记录日志和监控，便于按实际延迟和回答质量调整阈值
+ */
+public class ModelCascadeRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelCascadeRouter.class);
+
+    private static final Pattern ASCII_WORD = Pattern.compile("[a-z0-9_]+");
+
+    public enum Tier {
+        FAST,
+        PRIMARY
+    }
+
+    /**
+     * 单轮决策结果
+     */
+    public static class Decision {
+
+        private final Tier tier;
+        private final int maxTokens;
+        private final String reason;
+
+        Decision(Tier tier, int maxTokens, String reason) {
+            this.tier = tier;
+            this.maxTokens = maxTokens;
+            this.reason = reason;
+        }
+
+        public Tier getTier() {
+            return tier;
+        }
+
+        public int getMaxTokens() {
+            return maxTokens;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private final ModelCascadeConfig config;
+    private final CancellableStreaming fastModel;
+    private final String fastModelName;
+    private final EmbeddingModel embeddingModel;
+    private final MeterRegistry meterRegistry;
+    private final List<Embedding> simpleEmbeddings;
+    private final List<Embedding> complexEmbeddings;
+    // 中文等非单词关键词按子串匹配
+    private final List<String> complexKeywords;
+    // ASCII单词关键词按单词边界匹配，避免"show"命中"how"、"decode"命中"code"
+    private final Pattern complexWordPattern;
+
+    public ModelCascadeRouter(ModelCascadeConfig config, CancellableStreaming fastModel, String fastModelName,
+                              EmbeddingModel embeddingModel, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.fastModel = fastModel;
+        this.fastModelName = fastModelName;
+        this.embeddingModel = config.isEmbeddingEnabled() ? embeddingModel : null;
+        this.meterRegistry = meterRegistry;
+        List<String> substrings = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        for (String keyword : config.getComplexKeywords()) {
+            if (keyword == null || keyword.isBlank()) {
+                continue;
+            }
+            String lower = keyword.toLowerCase(Locale.ROOT);
+            (ASCII_WORD.matcher(lower).matches() ? words : substrings).add(lower);
+        }
+        this.complexKeywords = substrings;
+        this.complexWordPattern = words.isEmpty() ? null : Pattern.compile(
+                "(?<![a-z0-9_])(?:" + words.stream().map(Pattern::quote).collect(Collectors.joining("|")) + ")(?![a-z0-9_])");
+        this.simpleEmbeddings = embedAll(config.getSimpleExamples());
+        this.complexEmbeddings = embedAll(config.getComplexExamples());
+        log.info("模型级联已启用 - 快速模型: {}, 向量辅助判断: {}", fastModelName, this.embeddingModel != null);
+    }
+
+    public CancellableStreaming getFastModel() {
+        return fastModel;
+    }
+
+    public String getFastModelName() {
+        return fastModelName;
+    }
+
+    /**
+     * 判断本轮使用的模型和输出token上限
+     */
+    public Decision decide(String userMessage) {
+        long start = System.nanoTime();
+        Decision decision = classify(userMessage != null ? userMessage.trim() : "");
+        long elapsedNanos = System.nanoTime() - start;
+
+        meterRegistry.counter("llm.cascade.decisions",
+                "tier", decision.tier.name().toLowerCase(Locale.ROOT), "reason", decision.reason).increment();
+        Timer.builder("llm.cascade.classify").register(meterRegistry).record(elapsedNanos, TimeUnit.NANOSECONDS);
+        log.info("模型级联决策 - tier: {}, reason: {}, maxTokens: {}, 消息长度: {}, 判断耗时: {}ms",
+                decision.tier, decision.reason, decision.maxTokens,
+                userMessage != null ? userMessage.length() : 0,
+                String.format("%.2f", elapsedNanos / 1_000_000.0));
+        return decision;
+    }
+
+    private Decision classify(String message) {
+        String lower = message.toLowerCase(Locale.ROOT);
+        for (String keyword : complexKeywords) {
+            if (lower.contains(keyword)) {
+                return new Decision(Tier.PRIMARY, config.getComplexMaxTokens(), "keyword");
+            }
+        }
+        if (complexWordPattern != null && complexWordPattern.matcher(lower).find()) {
+            return new Decision(Tier.PRIMARY, config.getComplexMaxTokens(), "keyword");
+        }
+        int length = message.codePointCount(0, message.length());
+        if (length > config.getLongMessageChars()) {
+            return new Decision(Tier.PRIMARY, config.getComplexMaxTokens(), "long");
+        }
+
+        if (embeddingModel != null && !simpleEmbeddings.isEmpty() && !complexEmbeddings.isEmpty() && length > 0) {
+            try {
+                Embedding embedding = embeddingModel.embed(message).content();
+                double simpleScore = maxSimilarity(embedding, simpleEmbeddings);
+                double complexScore = maxSimilarity(embedding, complexEmbeddings);
+                if (simpleScore - complexScore >= config.getEmbeddingMargin()) {
+                    return new Decision(Tier.FAST, config.getFastMaxTokens(), "embedding");
+                }
+                if (complexScore - simpleScore >= config.getEmbeddingMargin()) {
+                    // 相似度只决定模型，较大的输出上限仍只给命中关键词或长消息的轮次
+                    return new Decision(Tier.PRIMARY, config.getDefaultMaxTokens(), "embedding");
+                }
+            } catch (Exception e) {
+                log.debug("级联向量判断失败，按长度判断: {}", e.getMessage());
+            }
+        }
+
+        if (length <= config.getShortMessageChars()) {
+            return new Decision(Tier.FAST, config.getFastMaxTokens(), "short");
+        }
+        return new Decision(Tier.PRIMARY, config.getDefaultMaxTokens(), "default");
+    }
+
+    private List<Embedding> embedAll(List<String> examples) {
+        if (embeddingModel == null || examples == null || examples.isEmpty()) {
+            return List.of();
+        }
+        List<TextSegment> segments = new ArrayList<>(examples.size());
+        for (String example : examples) {
+            segments.add(TextSegment.from(example));
+        }
+        return embeddingModel.embedAll(segments).content();
+    }
+
+    private static double maxSimilarity(Embedding embedding, List<Embedding> candidates) {
+        double best = -1;
+        for (Embedding candidate : candidates) {
+            best = Math.max(best, CosineSimilarity.between(embedding, candidate));
+        }
+        return best;
+    }
+}
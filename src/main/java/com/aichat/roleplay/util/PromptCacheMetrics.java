@@ -0,0 +1,43 @@
+package com.aichat.roleplay.util;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 上游前缀缓存命中监控
+ * 记录每次流式调用的prompt token数和命中缓存的token数，命中率 = llm.prompt.cached_tokens / llm.prompt.tokens；
+ * 上游不返回缓存字段时只记录prompt token数
+ */
+@Component
+public class PromptCacheMetrics implements CancellableStreamingChatModel.UsageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptCacheMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+
+    public PromptCacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void onUsage(String modelName, int promptTokens, Integer cachedTokens, int completionTokens) {
+        String model = modelName != null ? modelName : "unknown";
+        meterRegistry.counter("llm.prompt.tokens", "model", model).increment(promptTokens);
+        meterRegistry.counter("llm.completion.tokens", "model", model).increment(completionTokens);
+        if (cachedTokens == null || promptTokens <= 0) {
+            log.debug("LLM用量 - model: {}, prompt: {}, completion: {}", model, promptTokens, completionTokens);
+            return;
+        }
+        meterRegistry.counter("llm.prompt.cached_tokens", "model", model).increment(cachedTokens);
+        double ratio = (double) cachedTokens / promptTokens;
+        DistributionSummary.builder("llm.prompt.cache_hit_ratio")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(ratio);
+        log.debug("LLM用量 - model: {}, prompt: {}, 缓存命中: {} ({}%), completion: {}",
+                model, promptTokens, cachedTokens, Math.round(ratio * 100), completionTokens);
+    }
+}
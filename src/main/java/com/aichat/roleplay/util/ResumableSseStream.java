@@ -0,0 +1,265 @@
+package com.aichat.roleplay.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * 可断线续传的SSE流
+ * 每个事件分配单调递增的ID（格式为 流ID:序号）并保存在有界的回放缓冲中；
+ * 生成过程不依赖HTTP连接，连接断开后继续缓冲，客户端携带Last-Event-ID重连时只补发缺失的事件
+ */
+public class ResumableSseStream implements CoalescingSseWriter.FrameSink {
+
+    private static final Logger log = LoggerFactory.getLogger(ResumableSseStream.class);
+
+    private static final char ID_SEPARATOR = ':';
+
+    public enum AttachResult {
+        /**
+         * 已补发缺失事件并接管后续输出
+         */
+        ATTACHED,
+        /**
+         * 缺失的事件已被挤出回放缓冲，无法续传
+         */
+        EXPIRED
+    }
+
+    private static class Event {
+        final long seq;
+        final String data;
+
+        Event(long seq, String data) {
+            this.seq = seq;
+            this.data = data;
+        }
+    }
+
+    private final String streamId;
+    private final Long ownerId;
+    private final int bufferSize;
+    private final long reconnectTimeMs;
+
+    private final Deque<Event> buffer = new ArrayDeque<>();
+    private long seq = 0;
+    private SseEmitter emitter;
+    private boolean finished = false;
+    private boolean abandoned = false;
+    private long detachedAtMillis = 0;
+    private long finishedAtMillis = 0;
+    private Runnable abandonListener;
+
+    /**
+     * @param ownerId 发起生成的用户ID，只有该用户可以续传
+     */
+    public ResumableSseStream(String streamId, Long ownerId, int bufferSize, long reconnectTimeMs) {
+        this.streamId = streamId;
+        this.ownerId = ownerId;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.reconnectTimeMs = reconnectTimeMs;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * 是否为该流的发起用户
+     */
+    public boolean isOwnedBy(Long userId) {
+        return Objects.equals(ownerId, userId);
+    }
+
+    /**
+     * 从Last-Event-ID中解析流ID，格式不正确时返回null
+     */
+    public static String parseStreamId(String lastEventId) {
+        if (lastEventId == null) {
+            return null;
+        }
+        int index = lastEventId.lastIndexOf(ID_SEPARATOR);
+        return index > 0 ? lastEventId.substring(0, index) : null;
+    }
+
+    /**
+     * 从Last-Event-ID中解析序号，格式不正确时返回-1
+     */
+    public static long parseSeq(String lastEventId) {
+        if (lastEventId == null) {
+            return -1;
+        }
+        int index = lastEventId.lastIndexOf(ID_SEPARATOR);
+        try {
+            return index > 0 ? Long.parseLong(lastEventId.substring(index + 1)) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 缓冲并发送一个事件；连接断开时只缓冲，不向生成过程抛出异常
+     */
+    @Override
+    public synchronized void send(String data) {
+        if (finished || abandoned) {
+            return;
+        }
+        seq++;
+        buffer.addLast(new Event(seq, data));
+        if (buffer.size() > bufferSize) {
+            buffer.removeFirst();
+        }
+        if (emitter != null) {
+            try {
+                emitter.send(SseEmitter.event().id(eventId(seq)).data(data));
+            } catch (IOException | IllegalStateException e) {
+                log.debug("SSE连接已断开，继续缓冲等待重连 - streamId: {}, {}", streamId, e.getMessage());
+                detachLocked();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void complete() {
+        markFinished();
+        if (emitter != null) {
+            SseEmitter current = emitter;
+            emitter = null;
+            current.complete();
+        }
+    }
+
+    @Override
+    public synchronized void completeWithError(Throwable error) {
+        markFinished();
+        if (emitter != null) {
+            SseEmitter current = emitter;
+            emitter = null;
+            current.completeWithError(error);
+        }
+    }
+
+    @Override
+    public synchronized SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    /**
+     * 连接（或重新连接）一个SSE连接：补发序号大于lastSeq的事件，流未结束时接管后续输出
+     *
+     * @param lastSeq 客户端最后收到的序号，新连接传0
+     */
+    public synchronized AttachResult attach(SseEmitter newEmitter, long lastSeq) {
+        long firstBuffered = buffer.isEmpty() ? seq + 1 : buffer.peekFirst().seq;
+        if (abandoned || lastSeq + 1 < firstBuffered) {
+            return AttachResult.EXPIRED;
+        }
+
+        if (emitter != null) {
+            // 同一个流只保留最新的连接
+            SseEmitter previous = emitter;
+            emitter = null;
+            previous.complete();
+        }
+
+        try {
+            if (reconnectTimeMs > 0) {
+                newEmitter.send(SseEmitter.event().reconnectTime(reconnectTimeMs));
+            }
+            for (Event event : buffer) {
+                if (event.seq > lastSeq) {
+                    newEmitter.send(SseEmitter.event().id(eventId(event.seq)).data(event.data));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("补发事件失败 - streamId: {}, {}", streamId, e.getMessage());
+            detachedAtMillis = System.currentTimeMillis();
+            return AttachResult.ATTACHED;
+        }
+
+        if (finished) {
+            newEmitter.complete();
+            return AttachResult.ATTACHED;
+        }
+
+        newEmitter.onCompletion(() -> detach(newEmitter));
+        newEmitter.onTimeout(() -> detach(newEmitter));
+        newEmitter.onError(e -> detach(newEmitter));
+        emitter = newEmitter;
+        detachedAtMillis = 0;
+        return AttachResult.ATTACHED;
+    }
+
+    /**
+     * 客户端从lastSeq续传时是否还有需要接收的内容
+     */
+    public synchronized boolean hasPendingEvents(long lastSeq) {
+        return !abandoned && (!finished || lastSeq < seq);
+    }
+
+    /**
+     * 断开超过宽限期，或结束超过宽限期
+     */
+    public synchronized boolean isExpired(long nowMillis, long gracePeriodMs) {
+        if (finished) {
+            return nowMillis - finishedAtMillis > gracePeriodMs;
+        }
+        return emitter == null && detachedAtMillis > 0 && nowMillis - detachedAtMillis > gracePeriodMs;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 注册客户端放弃该流时的回调（如取消上游生成）
+     */
+    public synchronized void onAbandon(Runnable listener) {
+        this.abandonListener = listener;
+    }
+
+    /**
+     * 宽限期内客户端未重连，丢弃缓冲且不再接收事件
+     */
+    public void abandon() {
+        Runnable listener;
+        synchronized (this) {
+            abandoned = true;
+            buffer.clear();
+            listener = abandonListener;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void detach(SseEmitter target) {
+        synchronized (this) {
+            if (emitter == target) {
+                detachLocked();
+            }
+        }
+    }
+
+    private void detachLocked() {
+        emitter = null;
+        detachedAtMillis = System.currentTimeMillis();
+    }
+
+    private void markFinished() {
+        if (!finished) {
+            finished = true;
+            finishedAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    private String eventId(long eventSeq) {
+        return streamId + ID_SEPARATOR + eventSeq;
+    }
+}
@@ -1,13 +1,25 @@
 package com.aichat.roleplay.util;
 
+import com.aichat.roleplay.dto.ChatPrompt;
+import com.aichat.roleplay.model.ChatroomMessage;
+import com.aichat.roleplay.model.Message;
 import com.aichat.roleplay.model.Role;
 import com.aichat.roleplay.service.RagService;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 角色Prompt工程服务
  * 根据不同角色类型提供定制化的prompt策略
@@ -20,20 +32,109 @@ public class RolePromptEngineering {
     @Autowired
     private RagService ragService;
 
+    private final Map<Long, SystemPromptEntry> systemPromptCache = new ConcurrentHashMap<>();
+
     /**
-     * 根据角色类型构建优化的prompt
+     * 构建结构化prompt：系统消息（角色设定与规则）+ 交替的历史消息 + 本轮用户消息
      *
      * @param role 角色信息
      * @param userMessage 用户消息
-     * @param chatHistory 聊天历史
-     * @return 优化后的完整prompt
+     * @param summary 早前对话摘要，可为空
+     * @param history 按时间正序的历史消息（用户/AI交替）
+     * @param extraContext 调用方附加的上下文，可为空
+     * @return 结构化prompt
+     */
+    public ChatPrompt buildChatPrompt(Role role, String userMessage, String summary,
+                                      List<ChatMessage> history, String extraContext) {
+        return buildChatPrompt(role, userMessage, summary, history, extraContext, null);
+    }
+
+    /**
+     * 构建结构化prompt，并将RAG检索耗时记录到trace
+     *
+     * @param trace 本次生成的分阶段耗时，可为空
+     */
+    public ChatPrompt buildChatPrompt(Role role, String userMessage, String summary,
+                                      List<ChatMessage> history, String extraContext, LatencyTrace trace) {
+        StringBuilder turnBuilder = new StringBuilder();
+
+        // 添加RAG知识背景（每轮随问题变化，放在用户消息中以保持系统消息稳定）
+        long ragStart = System.nanoTime();
+        addRagKnowledgeBackground(turnBuilder, role, userMessage);
+        if (trace != null) {
+            trace.recordSince(LatencyTrace.RAG, ragStart);
+        }
+
+        if (StringUtils.hasText(summary)) {
+            turnBuilder.append("\n早前对话摘要：").append(summary).append("\n");
+        }
+        if (StringUtils.hasText(extraContext)) {
+            turnBuilder.append("\n补充信息：").append(extraContext.trim()).append("\n");
+        }
+
+        String userTurn = turnBuilder.length() == 0
+                ? userMessage
+                : turnBuilder.append("\n用户问题：").append(userMessage).toString().trim();
+
+        ChatPrompt prompt = new ChatPrompt(buildSystemPrompt(role), dropTrailingDuplicate(history, userMessage),
+                userMessage, userTurn);
+        return trace != null ? prompt.withTrace(trace) : prompt;
+    }
+
+    /**
+     * 角色的系统消息，按角色ID和更新时间缓存，同一角色版本返回完全相同的字符串
      */
-    public String buildOptimizedPrompt(Role role, String userMessage, String chatHistory) {
+    public String buildSystemPrompt(Role role) {
+        if (role.getId() == null || role.getUpdateTime() == null) {
+            return renderSystemPrompt(role);
+        }
+        SystemPromptEntry cached = systemPromptCache.get(role.getId());
+        if (cached != null && cached.version.equals(role.getUpdateTime())) {
+            return cached.prompt;
+        }
+        String prompt = renderSystemPrompt(role);
+        systemPromptCache.put(role.getId(), new SystemPromptEntry(role.getUpdateTime(), prompt));
+        return prompt;
+    }
+
+    /**
+     * 单聊历史转为交替的对话消息
+     */
+    public List<ChatMessage> toHistory(List<Message> messages) {
+        List<ChatMessage> history = new ArrayList<>();
+        if (messages == null) {
+            return history;
+        }
+        for (Message message : messages) {
+            appendTurn(history, "ai".equals(message.getSenderType()), message.getContent());
+        }
+        return history;
+    }
+
+    /**
+     * 聊天室历史转为指定角色视角的对话消息：自己的发言为AI消息，用户发言为用户消息，其他角色的发言不包含
+     */
+    public List<ChatMessage> toRoleHistory(List<ChatroomMessage> messages, Long roleId) {
+        List<ChatMessage> history = new ArrayList<>();
+        if (messages == null) {
+            return history;
+        }
+        for (ChatroomMessage message : messages) {
+            if ("user".equals(message.getSenderType())) {
+                appendTurn(history, false, message.getContent());
+            } else if (message.getRoleId() != null && message.getRoleId().equals(roleId)) {
+                appendTurn(history, true, message.getContent());
+            }
+        }
+        return history;
+    }
+
+    private String renderSystemPrompt(Role role) {
         StringBuilder promptBuilder = new StringBuilder();
-        
+
         // 根据角色分类选择不同的prompt策略
         RoleType roleType = determineRoleType(role);
-        
+
         switch (roleType) {
             case HISTORICAL_FIGURE:
                 buildHistoricalFigurePrompt(promptBuilder, role);
@@ -53,28 +154,69 @@ public class RolePromptEngineering {
             default:
                 buildGenericRolePrompt(promptBuilder, role);
         }
-        
-        // 添加RAG知识背景（在角色设定后，行为规范前）
-        addRagKnowledgeBackground(promptBuilder, role, userMessage);
-        
+
         // 添加通用的行为规范
         addCommonBehaviorGuidelines(promptBuilder);
-        
-        // 添加聊天历史
-        if (StringUtils.hasText(chatHistory)) {
-            promptBuilder.append("\n对话历史：\n");
-            promptBuilder.append(chatHistory).append("\n");
-        }
-        
-            // 添加用户问题（单独一行，避免meta指令混入）
-            promptBuilder.append("\n用户问题：").append(userMessage).append("\n");
-        
-            // 添加回复指令（单独一行，便于LLM区分）
-            promptBuilder.append("\n[指令] 现在请以").append(role.getName()).append("的身份回复用户的问题。只输出").append(role.getName()).append("的回复内容，不要重复用户的问题。\n");
+
+        // 添加回复指令（单独一行，便于LLM区分）
+        promptBuilder.append("\n[指令] 请始终以").append(role.getName()).append("的身份回复用户的问题。只输出")
+                .append(role.getName()).append("的回复内容，不要重复用户的问题。\n");
 
         return promptBuilder.toString();
     }
 
+    /**
+     * 相邻的同一方发言合并为一条，保证用户/AI交替；历史不以AI消息开头
+     */
+    private static void appendTurn(List<ChatMessage> history, boolean fromAi, String content) {
+        if (!StringUtils.hasText(content)) {
+            return;
+        }
+        if (history.isEmpty() && fromAi) {
+            return;
+        }
+        if (!history.isEmpty()) {
+            ChatMessage last = history.get(history.size() - 1);
+            if (fromAi && last instanceof AiMessage aiMessage) {
+                history.set(history.size() - 1, AiMessage.from(aiMessage.text() + "\n" + content));
+                return;
+            }
+            if (!fromAi && last instanceof UserMessage userMessage) {
+                history.set(history.size() - 1, UserMessage.from(userMessage.singleText() + "\n" + content));
+                return;
+            }
+        }
+        history.add(fromAi ? AiMessage.from(content) : UserMessage.from(content));
+    }
+
+    /**
+     * 去掉历史末尾的用户消息：本轮用户消息可能已写入历史（异步落库后进入缓存），
+     * 上一轮的用户消息也可能未得到回复（生成失败或被取消），两种情况都去掉，保证历史以AI消息结尾、与本轮用户消息交替
+     */
+    private static List<ChatMessage> dropTrailingDuplicate(List<ChatMessage> history, String userMessage) {
+        if (history == null || history.isEmpty()) {
+            return List.of();
+        }
+        List<ChatMessage> result = new ArrayList<>(history);
+        if (result.get(result.size() - 1) instanceof UserMessage userTurn) {
+            if (!userTurn.singleText().endsWith(userMessage)) {
+                logger.debug("丢弃历史末尾未得到回复的用户消息，长度: {}", userTurn.singleText().length());
+            }
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    private static class SystemPromptEntry {
+        final LocalDateTime version;
+        final String prompt;
+
+        SystemPromptEntry(LocalDateTime version, String prompt) {
+            this.version = version;
+            this.prompt = prompt;
+        }
+    }
+
     /**
      * 根据角色信息判断角色类型
      */
@@ -0,0 +1,42 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.exception.LlmEndpointsSaturatedException;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * 经多端点路由的同步聊天模型（角色选择、摘要等非流式调用）
+ * 使用端点的同步并发名额，名额占满且等待超时后抛出LlmEndpointsSaturatedException
+ */
+public class RoutingChatModel implements ChatLanguageModel {
+
+    private final LlmEndpointRouter router;
+
+    public RoutingChatModel(LlmEndpointRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        LlmEndpointRouter.Endpoint endpoint = router.acquire(false);
+        if (endpoint == null) {
+            throw new LlmEndpointsSaturatedException(false);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            Response<AiMessage> response = endpoint.getChatModel().generate(messages);
+            router.recordLatency(endpoint, System.currentTimeMillis() - start);
+            router.recordOutcome(endpoint, true);
+            return response;
+        } catch (RuntimeException e) {
+            router.recordOutcome(endpoint, false);
+            throw e;
+        } finally {
+            router.release(endpoint, false);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.exception.LlmEndpointsSaturatedException;
+import dev.ai4j.openai4j.ResponseHandle;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 经多端点路由的可取消流式聊天模型
+ * 每次生成由路由器挑选端点，记录首token延迟和结果；生成结束、出错或被取消时归还端点并发名额
+ */
+public class RoutingStreamingChatModel implements StreamingChatLanguageModel, CancellableStreaming {
+
+    private final LlmEndpointRouter router;
+
+    public RoutingStreamingChatModel(LlmEndpointRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public ResponseHandle stream(List<ChatMessage> messages, Integer maxTokens,
+                                 StreamingResponseHandler<AiMessage> handler) {
+        LlmEndpointRouter.Endpoint endpoint = router.acquire(true);
+        if (endpoint == null) {
+            handler.onError(new LlmEndpointsSaturatedException(true));
+            return new ResponseHandle();
+        }
+
+        RoutedResponseHandle routed = new RoutedResponseHandle(router, endpoint);
+        long startNanos = System.nanoTime();
+        StreamingResponseHandler<AiMessage> tracking = new StreamingResponseHandler<>() {
+            @Override
+            public void onNext(String token) {
+                if (routed.markFirstToken()) {
+                    router.recordFirstToken(endpoint, (System.nanoTime() - startNanos) / 1_000_000);
+                }
+                handler.onNext(token);
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                if (routed.finish()) {
+                    router.recordOutcome(endpoint, true);
+                }
+                handler.onComplete(response);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (routed.finish()) {
+                    router.recordOutcome(endpoint, false);
+                }
+                handler.onError(error);
+            }
+        };
+
+        try {
+            routed.bind(endpoint.getStreamingModel().stream(messages, maxTokens, tracking));
+        } catch (RuntimeException e) {
+            if (routed.finish()) {
+                router.recordOutcome(endpoint, false);
+            }
+            throw e;
+        }
+        return routed;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        stream(messages, handler);
+    }
+
+    /**
+     * 包装底层句柄：取消时同时归还端点名额，取消的请求不计入错误率
+     */
+    private static class RoutedResponseHandle extends ResponseHandle {
+
+        private final LlmEndpointRouter router;
+        private final LlmEndpointRouter.Endpoint endpoint;
+        private final AtomicBoolean firstToken = new AtomicBoolean(false);
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile ResponseHandle delegate;
+        private volatile boolean cancelRequested = false;
+
+        RoutedResponseHandle(LlmEndpointRouter router, LlmEndpointRouter.Endpoint endpoint) {
+            this.router = router;
+            this.endpoint = endpoint;
+        }
+
+        void bind(ResponseHandle handle) {
+            this.delegate = handle;
+            if (cancelRequested && handle != null) {
+                handle.cancel();
+            }
+        }
+
+        boolean markFirstToken() {
+            return firstToken.compareAndSet(false, true);
+        }
+
+        /**
+         * 只有第一次结束（完成、出错或取消）返回true并归还名额
+         */
+        boolean finish() {
+            if (finished.compareAndSet(false, true)) {
+                router.release(endpoint, true);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            cancelRequested = true;
+            ResponseHandle current = delegate;
+            if (current != null) {
+                current.cancel();
+            }
+            if (finish()) {
+                router.recordCancelled(endpoint);
+            }
+        }
+    }
+}
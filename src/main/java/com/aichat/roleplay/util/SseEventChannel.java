@@ -0,0 +1,297 @@
+package com.aichat.roleplay.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * SSE连接的出站事件通道
+ * 多个生产者（各角色的生成回调、编排线程）无锁地把事件放入队列，同一时刻只有一个写线程按顺序取出并写入连接，
+ * 生产者之间、不同连接之间互不阻塞。合并窗口到期时也只是投递一个刷出事件，所有写连接的操作都在写线程上完成；
+ * 连接状态显式跟踪，连接结束后的事件直接丢弃
+ */
+public class SseEventChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(SseEventChannel.class);
+
+    public enum State {
+        /**
+         * 可以发送事件
+         */
+        OPEN,
+        /**
+         * 已请求结束，队列中剩余事件写出后关闭连接
+         */
+        CLOSING,
+        COMPLETED,
+        FAILED,
+        TIMED_OUT,
+        /**
+         * 客户端断开或写入失败
+         */
+        DISCONNECTED;
+
+        public boolean isTerminal() {
+            return this != OPEN && this != CLOSING;
+        }
+    }
+
+    private enum Kind { TOKEN, FRAME, FLUSH, COMPLETE, ERROR }
+
+    private static final class Event {
+        final Kind kind;
+        final Object key;
+        final String label;
+        final String data;
+        final Throwable error;
+        final long enqueuedNanos = System.nanoTime();
+
+        Event(Kind kind, Object key, String label, String data, Throwable error) {
+            this.kind = kind;
+            this.key = key;
+            this.label = label;
+            this.data = data;
+            this.error = error;
+        }
+    }
+
+    private final CoalescingSseWriter writer;
+    private final Executor drainExecutor;
+    private final int maxBatch;
+    private final AtomicLong endpointDepth;
+    private final Timer lagTimer;
+    private final Counter droppedCounter;
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicReference<State> state = new AtomicReference<>(State.OPEN);
+    private final AtomicReference<Consumer<State>> closeListener = new AtomicReference<>();
+
+    /**
+     * @param writer 合并token的写入器，只由写线程调用
+     * @param drainExecutor 执行写出任务的线程池
+     * @param maxBatch 每次写出任务最多处理的事件数，处理完后重新排队，避免一个连接长期占用写线程
+     * @param endpointDepth 端点维度的排队事件总数
+     */
+    public SseEventChannel(SseEmitter emitter, CoalescingSseWriter writer, Executor drainExecutor, int maxBatch,
+                           AtomicLong endpointDepth, Timer lagTimer, Counter droppedCounter) {
+        this.writer = writer;
+        this.drainExecutor = drainExecutor;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.endpointDepth = endpointDepth;
+        this.lagTimer = lagTimer;
+        this.droppedCounter = droppedCounter;
+        writer.setFlushTrigger(this::requestFlush);
+
+        emitter.onTimeout(() -> {
+            if (transition(State.TIMED_OUT)) {
+                try {
+                    emitter.complete();
+                } catch (Exception e) {
+                    log.debug("SSE超时完成失败: {}", e.getMessage());
+                }
+            }
+        });
+        emitter.onError(error -> transition(State.DISCONNECTED));
+        // 正常结束时状态已是COMPLETED/FAILED，此处只处理提前结束
+        emitter.onCompletion(() -> transition(State.DISCONNECTED));
+    }
+
+    /**
+     * 注册连接进入终止状态时的回调（完成、失败、超时或断开），只触发一次
+     */
+    public void onClosed(Consumer<State> listener) {
+        closeListener.set(listener);
+        State current = state.get();
+        if (current.isTerminal()) {
+            fireClosed(current);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isOpen() {
+        return state.get() == State.OPEN;
+    }
+
+    /**
+     * 当前排队等待写出的事件数
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * 发送指定来源的token，按合并窗口与其他来源的token一起写出
+     *
+     * @return 连接已结束时返回false
+     */
+    public boolean publishToken(Object key, String label, String token) {
+        return token != null && offer(new Event(Kind.TOKEN, key, label, token, null));
+    }
+
+    /**
+     * 发送一条完整消息（写出前先刷出已缓冲的token）
+     *
+     * @return 连接已结束时返回false
+     */
+    public boolean publish(String data) {
+        return offer(new Event(Kind.FRAME, null, null, data, null));
+    }
+
+    /**
+     * 队列中的事件写出后正常结束连接
+     */
+    public void complete() {
+        if (state.compareAndSet(State.OPEN, State.CLOSING)) {
+            enqueue(new Event(Kind.COMPLETE, null, null, null, null));
+        }
+    }
+
+    /**
+     * 丢弃尚未写出的token并以错误结束连接
+     */
+    public void completeWithError(Throwable error) {
+        if (state.compareAndSet(State.OPEN, State.CLOSING)) {
+            enqueue(new Event(Kind.ERROR, null, null, null, error));
+        }
+    }
+
+    /**
+     * 合并窗口到期：投递刷出事件，由写线程写出已缓冲的token；连接结束中或已结束时无需刷出
+     */
+    private void requestFlush() {
+        if (state.get() == State.OPEN) {
+            enqueue(new Event(Kind.FLUSH, null, null, null, null));
+        }
+    }
+
+    private boolean offer(Event event) {
+        if (state.get() != State.OPEN) {
+            droppedCounter.increment();
+            return false;
+        }
+        enqueue(event);
+        return true;
+    }
+
+    private void enqueue(Event event) {
+        queue.offer(event);
+        depth.incrementAndGet();
+        endpointDepth.incrementAndGet();
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            drainExecutor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // 写线程池已关闭（应用停止中）
+            draining.set(false);
+            discardQueued();
+        }
+    }
+
+    /**
+     * 写线程：按入队顺序写出一批事件
+     */
+    private void drain() {
+        int processed = 0;
+        try {
+            Event event;
+            while (processed < maxBatch && (event = queue.poll()) != null) {
+                processed++;
+                depth.decrementAndGet();
+                endpointDepth.decrementAndGet();
+                lagTimer.record(System.nanoTime() - event.enqueuedNanos, TimeUnit.NANOSECONDS);
+                apply(event);
+            }
+        } finally {
+            draining.set(false);
+            // 本批未处理完，或在取空队列之后又有新事件入队
+            if (!queue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void apply(Event event) {
+        if (state.get().isTerminal()) {
+            droppedCounter.increment();
+            return;
+        }
+        try {
+            switch (event.kind) {
+                case TOKEN -> writer.appendToken(event.key, event.label, event.data);
+                case FRAME -> writer.send(event.data);
+                case FLUSH -> writer.flush();
+                case COMPLETE -> {
+                    if (state.compareAndSet(State.CLOSING, State.COMPLETED)) {
+                        writer.complete();
+                        fireClosed(State.COMPLETED);
+                    }
+                }
+                case ERROR -> {
+                    if (state.compareAndSet(State.CLOSING, State.FAILED)) {
+                        writer.completeWithError(event.error);
+                        fireClosed(State.FAILED);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 客户端已断开，后续事件全部丢弃
+            log.debug("SSE事件写出失败，连接视为已断开: {}", e.getMessage());
+            if (transition(State.DISCONNECTED)) {
+                writer.discardPending();
+            }
+        }
+    }
+
+    /**
+     * 进入终止状态；已处于终止状态时返回false
+     */
+    private boolean transition(State target) {
+        State current;
+        do {
+            current = state.get();
+            if (current.isTerminal()) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, target));
+        fireClosed(target);
+        return true;
+    }
+
+    private void fireClosed(State finalState) {
+        Consumer<State> listener = closeListener.getAndSet(null);
+        if (listener != null) {
+            listener.accept(finalState);
+        }
+    }
+
+    private void discardQueued() {
+        while (queue.poll() != null) {
+            depth.decrementAndGet();
+            endpointDepth.decrementAndGet();
+            droppedCounter.increment();
+        }
+    }
+}
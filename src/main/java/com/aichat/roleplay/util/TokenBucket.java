@@ -0,0 +1,76 @@
+package com.aichat.roleplay.util;
+
+/**
+ * 令牌桶
+ * 生成前只检查余额是否为正，生成结束后按实际用量扣减（允许扣成负数），
+ * 这样无需预估输出长度，超用部分由后续的恢复时间偿还
+ */
+public class TokenBucket {
+
+    private final long capacity;
+    private final double refillPerMs;
+    private double tokens;
+    private long lastRefillMillis;
+
+    public TokenBucket(long capacity, long refillPerMinute) {
+        this.capacity = Math.max(1, capacity);
+        this.refillPerMs = Math.max(0, refillPerMinute) / 60000.0;
+        this.tokens = this.capacity;
+        this.lastRefillMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 余额为正时允许开始新的生成
+     */
+    public synchronized boolean hasBalance() {
+        refill();
+        return tokens > 0;
+    }
+
+    /**
+     * 按实际用量扣减
+     */
+    public synchronized void consume(long amount) {
+        refill();
+        tokens -= amount;
+    }
+
+    public synchronized long available() {
+        refill();
+        return (long) Math.floor(tokens);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 余额恢复为正还需要的时间（毫秒），无法恢复时返回-1
+     */
+    public synchronized long millisUntilAvailable() {
+        refill();
+        if (tokens > 0) {
+            return 0;
+        }
+        if (refillPerMs <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil((1 - tokens) / refillPerMs);
+    }
+
+    /**
+     * 已恢复满额，可以从内存中移除（下次使用时重新创建的桶等价）
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        if (now > lastRefillMillis) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillMillis) * refillPerMs);
+            lastRefillMillis = now;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.aichat.roleplay.util;
+
+/**
+ * token数量估算工具类
+ * 不依赖具体模型的分词器，按中文字符1个token、其他字符约4个字符1个token粗略估算
+ */
+public final class TokenEstimator {
+
+    /**
+     * 每条消息额外的格式开销（发送者前缀、换行等）
+     */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的token数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    /**
+     * 估算单条历史消息在prompt中占用的token数
+     */
+    public static int estimateMessage(String content) {
+        return estimate(content) + MESSAGE_OVERHEAD;
+    }
+}
@@ -0,0 +1,15 @@
+-- 为 chats 表添加滚动摘要字段，支持上下文窗口压缩早前对话
+
+USE `qiniuyun`;
+
+-- 早前对话摘要及其覆盖到的最后一条消息ID
+ALTER TABLE `chats`
+ADD COLUMN `summary` TEXT NULL COMMENT '早前对话的滚动摘要' AFTER `is_active`,
+ADD COLUMN `summary_message_id` BIGINT NULL COMMENT '摘要已覆盖到的最后一条消息ID' AFTER `summary`;
+
+-- 按会话倒序读取最近消息
+ALTER TABLE `messages`
+ADD KEY `idx_chat_id_id` (`chat_id`, `id`);
+
+-- 验证表结构
+DESCRIBE `chats`;
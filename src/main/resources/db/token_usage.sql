@@ -0,0 +1,18 @@
+-- 创建token用量汇总表，由内存汇总定期批量累加写入
+
+USE `qiniuyun`;
+
+CREATE TABLE IF NOT EXISTS `token_usage` (
+    `id` BIGINT AUTO_INCREMENT PRIMARY KEY,
+    `user_id` BIGINT NOT NULL DEFAULT 0 COMMENT '用户ID，无法归属时为0',
+    `role_id` BIGINT NOT NULL DEFAULT 0 COMMENT '角色ID，与角色无关的调用为0',
+    `source` VARCHAR(32) NOT NULL COMMENT '调用来源: chat, role_selection',
+    `usage_date` DATE NOT NULL COMMENT '统计日期',
+    `prompt_tokens` BIGINT NOT NULL DEFAULT 0 COMMENT '输入token数',
+    `completion_tokens` BIGINT NOT NULL DEFAULT 0 COMMENT '输出token数',
+    `request_count` BIGINT NOT NULL DEFAULT 0 COMMENT '调用次数',
+    `update_time` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+
+    UNIQUE KEY `uk_user_role_source_date` (`user_id`, `role_id`, `source`, `usage_date`),
+    INDEX `idx_role_date` (`role_id`, `usage_date`)
+) COMMENT='token用量汇总表';
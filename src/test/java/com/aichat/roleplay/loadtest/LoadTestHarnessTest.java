@@ -0,0 +1,174 @@
+package com.aichat.roleplay.loadtest;
+
+import com.aichat.roleplay.mapper.ChatMapper;
+import com.aichat.roleplay.mapper.ChatRoomMapper;
+import com.aichat.roleplay.mapper.RoleMapper;
+import com.aichat.roleplay.mapper.UserMapper;
+import com.aichat.roleplay.model.Chat;
+import com.aichat.roleplay.model.ChatRoom;
+import com.aichat.roleplay.model.Role;
+import com.aichat.roleplay.model.User;
+import com.aichat.roleplay.util.JwtUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 端到端离线压测
+ * 应用连接H2内存库和本地OpenAI桩服务，压测客户端并发请求 /api/sse/stream 和 /api/sse/collaborate，
+ * 输出吞吐量、TTFT和完整响应耗时的p50/p99；另外走通一次语音对话（上传、识别、生成、合成）。
+ * 默认规模较小，可通过 -Dloadtest.clients、-Dloadtest.requests、-Dstub.tokens-per-second、
+ * -Dstub.first-token-delay-ms 调整：mvn test -Dtest=LoadTestHarnessTest -Dloadtest.clients=20
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("loadtest")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class LoadTestHarnessTest {
+
+    private static final int CLIENTS = Integer.getInteger("loadtest.clients", 4);
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 3);
+
+    private static final OpenAiStubServer STUB = startStub();
+
+    @DynamicPropertySource
+    static void stubProperties(DynamicPropertyRegistry registry) {
+        registry.add("loadtest.stub-url", STUB::baseUrl);
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserMapper userMapper;
+    @Autowired
+    private ChatMapper chatMapper;
+    @Autowired
+    private ChatRoomMapper chatRoomMapper;
+    @Autowired
+    private RoleMapper roleMapper;
+    @Autowired
+    private JwtUtil jwtUtil;
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    private final List<SseLoadDriver.Client> clients = new ArrayList<>();
+
+    private static OpenAiStubServer startStub() {
+        try {
+            return new OpenAiStubServer(0)
+                    .firstTokenDelayMs(Long.getLong("stub.first-token-delay-ms", 100))
+                    .tokensPerSecond(Double.parseDouble(System.getProperty("stub.tokens-per-second", "100")))
+                    .start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 每个虚拟客户端使用独立的用户、会话和聊天室，避免被按用户/按会话的并发限制串行化
+     */
+    @BeforeAll
+    void seedClients() {
+        List<Role> roles = roleMapper.findPublicRoles();
+        assertTrue(roles.size() >= 2, "压测需要至少两个公开角色");
+        Long roleId = roles.get(0).getId();
+
+        for (int i = 0; i < CLIENTS; i++) {
+            String username = "loadtest" + i;
+            User user = User.builder()
+                    .username(username)
+                    .password("loadtest")
+                    .email(username + "@loadtest.local")
+                    .active(true)
+                    .build();
+            userMapper.insert(user);
+
+            Chat chat = new Chat(user.getId(), roleId, "压测会话" + i);
+            chatMapper.insert(chat);
+
+            long chatRoomId = 10_000L + i;
+            for (int j = 0; j < roles.size(); j++) {
+                ChatRoom member = new ChatRoom(chatRoomId, user.getId(), roles.get(j).getId(), "压测聊天室" + i);
+                member.setJoinOrder(j);
+                chatRoomMapper.insert(member);
+            }
+            clients.add(new SseLoadDriver.Client(jwtUtil.generateToken(username), chat.getId(), roleId, chatRoomId));
+        }
+    }
+
+    @AfterAll
+    void stopStub() {
+        STUB.close();
+    }
+
+    @Test
+    void streamUnderConcurrentLoad() throws InterruptedException {
+        SseLoadDriver.Report report = driver().runStream(clients, REQUESTS, i -> "你好，我们随便聊聊吧，这是第" + i + "条消息");
+        report.print(System.out);
+
+        assertEquals(0, report.failures(), () -> "流式请求失败: " + report.errors());
+        assertTrue(STUB.getStreamRequests() >= report.requests());
+    }
+
+    @Test
+    void collaborateUnderConcurrentLoad() throws InterruptedException {
+        SseLoadDriver.Report report = driver().runCollaborate(clients, REQUESTS, i -> "大家好，今天想听听你们的建议，这是第" + i + "条消息");
+        report.print(System.out);
+
+        assertEquals(0, report.failures(), () -> "协作请求失败: " + report.errors());
+    }
+
+    @Test
+    void voiceChatRoundTrip() {
+        SseLoadDriver.Client client = clients.get(0);
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("audio", new ByteArrayResource(new byte[1024]) {
+            @Override
+            public String getFilename() {
+                return "loadtest.mp3";
+            }
+        });
+        form.add("chatId", client.chatId());
+        form.add("roleId", client.roleId());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        headers.setBearerAuth(client.token());
+
+        long voiceRequests = STUB.getVoiceRequests();
+        ResponseEntity<byte[]> response = restTemplate.postForEntity("/api/voice/chat",
+                new HttpEntity<>(form, headers), byte[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody() != null && response.getBody().length > 0);
+        assertEquals(voiceRequests + 2, STUB.getVoiceRequests(), "应各调用一次ASR和TTS");
+    }
+
+    private SseLoadDriver driver() {
+        return new SseLoadDriver("http://localhost:" + port, Duration.ofMinutes(2));
+    }
+}
@@ -0,0 +1,327 @@
+package com.aichat.roleplay.loadtest;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONNull;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地OpenAI兼容桩服务
+ * 提供流式/非流式 /v1/chat/completions、七牛格式的 /voice/asr、/voice/tts 以及文件上传接口，
+ * 可配置首token延迟、token速率和错误注入，用于在不调用真实模型的情况下压测整条链路。
+ * 可独立运行：java ... OpenAiStubServer [port]
+ */
+public class OpenAiStubServer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenAiStubServer.class);
+
+    private static final String DEFAULT_REPLY = "你好呀！很高兴和你聊天，今天过得怎么样？有什么想聊的都可以告诉我。";
+    private static final Pattern ROLE_ID = Pattern.compile("ID: (\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "openai-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long firstTokenDelayMs = 200;
+    private volatile double tokensPerSecond = 50;
+    private volatile double errorRate = 0;
+    private volatile double midStreamFailureRate = 0;
+    private volatile String reply = DEFAULT_REPLY;
+
+    private final AtomicLong chatRequests = new AtomicLong();
+    private final AtomicLong streamRequests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong voiceRequests = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+
+    public OpenAiStubServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 512);
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 18080;
+        OpenAiStubServer stub = new OpenAiStubServer(port)
+                .firstTokenDelayMs(Long.getLong("stub.first-token-delay-ms", 200))
+                .tokensPerSecond(Double.parseDouble(System.getProperty("stub.tokens-per-second", "50")))
+                .errorRate(Double.parseDouble(System.getProperty("stub.error-rate", "0")));
+        stub.start();
+        log.info("OpenAI桩服务已启动: {}", stub.baseUrl());
+        Thread.currentThread().join();
+    }
+
+    public OpenAiStubServer start() {
+        server.start();
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public OpenAiStubServer firstTokenDelayMs(long firstTokenDelayMs) {
+        this.firstTokenDelayMs = firstTokenDelayMs;
+        return this;
+    }
+
+    public OpenAiStubServer tokensPerSecond(double tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    /**
+     * 请求直接返回500的比例
+     */
+    public OpenAiStubServer errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * 流式响应发送到一半时断开连接的比例
+     */
+    public OpenAiStubServer midStreamFailureRate(double midStreamFailureRate) {
+        this.midStreamFailureRate = midStreamFailureRate;
+        return this;
+    }
+
+    public OpenAiStubServer reply(String reply) {
+        this.reply = reply;
+        return this;
+    }
+
+    public long getChatRequests() {
+        return chatRequests.get();
+    }
+
+    public long getStreamRequests() {
+        return streamRequests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getVoiceRequests() {
+        return voiceRequests.get();
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        try {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                // 应用启动时的连接预热请求
+                exchange.sendResponseHeaders(200, -1);
+            } else if (path.endsWith("/chat/completions")) {
+                chatCompletions(exchange);
+            } else if (path.endsWith("/voice/asr")) {
+                voiceRequests.incrementAndGet();
+                JSONObject result = new JSONObject().set("text", "你好，今天天气怎么样");
+                writeJson(exchange, 200, new JSONObject().set("data", new JSONObject().set("result", result)));
+            } else if (path.endsWith("/voice/tts")) {
+                voiceRequests.incrementAndGet();
+                // 内容不是有效的mp3，只用于走通上传和保存流程
+                byte[] audio = new byte[2048];
+                ThreadLocalRandom.current().nextBytes(audio);
+                writeJson(exchange, 200, new JSONObject().set("data", Base64.getEncoder().encodeToString(audio)));
+            } else if (path.endsWith("/upload") || path.endsWith("/upload.php")) {
+                uploads.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                writeJson(exchange, 200, new JSONObject().set("code", 0).set("message", "ok"));
+            } else {
+                writeJson(exchange, 404, new JSONObject().set("error", "not found: " + path));
+            }
+        } catch (IOException e) {
+            // 客户端取消生成时连接被关闭，属于正常情况
+            log.debug("桩服务写出中断: {}", e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void chatCompletions(HttpExchange exchange) throws IOException {
+        chatRequests.incrementAndGet();
+        JSONObject request = JSONUtil.parseObj(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injectedErrors.incrementAndGet();
+            writeJson(exchange, 500, new JSONObject().set("error",
+                    new JSONObject().set("message", "injected error").set("type", "server_error")));
+            return;
+        }
+
+        String model = request.getStr("model", "stub-chat");
+        String content = replyFor(request);
+        List<String> tokens = tokenize(content);
+        int promptTokens = promptTokens(request);
+
+        if (!request.getBool("stream", false)) {
+            sleep(firstTokenDelayMs + Math.round(tokens.size() * 1000 / Math.max(1, tokensPerSecond)));
+            JSONObject message = new JSONObject().set("role", "assistant").set("content", content);
+            JSONObject body = new JSONObject()
+                    .set("id", "stub-" + chatRequests.get())
+                    .set("object", "chat.completion")
+                    .set("created", System.currentTimeMillis() / 1000)
+                    .set("model", model)
+                    .set("choices", new JSONArray().set(new JSONObject()
+                            .set("index", 0).set("message", message).set("finish_reason", "stop")))
+                    .set("usage", usage(promptTokens, tokens.size()));
+            writeJson(exchange, 200, body);
+            return;
+        }
+
+        streamRequests.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        boolean includeUsage = request.getJSONObject("stream_options") != null
+                && request.getJSONObject("stream_options").getBool("include_usage", false);
+        int failAt = midStreamFailureRate > 0 && ThreadLocalRandom.current().nextDouble() < midStreamFailureRate
+                ? tokens.size() / 2 : -1;
+        long intervalMs = Math.round(1000 / Math.max(0.001, tokensPerSecond));
+
+        sleep(firstTokenDelayMs);
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i == failAt) {
+                injectedErrors.incrementAndGet();
+                return;
+            }
+            if (i > 0) {
+                sleep(intervalMs);
+            }
+            JSONObject delta = new JSONObject().set("content", tokens.get(i));
+            if (i == 0) {
+                delta.set("role", "assistant");
+            }
+            writeEvent(out, chunk(model, delta, null));
+        }
+        writeEvent(out, chunk(model, new JSONObject(), "stop"));
+        if (includeUsage) {
+            writeEvent(out, new JSONObject()
+                    .set("id", "stub-" + chatRequests.get())
+                    .set("object", "chat.completion.chunk")
+                    .set("model", model)
+                    .set("choices", new JSONArray())
+                    .set("usage", usage(promptTokens, tokens.size())).toString());
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * 角色选择请求返回选择结果JSON（取prompt中列出的前几个角色），其他请求返回固定回复
+     */
+    private String replyFor(JSONObject request) {
+        JSONArray messages = request.getJSONArray("messages");
+        String last = messages != null && !messages.isEmpty()
+                ? messages.getJSONObject(messages.size() - 1).getStr("content", "") : "";
+        if (last.contains("selectedRoleIds")) {
+            List<Long> ids = new ArrayList<>();
+            Matcher matcher = ROLE_ID.matcher(last);
+            while (matcher.find() && ids.size() < 2) {
+                ids.add(Long.parseLong(matcher.group(1)));
+            }
+            return new JSONObject().set("selectedRoleIds", ids).set("reason", "stub").set("confidence", 0.9).toString();
+        }
+        return reply;
+    }
+
+    /**
+     * 按2个字符切分为token，近似中文模型的token粒度
+     */
+    private static List<String> tokenize(String content) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += 2) {
+            tokens.add(content.substring(i, Math.min(content.length(), i + 2)));
+        }
+        return tokens;
+    }
+
+    private static int promptTokens(JSONObject request) {
+        JSONArray messages = request.getJSONArray("messages");
+        int chars = 0;
+        if (messages != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                chars += messages.getJSONObject(i).getStr("content", "").length();
+            }
+        }
+        return Math.max(1, chars / 2);
+    }
+
+    private static JSONObject usage(int promptTokens, int completionTokens) {
+        return new JSONObject()
+                .set("prompt_tokens", promptTokens)
+                .set("completion_tokens", completionTokens)
+                .set("total_tokens", promptTokens + completionTokens)
+                .set("prompt_tokens_details", new JSONObject().set("cached_tokens", promptTokens / 2));
+    }
+
+    private String chunk(String model, JSONObject delta, String finishReason) {
+        JSONObject choice = new JSONObject().set("index", 0).set("delta", delta);
+        choice.set("finish_reason", finishReason != null ? finishReason : JSONNull.NULL);
+        return new JSONObject()
+                .set("id", "stub-" + chatRequests.get())
+                .set("object", "chat.completion.chunk")
+                .set("created", System.currentTimeMillis() / 1000)
+                .set("model", model)
+                .set("choices", new JSONArray().set(choice))
+                .toString();
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void writeJson(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
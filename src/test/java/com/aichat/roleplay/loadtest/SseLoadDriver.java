@@ -0,0 +1,278 @@
+package com.aichat.roleplay.loadtest;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * SSE压测客户端
+ * 启动N个并发虚拟客户端，每个客户端顺序发送若干请求并逐行读取SSE事件，
+ * 统计吞吐量、首个内容帧延迟（TTFT）和完整响应耗时的p50/p99。
+ * 每个客户端应使用独立的用户和会话/聊天室，否则会被按用户、按会话的并发限制排队。
+ * 可独立运行，对已启动的应用施压：
+ * java ... SseLoadDriver -Dloadtest.base-url=http://localhost:8080 -Dloadtest.tokens=t1,t2 -Dloadtest.chat-ids=1,2 -Dloadtest.role-id=1 -Dloadtest.room-ids=1,2
+ */
+public class SseLoadDriver {
+
+    private final String baseUrl;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    public SseLoadDriver(String baseUrl, Duration requestTimeout) {
+        this.baseUrl = baseUrl;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    /**
+     * 单个虚拟客户端的身份和目标会话
+     */
+    public record Client(String token, Long chatId, Long roleId, Long chatRoomId) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = System.getProperty("loadtest.base-url", "http://localhost:8080");
+        String[] tokens = System.getProperty("loadtest.tokens", "").split(",");
+        String[] chatIds = System.getProperty("loadtest.chat-ids", "").split(",");
+        String[] roomIds = System.getProperty("loadtest.room-ids", "").split(",");
+        Long roleId = Long.getLong("loadtest.role-id", 1L);
+        int requests = Integer.getInteger("loadtest.requests", 5);
+
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].isBlank()) {
+                continue;
+            }
+            clients.add(new Client(tokens[i].trim(),
+                    i < chatIds.length && !chatIds[i].isBlank() ? Long.valueOf(chatIds[i].trim()) : null,
+                    roleId,
+                    i < roomIds.length && !roomIds[i].isBlank() ? Long.valueOf(roomIds[i].trim()) : null));
+        }
+        if (clients.isEmpty()) {
+            System.err.println("需要通过 -Dloadtest.tokens 指定至少一个用户token");
+            return;
+        }
+
+        SseLoadDriver driver = new SseLoadDriver(baseUrl, Duration.ofMinutes(2));
+        if (clients.get(0).chatId() != null) {
+            driver.runStream(clients, requests, i -> "你好，这是第" + i + "条压测消息").print(System.out);
+        }
+        if (clients.get(0).chatRoomId() != null) {
+            driver.runCollaborate(clients, requests, i -> "大家好，这是第" + i + "条压测消息").print(System.out);
+        }
+    }
+
+    /**
+     * 压测单角色流式接口 /api/sse/stream
+     */
+    public Report runStream(List<Client> clients, int requestsPerClient, IntFunction<String> messages) throws InterruptedException {
+        return run("stream", clients, requestsPerClient, (client, i) ->
+                "/api/sse/stream?chatId=" + client.chatId() + "&roleId=" + client.roleId()
+                        + "&userMessage=" + encode(messages.apply(i)) + "&token=" + encode(client.token()));
+    }
+
+    /**
+     * 压测多角色协作接口 /api/sse/collaborate
+     */
+    public Report runCollaborate(List<Client> clients, int requestsPerClient, IntFunction<String> messages) throws InterruptedException {
+        return run("collaborate", clients, requestsPerClient, (client, i) ->
+                "/api/sse/collaborate?chatRoomId=" + client.chatRoomId()
+                        + "&userMessage=" + encode(messages.apply(i)) + "&token=" + encode(client.token()));
+    }
+
+    private interface PathFactory {
+        String path(Client client, int index);
+    }
+
+    private Report run(String scenario, List<Client> clients, int requestsPerClient, PathFactory paths) throws InterruptedException {
+        List<Long> ttfts = Collections.synchronizedList(new ArrayList<>());
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong successes = new AtomicLong();
+        AtomicLong frames = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients.size());
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Client client : clients) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < requestsPerClient; i++) {
+                    Result result = execute(scenario, paths.path(client, i));
+                    frames.addAndGet(result.frames);
+                    if (result.error != null) {
+                        errors.add(result.error);
+                        continue;
+                    }
+                    successes.incrementAndGet();
+                    ttfts.add(result.ttftNanos);
+                    latencies.add(result.latencyNanos);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                errors.add(e.toString());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdownNow();
+
+        return new Report(scenario, clients.size(), (long) clients.size() * requestsPerClient,
+                successes.get(), frames.get(), elapsed, new ArrayList<>(ttfts), new ArrayList<>(latencies), new ArrayList<>(errors));
+    }
+
+    private Result execute(String scenario, String path) {
+        Result result = new Result();
+        long start = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(requestTimeout)
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                result.error = "HTTP " + response.statusCode();
+                response.body().close();
+                return result;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("data:")) {
+                        continue;
+                    }
+                    String data = line.substring(5).trim();
+                    result.frames++;
+                    FrameKind kind = "stream".equals(scenario) ? classifyStream(data) : classifyCollaborate(data);
+                    if (kind == FrameKind.CONTENT && result.ttftNanos == 0) {
+                        result.ttftNanos = System.nanoTime() - start;
+                    } else if (kind == FrameKind.ERROR) {
+                        result.error = data;
+                        return result;
+                    } else if (kind == FrameKind.DONE) {
+                        result.latencyNanos = System.nanoTime() - start;
+                        if (result.ttftNanos == 0) {
+                            result.error = "未收到内容帧即结束";
+                        }
+                        return result;
+                    }
+                }
+            }
+            result.error = "连接在完成前关闭";
+        } catch (Exception e) {
+            result.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        return result;
+    }
+
+    private enum FrameKind { CONTROL, CONTENT, ERROR, DONE }
+
+    private static FrameKind classifyStream(String data) {
+        if (data.equals("[DONE]")) {
+            return FrameKind.DONE;
+        }
+        if (data.startsWith("[ERROR]")) {
+            return FrameKind.ERROR;
+        }
+        if (data.startsWith("[QUEUED]") || data.startsWith("[RETRY]")) {
+            return FrameKind.CONTROL;
+        }
+        return data.isEmpty() ? FrameKind.CONTROL : FrameKind.CONTENT;
+    }
+
+    private static FrameKind classifyCollaborate(String data) {
+        if (!data.startsWith("{")) {
+            return FrameKind.CONTROL;
+        }
+        JSONObject frame = JSONUtil.parseObj(data);
+        String type = frame.getStr("type", "");
+        switch (type) {
+            case "ROLE_MESSAGE":
+            case "ROLE_MESSAGE_BATCH":
+                return FrameKind.CONTENT;
+            case "COMPLETE":
+                return FrameKind.DONE;
+            case "ERROR":
+            case "ROLE_ERROR":
+                return FrameKind.ERROR;
+            default:
+                return FrameKind.CONTROL;
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static class Result {
+        long ttftNanos;
+        long latencyNanos;
+        long frames;
+        String error;
+    }
+
+    /**
+     * 单个场景的压测结果
+     */
+    public record Report(String scenario, int clients, long requests, long successes, long frames, long elapsedNanos,
+                         List<Long> ttftNanos, List<Long> latencyNanos, List<String> errors) {
+
+        public long failures() {
+            return requests - successes;
+        }
+
+        public double throughput() {
+            return successes / (elapsedNanos / 1_000_000_000.0);
+        }
+
+        public double ttftMillis(double percentile) {
+            return percentile(ttftNanos, percentile);
+        }
+
+        public double latencyMillis(double percentile) {
+            return percentile(latencyNanos, percentile);
+        }
+
+        public void print(java.io.PrintStream out) {
+            out.printf("[%s] 并发客户端: %d, 请求: %d, 成功: %d, 失败: %d, 耗时: %.1fs, 吞吐: %.2f req/s, SSE帧: %d%n",
+                    scenario, clients, requests, successes, failures(), elapsedNanos / 1_000_000_000.0, throughput(), frames);
+            out.printf("[%s] TTFT p50: %.0fms, p99: %.0fms | 完整响应 p50: %.0fms, p99: %.0fms%n",
+                    scenario, ttftMillis(50), ttftMillis(99), latencyMillis(50), latencyMillis(99));
+            errors.stream().distinct().limit(5).forEach(error -> out.printf("[%s] 错误: %s%n", scenario, error));
+        }
+
+        private static double percentile(List<Long> values, double percentile) {
+            if (values.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.CollaborationSchedulerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 协作聊天调度
+ * 角色舱壁在响应结束或任务被拒绝时释放；每个聊天室同时执行的任务数受限，超出部分按提交顺序排队，
+ * 聊天室队列或线程池已满时通过回调拒绝；编排线程池已满时返回false
+ */
+class CollaborationSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CollaborationSchedulerConfig config = new CollaborationSchedulerConfig();
+    private final List<CollaborationScheduler.Rejection> rejections = new CopyOnWriteArrayList<>();
+    private CollaborationScheduler scheduler;
+
+    @AfterEach
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private CollaborationScheduler start() {
+        scheduler = new CollaborationScheduler(config, meterRegistry);
+        scheduler.start();
+        return scheduler;
+    }
+
+    private void submit(long roomId, long roleId, CompletableFuture<?> completion, Runnable task) {
+        scheduler.submitRole(roomId, roleId, completion, task, rejections::add);
+    }
+
+    private double rejected(String pool, String reason) {
+        return meterRegistry.counter("collaboration.scheduler.rejected", "pool", pool, "reason", reason).count();
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(2, TimeUnit.SECONDS), "等待任务执行超时");
+    }
+
+    @Test
+    void roleBulkheadReleasedWhenResponseCompletes() throws InterruptedException {
+        config.setMaxConcurrentPerRole(1);
+        start();
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CountDownLatch ran = new CountDownLatch(1);
+        submit(1, 7, first, ran::countDown);
+        await(ran);
+
+        // 任务已执行完但响应尚未结束，舱壁仍被占用
+        submit(2, 7, new CompletableFuture<>(), () -> { });
+        assertEquals(List.of(CollaborationScheduler.Rejection.ROLE_BUSY), rejections);
+        assertEquals(1.0, rejected(CollaborationScheduler.POOL_ROLE, "role_busy"));
+
+        first.complete(null);
+        CountDownLatch again = new CountDownLatch(1);
+        submit(2, 7, new CompletableFuture<>(), again::countDown);
+        await(again);
+        assertEquals(1, rejections.size());
+    }
+
+    @Test
+    void roomLaneQueuesInOrderAndRejectsWhenFull() throws InterruptedException {
+        config.setMaxRunningPerRoom(1);
+        config.setMaxPendingPerRoom(1);
+        start();
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch queuedRan = new CountDownLatch(1);
+
+        submit(1, 1, new CompletableFuture<>(), () -> {
+            started.countDown();
+            order.add("a");
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        await(started);
+        submit(1, 2, new CompletableFuture<>(), () -> {
+            order.add("b");
+            queuedRan.countDown();
+        });
+        submit(1, 3, new CompletableFuture<>(), () -> order.add("c"));
+        assertEquals(List.of(CollaborationScheduler.Rejection.ROOM_QUEUE_FULL), rejections);
+        assertEquals(1.0, meterRegistry.get("collaboration.scheduler.room.pending").gauge().value());
+
+        // 其他聊天室不受该聊天室排队影响
+        CountDownLatch otherRoom = new CountDownLatch(1);
+        submit(2, 4, new CompletableFuture<>(), otherRoom::countDown);
+        await(otherRoom);
+
+        blocker.countDown();
+        await(queuedRan);
+        assertEquals(List.of("a", "b"), order);
+        assertEquals(0.0, meterRegistry.get("collaboration.scheduler.room.pending").gauge().value());
+    }
+
+    @Test
+    void rejectedTaskReleasesRoleBulkhead() throws InterruptedException {
+        config.setMaxRunningPerRoom(1);
+        config.setMaxPendingPerRoom(0);
+        config.setMaxConcurrentPerRole(1);
+        start();
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        submit(1, 1, new CompletableFuture<>(), () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        await(started);
+
+        // 响应永远不会结束，拒绝时也必须归还舱壁
+        submit(1, 9, new CompletableFuture<>(), () -> { });
+        assertEquals(List.of(CollaborationScheduler.Rejection.ROOM_QUEUE_FULL), rejections);
+
+        CountDownLatch ran = new CountDownLatch(1);
+        submit(2, 9, new CompletableFuture<>(), ran::countDown);
+        await(ran);
+        assertEquals(1, rejections.size());
+        blocker.countDown();
+    }
+
+    @Test
+    void rolePoolFullRejectsAndReleasesBulkhead() throws InterruptedException {
+        config.setRoleThreads(1);
+        config.setRoleQueueCapacity(1);
+        config.setMaxConcurrentPerRole(1);
+        start();
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        submit(1, 1, new CompletableFuture<>(), () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        await(started);
+        CountDownLatch queuedRan = new CountDownLatch(1);
+        submit(2, 2, new CompletableFuture<>(), queuedRan::countDown);
+        submit(3, 3, new CompletableFuture<>(), () -> { });
+
+        assertEquals(List.of(CollaborationScheduler.Rejection.POOL_FULL), rejections);
+        assertEquals(1.0, rejected(CollaborationScheduler.POOL_ROLE, "pool_full"));
+
+        blocker.countDown();
+        await(queuedRan);
+        CountDownLatch ran = new CountDownLatch(1);
+        submit(3, 3, new CompletableFuture<>(), ran::countDown);
+        await(ran);
+        assertEquals(1, rejections.size());
+    }
+
+    @Test
+    void orchestrationPoolFullReturnsFalse() throws InterruptedException {
+        config.setOrchestrationThreads(1);
+        config.setOrchestrationQueueCapacity(1);
+        start();
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(scheduler.submitOrchestration(1L, () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        await(started);
+
+        assertTrue(scheduler.submitOrchestration(2L, () -> { }));
+        assertFalse(scheduler.submitOrchestration(3L, () -> { }));
+        assertEquals(1.0, rejected(CollaborationScheduler.POOL_ORCHESTRATION, "pool_full"));
+        blocker.countDown();
+    }
+}
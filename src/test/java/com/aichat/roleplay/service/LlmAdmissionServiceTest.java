@@ -0,0 +1,205 @@
+package com.aichat.roleplay.service;
+
+import com.aichat.roleplay.config.AdmissionConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * LLM准入控制
+ * 容量内立即准入；超出时排队并按用户轮转准入，被自身会话上限阻塞的请求不挡住其他会话；
+ * 队列满、单用户排队过多和排队超时时拒绝；排队中释放即取消排队
+ */
+class LlmAdmissionServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AdmissionConfig config = new AdmissionConfig();
+    private final BlockingQueue<String> admitted = new LinkedBlockingQueue<>();
+    private LlmAdmissionService service;
+
+    @AfterEach
+    void shutdown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private LlmAdmissionService service(int maxConcurrent) {
+        config.setMaxConcurrent(maxConcurrent);
+        config.setMaxPerUser(5);
+        config.setMaxPerChat(5);
+        config.setMaxQueuedPerUser(5);
+        config.setMaxQueueDepth(10);
+        service = new LlmAdmissionService(config, meterRegistry);
+        return service;
+    }
+
+    private LlmAdmissionService.Ticket acquire(long userId, String chatKey, String label) {
+        return service.acquire(userId, chatKey, 1, new Listener(label));
+    }
+
+    private String nextAdmitted() throws InterruptedException {
+        return admitted.poll(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void admitsImmediatelyWithinCapacity() throws InterruptedException {
+        service(2);
+        acquire(1, "chat:1", "a1");
+        acquire(2, "chat:2", "b1");
+
+        assertEquals("a1", nextAdmitted());
+        assertEquals("b1", nextAdmitted());
+        assertEquals(2, service.inFlight());
+        assertEquals(0, service.queueDepth());
+    }
+
+    @Test
+    void queuedRequestsRotateAcrossUsers() throws InterruptedException {
+        service(1);
+        LlmAdmissionService.Ticket holder = acquire(1, "chat:1", "a1");
+        assertEquals("a1", nextAdmitted());
+
+        Listener a2 = new Listener("a2");
+        LlmAdmissionService.Ticket ticketA2 = service.acquire(1L, "chat:1", 1, a2);
+        LlmAdmissionService.Ticket ticketA3 = acquire(1, "chat:1", "a3");
+        LlmAdmissionService.Ticket ticketB1 = acquire(2, "chat:2", "b1");
+        assertEquals(3, service.queueDepth());
+        assertEquals(List.of(1), a2.positions);
+
+        holder.release();
+        assertEquals("a2", nextAdmitted());
+        ticketA2.release();
+        // 刚被服务的用户排到队尾，另一用户先于同一用户的下一个请求准入
+        assertEquals("b1", nextAdmitted());
+        ticketB1.release();
+        assertEquals("a3", nextAdmitted());
+        ticketA3.release();
+
+        assertEquals(0, service.inFlight());
+        assertEquals(0, service.queueDepth());
+    }
+
+    @Test
+    void chatLimitDoesNotBlockOtherChats() throws InterruptedException {
+        service(3);
+        config.setMaxPerChat(1);
+        LlmAdmissionService.Ticket first = acquire(1, "chat:1", "a1");
+        assertEquals("a1", nextAdmitted());
+
+        acquire(1, "chat:1", "a2");
+        acquire(1, "chat:2", "a3");
+
+        assertEquals("a3", nextAdmitted());
+        assertEquals(1, service.queueDepth());
+        first.release();
+        assertEquals("a2", nextAdmitted());
+    }
+
+    @Test
+    void rejectsWhenQueueOrUserQueueFull() throws InterruptedException {
+        service(1);
+        config.setMaxQueuedPerUser(1);
+        config.setMaxQueueDepth(2);
+        acquire(1, "chat:1", "a1");
+        assertEquals("a1", nextAdmitted());
+
+        Listener a2 = new Listener("a2");
+        Listener a3 = new Listener("a3");
+        Listener b1 = new Listener("b1");
+        Listener c1 = new Listener("c1");
+        service.acquire(1L, "chat:1", 1, a2);
+        service.acquire(1L, "chat:1", 1, a3);
+        service.acquire(2L, "chat:2", 1, b1);
+        service.acquire(3L, "chat:3", 1, c1);
+
+        assertNull(a2.rejected);
+        assertNotNull(a3.rejected);
+        assertNull(b1.rejected);
+        assertNotNull(c1.rejected);
+        assertEquals(1.0, meterRegistry.counter("llm.admission.rejected", "reason", "user_queue_full").count());
+        assertEquals(1.0, meterRegistry.counter("llm.admission.rejected", "reason", "queue_full").count());
+    }
+
+    @Test
+    void releaseWhileQueuedCancelsWaiting() throws InterruptedException {
+        service(1);
+        LlmAdmissionService.Ticket holder = acquire(1, "chat:1", "a1");
+        assertEquals("a1", nextAdmitted());
+        LlmAdmissionService.Ticket waiting = acquire(2, "chat:2", "b1");
+
+        waiting.release();
+        assertEquals(0, service.queueDepth());
+        holder.release();
+
+        assertNull(admitted.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, service.inFlight());
+        assertEquals(1.0, meterRegistry.counter("llm.admission.requests", "result", "abandoned").count());
+    }
+
+    @Test
+    void releaseIsIdempotent() throws InterruptedException {
+        service(2);
+        LlmAdmissionService.Ticket ticket = acquire(1, "chat:1", "a1");
+        assertEquals("a1", nextAdmitted());
+
+        ticket.release();
+        ticket.release();
+        assertEquals(0, service.inFlight());
+    }
+
+    @Test
+    void expiresQueuedRequestsAfterMaxWait() throws InterruptedException {
+        service(1);
+        config.setMaxQueueWaitMs(50);
+        service.start();
+        acquire(1, "chat:1", "a1");
+        assertEquals("a1", nextAdmitted());
+
+        Listener waiting = new Listener("b1");
+        service.acquire(2L, "chat:2", 1, waiting);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (waiting.rejected == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertEquals("排队超时，请稍后重试", waiting.rejected);
+        assertEquals(0, service.queueDepth());
+        assertEquals(1.0, meterRegistry.counter("llm.admission.rejected", "reason", "timeout").count());
+    }
+
+    private class Listener implements LlmAdmissionService.AdmissionListener {
+        private final String label;
+        final List<Integer> positions = new CopyOnWriteArrayList<>();
+        volatile String rejected;
+
+        Listener(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public void onAdmitted() {
+            admitted.add(label);
+        }
+
+        @Override
+        public void onQueued(int position, long estimatedWaitMs) {
+            positions.add(position);
+        }
+
+        @Override
+        public void onRejected(String reason) {
+            rejected = reason;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.aichat.roleplay.service;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.aichat.roleplay.config.WriteBehindConfig;
+import com.aichat.roleplay.mapper.ChatroomMessageMapper;
+import com.aichat.roleplay.mapper.MessageMapper;
+import com.aichat.roleplay.model.Message;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 消息异步写入的溢出文件回放
+ * 回放到一半时停止（关闭中回放批次写入失败），重启后从保存的回放位置继续，每条记录只插入一次，
+ * 失败的回放批次不会再被追加到正在回放的溢出文件末尾
+ */
+class MessageWriteBehindServiceTest {
+
+    private static final int RECORDS = 5;
+
+    @TempDir
+    Path spillDir;
+
+    private WriteBehindConfig config() {
+        WriteBehindConfig config = new WriteBehindConfig();
+        config.setWriterThreads(1);
+        config.setBatchSize(2);
+        config.setLingerMs(0);
+        config.setDurability(WriteBehindConfig.Durability.SPILL);
+        config.setSpillDir(spillDir.toString());
+        config.setRetryBackoffMs(20);
+        config.setMaxRetryBackoffMs(20);
+        config.setMaxRetries(1000);
+        config.setSlowBatchThresholdMs(60_000);
+        return config;
+    }
+
+    private MessageWriteBehindService service(MessageMapper messageMapper) {
+        return new MessageWriteBehindService(config(), messageMapper, mock(ChatroomMessageMapper.class),
+                mock(ConversationCache.class), new SimpleMeterRegistry());
+    }
+
+    private Path spillFile() {
+        return spillDir.resolve("messages-0.spill");
+    }
+
+    private void writeSpillFile() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= RECORDS; i++) {
+            Message message = new Message();
+            message.setChatId(1L);
+            message.setSenderType("user");
+            message.setContent("m" + i);
+            message.setSentAt(LocalDateTime.now());
+            JSONObject line = new JSONObject();
+            line.set("type", "message");
+            line.set("data", JSONUtil.parseObj(message));
+            lines.append(line).append('\n');
+        }
+        Files.writeString(spillFile(), lines.toString(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void restartResumesReplayWithoutDuplicates() throws Exception {
+        writeSpillFile();
+        List<String> inserted = new CopyOnWriteArrayList<>();
+
+        // 第一次运行：第一批写入成功，之后数据库不可用，回放中途关闭
+        MessageMapper failingMapper = mock(MessageMapper.class);
+        CountDownLatch failing = new CountDownLatch(1);
+        List<Integer> calls = new CopyOnWriteArrayList<>();
+        when(failingMapper.insert(anyList())).thenAnswer(invocation -> {
+            calls.add(1);
+            if (calls.size() == 1) {
+                record(inserted, invocation.getArgument(0));
+                return List.of();
+            }
+            failing.countDown();
+            throw new RuntimeException("database unavailable");
+        });
+        MessageWriteBehindService first = service(failingMapper);
+        first.start();
+        assertTrue(failing.await(5, TimeUnit.SECONDS), "等待回放失败超时");
+        first.shutdown();
+
+        assertEquals(List.of("m1", "m2"), inserted);
+        assertEquals(RECORDS, Files.readAllLines(spillFile()).size(), "失败的回放批次不应追加到溢出文件");
+        assertTrue(Files.exists(spillDir.resolve("messages-0.spill.offset")));
+
+        // 重启：从保存的位置继续回放
+        MessageMapper healthyMapper = mock(MessageMapper.class);
+        when(healthyMapper.insert(anyList())).thenAnswer(invocation -> {
+            record(inserted, invocation.getArgument(0));
+            return List.of();
+        });
+        MessageWriteBehindService second = service(healthyMapper);
+        second.start();
+        await(() -> !Files.exists(spillFile()));
+        second.shutdown();
+
+        assertEquals(List.of("m1", "m2", "m3", "m4", "m5"), inserted);
+        assertFalse(Files.exists(spillDir.resolve("messages-0.spill.offset")));
+    }
+
+    private static void record(List<String> inserted, Collection<Message> batch) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : batch) {
+            contents.add(message.getContent());
+        }
+        inserted.addAll(contents);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待条件超时");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.aichat.roleplay.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 熔断器状态切换
+ * CLOSED 按窗口失败率熔断，OPEN 到期进入 HALF_OPEN，探测全部成功恢复、任一失败重新熔断，旧版本许可不再计入
+ */
+class CircuitBreakerTest {
+
+    private final List<String> transitions = new ArrayList<>();
+
+    private CircuitBreaker breaker(long openDurationMs, int halfOpenProbes) {
+        return new CircuitBreaker("test", 4, 4, 0.5, openDurationMs, halfOpenProbes,
+                (name, from, to) -> transitions.add(from + "->" + to));
+    }
+
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.tryAcquire().failure();
+        }
+    }
+
+    private static void succeed(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.tryAcquire().success();
+        }
+    }
+
+    @Test
+    void staysClosedUntilMinimumCalls() {
+        CircuitBreaker breaker = breaker(60_000, 1);
+        fail(breaker, 3);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(3, breaker.bufferedCalls());
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        CircuitBreaker breaker = breaker(60_000, 1);
+        succeed(breaker, 2);
+        fail(breaker, 2);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+        assertFalse(breaker.isCallPermitted());
+        assertTrue(breaker.remainingOpenMs() > 0);
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+    }
+
+    @Test
+    void slidingWindowForgetsOldFailures() {
+        CircuitBreaker breaker = breaker(60_000, 1);
+        succeed(breaker, 3);
+        fail(breaker, 1);
+        succeed(breaker, 4);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.failureRate());
+    }
+
+    @Test
+    void halfOpenClosesAfterAllProbesSucceed() {
+        CircuitBreaker breaker = breaker(0, 2);
+        fail(breaker, 4);
+
+        CircuitBreaker.Permit first = breaker.tryAcquire();
+        CircuitBreaker.Permit second = breaker.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+
+        first.success();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        second.success();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.bufferedCalls());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void halfOpenReopensOnProbeFailure() {
+        CircuitBreaker breaker = breaker(0, 2);
+        fail(breaker, 4);
+        transitions.clear();
+
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        CircuitBreaker.Permit other = breaker.tryAcquire();
+        probe.failure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(List.of("OPEN->HALF_OPEN", "HALF_OPEN->OPEN"), transitions);
+        // 旧半开轮次的探测结果不影响新一轮
+        other.success();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void releaseReturnsProbeSlotWithoutCounting() {
+        CircuitBreaker breaker = breaker(0, 1);
+        fail(breaker, 4);
+
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        assertNull(breaker.tryAcquire());
+        probe.release();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        CircuitBreaker.Permit retry = breaker.tryAcquire();
+        assertNotNull(retry);
+        retry.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void permitRecordsOnlyOnce() {
+        CircuitBreaker breaker = breaker(60_000, 1);
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+
+        assertTrue(permit.failure());
+        assertFalse(permit.failure());
+        assertFalse(permit.success());
+        assertEquals(1, breaker.bufferedCalls());
+    }
+
+    @Test
+    void staleEpochPermitIsIgnored() {
+        CircuitBreaker breaker = breaker(0, 1);
+        CircuitBreaker.Permit stale = breaker.tryAcquire();
+        fail(breaker, 4);
+
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        assertTrue(stale.failure());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        probe.success();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,204 @@
+package com.aichat.roleplay.util;
+
+import dev.ai4j.openai4j.ResponseHandle;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流式对冲请求
+ * 首token截止前到达不对冲；超时后发起对冲，先出token的请求胜出并取消另一个；额度不足时跳过；
+ * 一个请求失败而另一个仍在进行时不向调用方报错；取消对外句柄会取消全部请求
+ */
+class HedgingStreamingChatModelTest {
+
+    private static final long DEADLINE_MS = 50;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FakeUpstream upstream = new FakeUpstream();
+    private final RecordingHandler handler = new RecordingHandler();
+    private HedgingStreamingChatModel model;
+
+    @AfterEach
+    void shutdown() {
+        if (model != null) {
+            model.shutdown();
+        }
+    }
+
+    private ResponseHandle stream(double budgetRatio) {
+        model = new HedgingStreamingChatModel(upstream, DEADLINE_MS, budgetRatio, 10, meterRegistry);
+        List<ChatMessage> messages = List.of(UserMessage.from("你好"));
+        return model.stream(messages, handler);
+    }
+
+    @Test
+    void firstTokenBeforeDeadlineDoesNotHedge() throws InterruptedException {
+        ResponseHandle call = stream(1.0);
+        upstream.call(0).handler.onNext("甲");
+        Thread.sleep(DEADLINE_MS * 3);
+
+        assertEquals(1, upstream.calls.size());
+        assertEquals(1, ((HedgingStreamingChatModel.AttemptCounter) call).launchedAttempts());
+        assertEquals(List.of("甲"), handler.tokens);
+    }
+
+    @Test
+    void hedgeWinsAndCancelsPrimary() {
+        ResponseHandle call = stream(1.0);
+        await(() -> upstream.calls.size() == 2);
+
+        UpstreamCall primary = upstream.call(0);
+        UpstreamCall hedge = upstream.call(1);
+        hedge.handler.onNext("乙");
+        primary.handler.onNext("甲");
+        hedge.handler.onComplete(Response.from(AiMessage.from("乙")));
+
+        assertEquals(List.of("乙"), handler.tokens);
+        assertTrue(handler.completed);
+        assertTrue(primary.handle.cancelled);
+        assertFalse(hedge.handle.cancelled);
+        assertEquals(2, ((HedgingStreamingChatModel.AttemptCounter) call).launchedAttempts());
+        assertEquals(1.0, meterRegistry.counter("llm.hedge.wins", "winner", "hedge").count());
+    }
+
+    @Test
+    void skipsHedgeWhenBudgetExhausted() {
+        ResponseHandle call = stream(0);
+        await(() -> meterRegistry.counter("llm.hedge.skipped", "reason", "budget").count() == 1.0);
+
+        assertEquals(1, upstream.calls.size());
+        assertEquals(1, ((HedgingStreamingChatModel.AttemptCounter) call).launchedAttempts());
+    }
+
+    @Test
+    void errorWaitsForLiveAttempt() {
+        stream(1.0);
+        await(() -> upstream.calls.size() == 2);
+
+        upstream.call(0).handler.onError(new RuntimeException("upstream 500"));
+        assertNull(handler.error);
+
+        upstream.call(1).handler.onNext("乙");
+        upstream.call(1).handler.onComplete(Response.from(AiMessage.from("乙")));
+        assertNull(handler.error);
+        assertEquals(List.of("乙"), handler.tokens);
+        assertTrue(handler.completed);
+    }
+
+    @Test
+    void errorForwardedWhenAllAttemptsFailed() {
+        stream(1.0);
+        await(() -> upstream.calls.size() == 2);
+
+        upstream.call(0).handler.onError(new RuntimeException("primary"));
+        upstream.call(1).handler.onError(new RuntimeException("hedge"));
+
+        assertEquals("hedge", handler.error.getMessage());
+    }
+
+    @Test
+    void cancelStopsAllAttemptsAndDeadline() throws InterruptedException {
+        ResponseHandle call = stream(1.0);
+        call.cancel();
+        Thread.sleep(DEADLINE_MS * 3);
+
+        assertEquals(1, upstream.calls.size());
+        assertTrue(upstream.call(0).handle.cancelled);
+        upstream.call(0).handler.onNext("甲");
+        assertTrue(handler.tokens.isEmpty());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待条件超时");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static class UpstreamCall {
+        final StreamingResponseHandler<AiMessage> handler;
+        final TrackingHandle handle = new TrackingHandle();
+
+        UpstreamCall(StreamingResponseHandler<AiMessage> handler) {
+            this.handler = handler;
+        }
+    }
+
+    private static class TrackingHandle extends ResponseHandle {
+        volatile boolean cancelled;
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            cancelled = true;
+        }
+    }
+
+    /**
+     * 记录每次上游请求，由测试手动驱动事件
+     */
+    private static class FakeUpstream implements CancellableStreaming {
+        final List<UpstreamCall> calls = new CopyOnWriteArrayList<>();
+
+        UpstreamCall call(int index) {
+            return calls.get(index);
+        }
+
+        @Override
+        public ResponseHandle stream(List<ChatMessage> messages, Integer maxTokens,
+                                     StreamingResponseHandler<AiMessage> handler) {
+            UpstreamCall call = new UpstreamCall(handler);
+            calls.add(call);
+            return call.handle;
+        }
+
+        @Override
+        public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+            stream(messages, handler);
+        }
+    }
+
+    private static class RecordingHandler implements StreamingResponseHandler<AiMessage> {
+        final List<String> tokens = new CopyOnWriteArrayList<>();
+        volatile boolean completed;
+        volatile Throwable error;
+
+        @Override
+        public void onNext(String token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public void onComplete(Response<AiMessage> response) {
+            completed = true;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.aichat.roleplay.util;
+
+import com.aichat.roleplay.config.LlmRouterConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * 多端点LLM路由
+ * 连续失败、错误率和首token延迟偏离时摘除端点，同时摘除的比例受上限约束，到期后恢复；
+ * 可用端点满载时临时使用被摘除的端点；流式和同步名额分开计数，同步名额归还时唤醒等待者
+ */
+class LlmEndpointRouterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LlmRouterConfig config = new LlmRouterConfig();
+
+    private LlmEndpointRouter router(int count, int maxConcurrent, int maxConcurrentSync) {
+        List<LlmEndpointRouter.Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CancellableStreamingChatModel model = new CancellableStreamingChatModel(
+                    "http://127.0.0.1:1/v1", "test", "model-" + i, 0.7, null, Duration.ofSeconds(1));
+            endpoints.add(new LlmEndpointRouter.Endpoint("e" + i, 1, maxConcurrent, maxConcurrentSync, model, null));
+        }
+        return new LlmEndpointRouter(config, meterRegistry, endpoints);
+    }
+
+    private double ejected(String name) {
+        return meterRegistry.get("llm.router.ejected").tag("endpoint", name).gauge().value();
+    }
+
+    private static void fail(LlmEndpointRouter router, LlmEndpointRouter.Endpoint endpoint, int times) {
+        for (int i = 0; i < times; i++) {
+            router.recordOutcome(endpoint, false);
+        }
+    }
+
+    @Test
+    void ejectsAfterConsecutiveFailures() {
+        LlmEndpointRouter router = router(2, 10, 5);
+        LlmEndpointRouter.Endpoint first = router.getEndpoints().get(0);
+
+        fail(router, first, config.getEjectConsecutiveFailures() - 1);
+        assertEquals(0.0, ejected("e0"));
+        fail(router, first, 1);
+
+        assertEquals(1.0, ejected("e0"));
+        assertEquals(1.0, meterRegistry.counter("llm.router.ejections",
+                "endpoint", "e0", "reason", "consecutive_failures").count());
+        for (int i = 0; i < 20; i++) {
+            LlmEndpointRouter.Endpoint chosen = router.acquire(true);
+            assertNotSame(first, chosen);
+            router.release(chosen, true);
+        }
+    }
+
+    @Test
+    void successResetsConsecutiveFailures() {
+        LlmEndpointRouter router = router(2, 10, 5);
+        LlmEndpointRouter.Endpoint first = router.getEndpoints().get(0);
+
+        fail(router, first, config.getEjectConsecutiveFailures() - 1);
+        router.recordOutcome(first, true);
+        fail(router, first, config.getEjectConsecutiveFailures() - 1);
+
+        assertEquals(0.0, ejected("e0"));
+    }
+
+    @Test
+    void ejectionCapKeepsHalfOfEndpoints() {
+        LlmEndpointRouter router = router(4, 10, 5);
+        for (LlmEndpointRouter.Endpoint endpoint : router.getEndpoints()) {
+            fail(router, endpoint, config.getEjectConsecutiveFailures());
+        }
+
+        double total = 0;
+        for (int i = 0; i < 4; i++) {
+            total += ejected("e" + i);
+        }
+        assertEquals(2.0, total);
+    }
+
+    @Test
+    void singleEndpointIsNeverEjected() {
+        LlmEndpointRouter router = router(1, 10, 5);
+        fail(router, router.getEndpoints().get(0), config.getEjectConsecutiveFailures() * 2);
+
+        assertEquals(0.0, ejected("e0"));
+    }
+
+    @Test
+    void ejectsLatencyOutlier() {
+        LlmEndpointRouter router = router(3, 10, 5);
+        LlmEndpointRouter.Endpoint slow = router.getEndpoints().get(0);
+        for (int i = 0; i < config.getEjectMinRequests(); i++) {
+            router.recordFirstToken(slow, 60_000);
+            router.recordOutcome(slow, true);
+        }
+
+        assertEquals(1.0, ejected("e0"));
+        assertEquals(1.0, meterRegistry.counter("llm.router.ejections",
+                "endpoint", "e0", "reason", "latency_outlier").count());
+    }
+
+    @Test
+    void reinstatesAfterEjectionPeriod() throws InterruptedException {
+        config.setEjectionMs(50);
+        LlmEndpointRouter router = router(2, 10, 5);
+        fail(router, router.getEndpoints().get(0), config.getEjectConsecutiveFailures());
+        assertEquals(1.0, ejected("e0"));
+
+        Thread.sleep(100);
+        router.release(router.acquire(true), true);
+
+        assertEquals(0.0, ejected("e0"));
+    }
+
+    @Test
+    void fallsBackToEjectedEndpointWhenHealthyFull() {
+        LlmEndpointRouter router = router(2, 1, 1);
+        LlmEndpointRouter.Endpoint first = router.getEndpoints().get(0);
+        LlmEndpointRouter.Endpoint second = router.getEndpoints().get(1);
+        fail(router, first, config.getEjectConsecutiveFailures());
+
+        assertSame(second, router.acquire(true));
+        assertSame(first, router.acquire(true));
+        assertNull(router.acquire(true));
+        assertEquals(1.0, meterRegistry.counter("llm.router.unavailable", "kind", "streaming").count());
+    }
+
+    @Test
+    void syncSlotsAreSeparateFromStreaming() {
+        config.setSyncAcquireTimeoutMs(0);
+        LlmEndpointRouter router = router(1, 1, 1);
+
+        LlmEndpointRouter.Endpoint streaming = router.acquire(true);
+        assertNotNull(streaming);
+        assertNull(router.acquire(true));
+
+        LlmEndpointRouter.Endpoint sync = router.acquire(false);
+        assertNotNull(sync);
+        assertNull(router.acquire(false));
+        assertEquals(1, sync.getSyncInFlight());
+        assertEquals(1, streaming.getInFlight());
+    }
+
+    @Test
+    void syncAcquireWaitsForReleasedSlot() throws Exception {
+        config.setSyncAcquireTimeoutMs(2000);
+        LlmEndpointRouter router = router(1, 1, 1);
+        LlmEndpointRouter.Endpoint held = router.acquire(false);
+
+        CompletableFuture<LlmEndpointRouter.Endpoint> waiter = CompletableFuture.supplyAsync(() -> router.acquire(false));
+        Thread.sleep(50);
+        router.release(held, false);
+
+        assertSame(held, waiter.get(2, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.get("llm.router.sync_wait").tag("acquired", "true").timer().count());
+    }
+}
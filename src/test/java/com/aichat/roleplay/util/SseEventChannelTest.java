@@ -0,0 +1,247 @@
+package com.aichat.roleplay.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * SSE出站事件通道
+ * 事件按入队顺序由写线程写出，单次写出任务受批量上限约束；合并窗口到期的刷出也在写线程上执行；
+ * 结束或断开后的事件丢弃，关闭回调只触发一次
+ */
+class SseEventChannelTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Counter dropped = meterRegistry.counter("sse.channel.dropped");
+    private final RecordingSink sink = new RecordingSink();
+    private final ManualExecutor executor = new ManualExecutor();
+    private final AtomicLong endpointDepth = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SseEmitter emitter = mock(SseEmitter.class);
+    private final List<SseEventChannel.State> closed = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private SseEventChannel channel(long flushIntervalMs, int maxBatch, Executor drainExecutor) {
+        CoalescingSseWriter writer = new CoalescingSseWriter(sink,
+                chunks -> chunks.stream().map(c -> c.getKey() + ":" + c.getText()).collect(Collectors.joining("|")),
+                scheduler, flushIntervalMs, 1024,
+                meterRegistry.counter("sse.tokens"), meterRegistry.counter("sse.frames"));
+        SseEventChannel channel = new SseEventChannel(emitter, writer, drainExecutor, maxBatch, endpointDepth,
+                meterRegistry.timer("sse.channel.lag"), dropped);
+        channel.onClosed(closed::add);
+        return channel;
+    }
+
+    @Test
+    void writesEventsInEnqueueOrder() {
+        SseEventChannel channel = channel(10_000, 64, executor);
+        channel.publishToken(1, "甲", "你");
+        channel.publishToken(2, "乙", "好");
+        channel.publishToken(1, "甲", "们");
+        channel.publish("status");
+        channel.publishToken(2, "乙", "呀");
+        channel.complete();
+        assertEquals(6, channel.getQueueDepth());
+
+        executor.runAll();
+
+        assertEquals(List.of("1:你们|2:好", "status", "2:呀", "<complete>"), sink.frames);
+        assertEquals(SseEventChannel.State.COMPLETED, channel.getState());
+        assertEquals(List.of(SseEventChannel.State.COMPLETED), closed);
+        assertEquals(0, channel.getQueueDepth());
+        assertEquals(0, endpointDepth.get());
+    }
+
+    @Test
+    void drainTaskIsBoundedByMaxBatch() {
+        SseEventChannel channel = channel(0, 2, executor);
+        for (int i = 0; i < 5; i++) {
+            channel.publish("f" + i);
+        }
+        assertEquals(1, executor.tasks.size());
+
+        executor.runOne();
+        assertEquals(List.of("f0", "f1"), sink.frames);
+        assertEquals(3, channel.getQueueDepth());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(List.of("f0", "f1", "f2", "f3", "f4"), sink.frames);
+    }
+
+    @Test
+    void windowFlushRunsOnDrainThread() throws InterruptedException {
+        SseEventChannel channel = channel(20, 64, executor);
+        channel.publishToken(1, "甲", "你好");
+        executor.runAll();
+        assertTrue(sink.frames.isEmpty());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (executor.tasks.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // 窗口到期只投递刷出事件，写出由写线程完成
+        assertTrue(sink.frames.isEmpty());
+        executor.runAll();
+        assertEquals(List.of("1:你好"), sink.frames);
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    void eventsAfterCompleteAreDropped() {
+        SseEventChannel channel = channel(0, 64, executor);
+        channel.complete();
+
+        assertFalse(channel.publish("late"));
+        assertFalse(channel.publishToken(1, "甲", "晚"));
+        executor.runAll();
+
+        assertEquals(List.of("<complete>"), sink.frames);
+        assertEquals(2.0, dropped.count());
+        channel.complete();
+        channel.completeWithError(new RuntimeException("ignored"));
+        executor.runAll();
+        assertEquals(List.of(SseEventChannel.State.COMPLETED), closed);
+    }
+
+    @Test
+    void completeWithErrorDiscardsBufferedTokens() {
+        SseEventChannel channel = channel(10_000, 64, executor);
+        channel.publishToken(1, "甲", "半句");
+        channel.completeWithError(new RuntimeException("upstream"));
+        executor.runAll();
+
+        assertEquals(List.of("<error:upstream>"), sink.frames);
+        assertEquals(SseEventChannel.State.FAILED, channel.getState());
+        assertEquals(List.of(SseEventChannel.State.FAILED), closed);
+    }
+
+    @Test
+    void writeFailureDisconnectsAndDropsRemaining() {
+        SseEventChannel channel = channel(0, 64, executor);
+        sink.failWrites = true;
+        channel.publish("a");
+        channel.publish("b");
+        executor.runAll();
+
+        assertEquals(SseEventChannel.State.DISCONNECTED, channel.getState());
+        assertEquals(List.of(SseEventChannel.State.DISCONNECTED), closed);
+        assertEquals(1.0, dropped.count());
+        assertFalse(channel.publish("c"));
+    }
+
+    @Test
+    void emitterCallbacksCloseChannelOnce() {
+        SseEventChannel channel = channel(0, 64, executor);
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        ArgumentCaptor<Runnable> completion = ArgumentCaptor.forClass(Runnable.class);
+        verify(emitter).onTimeout(timeout.capture());
+        verify(emitter).onCompletion(completion.capture());
+
+        timeout.getValue().run();
+        completion.getValue().run();
+
+        assertEquals(SseEventChannel.State.TIMED_OUT, channel.getState());
+        assertEquals(List.of(SseEventChannel.State.TIMED_OUT), closed);
+        verify(emitter).complete();
+        assertFalse(channel.publish("late"));
+    }
+
+    @Test
+    void rejectedDrainDiscardsQueued() {
+        SseEventChannel channel = channel(0, 64, task -> {
+            throw new RejectedExecutionException("shutdown");
+        });
+        channel.publish("a");
+
+        assertEquals(0, channel.getQueueDepth());
+        assertEquals(0, endpointDepth.get());
+        assertEquals(1.0, dropped.count());
+        assertTrue(sink.frames.isEmpty());
+    }
+
+    /**
+     * 手动执行的写线程池，测试决定何时运行写出任务
+     */
+    private static class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.addLast(command);
+        }
+
+        void runOne() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.pollFirst();
+            }
+            if (task != null) {
+                task.run();
+            }
+        }
+
+        void runAll() {
+            while (true) {
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        return;
+                    }
+                }
+                runOne();
+            }
+        }
+    }
+
+    private static class RecordingSink implements CoalescingSseWriter.FrameSink {
+        final List<String> frames = new CopyOnWriteArrayList<>();
+        volatile boolean failWrites;
+
+        @Override
+        public void send(String data) throws IOException {
+            if (failWrites) {
+                throw new IOException("Broken pipe");
+            }
+            frames.add(data);
+        }
+
+        @Override
+        public void complete() {
+            frames.add("<complete>");
+        }
+
+        @Override
+        public void completeWithError(Throwable error) {
+            frames.add("<error:" + error.getMessage() + ">");
+        }
+
+        @Override
+        public SseEmitter getEmitter() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+-- 压测使用的角色数据；用户、会话和聊天室由压测用例按并发数创建
+
+INSERT INTO roles (name, description, character_prompt, category, is_public)
+VALUES ('智能助手', '通用的AI助手，可以回答各种问题并提供帮助',
+        '你是一个友善、专业的助手。你会耐心地回答用户的问题，提供准确的信息和有用的建议。', 'general', 1),
+       ('心理咨询师', '专业的心理健康咨询师，提供情感支持和心理建议',
+        '你是一位经验丰富的心理咨询师，善于倾听，具有同理心。', 'health', 1),
+       ('编程导师', '专业的编程教师，帮助学习各种编程知识',
+        '你是一位资深的编程导师，能够用简单易懂的方式解释复杂的编程概念。', 'education', 1);
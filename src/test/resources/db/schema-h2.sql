@@ -0,0 +1,125 @@
+-- 压测/离线测试使用的H2（MySQL模式）表结构，字段与实体映射一致
+
+CREATE TABLE IF NOT EXISTS users (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    username VARCHAR(50) NOT NULL,
+    password VARCHAR(255) NOT NULL,
+    email VARCHAR(100) NOT NULL,
+    avatar VARCHAR(500) DEFAULT NULL,
+    active TINYINT(1) DEFAULT 1,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    deleted TINYINT(1) DEFAULT 0,
+    UNIQUE KEY uk_username (username),
+    UNIQUE KEY uk_email (email)
+);
+
+CREATE TABLE IF NOT EXISTS roles (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    description TEXT,
+    character_prompt TEXT NOT NULL,
+    avatar VARCHAR(500) DEFAULT NULL,
+    category VARCHAR(50) DEFAULT 'general',
+    is_public TINYINT(1) DEFAULT 1,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    deleted TINYINT(1) DEFAULT 0,
+    UNIQUE KEY uk_name (name)
+);
+
+CREATE TABLE IF NOT EXISTS chats (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    role_id BIGINT NOT NULL,
+    title VARCHAR(200) DEFAULT '新的对话',
+    is_active TINYINT(1) DEFAULT 1,
+    summary TEXT,
+    summary_message_id BIGINT,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    deleted TINYINT(1) DEFAULT 0,
+    KEY idx_user_id (user_id)
+);
+
+CREATE TABLE IF NOT EXISTS messages (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    chat_id BIGINT NOT NULL,
+    role_id BIGINT,
+    sender_type VARCHAR(20) NOT NULL,
+    content TEXT NOT NULL,
+    message_type VARCHAR(20) DEFAULT 'text',
+    audio_url VARCHAR(500) DEFAULT NULL,
+    audio_duration INT,
+    transcribed_text TEXT,
+    is_read TINYINT(1) DEFAULT 0,
+    sent_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    deleted TINYINT(1) DEFAULT 0,
+    KEY idx_chat_id (chat_id)
+);
+
+CREATE TABLE IF NOT EXISTS chatroom (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    chat_room_id BIGINT NOT NULL,
+    user_id BIGINT NOT NULL,
+    role_id BIGINT,
+    title VARCHAR(200),
+    description TEXT,
+    join_order INT DEFAULT 0,
+    is_active TINYINT(1) DEFAULT 1,
+    created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+    deleted TINYINT(1) DEFAULT 0,
+    KEY idx_chat_room_id (chat_room_id)
+);
+
+CREATE TABLE IF NOT EXISTS chatroom_messages (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    chat_room_id BIGINT NOT NULL,
+    role_id BIGINT,
+    user_id BIGINT,
+    sender_type VARCHAR(20) NOT NULL,
+    content TEXT NOT NULL,
+    message_type VARCHAR(20) DEFAULT 'text',
+    audio_url VARCHAR(500),
+    audio_duration INT,
+    transcribed_text TEXT,
+    sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    is_read BOOLEAN DEFAULT FALSE,
+    deleted TINYINT DEFAULT 0,
+    create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    KEY idx_chatroom_messages_room (chat_room_id)
+);
+
+CREATE TABLE IF NOT EXISTS reflection_logs (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    chat_id BIGINT NOT NULL,
+    role_id BIGINT NOT NULL,
+    user_id BIGINT,
+    original_query TEXT NOT NULL,
+    ai_response TEXT NOT NULL,
+    action_type VARCHAR(20) NOT NULL,
+    retry_count INT DEFAULT 0,
+    regenerated_query TEXT,
+    final_output TEXT,
+    detected_issue VARCHAR(500),
+    reason_analysis TEXT,
+    error_message TEXT,
+    processing_time BIGINT,
+    create_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS token_usage (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id BIGINT NOT NULL DEFAULT 0,
+    role_id BIGINT NOT NULL DEFAULT 0,
+    source VARCHAR(32) NOT NULL,
+    usage_date DATE NOT NULL,
+    prompt_tokens BIGINT NOT NULL DEFAULT 0,
+    completion_tokens BIGINT NOT NULL DEFAULT 0,
+    request_count BIGINT NOT NULL DEFAULT 0,
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_user_role_source_date (user_id, role_id, source, usage_date)
+);